@@ -0,0 +1,162 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.http.CompressionCodec;
+import org.eclipse.jetty.http.CompressionDecoderPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+
+/**
+ * <p>{@link ContentDecoder} for the content encoding of a {@link CompressionCodec},
+ * such as {@code br} or {@code zstd}.</p>
+ * <p>The codec decoder is taken from a {@link CompressionDecoderPool} when the first
+ * bytes are decoded, and returned to it at the end of the compressed content.</p>
+ * <p>Decoded bytes are returned in chunks of at most the buffer size, so that
+ * the memory used does not depend on the compression ratio of the content.</p>
+ */
+public class CompressionContentDecoder implements ContentDecoder
+{
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final CompressionDecoderPool pool;
+    private final ByteBufferPool byteBufferPool;
+    private final int bufferSize;
+    private CompressionCodec.Decoder decoder;
+    private boolean finished;
+
+    public CompressionContentDecoder(CompressionDecoderPool pool, ByteBufferPool byteBufferPool, int bufferSize)
+    {
+        this.pool = pool;
+        this.byteBufferPool = byteBufferPool;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public ByteBuffer decode(ByteBuffer buffer)
+    {
+        if (finished)
+        {
+            buffer.position(buffer.limit());
+            return BufferUtil.EMPTY_BUFFER;
+        }
+
+        if (decoder == null)
+            decoder = pool.acquire();
+
+        // Decode at most one buffer of bytes: if more are pending in the decoder,
+        // they are returned by the following calls, so that the memory used to
+        // decode a small but highly compressed content is bounded.
+        ByteBuffer decoded = acquire(bufferSize);
+        try
+        {
+            int pos = BufferUtil.flipToFill(decoded);
+            try
+            {
+                while (decoded.hasRemaining())
+                {
+                    int encodedBytes = buffer.remaining();
+                    int space = decoded.remaining();
+                    finished = decoder.decode(buffer, decoded);
+                    if (finished)
+                        break;
+                    // Stop when the decoder needs more encoded bytes.
+                    if (buffer.remaining() == encodedBytes && decoded.remaining() == space)
+                        break;
+                }
+            }
+            finally
+            {
+                BufferUtil.flipToFlush(decoded, pos);
+            }
+
+            if (finished)
+            {
+                pool.release(decoder);
+                decoder = null;
+                buffer.position(buffer.limit());
+            }
+
+            if (decoded.hasRemaining())
+                return decoded;
+            release(decoded);
+            return BufferUtil.EMPTY_BUFFER;
+        }
+        catch (IOException x)
+        {
+            release(decoded);
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    private ByteBuffer acquire(int capacity)
+    {
+        return byteBufferPool == null ? BufferUtil.allocate(capacity) : byteBufferPool.acquire(capacity, false);
+    }
+
+    @Override
+    public void release(ByteBuffer decoded)
+    {
+        if (byteBufferPool != null && decoded != BufferUtil.EMPTY_BUFFER)
+            byteBufferPool.release(decoded);
+    }
+
+    /**
+     * Specialized {@link ContentDecoder.Factory} for the encoding of a {@link CompressionCodec}.
+     */
+    public static class Factory extends ContentDecoder.Factory
+    {
+        private final CompressionDecoderPool pool;
+        private final ByteBufferPool byteBufferPool;
+        private final int bufferSize;
+
+        public Factory(CompressionCodec codec, ByteBufferPool byteBufferPool)
+        {
+            this(new CompressionDecoderPool(codec, CompressionDecoderPool.INFINITE_CAPACITY), byteBufferPool, DEFAULT_BUFFER_SIZE);
+        }
+
+        /**
+         * @param pool the pool of codec decoders, which must be started for them to be pooled
+         * @param byteBufferPool the pool of buffers for decoded bytes, or null to allocate them
+         * @param bufferSize the size of the buffers for decoded bytes, which bounds the decoded chunks
+         */
+        public Factory(CompressionDecoderPool pool, ByteBufferPool byteBufferPool, int bufferSize)
+        {
+            super(pool.getCodec().getEncoding());
+            this.pool = pool;
+            this.byteBufferPool = byteBufferPool;
+            this.bufferSize = bufferSize;
+        }
+
+        public CompressionDecoderPool getDecoderPool()
+        {
+            return pool;
+        }
+
+        @Override
+        public ContentDecoder newContentDecoder()
+        {
+            return new CompressionContentDecoder(pool, byteBufferPool, bufferSize);
+        }
+    }
+}
@@ -54,6 +54,8 @@ import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
 import org.eclipse.jetty.client.util.FormContentProvider;
+import org.eclipse.jetty.http.CompressionCodec;
+import org.eclipse.jetty.http.CompressionDecoderPool;
 import org.eclipse.jetty.http.HttpCompliance;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpHeader;
@@ -218,6 +220,12 @@ public class HttpClient extends ContainerLifeCycle
         handlers.put(new ProxyAuthenticationProtocolHandler(this));
 
         decoderFactories.add(new GZIPContentDecoder.Factory(byteBufferPool));
+        for (CompressionCodec codec : CompressionCodec.loadCodecs())
+        {
+            CompressionDecoderPool pool = new CompressionDecoderPool(codec, CompressionDecoderPool.INFINITE_CAPACITY);
+            pool.start();
+            decoderFactories.add(new CompressionContentDecoder.Factory(pool, byteBufferPool, CompressionContentDecoder.DEFAULT_BUFFER_SIZE));
+        }
 
         cookieManager = newCookieManager();
         cookieStore = cookieManager.getCookieStore();
@@ -234,6 +242,11 @@ public class HttpClient extends ContainerLifeCycle
     @Override
     protected void doStop() throws Exception
     {
+        for (ContentDecoder.Factory factory : decoderFactories)
+        {
+            if (factory instanceof CompressionContentDecoder.Factory)
+                ((CompressionContentDecoder.Factory)factory).getDecoderPool().stop();
+        }
         decoderFactories.clear();
         handlers.clear();
 
@@ -21,27 +21,33 @@ package org.eclipse.jetty.client;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.GZIPOutputStream;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.CompressionDecoderPool;
+import org.eclipse.jetty.http.DeflateCompressionCodec;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.MappedByteBufferPool;
 import org.eclipse.jetty.server.Request;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ArgumentsSource;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -75,6 +81,64 @@ public class HttpClientGZIPTest extends AbstractHttpClientServerTest
         assertArrayEquals(data, response.getContent());
     }
 
+    @ParameterizedTest
+    @ArgumentsSource(ScenarioProvider.class)
+    public void testCompressionCodecContentEncoding(Scenario scenario) throws Exception
+    {
+        byte[] data = new byte[64 * 1024];
+        for (int i = 0; i < data.length; i++)
+        {
+            data[i] = (byte)(i % 7);
+        }
+        start(scenario, new EmptyServerHandler()
+        {
+            @Override
+            protected void service(String target, Request jettyRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+            {
+                response.setHeader("Content-Encoding", "deflate");
+                DeflaterOutputStream deflateOutput = new DeflaterOutputStream(response.getOutputStream());
+                deflateOutput.write(data);
+                deflateOutput.finish();
+            }
+        });
+        client.getContentDecoderFactories().add(new CompressionContentDecoder.Factory(new DeflateCompressionCodec(), client.getByteBufferPool()));
+
+        ContentResponse response = client.newRequest("localhost", connector.getLocalPort())
+            .scheme(scenario.getScheme())
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+
+        assertEquals(200, response.getStatus());
+        assertArrayEquals(data, response.getContent());
+    }
+
+    @Test
+    public void testCompressionContentDecoderBoundsDecodedChunks() throws Exception
+    {
+        // A small content that expands a thousand times.
+        byte[] data = new byte[1024 * 1024];
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflateOutput = new DeflaterOutputStream(encoded))
+        {
+            deflateOutput.write(data);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(encoded.toByteArray());
+
+        int bufferSize = 1024;
+        CompressionDecoderPool pool = new CompressionDecoderPool(new DeflateCompressionCodec(), CompressionDecoderPool.INFINITE_CAPACITY);
+        ContentDecoder decoder = new CompressionContentDecoder.Factory(pool, null, bufferSize).newContentDecoder();
+        long decoded = 0;
+        while (true)
+        {
+            ByteBuffer chunk = decoder.decode(buffer);
+            if (!chunk.hasRemaining() && !buffer.hasRemaining())
+                break;
+            assertThat(chunk.capacity(), lessThanOrEqualTo(bufferSize));
+            decoded += chunk.remaining();
+        }
+        assertEquals(data.length, decoded);
+    }
+
     @ParameterizedTest
     @ArgumentsSource(ScenarioProvider.class)
     public void testGZIPContentOneByteAtATime(Scenario scenario) throws Exception
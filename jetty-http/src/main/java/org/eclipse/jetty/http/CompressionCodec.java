@@ -0,0 +1,168 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceLoader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A compression algorithm for an HTTP content coding, such as {@code br} or {@code zstd}.</p>
+ * <p>Codecs are used by the server to compress responses, negotiated with the
+ * {@code Accept-Encoding} request header, and by the client to decode responses with a
+ * matching {@code Content-Encoding}. Implementations, which typically wrap a native
+ * library, are discovered with the {@link ServiceLoader}, see {@link #loadCodecs()}.</p>
+ * <p>{@link Encoder}s and {@link Decoder}s are not thread safe, may hold native resources
+ * until {@link Encoder#end() ended}, and may be pooled with a {@link CompressionEncoderPool}
+ * or a {@link CompressionDecoderPool}.</p>
+ *
+ * @see DeflateCompressionCodec
+ */
+public interface CompressionCodec
+{
+    /**
+     * @return the name of the content coding, as used in the {@code Content-Encoding} header
+     */
+    String getEncoding();
+
+    /**
+     * @return the compressed content format of this codec
+     */
+    CompressedContentFormat getFormat();
+
+    /**
+     * @return the compression level used when none is configured
+     */
+    int getDefaultLevel();
+
+    /**
+     * @param level the compression level, or -1 for the default level
+     * @return a new encoder
+     */
+    Encoder newEncoder(int level);
+
+    /**
+     * @return a new decoder
+     */
+    Decoder newDecoder();
+
+    /**
+     * @return the codecs discovered with the {@link ServiceLoader}
+     */
+    static List<CompressionCodec> loadCodecs()
+    {
+        List<CompressionCodec> codecs = new ArrayList<>();
+        Iterator<CompressionCodec> iterator = ServiceLoader.load(CompressionCodec.class).iterator();
+        while (true)
+        {
+            try
+            {
+                if (!iterator.hasNext())
+                    break;
+                codecs.add(iterator.next());
+            }
+            catch (Throwable x)
+            {
+                Logger log = LoggerFactory.getLogger(CompressionCodec.class);
+                log.warn("Unable to load CompressionCodec", x);
+            }
+        }
+        return codecs;
+    }
+
+    /**
+     * How much of the compressed content must be produced by {@link Encoder#encode(ByteBuffer, ByteBuffer, Flush)}.
+     */
+    enum Flush
+    {
+        /**
+         * Compressed bytes may be held back to improve the compression.
+         */
+        NONE,
+        /**
+         * All the input is compressed and output, so that it can be decoded.
+         */
+        SYNC,
+        /**
+         * All the input is compressed and output, followed by the end of the compressed stream.
+         */
+        FINISH
+    }
+
+    /**
+     * A streaming compressor.
+     */
+    interface Encoder
+    {
+        /**
+         * <p>Compresses bytes from the input into the output.</p>
+         * <p>This method must be called again with more space in the output until it returns true.</p>
+         *
+         * @param input the bytes to compress, which are consumed as they are compressed
+         * @param output the buffer, in fill mode, to write the compressed bytes to
+         * @param flush how much of the compressed content must be output
+         * @return true if the input is consumed and the compressed content required by flush is all output,
+         * false if the output is full
+         * @throws IOException if the bytes cannot be compressed
+         */
+        boolean encode(ByteBuffer input, ByteBuffer output, Flush flush) throws IOException;
+
+        /**
+         * Resets the encoder, so that it can compress a new stream.
+         */
+        void reset();
+
+        /**
+         * Releases the resources of the encoder, which cannot be used afterwards.
+         */
+        void end();
+    }
+
+    /**
+     * A streaming decompressor.
+     */
+    interface Decoder
+    {
+        /**
+         * <p>Decompresses bytes from the input into the output.</p>
+         *
+         * @param input the bytes to decompress, which are consumed as they are decompressed
+         * @param output the buffer, in fill mode, to write the decompressed bytes to
+         * @return true if the end of the compressed stream has been decoded
+         * @throws IOException if the compressed bytes are invalid
+         */
+        boolean decode(ByteBuffer input, ByteBuffer output) throws IOException;
+
+        /**
+         * Resets the decoder, so that it can decompress a new stream.
+         */
+        void reset();
+
+        /**
+         * Releases the resources of the decoder, which cannot be used afterwards.
+         */
+        void end();
+    }
+}
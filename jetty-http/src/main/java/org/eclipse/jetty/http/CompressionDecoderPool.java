@@ -0,0 +1,65 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import org.eclipse.jetty.util.compression.CompressionPool;
+
+public class CompressionDecoderPool extends CompressionPool<CompressionCodec.Decoder>
+{
+    private final CompressionCodec codec;
+
+    /**
+     * Create a Pool of {@link CompressionCodec.Decoder} instances.
+     * <p>
+     * If given a capacity equal to zero the Decoders will not be pooled
+     * and will be created on acquire and ended on release.
+     * If given a negative capacity there will be no size restrictions on the pool
+     *
+     * @param codec the codec of the Decoders
+     * @param capacity maximum number of Decoders which can be contained in the pool
+     */
+    public CompressionDecoderPool(CompressionCodec codec, int capacity)
+    {
+        super(capacity);
+        this.codec = codec;
+    }
+
+    public CompressionCodec getCodec()
+    {
+        return codec;
+    }
+
+    @Override
+    protected CompressionCodec.Decoder newObject()
+    {
+        return codec.newDecoder();
+    }
+
+    @Override
+    protected void end(CompressionCodec.Decoder decoder)
+    {
+        decoder.end();
+    }
+
+    @Override
+    protected void reset(CompressionCodec.Decoder decoder)
+    {
+        decoder.reset();
+    }
+}
@@ -0,0 +1,146 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>A {@link CompressionCodec} for the {@code deflate} content coding, which is the
+ * zlib format of RFC 1950, implemented with the JDK {@link Deflater} and {@link Inflater}.</p>
+ * <p>This codec is not discovered by {@link CompressionCodec#loadCodecs()}, but may be
+ * configured explicitly where a codec is expected.</p>
+ */
+public class DeflateCompressionCodec implements CompressionCodec
+{
+    public static final String DEFLATE = "deflate";
+
+    private static final CompressedContentFormat FORMAT = new CompressedContentFormat(DEFLATE, ".zz");
+
+    @Override
+    public String getEncoding()
+    {
+        return DEFLATE;
+    }
+
+    @Override
+    public CompressedContentFormat getFormat()
+    {
+        return FORMAT;
+    }
+
+    @Override
+    public int getDefaultLevel()
+    {
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    @Override
+    public Encoder newEncoder(int level)
+    {
+        Deflater deflater = new Deflater(level < 0 ? getDefaultLevel() : level);
+        return new Encoder()
+        {
+            @Override
+            public boolean encode(ByteBuffer input, ByteBuffer output, Flush flush)
+            {
+                // Always set the input, so that a previous input buffer is not referenced.
+                deflater.setInput(input);
+                if (flush == Flush.FINISH)
+                    deflater.finish();
+                deflater.deflate(output, flush == Flush.SYNC ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH);
+                if (flush == Flush.FINISH)
+                    return deflater.finished();
+                return output.hasRemaining();
+            }
+
+            @Override
+            public void reset()
+            {
+                deflater.reset();
+            }
+
+            @Override
+            public void end()
+            {
+                deflater.end();
+            }
+
+            @Override
+            public String toString()
+            {
+                return String.format("%s@%x[%s]", DeflateCompressionCodec.class.getSimpleName(), hashCode(), deflater);
+            }
+        };
+    }
+
+    @Override
+    public Decoder newDecoder()
+    {
+        Inflater inflater = new Inflater();
+        return new Decoder()
+        {
+            @Override
+            public boolean decode(ByteBuffer input, ByteBuffer output) throws ZipException
+            {
+                try
+                {
+                    inflater.setInput(input);
+                    inflater.inflate(output);
+                    if (inflater.needsDictionary())
+                        throw new ZipException("Dictionary required");
+                    return inflater.finished();
+                }
+                catch (DataFormatException x)
+                {
+                    ZipException failure = new ZipException(x.getMessage());
+                    failure.initCause(x);
+                    throw failure;
+                }
+            }
+
+            @Override
+            public void reset()
+            {
+                inflater.reset();
+            }
+
+            @Override
+            public void end()
+            {
+                inflater.end();
+            }
+
+            @Override
+            public String toString()
+            {
+                return String.format("%s@%x[%s]", DeflateCompressionCodec.class.getSimpleName(), hashCode(), inflater);
+            }
+        };
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[%s]", getClass().getSimpleName(), hashCode(), DEFLATE);
+    }
+}
@@ -0,0 +1,142 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class DeflateCompressionCodecTest
+{
+    private static byte[] content()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 2000; i++)
+        {
+            builder.append("line ").append(i).append(" of the content\n");
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(CompressionCodec.Encoder encoder, byte[] content, int chunk, CompressionCodec.Flush flush) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer output = ByteBuffer.allocate(64);
+        for (int offset = 0; offset < content.length; offset += chunk)
+        {
+            ByteBuffer input = ByteBuffer.wrap(content, offset, Math.min(chunk, content.length - offset));
+            boolean last = offset + chunk >= content.length;
+            while (true)
+            {
+                output.clear();
+                boolean done = encoder.encode(input, output, last ? CompressionCodec.Flush.FINISH : flush);
+                out.write(output.array(), 0, output.position());
+                if (done)
+                    break;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testEncodeDecode() throws Exception
+    {
+        byte[] content = content();
+        DeflateCompressionCodec codec = new DeflateCompressionCodec();
+        CompressionEncoderPool encoders = new CompressionEncoderPool(codec, 1, -1);
+        CompressionDecoderPool decoders = new CompressionDecoderPool(codec, 1);
+        encoders.start();
+        decoders.start();
+
+        for (CompressionCodec.Flush flush : new CompressionCodec.Flush[]{CompressionCodec.Flush.NONE, CompressionCodec.Flush.SYNC})
+        {
+            CompressionCodec.Encoder encoder = encoders.acquire();
+            byte[] encoded = encode(encoder, content, 1000, flush);
+            encoders.release(encoder);
+
+            // The encoded bytes are standard zlib bytes.
+            try (InflaterInputStream input = new InflaterInputStream(new ByteArrayInputStream(encoded)))
+            {
+                assertArrayEquals(content, input.readAllBytes());
+            }
+
+            CompressionCodec.Decoder decoder = decoders.acquire();
+            ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+            ByteBuffer output = ByteBuffer.allocate(100);
+            boolean finished = false;
+            for (int offset = 0; offset < encoded.length && !finished; offset += 10)
+            {
+                ByteBuffer input = ByteBuffer.wrap(encoded, offset, Math.min(10, encoded.length - offset));
+                while (!finished)
+                {
+                    output.clear();
+                    finished = decoder.decode(input, output);
+                    decoded.write(output.array(), 0, output.position());
+                    if (!input.hasRemaining() && output.hasRemaining())
+                        break;
+                }
+            }
+            decoders.release(decoder);
+            assertTrue(finished);
+            assertArrayEquals(content, decoded.toByteArray());
+        }
+
+        encoders.stop();
+        decoders.stop();
+    }
+
+    @Test
+    public void testSyncFlushIsDecodable() throws Exception
+    {
+        byte[] content = "Hello World".getBytes(StandardCharsets.UTF_8);
+        DeflateCompressionCodec codec = new DeflateCompressionCodec();
+        CompressionCodec.Encoder encoder = codec.newEncoder(-1);
+        ByteBuffer encoded = ByteBuffer.allocate(64);
+        assertTrue(encoder.encode(ByteBuffer.wrap(content), encoded, CompressionCodec.Flush.SYNC));
+        encoder.end();
+        encoded.flip();
+
+        CompressionCodec.Decoder decoder = codec.newDecoder();
+        ByteBuffer decoded = ByteBuffer.allocate(64);
+        assertFalse(decoder.decode(encoded, decoded));
+        decoded.flip();
+        assertArrayEquals(content, BufferUtil.toArray(decoded));
+        decoder.end();
+    }
+
+    @Test
+    public void testInvalidBytes()
+    {
+        CompressionCodec.Decoder decoder = new DeflateCompressionCodec().newDecoder();
+        ByteBuffer input = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(ZipException.class, () -> decoder.decode(input, ByteBuffer.allocate(64)));
+        decoder.end();
+    }
+}
@@ -31,6 +31,7 @@ import java.util.concurrent.atomic.AtomicReference;
 import org.eclipse.jetty.http2.BufferingFlowControlStrategy;
 import org.eclipse.jetty.http2.FlowControlStrategy;
 import org.eclipse.jetty.http2.HTTP2Connection;
+import org.eclipse.jetty.http2.HTTP2Session;
 import org.eclipse.jetty.http2.ISession;
 import org.eclipse.jetty.http2.api.Session;
 import org.eclipse.jetty.http2.api.server.ServerSessionListener;
@@ -51,6 +52,8 @@ import org.eclipse.jetty.util.annotation.Name;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.component.Graceful;
 import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
 
 @ManagedObject
 public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConnectionFactory
@@ -300,7 +303,7 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
     }
 
     @ManagedObject("The container of HTTP/2 sessions")
-    public static class HTTP2SessionContainer implements Connection.Listener, Graceful, Dumpable
+    public static class HTTP2SessionContainer implements Connection.Listener, Graceful, Dumpable, MetricsSource
     {
         private final Set<ISession> sessions = ConcurrentHashMap.newKeySet();
         private final AtomicReference<CompletableFuture<Void>> shutdown = new AtomicReference<>();
@@ -334,6 +337,37 @@ public abstract class AbstractHTTP2ServerConnectionFactory extends AbstractConne
             return sessions.size();
         }
 
+        @Override
+        public void publishMetrics(MetricsRegistry registry)
+        {
+            registry.gauge(this, "http2_sessions", "The number of HTTP/2 sessions", this::getSize);
+            registry.gauge(this, "http2_streams", "The number of HTTP/2 streams", () ->
+            {
+                long streams = 0;
+                for (ISession session : sessions)
+                {
+                    streams += session.getStreams().size();
+                }
+                return streams;
+            });
+            registry.gauge(this, "http2_session_send_window_min_bytes", "The smallest HTTP/2 session send flow control window", () -> minWindow(true));
+            registry.gauge(this, "http2_session_recv_window_min_bytes", "The smallest HTTP/2 session receive flow control window", () -> minWindow(false));
+        }
+
+        private long minWindow(boolean send)
+        {
+            long min = Long.MAX_VALUE;
+            for (ISession session : sessions)
+            {
+                if (session instanceof HTTP2Session)
+                {
+                    HTTP2Session http2Session = (HTTP2Session)session;
+                    min = Math.min(min, send ? http2Session.getSendWindow() : http2Session.getRecvWindow());
+                }
+            }
+            return min == Long.MAX_VALUE ? 0 : min;
+        }
+
         @Override
         public CompletableFuture<Void> shutdown()
         {
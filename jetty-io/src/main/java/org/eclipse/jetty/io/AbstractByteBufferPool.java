@@ -25,9 +25,11 @@ import java.util.function.Consumer;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
 
 @ManagedObject
-abstract class AbstractByteBufferPool implements ByteBufferPool
+abstract class AbstractByteBufferPool implements ByteBufferPool, MetricsSource
 {
     private final int _factor;
     private final int _maxQueueLength;
@@ -101,6 +103,13 @@ abstract class AbstractByteBufferPool implements ByteBufferPool
         return memory.get();
     }
 
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        registry.gauge(this, "buffer_pool_memory_bytes", "The bytes retained by pooled ByteBuffers", this::getHeapMemory, "type", "heap");
+        registry.gauge(this, "buffer_pool_memory_bytes", "The bytes retained by pooled ByteBuffers", this::getDirectMemory, "type", "direct");
+    }
+
     @ManagedOperation(value = "Clears this ByteBufferPool", impact = "ACTION")
     public void clear()
     {
@@ -29,6 +29,8 @@ import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.component.AbstractLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
 
 /**
@@ -39,7 +41,7 @@ import org.eclipse.jetty.util.statistic.SampleStatistic;
  * by the server Connector or by HttpClient.</p>
  */
 @ManagedObject("Tracks statistics on connections")
-public class ConnectionStatistics extends AbstractLifeCycle implements Connection.Listener, Dumpable
+public class ConnectionStatistics extends AbstractLifeCycle implements Connection.Listener, Dumpable, MetricsSource
 {
     private final CounterStatistic _connections = new CounterStatistic();
     private final SampleStatistic _connectionsDuration = new SampleStatistic();
@@ -204,6 +206,18 @@ public class ConnectionStatistics extends AbstractLifeCycle implements Connectio
         return elapsed == 0 ? 0 : getSentMessages() * 1000 / elapsed;
     }
 
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        registry.gauge(this, "connections", "Open connections", this::getConnections);
+        registry.gauge(this, "connections_max", "Max open connections", this::getConnectionsMax);
+        registry.counter(this, "connections_opened", "Connections opened", this::getConnectionsTotal);
+        registry.counter(this, "connection_received_bytes", "Bytes received by connections", this::getReceivedBytes);
+        registry.counter(this, "connection_sent_bytes", "Bytes sent by connections", this::getSentBytes);
+        registry.counter(this, "connection_received_messages", "Messages received by connections", this::getReceivedMessages);
+        registry.counter(this, "connection_sent_messages", "Messages sent by connections", this::getSentMessages);
+    }
+
     @Override
     public String dump()
     {
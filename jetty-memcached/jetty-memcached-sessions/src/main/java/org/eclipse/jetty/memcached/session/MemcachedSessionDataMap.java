@@ -44,9 +44,11 @@ public class MemcachedSessionDataMap extends AbstractLifeCycle implements Sessio
 {
     public static final String DEFAULT_HOST = "localhost";
     public static final String DEFAULT_PORT = "11211";
+    public static final String VERSION_KEY_SUFFIX = ".lastSaved";
     protected MemcachedClient _client;
     protected int _expirySec = 0;
     protected boolean _heartbeats = true;
+    protected boolean _versioned;
     protected XMemcachedClientBuilder _builder;
 
     /**
@@ -142,6 +144,25 @@ public class MemcachedSessionDataMap extends AbstractLifeCycle implements Sessio
         _heartbeats = heartbeats;
     }
 
+    @ManagedAttribute(value = "store the lastSaved time of sessions under their own key", readonly = true)
+    public boolean isVersioned()
+    {
+        return _versioned;
+    }
+
+    /**
+     * When versioned, the lastSaved time of each session is also stored
+     * under its own small key, so that {@link #getLastSaved(String)} can
+     * be answered without fetching the whole session. This costs an extra
+     * write for every store.
+     *
+     * @param versioned true to store the version of each session under its own key
+     */
+    public void setVersioned(boolean versioned)
+    {
+        _versioned = versioned;
+    }
+
     @Override
     public void initialize(SessionContext context)
     {
@@ -168,15 +189,28 @@ public class MemcachedSessionDataMap extends AbstractLifeCycle implements Sessio
     public void store(String id, SessionData data) throws Exception
     {
         _client.set(id, _expirySec, data);
+        if (_versioned)
+            _client.set(id + VERSION_KEY_SUFFIX, _expirySec, data.getLastSaved());
     }
 
     @Override
     public boolean delete(String id) throws Exception
     {
         _client.delete(id);
+        if (_versioned)
+            _client.delete(id + VERSION_KEY_SUFFIX);
         return true; //delete returns false if the value didn't exist
     }
 
+    @Override
+    public long getLastSaved(String id) throws Exception
+    {
+        if (!_versioned)
+            return -1;
+        Long lastSaved = _client.get(id + VERSION_KEY_SUFFIX);
+        return lastSaved == null ? 0 : lastSaved;
+    }
+
     @Override
     protected void doStop() throws Exception
     {
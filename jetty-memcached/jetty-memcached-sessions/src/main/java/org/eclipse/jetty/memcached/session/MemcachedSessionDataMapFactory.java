@@ -32,6 +32,7 @@ public class MemcachedSessionDataMapFactory implements SessionDataMapFactory
 {
     protected int _expiry;
     protected boolean _heartbeats = true;
+    protected boolean _versioned;
     protected int[] _weights;
     protected List<InetSocketAddress> _addresses;
 
@@ -83,12 +84,27 @@ public class MemcachedSessionDataMapFactory implements SessionDataMapFactory
         _heartbeats = heartbeats;
     }
 
+    public boolean isVersioned()
+    {
+        return _versioned;
+    }
+
+    /**
+     * @param versioned true to also store the lastSaved time of each session
+     * under its own key, so that near-caches can cheaply validate their copies
+     */
+    public void setVersioned(boolean versioned)
+    {
+        _versioned = versioned;
+    }
+
     @Override
     public SessionDataMap getSessionDataMap()
     {
         MemcachedSessionDataMap m = new MemcachedSessionDataMap(_addresses, _weights);
         m.setExpirySec(_expiry);
         m.setHeartbeats(isHeartbeats());
+        m.setVersioned(isVersioned());
         return m;
     }
 }
@@ -24,16 +24,60 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.ServletException;
 import javax.servlet.UnavailableException;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
-
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.ConnectionPool;
+import org.eclipse.jetty.client.DuplexConnectionPool;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpClientTransport;
+import org.eclipse.jetty.client.Origin;
+import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.util.URIUtil;
-
+import org.eclipse.jetty.util.thread.AutoLock;
+import org.eclipse.jetty.util.thread.Scheduler;
+
+/**
+ * <p>A {@link ProxyServlet} that balances requests between several servers, the balancer members.</p>
+ * <p>Each member is configured with the {@code balancerMember.<name>.proxyTo} init parameter, and
+ * optionally with {@code balancerMember.<name>.maxConnections}, the max number of connections
+ * that the {@link HttpClient} opens to the member.</p>
+ * <p>The member of a request is selected by the {@code strategy} init parameter:</p>
+ * <dl>
+ * <dt>ROUND_ROBIN</dt><dd>each member in turn; the default</dd>
+ * <dt>LEAST_REQUESTS</dt><dd>the member with the least outstanding requests</dd>
+ * <dt>PEAK_EWMA</dt><dd>the member with the least outstanding requests weighted by
+ * the peak exponentially weighted moving average of its response times, which
+ * decays over the {@code ewmaDecayTime} init parameter, 10000 ms by default</dd>
+ * <dt>POWER_OF_TWO_CHOICES</dt><dd>the member with the least outstanding requests
+ * of two members chosen at random</dd>
+ * </dl>
+ * <p>Members are only selected while they are healthy:</p>
+ * <ul>
+ * <li>passively, a member that fails {@code maxFailures} requests in a row, 5 by default,
+ * by not responding or by responding with a 502, 503 or 504 status, is ejected for
+ * {@code ejectionTime} ms, 30000 by default, multiplied by the number of times it was
+ * ejected in a row; no more than {@code maxEjectionPercent} of the members, 50% by default,
+ * are ejected at the same time;</li>
+ * <li>actively, if the {@code healthCheckPath} init parameter is set, that path is requested
+ * from each member every {@code healthCheckInterval} ms, 10000 by default, with a timeout of
+ * {@code healthCheckTimeout} ms, 5000 by default, and a member is unhealthy while the
+ * response is not successful.</li>
+ * </ul>
+ * <p>If no member is healthy, all the members are selected from.</p>
+ */
 public class BalancerServlet extends ProxyServlet
 {
     private static final String BALANCER_MEMBER_PREFIX = "balancerMember.";
@@ -61,11 +105,22 @@ public class BalancerServlet extends ProxyServlet
 
     private static final String JSESSIONID = "jsessionid";
     private static final String JSESSIONID_URL_PREFIX = JSESSIONID + "=";
+    private static final String BALANCER_MEMBER_ATTRIBUTE = BalancerServlet.class.getName() + ".balancerMember";
 
     private final List<BalancerMember> _balancerMembers = new ArrayList<>();
     private final AtomicLong counter = new AtomicLong();
     private boolean _stickySessions;
     private boolean _proxyPassReverse;
+    private Strategy _strategy;
+    private long _ewmaDecayTime;
+    private int _maxFailures;
+    private long _ejectionTime;
+    private int _maxEjectionPercent;
+    private String _healthCheckPath;
+    private long _healthCheckInterval;
+    private long _healthCheckTimeout;
+    private volatile boolean _healthChecking;
+    private volatile Scheduler.Task _healthCheckTask;
 
     @Override
     public void init() throws ServletException
@@ -75,6 +130,18 @@ public class BalancerServlet extends ProxyServlet
         initStickySessions();
         initBalancers();
         initProxyPassReverse();
+        initStrategy();
+        initHealthChecks();
+    }
+
+    @Override
+    public void destroy()
+    {
+        _healthChecking = false;
+        Scheduler.Task task = _healthCheckTask;
+        if (task != null)
+            task.cancel();
+        super.destroy();
     }
 
     private void validateConfig() throws ServletException
@@ -102,11 +169,69 @@ public class BalancerServlet extends ProxyServlet
             String proxyTo = getServletConfig().getInitParameter(memberProxyToParam);
             if (proxyTo == null || proxyTo.trim().length() == 0)
                 throw new UnavailableException(memberProxyToParam + " parameter is empty.");
-            members.add(new BalancerMember(balancerName, proxyTo));
+            BalancerMember member = new BalancerMember(balancerName, proxyTo);
+            String maxConnections = getServletConfig().getInitParameter(BALANCER_MEMBER_PREFIX + balancerName + ".maxConnections");
+            if (maxConnections != null)
+                member.setMaxConnections(Integer.parseInt(maxConnections));
+            members.add(member);
         }
         _balancerMembers.addAll(members);
     }
 
+    private void initStrategy()
+    {
+        String strategy = getServletConfig().getInitParameter("strategy");
+        _strategy = strategy == null ? Strategy.ROUND_ROBIN : Strategy.valueOf(strategy.trim().toUpperCase(Locale.ENGLISH));
+        _ewmaDecayTime = TimeUnit.MILLISECONDS.toNanos(getLongInitParameter("ewmaDecayTime", 10000));
+        _maxFailures = (int)getLongInitParameter("maxFailures", 5);
+        _ejectionTime = TimeUnit.MILLISECONDS.toNanos(getLongInitParameter("ejectionTime", 30000));
+        _maxEjectionPercent = (int)getLongInitParameter("maxEjectionPercent", 50);
+    }
+
+    private void initHealthChecks()
+    {
+        _healthCheckPath = getServletConfig().getInitParameter("healthCheckPath");
+        _healthCheckInterval = getLongInitParameter("healthCheckInterval", 10000);
+        _healthCheckTimeout = getLongInitParameter("healthCheckTimeout", 5000);
+        if (_healthCheckPath != null)
+        {
+            _healthChecking = true;
+            scheduleHealthCheck(0);
+        }
+    }
+
+    private void scheduleHealthCheck(long delay)
+    {
+        Scheduler.Task task = getHttpClient().getScheduler().schedule(this::checkHealth, delay, TimeUnit.MILLISECONDS);
+        _healthCheckTask = task;
+        // Cancel if destroy() ran before the task was assigned.
+        if (!_healthChecking)
+            task.cancel();
+    }
+
+    private long getLongInitParameter(String name, long defaultValue)
+    {
+        String value = getServletConfig().getInitParameter(name);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    @Override
+    protected HttpClient createHttpClient() throws ServletException
+    {
+        HttpClient client = super.createHttpClient();
+        // Limit the connections to the members that have a max number of connections.
+        HttpClientTransport transport = client.getTransport();
+        ConnectionPool.Factory factory = transport.getConnectionPoolFactory();
+        transport.setConnectionPoolFactory(destination ->
+        {
+            BalancerMember member = findBalancerMemberByOrigin(destination.getOrigin());
+            if (member != null && member.getMaxConnections() > 0)
+                return new DuplexConnectionPool(destination, member.getMaxConnections(), destination);
+            return factory.newConnectionPool(destination);
+        });
+        return client;
+    }
+
     private void initProxyPassReverse()
     {
         _proxyPassReverse = Boolean.parseBoolean(getServletConfig().getInitParameter("proxyPassReverse"));
@@ -135,6 +260,7 @@ public class BalancerServlet extends ProxyServlet
         BalancerMember balancerMember = selectBalancerMember(request);
         if (_log.isDebugEnabled())
             _log.debug("Selected {}", balancerMember);
+        request.setAttribute(BALANCER_MEMBER_ATTRIBUTE, balancerMember);
         String path = request.getRequestURI();
         String query = request.getQueryString();
         if (query != null)
@@ -144,18 +270,155 @@ public class BalancerServlet extends ProxyServlet
 
     private BalancerMember selectBalancerMember(HttpServletRequest request)
     {
+        long now = System.nanoTime();
         if (_stickySessions)
         {
             String name = getBalancerMemberNameFromSessionId(request);
             if (name != null)
             {
                 BalancerMember balancerMember = findBalancerMemberByName(name);
-                if (balancerMember != null)
+                if (balancerMember != null && balancerMember.isAvailable(now))
                     return balancerMember;
             }
         }
-        int index = (int)(counter.getAndIncrement() % _balancerMembers.size());
-        return _balancerMembers.get(index);
+
+        List<BalancerMember> members = new ArrayList<>(_balancerMembers.size());
+        for (BalancerMember balancerMember : _balancerMembers)
+        {
+            if (balancerMember.isAvailable(now))
+                members.add(balancerMember);
+        }
+        // Rather than failing every request, select from all the members if none is available.
+        if (members.isEmpty())
+            members = _balancerMembers;
+
+        int size = members.size();
+        switch (_strategy)
+        {
+            case LEAST_REQUESTS:
+            case PEAK_EWMA:
+            {
+                // Start from a different member each time, so that ties are balanced.
+                int start = (int)(counter.getAndIncrement() % size);
+                BalancerMember selected = null;
+                double minCost = Double.MAX_VALUE;
+                for (int i = 0; i < size; i++)
+                {
+                    BalancerMember balancerMember = members.get((start + i) % size);
+                    double cost = _strategy == Strategy.LEAST_REQUESTS ? balancerMember.getOutstandingRequests() : balancerMember.getPeakEWMACost(now, _ewmaDecayTime);
+                    if (cost < minCost)
+                    {
+                        minCost = cost;
+                        selected = balancerMember;
+                    }
+                }
+                return selected;
+            }
+            case POWER_OF_TWO_CHOICES:
+            {
+                if (size == 1)
+                    return members.get(0);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int first = random.nextInt(size);
+                int second = (first + 1 + random.nextInt(size - 1)) % size;
+                BalancerMember member1 = members.get(first);
+                BalancerMember member2 = members.get(second);
+                return member2.getOutstandingRequests() < member1.getOutstandingRequests() ? member2 : member1;
+            }
+            default:
+            {
+                int index = (int)(counter.getAndIncrement() % size);
+                return members.get(index);
+            }
+        }
+    }
+
+    @Override
+    protected void sendProxyRequest(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Request proxyRequest)
+    {
+        BalancerMember balancerMember = (BalancerMember)clientRequest.getAttribute(BALANCER_MEMBER_ATTRIBUTE);
+        if (balancerMember != null)
+        {
+            long begin = System.nanoTime();
+            balancerMember.onRequestBegin();
+            proxyRequest.onComplete(result -> onRequestComplete(balancerMember, result, begin));
+        }
+        super.sendProxyRequest(clientRequest, proxyResponse, proxyRequest);
+    }
+
+    private void onRequestComplete(BalancerMember balancerMember, Result result, long begin)
+    {
+        long now = System.nanoTime();
+        boolean failed = result.isFailed() && result.getResponse().getStatus() == 0 || isServerFailure(result.getResponse().getStatus());
+        if (balancerMember.onRequestComplete(now - begin, now, _ewmaDecayTime, failed) >= _maxFailures && _maxFailures > 0)
+            eject(balancerMember, now);
+    }
+
+    private boolean isServerFailure(int status)
+    {
+        return status == HttpStatus.BAD_GATEWAY_502 ||
+            status == HttpStatus.SERVICE_UNAVAILABLE_503 ||
+            status == HttpStatus.GATEWAY_TIMEOUT_504;
+    }
+
+    private void eject(BalancerMember balancerMember, long now)
+    {
+        int ejected = 0;
+        for (BalancerMember member : _balancerMembers)
+        {
+            if (member.isEjected(now))
+                ++ejected;
+        }
+        if ((ejected + 1) * 100 > _maxEjectionPercent * _balancerMembers.size())
+        {
+            if (_log.isDebugEnabled())
+                _log.debug("Not ejecting {}, {} members already ejected", balancerMember, ejected);
+            return;
+        }
+        long until = balancerMember.eject(now, _ejectionTime);
+        if (until > 0)
+            _log.info("Ejected {} for {} ms", balancerMember, TimeUnit.NANOSECONDS.toMillis(until - now));
+    }
+
+    private void checkHealth()
+    {
+        if (!_healthChecking)
+            return;
+
+        for (BalancerMember balancerMember : _balancerMembers)
+        {
+            String uri = URIUtil.addPaths(balancerMember.getProxyTo(), _healthCheckPath);
+            getHttpClient().newRequest(uri)
+                .timeout(_healthCheckTimeout, TimeUnit.MILLISECONDS)
+                .send(result ->
+                {
+                    boolean healthy = result.isSucceeded() && HttpStatus.isSuccess(result.getResponse().getStatus());
+                    if (balancerMember.setHealthy(healthy))
+                    {
+                        if (healthy)
+                            _log.info("Health check of {} succeeded", balancerMember);
+                        else
+                            _log.warn("Health check of {} failed", balancerMember, result.getFailure());
+                    }
+                });
+        }
+
+        if (_healthChecking)
+            scheduleHealthCheck(_healthCheckInterval);
+    }
+
+    private BalancerMember findBalancerMemberByOrigin(Origin origin)
+    {
+        Origin.Address address = origin.getAddress();
+        for (BalancerMember balancerMember : _balancerMembers)
+        {
+            URI backendURI = balancerMember.getBackendURI();
+            if (backendURI.getScheme().equalsIgnoreCase(origin.getScheme()) &&
+                backendURI.getHost().equalsIgnoreCase(address.getHost()) &&
+                HttpClient.normalizePort(backendURI.getScheme(), backendURI.getPort()) == address.getPort())
+                return balancerMember;
+        }
+        return null;
     }
 
     private BalancerMember findBalancerMemberByName(String name)
@@ -259,11 +522,25 @@ public class BalancerServlet extends ProxyServlet
         return true;
     }
 
+    private enum Strategy
+    {
+        ROUND_ROBIN, LEAST_REQUESTS, PEAK_EWMA, POWER_OF_TWO_CHOICES
+    }
+
     private static class BalancerMember
     {
+        private final AutoLock _lock = new AutoLock();
+        private final AtomicInteger _outstanding = new AtomicInteger();
         private final String _name;
         private final String _proxyTo;
         private final URI _backendURI;
+        private int _maxConnections;
+        private volatile boolean _healthy = true;
+        private volatile long _ejectedUntil;
+        private double _ewma;
+        private long _ewmaTime;
+        private int _failures;
+        private int _ejections;
 
         public BalancerMember(String name, String proxyTo)
         {
@@ -272,6 +549,123 @@ public class BalancerServlet extends ProxyServlet
             _backendURI = URI.create(_proxyTo).normalize();
         }
 
+        public int getMaxConnections()
+        {
+            return _maxConnections;
+        }
+
+        public void setMaxConnections(int maxConnections)
+        {
+            _maxConnections = maxConnections;
+        }
+
+        public int getOutstandingRequests()
+        {
+            return _outstanding.get();
+        }
+
+        /**
+         * @param now the time now in nanoseconds
+         * @param decayTime the time in nanoseconds over which latency samples decay
+         * @return the peak EWMA latency multiplied by the number of outstanding requests plus one
+         */
+        public double getPeakEWMACost(long now, long decayTime)
+        {
+            int outstanding = _outstanding.get();
+            double ewma;
+            try (AutoLock l = _lock.lock())
+            {
+                ewma = decay(now, decayTime);
+            }
+            // Without latency samples, penalize members with outstanding requests.
+            if (ewma == 0 && outstanding > 0)
+                ewma = decayTime;
+            return ewma * (outstanding + 1);
+        }
+
+        private double decay(long now, long decayTime)
+        {
+            long elapsed = Math.max(0, now - _ewmaTime);
+            return _ewma * Math.exp(-(double)elapsed / decayTime);
+        }
+
+        public boolean isAvailable(long now)
+        {
+            return _healthy && !isEjected(now);
+        }
+
+        public boolean isEjected(long now)
+        {
+            long until = _ejectedUntil;
+            return until != 0 && until - now > 0;
+        }
+
+        /**
+         * @param healthy whether the last health check succeeded
+         * @return whether the health changed
+         */
+        public boolean setHealthy(boolean healthy)
+        {
+            boolean changed = _healthy != healthy;
+            _healthy = healthy;
+            return changed;
+        }
+
+        public void onRequestBegin()
+        {
+            _outstanding.incrementAndGet();
+        }
+
+        /**
+         * @param latency the latency of the request in nanoseconds
+         * @param now the time now in nanoseconds
+         * @param decayTime the time in nanoseconds over which latency samples decay
+         * @param failed whether the request failed
+         * @return the number of requests that failed in a row
+         */
+        public int onRequestComplete(long latency, long now, long decayTime, boolean failed)
+        {
+            _outstanding.decrementAndGet();
+            try (AutoLock l = _lock.lock())
+            {
+                // The peak EWMA immediately follows latency increases, but decays slowly.
+                if (latency > _ewma)
+                {
+                    _ewma = latency;
+                }
+                else
+                {
+                    double weight = Math.exp(-(double)Math.max(0, now - _ewmaTime) / decayTime);
+                    _ewma = _ewma * weight + latency * (1 - weight);
+                }
+                _ewmaTime = now;
+
+                if (failed)
+                    return ++_failures;
+                _failures = 0;
+                _ejections = 0;
+                return 0;
+            }
+        }
+
+        /**
+         * @param now the time now in nanoseconds
+         * @param ejectionTime the base ejection time in nanoseconds
+         * @return the time until which the member is ejected, or 0 if it is already ejected
+         */
+        public long eject(long now, long ejectionTime)
+        {
+            try (AutoLock l = _lock.lock())
+            {
+                if (isEjected(now))
+                    return 0;
+                _failures = 0;
+                long until = now + ejectionTime * ++_ejections;
+                _ejectedUntil = until == 0 ? 1 : until;
+                return until;
+            }
+        }
+
         public String getName()
         {
             return _name;
@@ -290,7 +684,7 @@ public class BalancerServlet extends ProxyServlet
         @Override
         public String toString()
         {
-            return String.format("%s[name=%s,proxyTo=%s]", getClass().getSimpleName(), _name, _proxyTo);
+            return String.format("%s[name=%s,proxyTo=%s,outstanding=%d,healthy=%b]", getClass().getSimpleName(), _name, _proxyTo, _outstanding.get(), _healthy);
         }
 
         @Override
@@ -30,6 +30,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -56,6 +57,13 @@ import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.HostPort;
 import org.eclipse.jetty.util.Promise;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
 import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
 import org.eclipse.jetty.util.thread.Scheduler;
 import org.slf4j.Logger;
@@ -63,8 +71,13 @@ import org.slf4j.LoggerFactory;
 
 /**
  * <p>Implementation of a {@link Handler} that supports HTTP CONNECT.</p>
+ * <p>The tunnel reads from one side into a pooled direct buffer and writes that
+ * same buffer to the other side; it reads again only when the write is complete.
+ * The buffers are {@link #getBufferSize() bufferSize} bytes, and grow up to
+ * {@link #getMaxBufferSize() maxBufferSize} bytes while reads fill them.</p>
  */
-public class ConnectHandler extends HandlerWrapper
+@ManagedObject("CONNECT proxy handler")
+public class ConnectHandler extends HandlerWrapper implements MetricsSource
 {
     protected static final Logger LOG = LoggerFactory.getLogger(ConnectHandler.class);
 
@@ -76,7 +89,12 @@ public class ConnectHandler extends HandlerWrapper
     private SelectorManager selector;
     private long connectTimeout = 15000;
     private long idleTimeout = 30000;
+    private final CounterStatistic tunnelStats = new CounterStatistic();
+    private final SampleStatistic tunnelRateStats = new SampleStatistic();
+    private final LongAdder bytesToServer = new LongAdder();
+    private final LongAdder bytesToClient = new LongAdder();
     private int bufferSize = 4096;
+    private int maxBufferSize = -1;
 
     public ConnectHandler()
     {
@@ -152,6 +170,7 @@ public class ConnectHandler extends HandlerWrapper
         this.idleTimeout = idleTimeout;
     }
 
+    @ManagedAttribute("The initial size of the tunnel buffers")
     public int getBufferSize()
     {
         return bufferSize;
@@ -162,6 +181,90 @@ public class ConnectHandler extends HandlerWrapper
         this.bufferSize = bufferSize;
     }
 
+    /**
+     * @return the max size of the tunnel buffers
+     * @see #setMaxBufferSize(int)
+     */
+    @ManagedAttribute("The max size of the tunnel buffers")
+    public int getMaxBufferSize()
+    {
+        return Math.max(getBufferSize(), maxBufferSize);
+    }
+
+    /**
+     * <p>Sets the max size of the tunnel buffers.</p>
+     * <p>If larger than {@link #getBufferSize() bufferSize}, the buffers of each tunnel
+     * grow while its reads fill them, and shrink back while its traffic is light;
+     * otherwise the buffers have a fixed size.</p>
+     *
+     * @param maxBufferSize the max size of the tunnel buffers
+     */
+    public void setMaxBufferSize(int maxBufferSize)
+    {
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    @ManagedAttribute("The number of tunnels opened")
+    public long getTunnels()
+    {
+        return tunnelStats.getTotal();
+    }
+
+    @ManagedAttribute("The number of tunnels currently open")
+    public long getTunnelsOpen()
+    {
+        return tunnelStats.getCurrent();
+    }
+
+    @ManagedAttribute("The max number of tunnels open at the same time")
+    public long getTunnelsOpenMax()
+    {
+        return tunnelStats.getMax();
+    }
+
+    @ManagedAttribute("The number of bytes tunnelled from clients to servers")
+    public long getBytesToServer()
+    {
+        return bytesToServer.sum();
+    }
+
+    @ManagedAttribute("The number of bytes tunnelled from servers to clients")
+    public long getBytesToClient()
+    {
+        return bytesToClient.sum();
+    }
+
+    @ManagedAttribute("The mean bytes per second tunnelled by closed tunnels")
+    public double getTunnelRateMean()
+    {
+        return tunnelRateStats.getMean();
+    }
+
+    @ManagedAttribute("The max bytes per second tunnelled by a closed tunnel")
+    public long getTunnelRateMax()
+    {
+        return tunnelRateStats.getMax();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        tunnelStats.reset();
+        tunnelRateStats.reset();
+        bytesToServer.reset();
+        bytesToClient.reset();
+    }
+
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        registry.counter(this, "connect_tunnels", "tunnels opened", this::getTunnels);
+        registry.gauge(this, "connect_tunnels_open", "tunnels currently open", this::getTunnelsOpen);
+        registry.counter(this, "connect_bytes_to_server", "bytes tunnelled from clients to servers", this::getBytesToServer);
+        registry.counter(this, "connect_bytes_to_client", "bytes tunnelled from servers to clients", this::getBytesToClient);
+        registry.gauge(this, "connect_tunnel_rate_mean", "mean bytes per second tunnelled by closed tunnels", this::getTunnelRateMean);
+    }
+
     @Override
     protected void doStart() throws Exception
     {
@@ -344,6 +447,8 @@ public class ConnectHandler extends HandlerWrapper
         EndPoint downstreamEndPoint = connectContext.getEndPoint();
         DownstreamConnection downstreamConnection = newDownstreamConnection(downstreamEndPoint, context);
         downstreamConnection.setInputBufferSize(getBufferSize());
+        downstreamConnection.setMaxInputBufferSize(getMaxBufferSize());
+        tunnelStats.increment();
 
         upstreamConnection.setConnection(downstreamConnection);
         downstreamConnection.setConnection(upstreamConnection);
@@ -519,6 +624,7 @@ public class ConnectHandler extends HandlerWrapper
             ConnectContext connectContext = (ConnectContext)attachment;
             UpstreamConnection connection = newUpstreamConnection(endpoint, connectContext);
             connection.setInputBufferSize(getBufferSize());
+            connection.setMaxInputBufferSize(getMaxBufferSize());
             return connection;
         }
 
@@ -591,10 +697,26 @@ public class ConnectHandler extends HandlerWrapper
             fillInterested();
         }
 
+        @Override
+        public void onClose(Throwable cause)
+        {
+            super.onClose(cause);
+            if (getConnection() != null)
+            {
+                tunnelStats.decrement();
+                long elapsed = System.currentTimeMillis() - getCreatedTimeStamp();
+                if (elapsed > 0)
+                    tunnelRateStats.record((getBytesIn() + getBytesOut()) * 1000 / elapsed);
+            }
+        }
+
         @Override
         protected int read(EndPoint endPoint, ByteBuffer buffer) throws IOException
         {
-            return ConnectHandler.this.read(endPoint, buffer, getContext());
+            int read = ConnectHandler.this.read(endPoint, buffer, getContext());
+            if (read > 0)
+                bytesToClient.add(read);
+            return read;
         }
 
         @Override
@@ -649,7 +771,10 @@ public class ConnectHandler extends HandlerWrapper
         @Override
         protected int read(EndPoint endPoint, ByteBuffer buffer) throws IOException
         {
-            return ConnectHandler.this.read(endPoint, buffer, getContext());
+            int read = ConnectHandler.this.read(endPoint, buffer, getContext());
+            if (read > 0)
+                bytesToServer.add(read);
+            return read;
         }
 
         @Override
@@ -22,11 +22,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.jetty.io.AbstractConnection;
 import org.eclipse.jetty.io.ByteBufferPool;
 import org.eclipse.jetty.io.Connection;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingCallback;
 import org.slf4j.Logger;
@@ -37,7 +39,10 @@ public abstract class ProxyConnection extends AbstractConnection
     private final IteratingCallback pipe = new ProxyIteratingCallback();
     private final ByteBufferPool bufferPool;
     private final ConcurrentMap<String, Object> context;
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
     private ProxyConnection connection;
+    private int maxInputBufferSize;
 
     protected ProxyConnection(EndPoint endp, Executor executor, ByteBufferPool bufferPool, ConcurrentMap<String, Object> context)
     {
@@ -66,6 +71,56 @@ public abstract class ProxyConnection extends AbstractConnection
         this.connection = connection;
     }
 
+    /**
+     * @return the max size of the buffers used to read from this connection
+     * @see #setMaxInputBufferSize(int)
+     */
+    public int getMaxInputBufferSize()
+    {
+        return Math.max(getInputBufferSize(), maxInputBufferSize);
+    }
+
+    /**
+     * <p>Sets the max size of the buffers used to read from this connection.</p>
+     * <p>If larger than the {@link #getInputBufferSize() input buffer size}, the
+     * buffer size adapts to the traffic: it doubles, up to the max size, every time
+     * a read fills the buffer, and halves, down to the input buffer size, every time
+     * a read fills less than a quarter of the buffer.</p>
+     *
+     * @param maxInputBufferSize the max size of the buffers used to read from this connection
+     */
+    public void setMaxInputBufferSize(int maxInputBufferSize)
+    {
+        this.maxInputBufferSize = maxInputBufferSize;
+    }
+
+    /**
+     * @return the number of bytes read from this connection
+     */
+    @Override
+    public long getBytesIn()
+    {
+        return bytesIn.get();
+    }
+
+    /**
+     * @return the number of bytes written to this connection
+     */
+    @Override
+    public long getBytesOut()
+    {
+        return bytesOut.get();
+    }
+
+    /**
+     * @return the number of bytes per second read from this connection, since it was created
+     */
+    public long getBytesInRate()
+    {
+        long elapsed = System.currentTimeMillis() - getCreatedTimeStamp();
+        return elapsed <= 0 ? 0 : getBytesIn() * 1000 / elapsed;
+    }
+
     @Override
     public void onFillable()
     {
@@ -94,12 +149,15 @@ public abstract class ProxyConnection extends AbstractConnection
     private class ProxyIteratingCallback extends IteratingCallback
     {
         private ByteBuffer buffer;
+        private int bufferSize;
         private int filled;
 
         @Override
         protected Action process()
         {
-            buffer = bufferPool.acquire(getInputBufferSize(), true);
+            // The buffer is kept while data flows, and only released when idle.
+            if (buffer == null)
+                buffer = bufferPool.acquire(Math.max(bufferSize, getInputBufferSize()), true);
             try
             {
                 int filled = this.filled = read(getEndPoint(), buffer);
@@ -107,18 +165,21 @@ public abstract class ProxyConnection extends AbstractConnection
                     LOG.debug("{} filled {} bytes", ProxyConnection.this, filled);
                 if (filled > 0)
                 {
+                    bytesIn.addAndGet(filled);
+                    // Write from the read buffer, and do not read more until the write
+                    // is complete, so that a slow peer applies backpressure to this side.
                     write(connection.getEndPoint(), buffer, this);
                     return Action.SCHEDULED;
                 }
                 else if (filled == 0)
                 {
-                    bufferPool.release(buffer);
+                    release();
                     fillInterested();
                     return Action.IDLE;
                 }
                 else
                 {
-                    bufferPool.release(buffer);
+                    release();
                     connection.getEndPoint().shutdownOutput();
                     return Action.SUCCEEDED;
                 }
@@ -127,7 +188,7 @@ public abstract class ProxyConnection extends AbstractConnection
             {
                 if (LOG.isDebugEnabled())
                     LOG.debug(ProxyConnection.this + " could not fill", x);
-                bufferPool.release(buffer);
+                release();
                 disconnect(x);
                 return Action.SUCCEEDED;
             }
@@ -138,10 +199,36 @@ public abstract class ProxyConnection extends AbstractConnection
         {
             if (LOG.isDebugEnabled())
                 LOG.debug("{} wrote {} bytes", ProxyConnection.this, filled);
-            bufferPool.release(buffer);
+            connection.bytesOut.addAndGet(filled);
+            adapt();
             super.succeeded();
         }
 
+        private void adapt()
+        {
+            int minSize = getInputBufferSize();
+            int maxSize = getMaxInputBufferSize();
+            int size = Math.max(bufferSize, minSize);
+            if (filled >= buffer.capacity() && size < maxSize)
+                size = Math.min(maxSize, size * 2);
+            else if (filled < size / 4 && size > minSize)
+                size = Math.max(minSize, size / 2);
+            bufferSize = size;
+
+            // Keep the buffer unless it has to grow, or has become much larger than needed.
+            if (size > buffer.capacity() || size < buffer.capacity() / 2)
+                release();
+            else
+                BufferUtil.clear(buffer);
+        }
+
+        private void release()
+        {
+            if (buffer != null)
+                bufferPool.release(buffer);
+            buffer = null;
+        }
+
         @Override
         protected void onCompleteSuccess()
         {
@@ -152,7 +239,7 @@ public abstract class ProxyConnection extends AbstractConnection
         {
             if (LOG.isDebugEnabled())
                 LOG.debug(ProxyConnection.this + " failed to write " + filled + " bytes", x);
-            bufferPool.release(buffer);
+            release();
             disconnect(x);
         }
 
@@ -0,0 +1,685 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentProvider;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.DeferredContentProvider;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.HttpInput;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.HttpCookieStore;
+import org.eclipse.jetty.util.IteratingCallback;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Implementation of a {@link Handler} that proxies requests to another server
+ * with {@link HttpClient}, without going through the Servlet API.</p>
+ * <p>Headers are copied between the client and the server as {@link HttpField}s,
+ * and content is forwarded without being copied:</p>
+ * <ul>
+ * <li>the client request content buffers are captured from the {@link HttpInput}
+ * and sent to the server as they are; they are only consumed from the {@link HttpInput},
+ * and so recycled, when the server request has sent them;</li>
+ * <li>the server response content buffers are written to the {@link HttpOutput.Interceptor}
+ * of the client response, and released to {@link HttpClient} when written.</li>
+ * </ul>
+ * <p>By default, requests whose path starts with the path segments of the {@link #getPrefix() prefix} are proxied
+ * to the {@link #getProxyTo() proxyTo} URI, with the prefix stripped, in the same way as
+ * {@link ProxyServlet.Transparent}. Other rewrite rules can be implemented by overriding
+ * {@link #rewriteTarget(Request)}. Requests that are not rewritten are handled by
+ * the wrapped handler, if any.</p>
+ * <p>If no {@link HttpClient} is set, one is created when this handler is started, that
+ * does not follow redirects, store cookies or decode content. A {@link HttpClient} that is
+ * set must be configured in the same way.</p>
+ *
+ * @see ProxyServlet
+ * @see AsyncProxyServlet
+ */
+@ManagedObject("Handler that proxies requests to another server")
+public class ProxyHandler extends HandlerWrapper
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ProxyHandler.class);
+
+    private HttpClient httpClient;
+    private String proxyTo;
+    private String prefix = "/";
+    private boolean preserveHost;
+    private String hostHeader;
+    private String viaHost = viaHost();
+    private long timeout = 60000;
+
+    public ProxyHandler()
+    {
+        this(null);
+    }
+
+    /**
+     * @param proxyTo the URI, such as {@code http://host:80/context}, to which requests are proxied
+     */
+    public ProxyHandler(String proxyTo)
+    {
+        this.proxyTo = proxyTo;
+    }
+
+    private static String viaHost()
+    {
+        try
+        {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (UnknownHostException x)
+        {
+            return "localhost";
+        }
+    }
+
+    public HttpClient getHttpClient()
+    {
+        return httpClient;
+    }
+
+    /**
+     * @param httpClient the client used to send requests to the server
+     */
+    public void setHttpClient(HttpClient httpClient)
+    {
+        updateBean(this.httpClient, httpClient);
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * @return the URI to which requests are proxied
+     */
+    @ManagedAttribute("The URI to which requests are proxied")
+    public String getProxyTo()
+    {
+        return proxyTo;
+    }
+
+    public void setProxyTo(String proxyTo)
+    {
+        this.proxyTo = proxyTo;
+    }
+
+    /**
+     * @return the path prefix of the requests that are proxied, stripped from the proxied URI
+     */
+    @ManagedAttribute("The path prefix of the requests that are proxied")
+    public String getPrefix()
+    {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix)
+    {
+        if (!prefix.startsWith("/"))
+            throw new IllegalArgumentException("Prefix must start with a '/'");
+        this.prefix = prefix;
+    }
+
+    /**
+     * @return whether the client {@code Host} header is sent to the server
+     */
+    @ManagedAttribute("Whether the client Host header is sent to the server")
+    public boolean isPreserveHost()
+    {
+        return preserveHost;
+    }
+
+    public void setPreserveHost(boolean preserveHost)
+    {
+        this.preserveHost = preserveHost;
+    }
+
+    /**
+     * @return the {@code Host} header sent to the server, or null to use the client or server host
+     */
+    @ManagedAttribute("The Host header sent to the server")
+    public String getHostHeader()
+    {
+        return hostHeader;
+    }
+
+    public void setHostHeader(String hostHeader)
+    {
+        this.hostHeader = hostHeader;
+    }
+
+    /**
+     * @return the host name in the {@code Via} header sent to the server
+     */
+    @ManagedAttribute("The host name in the Via header")
+    public String getViaHost()
+    {
+        return viaHost;
+    }
+
+    public void setViaHost(String viaHost)
+    {
+        this.viaHost = viaHost;
+    }
+
+    /**
+     * @return the total timeout, in milliseconds, of the requests to the server
+     */
+    @ManagedAttribute("The total timeout in ms of the requests to the server")
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        boolean newClient = httpClient == null;
+        if (newClient)
+            setHttpClient(newHttpClient());
+
+        super.doStart();
+
+        if (newClient)
+        {
+            // Content must not be decoded, otherwise the client gets confused.
+            httpClient.getContentDecoderFactories().clear();
+            // Pass traffic to the client, only intercept what's necessary.
+            httpClient.getProtocolHandlers().clear();
+        }
+    }
+
+    /**
+     * @return a new {@link HttpClient} to send requests to the server
+     */
+    protected HttpClient newHttpClient()
+    {
+        HttpClient client = new HttpClient();
+        client.setExecutor(getServer().getThreadPool());
+        // Redirects must be proxied as is, not followed.
+        client.setFollowRedirects(false);
+        // Must not store cookies, otherwise cookies of different clients will mix.
+        client.setCookieStore(new HttpCookieStore.Empty());
+        client.setMaxConnectionsPerDestination(256);
+        return client;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        String rewrittenTarget = rewriteTarget(baseRequest);
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} rewriting: {} -> {}", getRequestId(baseRequest), baseRequest.getHttpURI(), rewrittenTarget);
+
+        if (rewrittenTarget == null)
+        {
+            super.handle(target, baseRequest, request, response);
+            return;
+        }
+
+        baseRequest.setHandled(true);
+
+        org.eclipse.jetty.client.api.Request proxyRequest = getHttpClient().newRequest(rewrittenTarget)
+            .method(baseRequest.getMethod())
+            .version(baseRequest.getHttpVersion());
+
+        copyRequestHeaders(baseRequest, proxyRequest);
+
+        addProxyHeaders(baseRequest, proxyRequest);
+
+        AsyncContext asyncContext = baseRequest.startAsync();
+        // We do not timeout the continuation, but the proxy request
+        asyncContext.setTimeout(0);
+        proxyRequest.timeout(getTimeout(), TimeUnit.MILLISECONDS);
+
+        if (hasContent(baseRequest))
+            proxyRequest.content(proxyRequestContent(baseRequest, proxyRequest));
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} proxying to upstream:{}{}{}{}", getRequestId(baseRequest), System.lineSeparator(),
+                proxyRequest, System.lineSeparator(), proxyRequest.getHeaders().toString().trim());
+
+        proxyRequest.send(newProxyResponseListener(baseRequest));
+    }
+
+    /**
+     * <p>Returns the URI to which the given request is proxied.</p>
+     * <p>The default implementation strips the {@link #getPrefix() prefix}
+     * from the request path and appends the rest to {@link #getProxyTo() proxyTo}.</p>
+     *
+     * @param clientRequest the client request
+     * @return the URI to which the request is proxied, or null if it is not proxied
+     */
+    protected String rewriteTarget(Request clientRequest)
+    {
+        String proxyTo = getProxyTo();
+        if (proxyTo == null)
+            return null;
+
+        String path = clientRequest.getRequestURI();
+        if (!matchesPrefix(path))
+            return null;
+
+        StringBuilder uri = new StringBuilder(proxyTo);
+        if (proxyTo.endsWith("/"))
+            uri.setLength(uri.length() - 1);
+        String rest = path.substring(prefix.length());
+        if (!rest.isEmpty())
+        {
+            if (!rest.startsWith("/"))
+                uri.append("/");
+            uri.append(rest);
+        }
+
+        String query = clientRequest.getQueryString();
+        if (query != null)
+        {
+            // Is there at least one path segment ?
+            String separator = "://";
+            if (uri.indexOf("/", uri.indexOf(separator) + separator.length()) < 0)
+                uri.append("/");
+            uri.append("?").append(query);
+        }
+        return URI.create(uri.toString()).normalize().toString();
+    }
+
+    private boolean matchesPrefix(String path)
+    {
+        // The prefix only matches whole path segments.
+        if (prefix.endsWith("/"))
+            return path.startsWith(prefix);
+        return path.equals(prefix) || path.startsWith(prefix + "/");
+    }
+
+    protected boolean hasContent(Request clientRequest)
+    {
+        HttpFields fields = clientRequest.getHttpFields();
+        return clientRequest.getContentLengthLong() > 0 ||
+            fields.contains(HttpHeader.CONTENT_TYPE) ||
+            fields.contains(HttpHeader.TRANSFER_ENCODING);
+    }
+
+    /**
+     * <p>Copies the end-to-end headers of the client request to the proxy request.</p>
+     * <p>The {@code Expect} header is not copied, as the {@code 100 Continue}
+     * response is sent to the client when its content is first read.</p>
+     *
+     * @param clientRequest the client request
+     * @param proxyRequest the request to the server
+     */
+    protected void copyRequestHeaders(Request clientRequest, org.eclipse.jetty.client.api.Request proxyRequest)
+    {
+        HttpFields clientFields = clientRequest.getHttpFields();
+        HttpFields proxyFields = proxyRequest.getHeaders();
+        // First clear possibly existing headers, as we are going to copy those from the client request.
+        proxyFields.clear();
+
+        Set<String> connectionHeaders = findConnectionHeaders(clientFields);
+        for (HttpField field : clientFields)
+        {
+            HttpHeader header = field.getHeader();
+            if (header == HttpHeader.HOST && !isPreserveHost())
+                continue;
+            if (header == HttpHeader.EXPECT)
+                continue;
+            if (isHopHeader(field, connectionHeaders))
+                continue;
+            proxyFields.add(field);
+        }
+
+        // Force the Host header if configured
+        if (getHostHeader() != null)
+            proxyFields.put(HttpHeader.HOST, getHostHeader());
+    }
+
+    /**
+     * @param fields the headers of a request or response
+     * @return the lower case names of the headers listed by the {@code Connection} header, or null
+     */
+    protected Set<String> findConnectionHeaders(HttpFields fields)
+    {
+        // Any header listed by the Connection header must be removed:
+        // http://tools.ietf.org/html/rfc7230#section-6.1.
+        Set<String> hopHeaders = null;
+        for (String name : fields.getCSV(HttpHeader.CONNECTION, false))
+        {
+            if (hopHeaders == null)
+                hopHeaders = new HashSet<>();
+            hopHeaders.add(name.toLowerCase(Locale.ENGLISH));
+        }
+        return hopHeaders;
+    }
+
+    private boolean isHopHeader(HttpField field, Set<String> connectionHeaders)
+    {
+        String name = field.getLowerCaseName();
+        return AbstractProxyServlet.HOP_HEADERS.contains(name) || (connectionHeaders != null && connectionHeaders.contains(name));
+    }
+
+    protected void addProxyHeaders(Request clientRequest, org.eclipse.jetty.client.api.Request proxyRequest)
+    {
+        proxyRequest.header(HttpHeader.VIA, "http/1.1 " + getViaHost());
+        proxyRequest.header(HttpHeader.X_FORWARDED_FOR, clientRequest.getRemoteAddr());
+        proxyRequest.header(HttpHeader.X_FORWARDED_PROTO, clientRequest.getScheme());
+        proxyRequest.header(HttpHeader.X_FORWARDED_HOST, clientRequest.getHttpFields().get(HttpHeader.HOST));
+        proxyRequest.header(HttpHeader.X_FORWARDED_SERVER, clientRequest.getLocalName());
+    }
+
+    /**
+     * @param clientRequest the client request
+     * @param proxyRequest the request to the server
+     * @return the content of the request to the server
+     */
+    protected ContentProvider proxyRequestContent(Request clientRequest, org.eclipse.jetty.client.api.Request proxyRequest)
+    {
+        DeferredContentProvider provider = new DeferredContentProvider();
+        ProxyRequestContentReader reader = new ProxyRequestContentReader(clientRequest, proxyRequest, provider);
+        HttpInput input = clientRequest.getHttpInput();
+        input.addInterceptor(reader);
+        input.setReadListener(reader);
+        return provider;
+    }
+
+    protected Response.Listener newProxyResponseListener(Request clientRequest)
+    {
+        return new ProxyResponseListener(clientRequest);
+    }
+
+    /**
+     * @param clientRequest the client request
+     * @param serverResponse the response from the server
+     * @param field a header of the response from the server
+     * @return the header to add to the client response, or null to not add it
+     */
+    protected HttpField filterServerResponseHeader(Request clientRequest, Response serverResponse, HttpField field)
+    {
+        return field;
+    }
+
+    protected void onServerResponseHeaders(Request clientRequest, Response serverResponse)
+    {
+        org.eclipse.jetty.server.Response response = clientRequest.getResponse();
+        HttpFields serverFields = serverResponse.getHeaders();
+        HttpFields clientFields = response.getHttpFields();
+        Set<String> connectionHeaders = findConnectionHeaders(serverFields);
+        for (HttpField field : serverFields)
+        {
+            if (isHopHeader(field, connectionHeaders))
+                continue;
+            HttpField filtered = filterServerResponseHeader(clientRequest, serverResponse, field);
+            if (filtered == null)
+                continue;
+            HttpHeader header = filtered.getHeader();
+            // The response tracks its content type and length.
+            if (header == HttpHeader.CONTENT_TYPE || header == HttpHeader.CONTENT_LENGTH)
+                response.setHeader(header, filtered.getValue());
+            else
+                clientFields.add(filtered);
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} proxying to downstream:{}{}{}{}", getRequestId(clientRequest), System.lineSeparator(),
+                serverResponse, System.lineSeparator(), clientFields.toString().trim());
+    }
+
+    protected void onClientRequestFailure(Request clientRequest, org.eclipse.jetty.client.api.Request proxyRequest, Throwable failure)
+    {
+        boolean aborted = proxyRequest.abort(failure);
+        if (!aborted)
+        {
+            int status = failure instanceof TimeoutException
+                ? HttpStatus.REQUEST_TIMEOUT_408
+                : HttpStatus.INTERNAL_SERVER_ERROR_500;
+            sendProxyResponseError(clientRequest, status);
+        }
+    }
+
+    protected void onProxyResponseSuccess(Request clientRequest, Response serverResponse)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} proxying successful", getRequestId(clientRequest));
+        clientRequest.getAsyncContext().complete();
+    }
+
+    protected void onProxyResponseFailure(Request clientRequest, Response serverResponse, Throwable failure)
+    {
+        if (LOG.isDebugEnabled())
+            LOG.debug(getRequestId(clientRequest) + " proxying failed", failure);
+
+        int status = failure instanceof TimeoutException
+            ? HttpStatus.GATEWAY_TIMEOUT_504
+            : HttpStatus.BAD_GATEWAY_502;
+        sendProxyResponseError(clientRequest, status);
+    }
+
+    protected void sendProxyResponseError(Request clientRequest, int status)
+    {
+        HttpServletResponse response = clientRequest.getResponse();
+        try
+        {
+            if (!response.isCommitted())
+            {
+                response.reset();
+                response.setHeader(HttpHeader.CONNECTION.asString(), HttpHeaderValue.CLOSE.asString());
+            }
+            response.sendError(status);
+        }
+        catch (Exception e)
+        {
+            LOG.trace("IGNORED", e);
+            // The response is committed, so the best we can do is to abort it.
+            clientRequest.getHttpChannel().abort(e);
+        }
+        finally
+        {
+            if (clientRequest.isAsyncStarted())
+                clientRequest.getAsyncContext().complete();
+        }
+    }
+
+    protected int getRequestId(Request clientRequest)
+    {
+        return System.identityHashCode(clientRequest);
+    }
+
+    /**
+     * <p>Reads the client request content and offers it to the request to the server.</p>
+     * <p>The content buffers are captured as {@link HttpInput.Interceptor}, and are only
+     * consumed from the {@link HttpInput} when the request to the server has sent them,
+     * so that they are not recycled while still in use.</p>
+     */
+    protected class ProxyRequestContentReader extends IteratingCallback implements ReadListener, HttpInput.Interceptor
+    {
+        private final Request clientRequest;
+        private final org.eclipse.jetty.client.api.Request proxyRequest;
+        private final DeferredContentProvider provider;
+        private final byte[] noBytes = new byte[0];
+        private volatile HttpInput.Content content;
+        private HttpInput.Content pending;
+
+        protected ProxyRequestContentReader(Request clientRequest, org.eclipse.jetty.client.api.Request proxyRequest, DeferredContentProvider provider)
+        {
+            this.clientRequest = clientRequest;
+            this.proxyRequest = proxyRequest;
+            this.provider = provider;
+        }
+
+        @Override
+        public HttpInput.Content readFrom(HttpInput.Content content)
+        {
+            // Remember the content, without consuming it.
+            if (content != null && content.hasContent())
+                this.content = content;
+            return content;
+        }
+
+        @Override
+        public void onDataAvailable()
+        {
+            iterate();
+        }
+
+        @Override
+        public void onAllDataRead()
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("{} proxying content to upstream completed", getRequestId(clientRequest));
+            provider.close();
+        }
+
+        @Override
+        public void onError(Throwable failure)
+        {
+            onClientRequestFailure(clientRequest, proxyRequest, failure);
+        }
+
+        @Override
+        protected Action process() throws Exception
+        {
+            HttpInput input = clientRequest.getHttpInput();
+            while (input.isReady())
+            {
+                HttpInput.Content content = this.content;
+                if (content != null && content.hasContent())
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("{} proxying content to upstream: {} bytes", getRequestId(clientRequest), content.remaining());
+                    pending = content;
+                    provider.offer(content.getByteBuffer().slice(), this);
+                    return Action.SCHEDULED;
+                }
+
+                // There is no content buffer to forward: an empty read consumes
+                // the end of the content, or makes the input intercept the next
+                // content buffer, without copying any of its bytes.
+                if (input.read(noBytes, 0, 0) < 0)
+                    return Action.SUCCEEDED;
+            }
+            return Action.IDLE;
+        }
+
+        @Override
+        public void succeeded()
+        {
+            // The content has been sent, so it can now be consumed from the input.
+            HttpInput.Content content = pending;
+            pending = null;
+            if (content != null)
+                content.skip(content.remaining());
+            super.succeeded();
+        }
+
+        @Override
+        public void failed(Throwable x)
+        {
+            super.failed(x);
+            onError(x);
+        }
+    }
+
+    /**
+     * <p>Forwards the response from the server to the client.</p>
+     */
+    protected class ProxyResponseListener implements Response.Listener
+    {
+        private final Request clientRequest;
+
+        protected ProxyResponseListener(Request clientRequest)
+        {
+            this.clientRequest = clientRequest;
+        }
+
+        @Override
+        public void onBegin(Response serverResponse)
+        {
+            clientRequest.getResponse().setStatus(serverResponse.getStatus());
+        }
+
+        @Override
+        public void onHeaders(Response serverResponse)
+        {
+            onServerResponseHeaders(clientRequest, serverResponse);
+        }
+
+        @Override
+        public void onContent(Response serverResponse, ByteBuffer content, Callback callback)
+        {
+            if (!content.hasRemaining())
+            {
+                callback.succeeded();
+                return;
+            }
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("{} proxying content to downstream: {} bytes", getRequestId(clientRequest), content.remaining());
+
+            // Write through the interceptors, to write the buffer without copying it
+            // and to only release it to the client when it has been written.
+            HttpOutput.Interceptor output = clientRequest.getResponse().getHttpOutput().getInterceptor();
+            output.write(content, false, Callback.from(callback::succeeded, x ->
+            {
+                callback.failed(x);
+                serverResponse.abort(x);
+            }));
+        }
+
+        @Override
+        public void onComplete(Result result)
+        {
+            if (result.isSucceeded())
+                onProxyResponseSuccess(clientRequest, result.getResponse());
+            else
+                onProxyResponseFailure(clientRequest, result.getResponse(), result.getFailure());
+            if (LOG.isDebugEnabled())
+                LOG.debug("{} proxying complete", getRequestId(clientRequest));
+        }
+    }
+}
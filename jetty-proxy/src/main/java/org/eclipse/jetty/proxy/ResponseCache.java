@@ -0,0 +1,1191 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.http.DateParser;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.QuotedCSV;
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A shared cache of HTTP responses, as specified by RFC 9111.</p>
+ * <p>Responses are stored if their method, status and {@code Cache-Control} directives
+ * allow a shared cache to store them, and are fresh for the lifetime given by their
+ * {@code s-maxage} or {@code max-age} directives, their {@code Expires} header, or
+ * heuristically by their {@code Last-Modified} header. A key may have several entries,
+ * one for each variant selected by the {@code Vary} header of the response.</p>
+ * <p>The content of entries that is at most {@link #getMaxHeapEntrySize() maxHeapEntrySize}
+ * bytes is stored in heap, while larger content is stored in files in the
+ * {@link #getDirectory() directory}. The heap and the files are bounded by
+ * {@link #getMaxHeapSize() maxHeapSize} and {@link #getMaxFileSize() maxFileSize} bytes,
+ * and evict their least recently used entries to stay within those bounds.</p>
+ * <p>The entries returned by {@link #get(String, HttpServletRequest)} must be
+ * {@link #release(Entry) released}, so that the content of evicted entries is only
+ * deleted once no request uses it.</p>
+ *
+ * @see ResponseCacheServlet
+ */
+@ManagedObject("Shared HTTP response cache")
+public class ResponseCache extends AbstractLifeCycle
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCache.class);
+    private static final long MAX_HEURISTIC_LIFETIME = TimeUnit.DAYS.toMillis(1);
+
+    private final AutoLock _lock = new AutoLock();
+    private final Map<String, List<Entry>> _variants = new HashMap<>();
+    private final LinkedHashMap<Entry, Entry> _lru = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, List<Runnable>> _pending = new HashMap<>();
+    private final AtomicLong _files = new AtomicLong();
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _revalidations = new LongAdder();
+    private final LongAdder _collapsed = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+    private long _heapSize;
+    private long _fileSize;
+    private long _maxHeapSize = 32 * 1024 * 1024;
+    private int _maxHeapEntrySize = 64 * 1024;
+    private long _maxFileSize = 256 * 1024 * 1024;
+    private long _maxEntrySize = 16 * 1024 * 1024;
+    private Path _directory;
+    private boolean _deleteDirectory;
+
+    @ManagedAttribute("The max bytes of content stored in heap")
+    public long getMaxHeapSize()
+    {
+        return _maxHeapSize;
+    }
+
+    public void setMaxHeapSize(long maxHeapSize)
+    {
+        _maxHeapSize = maxHeapSize;
+    }
+
+    @ManagedAttribute("The max bytes of content of an entry stored in heap")
+    public int getMaxHeapEntrySize()
+    {
+        return _maxHeapEntrySize;
+    }
+
+    public void setMaxHeapEntrySize(int maxHeapEntrySize)
+    {
+        _maxHeapEntrySize = maxHeapEntrySize;
+    }
+
+    /**
+     * @return the max bytes of content stored in files, or 0 if content is only stored in heap
+     */
+    @ManagedAttribute("The max bytes of content stored in files")
+    public long getMaxFileSize()
+    {
+        return _maxFileSize;
+    }
+
+    public void setMaxFileSize(long maxFileSize)
+    {
+        _maxFileSize = maxFileSize;
+    }
+
+    @ManagedAttribute("The max bytes of content of an entry")
+    public long getMaxEntrySize()
+    {
+        return _maxEntrySize;
+    }
+
+    public void setMaxEntrySize(long maxEntrySize)
+    {
+        _maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * @return the directory of the files storing large content
+     */
+    public Path getDirectory()
+    {
+        return _directory;
+    }
+
+    /**
+     * @param directory the directory of the files storing large content,
+     * or null to use a temporary directory that is deleted when the cache stops
+     */
+    public void setDirectory(Path directory)
+    {
+        _directory = directory;
+    }
+
+    @ManagedAttribute("The number of entries")
+    public int getEntries()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _lru.size();
+        }
+    }
+
+    @ManagedAttribute("The bytes of content stored in heap")
+    public long getHeapSize()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _heapSize;
+        }
+    }
+
+    @ManagedAttribute("The bytes of content stored in files")
+    public long getFileSize()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _fileSize;
+        }
+    }
+
+    @ManagedAttribute("The number of requests served from the cache")
+    public long getHits()
+    {
+        return _hits.sum();
+    }
+
+    @ManagedAttribute("The number of requests not served from the cache")
+    public long getMisses()
+    {
+        return _misses.sum();
+    }
+
+    @ManagedAttribute("The number of stale entries revalidated with the server")
+    public long getRevalidations()
+    {
+        return _revalidations.sum();
+    }
+
+    @ManagedAttribute("The number of misses that waited for the response of another miss")
+    public long getCollapsed()
+    {
+        return _collapsed.sum();
+    }
+
+    @ManagedAttribute("The number of entries evicted to stay within the size bounds")
+    public long getEvictions()
+    {
+        return _evictions.sum();
+    }
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _hits.reset();
+        _misses.reset();
+        _revalidations.reset();
+        _collapsed.reset();
+        _evictions.reset();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (_maxFileSize > 0)
+        {
+            if (_directory == null)
+            {
+                _directory = Files.createTempDirectory("jetty-response-cache-");
+                _deleteDirectory = true;
+            }
+            else
+            {
+                Files.createDirectories(_directory);
+            }
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        clear();
+
+        List<Runnable> waiters = new ArrayList<>();
+        try (AutoLock l = _lock.lock())
+        {
+            _pending.values().forEach(waiters::addAll);
+            _pending.clear();
+        }
+        waiters.forEach(Runnable::run);
+
+        if (_deleteDirectory)
+        {
+            IO.delete(_directory.toFile());
+            _directory = null;
+            _deleteDirectory = false;
+        }
+    }
+
+    /**
+     * <p>Removes all the entries.</p>
+     */
+    @ManagedOperation(value = "Removes all the entries", impact = "ACTION")
+    public void clear()
+    {
+        List<Content> released = new ArrayList<>();
+        try (AutoLock l = _lock.lock())
+        {
+            for (Entry entry : _lru.keySet())
+            {
+                if (entry._content.release())
+                    released.add(entry._content);
+            }
+            _lru.clear();
+            _variants.clear();
+            _heapSize = 0;
+            _fileSize = 0;
+        }
+        released.forEach(Content::delete);
+    }
+
+    /**
+     * <p>Returns the entry stored for the given key that matches the
+     * {@code Vary} headers of the given request.</p>
+     * <p>The returned entry must be {@link #release(Entry) released}
+     * when the request does not use it anymore.</p>
+     *
+     * @param key the key of the request
+     * @param request the request
+     * @return the matching entry, or null if there is none
+     */
+    public Entry get(String key, HttpServletRequest request)
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            List<Entry> entries = _variants.get(key);
+            if (entries == null)
+                return null;
+            for (Entry entry : entries)
+            {
+                if (entry._varyValues.equals(varyValues(entry._varyNames, request)))
+                {
+                    _lru.get(entry);
+                    entry._content.retain();
+                    return entry;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param entry the entry returned by {@link #get(String, HttpServletRequest)}
+     * or {@link #revalidated(Entry, HttpFields, long, long)}
+     */
+    public void release(Entry entry)
+    {
+        boolean delete;
+        try (AutoLock l = _lock.lock())
+        {
+            delete = entry._content.release();
+        }
+        if (delete)
+            entry._content.delete();
+    }
+
+    /**
+     * <p>Removes the entries stored for the given key, as done when
+     * an unsafe request to the key succeeds.</p>
+     *
+     * @param key the key to invalidate
+     */
+    public void invalidate(String key)
+    {
+        List<Content> released = new ArrayList<>();
+        try (AutoLock l = _lock.lock())
+        {
+            List<Entry> entries = _variants.remove(key);
+            if (entries == null)
+                return;
+            for (Entry entry : entries)
+            {
+                _lru.remove(entry);
+                if (unlink(entry))
+                    released.add(entry._content);
+            }
+        }
+        released.forEach(Content::delete);
+    }
+
+    /**
+     * <p>Returns the key to collapse a miss with, which is the given key extended with
+     * the values of the request headers named by the {@code Vary} header of the
+     * responses stored for the key, so that only the misses for the same variant
+     * are collapsed.</p>
+     * <p>When no response is stored for the key, its {@code Vary} header is unknown,
+     * and the misses are collapsed by key only.</p>
+     *
+     * @param key the key of the request
+     * @param request the request
+     * @return the key to pass to {@link #collapse(String, Runnable)}
+     */
+    public String getCollapseKey(String key, HttpServletRequest request)
+    {
+        List<String> varyNames;
+        try (AutoLock l = _lock.lock())
+        {
+            List<Entry> entries = _variants.get(key);
+            if (entries == null || entries.isEmpty())
+                return key;
+            varyNames = entries.get(entries.size() - 1)._varyNames;
+        }
+        if (varyNames.isEmpty())
+            return key;
+        return key + '\n' + varyValues(varyNames, request);
+    }
+
+    /**
+     * <p>Collapses a miss with the other misses for the same key.</p>
+     * <p>The first miss returns false, and must call {@link #complete(String)}
+     * once its response is stored, or is known not to be storable.
+     * The following misses return true, and the given waiter is run
+     * when the first miss completes.</p>
+     *
+     * @param key the key of the miss, as returned by {@link #getCollapseKey(String, HttpServletRequest)}
+     * @param waiter the action to run when the first miss completes
+     * @return true if the waiter waits for the first miss, false if this is the first miss
+     */
+    public boolean collapse(String key, Runnable waiter)
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            List<Runnable> waiters = _pending.get(key);
+            if (waiters == null)
+            {
+                _pending.put(key, new ArrayList<>());
+                return false;
+            }
+            waiters.add(waiter);
+        }
+        _collapsed.increment();
+        return true;
+    }
+
+    /**
+     * @param key the key of the first miss that completed
+     * @see #collapse(String, Runnable)
+     */
+    public void complete(String key)
+    {
+        List<Runnable> waiters;
+        try (AutoLock l = _lock.lock())
+        {
+            waiters = _pending.remove(key);
+        }
+        if (waiters != null)
+            waiters.forEach(Runnable::run);
+    }
+
+    void onHit()
+    {
+        _hits.increment();
+    }
+
+    void onMiss()
+    {
+        _misses.increment();
+    }
+
+    /**
+     * @param request the request
+     * @param status the status of the response
+     * @param headers the headers of the response
+     * @return whether a shared cache may store the response to the request
+     */
+    public boolean isStorable(HttpServletRequest request, int status, HttpFields headers)
+    {
+        if (!HttpMethod.GET.is(request.getMethod()))
+            return false;
+        if (status < HttpStatus.OK_200 || status == HttpStatus.PARTIAL_CONTENT_206 || status == HttpStatus.NOT_MODIFIED_304)
+            return false;
+        if (CacheControl.from(request).isNoStore())
+            return false;
+        CacheControl cacheControl = CacheControl.from(headers);
+        if (cacheControl.isNoStore() || cacheControl.isPrivate())
+            return false;
+        // Responses to authenticated requests are private, unless explicitly shared.
+        if (request.getHeader(HttpHeader.AUTHORIZATION.asString()) != null &&
+            !cacheControl.isPublic() && !cacheControl.isMustRevalidate() && cacheControl.getSMaxAge() < 0)
+            return false;
+        // Responses that set cookies are specific to the client.
+        if (headers.contains(HttpHeader.SET_COOKIE))
+            return false;
+        if (headers.getCSV(HttpHeader.VARY, false).contains("*"))
+            return false;
+        if (cacheControl.isPublic() || cacheControl.isNoCache() || cacheControl.getSMaxAge() >= 0 ||
+            cacheControl.getMaxAge() >= 0 || headers.contains(HttpHeader.EXPIRES))
+            return true;
+        return isHeuristicallyCacheable(status) && headers.contains(HttpHeader.LAST_MODIFIED);
+    }
+
+    /**
+     * @param key the key of the request
+     * @param request the request
+     * @param status the status of the response
+     * @param headers the headers of the response
+     * @param requestTime the time in ms the request was sent to the server
+     * @param responseTime the time in ms the response was received from the server
+     * @return a recorder of the content of the response, or null if the content is too large to store
+     */
+    public Recorder newRecorder(String key, HttpServletRequest request, int status, HttpFields headers, long requestTime, long responseTime)
+    {
+        long contentLength = -1;
+        try
+        {
+            contentLength = headers.getLongField(HttpHeader.CONTENT_LENGTH.asString());
+        }
+        catch (NumberFormatException x)
+        {
+            // An invalid length is treated as unknown, and the content is recorded up to the limits.
+            LOG.trace("IGNORED", x);
+        }
+        if (contentLength > _maxEntrySize)
+            return null;
+        if (contentLength > _maxHeapEntrySize && _maxFileSize <= 0)
+            return null;
+        List<String> varyNames = varyNames(headers);
+        return new Recorder(key, varyNames, varyValues(varyNames, request), status, headers, requestTime, responseTime);
+    }
+
+    /**
+     * <p>Stores the response recorded by the given recorder, replacing the entry for the same variant.</p>
+     *
+     * @param recorder the recorder of the response
+     * @return whether the response was stored
+     */
+    public boolean store(Recorder recorder)
+    {
+        Content content = recorder.complete();
+        if (content == null)
+            return false;
+
+        Entry entry = new Entry(recorder._key, recorder._varyNames, recorder._varyValues, recorder._status,
+            recorder._headers, recorder._requestTime, recorder._responseTime, content);
+        boolean stored;
+        List<Content> released = new ArrayList<>();
+        try (AutoLock l = _lock.lock())
+        {
+            stored = link(entry, released);
+        }
+        released.forEach(Content::delete);
+        if (LOG.isDebugEnabled())
+            LOG.debug("{} {}", stored ? "Stored" : "Could not store", entry);
+        return stored;
+    }
+
+    /**
+     * <p>Updates a stale entry with the headers of a {@code 304} response to its revalidation,
+     * as specified by RFC 9111, section 4.3.4.</p>
+     * <p>The given entry remains retained by the caller, and the returned entry shares its
+     * content, so releasing either releases both.</p>
+     *
+     * @param entry the entry that was revalidated
+     * @param headers the headers of the 304 response
+     * @param requestTime the time in ms the revalidation request was sent to the server
+     * @param responseTime the time in ms the 304 response was received from the server
+     * @return the updated entry
+     */
+    public Entry revalidated(Entry entry, HttpFields headers, long requestTime, long responseTime)
+    {
+        _revalidations.increment();
+        HttpFields updated = new HttpFields(entry._headers);
+        for (HttpField field : headers)
+        {
+            HttpHeader header = field.getHeader();
+            if (header == HttpHeader.CONTENT_LENGTH || AbstractProxyServlet.HOP_HEADERS.contains(field.getLowerCaseName()))
+                continue;
+            updated.remove(field.getName());
+        }
+        for (HttpField field : headers)
+        {
+            HttpHeader header = field.getHeader();
+            if (header == HttpHeader.CONTENT_LENGTH || AbstractProxyServlet.HOP_HEADERS.contains(field.getLowerCaseName()))
+                continue;
+            updated.add(field);
+        }
+
+        Entry result = new Entry(entry._key, entry._varyNames, entry._varyValues, entry._status,
+            updated, requestTime, responseTime, entry._content);
+        List<Content> released = new ArrayList<>();
+        try (AutoLock l = _lock.lock())
+        {
+            // The cache holds one reference to the content of the entries it links.
+            entry._content.retain();
+            link(result, released);
+        }
+        released.forEach(Content::delete);
+        return result;
+    }
+
+    private boolean link(Entry entry, List<Content> released)
+    {
+        Content content = entry._content;
+        long maxSize = content._path == null ? _maxHeapSize : _maxFileSize;
+        if (content._size > maxSize)
+        {
+            if (content.release())
+                released.add(content);
+            return false;
+        }
+
+        List<Entry> entries = _variants.computeIfAbsent(entry._key, k -> new ArrayList<>());
+        for (Iterator<Entry> iterator = entries.iterator(); iterator.hasNext(); )
+        {
+            Entry variant = iterator.next();
+            if (variant._varyNames.equals(entry._varyNames) && variant._varyValues.equals(entry._varyValues))
+            {
+                iterator.remove();
+                _lru.remove(variant);
+                if (unlink(variant))
+                    released.add(variant._content);
+            }
+        }
+        entries.add(entry);
+        _lru.put(entry, entry);
+        if (content._path == null)
+            _heapSize += content._size;
+        else
+            _fileSize += content._size;
+
+        for (Iterator<Entry> iterator = _lru.keySet().iterator(); iterator.hasNext(); )
+        {
+            if (_heapSize <= _maxHeapSize && _fileSize <= _maxFileSize)
+                break;
+            Entry eldest = iterator.next();
+            boolean heap = eldest._content._path == null;
+            if (heap ? _heapSize > _maxHeapSize : _fileSize > _maxFileSize)
+            {
+                iterator.remove();
+                List<Entry> variants = _variants.get(eldest._key);
+                variants.remove(eldest);
+                if (variants.isEmpty())
+                    _variants.remove(eldest._key);
+                if (unlink(eldest))
+                    released.add(eldest._content);
+                _evictions.increment();
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Evicted {}", eldest);
+            }
+        }
+        return true;
+    }
+
+    private boolean unlink(Entry entry)
+    {
+        Content content = entry._content;
+        if (content._path == null)
+            _heapSize -= content._size;
+        else
+            _fileSize -= content._size;
+        return content.release();
+    }
+
+    private Path newPath()
+    {
+        return _directory.resolve(_files.incrementAndGet() + ".cache");
+    }
+
+    private static void delete(Path path)
+    {
+        try
+        {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException x)
+        {
+            LOG.warn("Could not delete {}", path, x);
+        }
+    }
+
+    private static boolean isHeuristicallyCacheable(int status)
+    {
+        switch (status)
+        {
+            case HttpStatus.OK_200:
+            case HttpStatus.NON_AUTHORITATIVE_INFORMATION_203:
+            case HttpStatus.NO_CONTENT_204:
+            case HttpStatus.MULTIPLE_CHOICES_300:
+            case HttpStatus.MOVED_PERMANENTLY_301:
+            case HttpStatus.PERMANENT_REDIRECT_308:
+            case HttpStatus.NOT_FOUND_404:
+            case HttpStatus.METHOD_NOT_ALLOWED_405:
+            case HttpStatus.GONE_410:
+            case HttpStatus.URI_TOO_LONG_414:
+            case HttpStatus.NOT_IMPLEMENTED_501:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static List<String> varyNames(HttpFields headers)
+    {
+        List<String> names = new ArrayList<>();
+        for (String name : headers.getCSV(HttpHeader.VARY, false))
+        {
+            names.add(name.toLowerCase(Locale.ENGLISH));
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static List<String> varyValues(List<String> varyNames, HttpServletRequest request)
+    {
+        if (varyNames.isEmpty())
+            return Collections.emptyList();
+        List<String> values = new ArrayList<>(varyNames.size());
+        for (String name : varyNames)
+        {
+            values.add(String.join(",", new QuotedCSV(true, Collections.list(request.getHeaders(name)).toArray(new String[0])).getValues()));
+        }
+        return values;
+    }
+
+    private static long parseDate(HttpFields headers, HttpHeader header)
+    {
+        String value = headers.get(header);
+        return value == null ? -1 : DateParser.parseDate(value);
+    }
+
+    @Override
+    public String toString()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return String.format("%s@%x[entries=%d,heap=%d/%d,files=%d/%d]", getClass().getSimpleName(), hashCode(),
+                _lru.size(), _heapSize, _maxHeapSize, _fileSize, _maxFileSize);
+        }
+    }
+
+    /**
+     * <p>A stored response.</p>
+     */
+    public static class Entry
+    {
+        private final String _key;
+        private final List<String> _varyNames;
+        private final List<String> _varyValues;
+        private final int _status;
+        private final HttpFields _headers;
+        private final CacheControl _cacheControl;
+        private final long _requestTime;
+        private final long _responseTime;
+        private final long _dateValue;
+        private final long _ageValue;
+        private final long _freshnessLifetime;
+        private final Content _content;
+
+        private Entry(String key, List<String> varyNames, List<String> varyValues, int status, HttpFields headers, long requestTime, long responseTime, Content content)
+        {
+            _key = key;
+            _varyNames = varyNames;
+            _varyValues = varyValues;
+            _status = status;
+            _headers = headers;
+            _cacheControl = CacheControl.from(headers);
+            _requestTime = requestTime;
+            _responseTime = responseTime;
+            long date = parseDate(headers, HttpHeader.DATE);
+            _dateValue = date < 0 ? responseTime : date;
+            long age = 0;
+            try
+            {
+                age = TimeUnit.SECONDS.toMillis(Math.max(0, headers.getLongField(HttpHeader.AGE.asString())));
+            }
+            catch (NumberFormatException x)
+            {
+                LOG.trace("IGNORED", x);
+            }
+            _ageValue = age;
+            _freshnessLifetime = freshnessLifetime();
+            _content = content;
+        }
+
+        private long freshnessLifetime()
+        {
+            if (_cacheControl.isNoCache())
+                return 0;
+            if (_cacheControl.getSMaxAge() >= 0)
+                return TimeUnit.SECONDS.toMillis(_cacheControl.getSMaxAge());
+            if (_cacheControl.getMaxAge() >= 0)
+                return TimeUnit.SECONDS.toMillis(_cacheControl.getMaxAge());
+            if (_headers.contains(HttpHeader.EXPIRES))
+            {
+                // An invalid Expires header means already expired.
+                long expires = parseDate(_headers, HttpHeader.EXPIRES);
+                return expires < 0 ? 0 : Math.max(0, expires - _dateValue);
+            }
+            long lastModified = parseDate(_headers, HttpHeader.LAST_MODIFIED);
+            if (lastModified >= 0 && isHeuristicallyCacheable(_status))
+                return Math.min(MAX_HEURISTIC_LIFETIME, Math.max(0, _dateValue - lastModified) / 10);
+            return 0;
+        }
+
+        public String getKey()
+        {
+            return _key;
+        }
+
+        public int getStatus()
+        {
+            return _status;
+        }
+
+        public HttpFields getHeaders()
+        {
+            return _headers;
+        }
+
+        /**
+         * @return the length in bytes of the content
+         */
+        public long getContentLength()
+        {
+            return _content._size;
+        }
+
+        /**
+         * @return whether the content is stored in a file rather than in heap
+         */
+        public boolean isFileBacked()
+        {
+            return _content._path != null;
+        }
+
+        public String getETag()
+        {
+            return _headers.get(HttpHeader.ETAG);
+        }
+
+        public String getLastModified()
+        {
+            return _headers.get(HttpHeader.LAST_MODIFIED);
+        }
+
+        /**
+         * @return whether the entry can be revalidated with a conditional request
+         */
+        public boolean hasValidators()
+        {
+            return getETag() != null || getLastModified() != null;
+        }
+
+        /**
+         * @param now the time now in ms
+         * @return the age in ms of the entry, as specified by RFC 9111, section 4.2.3
+         */
+        public long getAge(long now)
+        {
+            long apparentAge = Math.max(0, _responseTime - _dateValue);
+            long correctedAgeValue = _ageValue + (_responseTime - _requestTime);
+            long correctedInitialAge = Math.max(apparentAge, correctedAgeValue);
+            return correctedInitialAge + Math.max(0, now - _responseTime);
+        }
+
+        /**
+         * @return the time in ms the entry is fresh for, from its creation by the server
+         */
+        public long getFreshnessLifetime()
+        {
+            return _freshnessLifetime;
+        }
+
+        /**
+         * @param now the time now in ms
+         * @param request the cache directives of the request
+         * @return whether the entry can be used to respond to the request without revalidation
+         */
+        public boolean isFresh(long now, CacheControl request)
+        {
+            if (request.isNoCache())
+                return false;
+            long age = getAge(now);
+            if (request.getMaxAge() >= 0 && age > TimeUnit.SECONDS.toMillis(request.getMaxAge()))
+                return false;
+            long ttl = _freshnessLifetime - age;
+            if (request.getMinFresh() >= 0 && ttl < TimeUnit.SECONDS.toMillis(request.getMinFresh()))
+                return false;
+            if (ttl > 0)
+                return true;
+            if (_cacheControl.isNoCache() || _cacheControl.isMustRevalidate())
+                return false;
+            return request.getMaxStale() >= 0 && -ttl <= TimeUnit.SECONDS.toMillis(request.getMaxStale());
+        }
+
+        /**
+         * @param output the stream to write the content to
+         * @throws IOException if the content cannot be written
+         */
+        public void writeTo(OutputStream output) throws IOException
+        {
+            Content content = _content;
+            if (content._path == null)
+                output.write(content._bytes);
+            else
+                Files.copy(content._path, output);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s@%x[%s,vary=%s,status=%d,length=%d,file=%b]", getClass().getSimpleName(), hashCode(),
+                _key, _varyValues, _status, _content._size, isFileBacked());
+        }
+    }
+
+    /**
+     * <p>The content of entries, referenced by the cache and by the requests using it.</p>
+     */
+    private static class Content
+    {
+        private final byte[] _bytes;
+        private final Path _path;
+        private final long _size;
+        private int _references = 1;
+
+        private Content(byte[] bytes, Path path, long size)
+        {
+            _bytes = bytes;
+            _path = path;
+            _size = size;
+        }
+
+        private void retain()
+        {
+            ++_references;
+        }
+
+        /**
+         * @return whether the content is not referenced anymore, and must be deleted
+         */
+        private boolean release()
+        {
+            return --_references == 0 && _path != null;
+        }
+
+        private void delete()
+        {
+            ResponseCache.delete(_path);
+        }
+    }
+
+    /**
+     * <p>Records the content of a response to store it, in heap while it is small,
+     * and in a file once it is larger than {@link #getMaxHeapEntrySize()} bytes.</p>
+     */
+    public class Recorder
+    {
+        private final String _key;
+        private final List<String> _varyNames;
+        private final List<String> _varyValues;
+        private final int _status;
+        private final HttpFields _headers;
+        private final long _requestTime;
+        private final long _responseTime;
+        private ByteArrayOutputStream _heap = new ByteArrayOutputStream();
+        private Path _path;
+        private OutputStream _file;
+        private long _size;
+        private boolean _aborted;
+
+        private Recorder(String key, List<String> varyNames, List<String> varyValues, int status, HttpFields headers, long requestTime, long responseTime)
+        {
+            _key = key;
+            _varyNames = varyNames;
+            _varyValues = varyValues;
+            _status = status;
+            _headers = headers;
+            _requestTime = requestTime;
+            _responseTime = responseTime;
+        }
+
+        /**
+         * <p>Records content, or aborts the recording if the content is too large to store.</p>
+         *
+         * @param buffer the content bytes
+         * @param offset the offset of the content in the bytes
+         * @param length the length of the content
+         */
+        public void write(byte[] buffer, int offset, int length)
+        {
+            if (_aborted)
+                return;
+            try
+            {
+                _size += length;
+                if (_size > _maxEntrySize || _size > _maxHeapEntrySize && _maxFileSize <= 0)
+                {
+                    abort();
+                    return;
+                }
+                if (_file == null && _size > _maxHeapEntrySize)
+                {
+                    _path = newPath();
+                    _file = Files.newOutputStream(_path);
+                    _heap.writeTo(_file);
+                    _heap = null;
+                }
+                if (_file == null)
+                    _heap.write(buffer, offset, length);
+                else
+                    _file.write(buffer, offset, length);
+            }
+            catch (IOException x)
+            {
+                LOG.warn("Could not record content of {}", _key, x);
+                abort();
+            }
+        }
+
+        /**
+         * <p>Aborts the recording, discarding the recorded content.</p>
+         */
+        public void abort()
+        {
+            _aborted = true;
+            _heap = null;
+            IO.close(_file);
+            _file = null;
+            if (_path != null)
+                delete(_path);
+            _path = null;
+        }
+
+        private Content complete()
+        {
+            if (_aborted)
+                return null;
+            if (_file == null)
+                return new Content(_heap.toByteArray(), null, _size);
+            try
+            {
+                _file.close();
+                return new Content(null, _path, _size);
+            }
+            catch (IOException x)
+            {
+                LOG.warn("Could not record content of {}", _key, x);
+                abort();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * <p>The {@code Cache-Control} directives of a request or a response.</p>
+     */
+    public static class CacheControl
+    {
+        private boolean _noStore;
+        private boolean _noCache;
+        private boolean _private;
+        private boolean _public;
+        private boolean _mustRevalidate;
+        private boolean _onlyIfCached;
+        private long _maxAge = -1;
+        private long _sMaxAge = -1;
+        private long _minFresh = -1;
+        private long _maxStale = -1;
+
+        /**
+         * @param request the request
+         * @return the cache directives of the request, including {@code Pragma: no-cache}
+         */
+        public static CacheControl from(HttpServletRequest request)
+        {
+            List<String> values = Collections.list(request.getHeaders(HttpHeader.CACHE_CONTROL.asString()));
+            if (values.isEmpty())
+            {
+                CacheControl cacheControl = new CacheControl();
+                List<String> pragma = Collections.list(request.getHeaders(HttpHeader.PRAGMA.asString()));
+                cacheControl._noCache = new QuotedCSV(false, pragma.toArray(new String[0])).getValues().contains("no-cache");
+                return cacheControl;
+            }
+            return parse(values);
+        }
+
+        /**
+         * @param headers the response headers
+         * @return the cache directives of the response
+         */
+        public static CacheControl from(HttpFields headers)
+        {
+            return parse(headers.getValuesList(HttpHeader.CACHE_CONTROL));
+        }
+
+        private static CacheControl parse(List<String> values)
+        {
+            CacheControl cacheControl = new CacheControl();
+            for (String directive : new QuotedCSV(false, values.toArray(new String[0])))
+            {
+                int equals = directive.indexOf('=');
+                String name = (equals < 0 ? directive : directive.substring(0, equals)).trim().toLowerCase(Locale.ENGLISH);
+                String value = equals < 0 ? null : directive.substring(equals + 1).trim();
+                switch (name)
+                {
+                    case "no-store":
+                        cacheControl._noStore = true;
+                        break;
+                    case "no-cache":
+                        // no-cache with field names still allows the rest of the response to be used.
+                        if (value == null)
+                            cacheControl._noCache = true;
+                        break;
+                    case "private":
+                        cacheControl._private = true;
+                        break;
+                    case "public":
+                        cacheControl._public = true;
+                        break;
+                    case "must-revalidate":
+                    case "proxy-revalidate":
+                        cacheControl._mustRevalidate = true;
+                        break;
+                    case "only-if-cached":
+                        cacheControl._onlyIfCached = true;
+                        break;
+                    case "max-age":
+                        cacheControl._maxAge = parseSeconds(value);
+                        break;
+                    case "s-maxage":
+                        cacheControl._sMaxAge = parseSeconds(value);
+                        break;
+                    case "min-fresh":
+                        cacheControl._minFresh = parseSeconds(value);
+                        break;
+                    case "max-stale":
+                        cacheControl._maxStale = value == null ? Long.MAX_VALUE : parseSeconds(value);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return cacheControl;
+        }
+
+        private static long parseSeconds(String value)
+        {
+            // Invalid values are treated as 0, so that the response is stale.
+            try
+            {
+                return value == null ? 0 : Math.max(0, Long.parseLong(value));
+            }
+            catch (NumberFormatException x)
+            {
+                return 0;
+            }
+        }
+
+        public boolean isNoStore()
+        {
+            return _noStore;
+        }
+
+        public boolean isNoCache()
+        {
+            return _noCache;
+        }
+
+        public boolean isPrivate()
+        {
+            return _private;
+        }
+
+        public boolean isPublic()
+        {
+            return _public;
+        }
+
+        public boolean isMustRevalidate()
+        {
+            return _mustRevalidate;
+        }
+
+        public boolean isOnlyIfCached()
+        {
+            return _onlyIfCached;
+        }
+
+        /**
+         * @return the max-age in seconds, or -1 if absent
+         */
+        public long getMaxAge()
+        {
+            return _maxAge;
+        }
+
+        /**
+         * @return the s-maxage in seconds, or -1 if absent
+         */
+        public long getSMaxAge()
+        {
+            return _sMaxAge;
+        }
+
+        /**
+         * @return the min-fresh in seconds, or -1 if absent
+         */
+        public long getMinFresh()
+        {
+            return _minFresh;
+        }
+
+        /**
+         * @return the max-stale in seconds, {@link Long#MAX_VALUE} if it has no value, or -1 if absent
+         */
+        public long getMaxStale()
+        {
+            return _maxStale;
+        }
+    }
+}
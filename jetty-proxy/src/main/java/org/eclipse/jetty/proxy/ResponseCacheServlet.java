@@ -0,0 +1,482 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.http.DateParser;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.QuotedCSV;
+import org.eclipse.jetty.util.Callback;
+
+/**
+ * <p>A {@link ProxyServlet} that stores the responses of servers in a shared {@link ResponseCache},
+ * and responds to {@code GET} and {@code HEAD} requests from the cache while the stored responses
+ * are fresh.</p>
+ * <p>Stale responses that have an {@code ETag} or a {@code Last-Modified} header are revalidated
+ * with a conditional request to the server, and are served from the cache if the server responds
+ * {@code 304}. Concurrent misses for the same URI are collapsed, so that only the first is
+ * forwarded to the server while the others wait to be served its response from the cache.
+ * Once the {@code Vary} header of the responses for a URI is known, only the misses that
+ * select the same variant are collapsed.
+ * Successful unsafe requests invalidate the responses stored for their URI.</p>
+ * <p>The cache is configured by the init parameters:</p>
+ * <ul>
+ * <li>{@code maxHeapSize}, the max bytes of content stored in heap</li>
+ * <li>{@code maxHeapEntrySize}, the max bytes of content of an entry stored in heap</li>
+ * <li>{@code maxFileSize}, the max bytes of content stored in files, 0 to only store in heap</li>
+ * <li>{@code maxEntrySize}, the max bytes of content of an entry</li>
+ * <li>{@code cacheDirectory}, the directory of the files, by default a temporary directory</li>
+ * </ul>
+ */
+public class ResponseCacheServlet extends ProxyServlet
+{
+    private static final String ENTRY_ATTRIBUTE = ResponseCacheServlet.class.getName() + ".entry";
+    private static final String NOT_MODIFIED_ATTRIBUTE = ResponseCacheServlet.class.getName() + ".notModified";
+    private static final String RECORDER_ATTRIBUTE = ResponseCacheServlet.class.getName() + ".recorder";
+    private static final String LEADER_ATTRIBUTE = ResponseCacheServlet.class.getName() + ".leader";
+    private static final String COLLAPSED_ATTRIBUTE = ResponseCacheServlet.class.getName() + ".collapsed";
+    private static final String REQUEST_TIME_ATTRIBUTE = ResponseCacheServlet.class.getName() + ".requestTime";
+    private static final List<HttpHeader> CONDITIONAL_HEADERS = List.of(HttpHeader.IF_MATCH, HttpHeader.IF_NONE_MATCH,
+        HttpHeader.IF_MODIFIED_SINCE, HttpHeader.IF_UNMODIFIED_SINCE, HttpHeader.IF_RANGE);
+    private static final Set<HttpHeader> NOT_MODIFIED_HEADERS = Set.of(HttpHeader.CACHE_CONTROL, HttpHeader.CONTENT_LOCATION,
+        HttpHeader.DATE, HttpHeader.ETAG, HttpHeader.EXPIRES, HttpHeader.VARY);
+
+    private ResponseCache _cache;
+
+    @Override
+    public void init() throws ServletException
+    {
+        super.init();
+        ServletConfig config = getServletConfig();
+        ResponseCache cache = newResponseCache();
+        String value = config.getInitParameter("maxHeapSize");
+        if (value != null)
+            cache.setMaxHeapSize(Long.parseLong(value));
+        value = config.getInitParameter("maxHeapEntrySize");
+        if (value != null)
+            cache.setMaxHeapEntrySize(Integer.parseInt(value));
+        value = config.getInitParameter("maxFileSize");
+        if (value != null)
+            cache.setMaxFileSize(Long.parseLong(value));
+        value = config.getInitParameter("maxEntrySize");
+        if (value != null)
+            cache.setMaxEntrySize(Long.parseLong(value));
+        value = config.getInitParameter("cacheDirectory");
+        if (value != null)
+            cache.setDirectory(Paths.get(value));
+        try
+        {
+            cache.start();
+        }
+        catch (Exception x)
+        {
+            throw new ServletException(x);
+        }
+        _cache = cache;
+        // Put the ResponseCache in the context to leverage ContextHandler.MANAGED_ATTRIBUTES
+        getServletContext().setAttribute(config.getServletName() + ".ResponseCache", cache);
+    }
+
+    @Override
+    public void destroy()
+    {
+        try
+        {
+            _cache.stop();
+        }
+        catch (Exception x)
+        {
+            if (_log.isDebugEnabled())
+                _log.debug("Failed to stop cache", x);
+        }
+        super.destroy();
+    }
+
+    protected ResponseCache newResponseCache()
+    {
+        return new ResponseCache();
+    }
+
+    public ResponseCache getResponseCache()
+    {
+        return _cache;
+    }
+
+    /**
+     * @param request the request
+     * @return the key of the responses to the request in the cache
+     */
+    protected String getCacheKey(HttpServletRequest request)
+    {
+        StringBuffer key = request.getRequestURL();
+        String query = request.getQueryString();
+        if (query != null)
+            key.append('?').append(query);
+        return key.toString();
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        boolean head = HttpMethod.HEAD.is(request.getMethod());
+        if (!head && !HttpMethod.GET.is(request.getMethod()))
+        {
+            super.service(request, response);
+            return;
+        }
+
+        ResponseCache.CacheControl cacheControl = ResponseCache.CacheControl.from(request);
+        if (cacheControl.isNoStore())
+        {
+            super.service(request, response);
+            return;
+        }
+
+        String key = getCacheKey(request);
+        ResponseCache.Entry entry = _cache.get(key, request);
+        if (entry != null)
+        {
+            if (entry.isFresh(System.currentTimeMillis(), cacheControl))
+            {
+                try
+                {
+                    _cache.onHit();
+                    serve(request, response, entry);
+                }
+                finally
+                {
+                    _cache.release(entry);
+                }
+                return;
+            }
+
+            if (!head && entry.hasValidators())
+            {
+                _cache.onMiss();
+                request.setAttribute(ENTRY_ATTRIBUTE, entry);
+                proxy(request, response);
+                return;
+            }
+            _cache.release(entry);
+        }
+
+        if (cacheControl.isOnlyIfCached())
+        {
+            response.sendError(HttpStatus.GATEWAY_TIMEOUT_504);
+            return;
+        }
+
+        _cache.onMiss();
+        if (head || isConditional(request) || request.getAttribute(COLLAPSED_ATTRIBUTE) != null)
+        {
+            super.service(request, response);
+            return;
+        }
+
+        String collapseKey = _cache.getCollapseKey(key, request);
+        Follower follower = new Follower(request);
+        if (_cache.collapse(collapseKey, follower))
+        {
+            if (_log.isDebugEnabled())
+                _log.debug("{} waiting for concurrent miss of {}", getRequestId(request), key);
+            follower.await();
+            return;
+        }
+
+        request.setAttribute(LEADER_ATTRIBUTE, collapseKey);
+        proxy(request, response);
+    }
+
+    private void proxy(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        try
+        {
+            super.service(request, response);
+        }
+        catch (Throwable x)
+        {
+            complete(request);
+            throw x;
+        }
+    }
+
+    private boolean isConditional(HttpServletRequest request)
+    {
+        for (HttpHeader header : CONDITIONAL_HEADERS)
+        {
+            if (request.getHeader(header.asString()) != null)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void sendProxyRequest(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Request proxyRequest)
+    {
+        clientRequest.setAttribute(REQUEST_TIME_ATTRIBUTE, System.currentTimeMillis());
+        ResponseCache.Entry entry = (ResponseCache.Entry)clientRequest.getAttribute(ENTRY_ATTRIBUTE);
+        if (entry != null)
+        {
+            // Revalidate with the validators of the entry, rather than those of the client.
+            for (HttpHeader header : CONDITIONAL_HEADERS)
+            {
+                proxyRequest.header(header, null);
+            }
+            String etag = entry.getETag();
+            if (etag != null)
+                proxyRequest.header(HttpHeader.IF_NONE_MATCH, etag);
+            String lastModified = entry.getLastModified();
+            if (lastModified != null)
+                proxyRequest.header(HttpHeader.IF_MODIFIED_SINCE, lastModified);
+        }
+        super.sendProxyRequest(clientRequest, proxyResponse, proxyRequest);
+    }
+
+    @Override
+    protected void onServerResponseHeaders(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse)
+    {
+        int status = serverResponse.getStatus();
+        long requestTime = (Long)clientRequest.getAttribute(REQUEST_TIME_ATTRIBUTE);
+        long responseTime = System.currentTimeMillis();
+
+        ResponseCache.Entry entry = (ResponseCache.Entry)clientRequest.getAttribute(ENTRY_ATTRIBUTE);
+        if (entry != null && status == HttpStatus.NOT_MODIFIED_304)
+        {
+            // The entry is served when the 304 response completes.
+            clientRequest.setAttribute(ENTRY_ATTRIBUTE, _cache.revalidated(entry, serverResponse.getHeaders(), requestTime, responseTime));
+            clientRequest.setAttribute(NOT_MODIFIED_ATTRIBUTE, Boolean.TRUE);
+            return;
+        }
+
+        super.onServerResponseHeaders(clientRequest, proxyResponse, serverResponse);
+
+        String method = clientRequest.getMethod();
+        if (HttpMethod.GET.is(method))
+        {
+            HttpFields headers = new HttpFields();
+            for (String name : proxyResponse.getHeaderNames())
+            {
+                for (String value : proxyResponse.getHeaders(name))
+                {
+                    headers.add(name, value);
+                }
+            }
+            if (_cache.isStorable(clientRequest, status, headers))
+            {
+                ResponseCache.Recorder recorder = _cache.newRecorder(getCacheKey(clientRequest), clientRequest, status, headers, requestTime, responseTime);
+                if (recorder != null)
+                    clientRequest.setAttribute(RECORDER_ATTRIBUTE, recorder);
+            }
+        }
+        else if (!HttpMethod.HEAD.is(method) && !HttpMethod.OPTIONS.is(method) && !HttpMethod.TRACE.is(method) && status < HttpStatus.BAD_REQUEST_400)
+        {
+            _cache.invalidate(getCacheKey(clientRequest));
+        }
+    }
+
+    @Override
+    protected void onResponseContent(HttpServletRequest request, HttpServletResponse response, Response proxyResponse, byte[] buffer, int offset, int length, Callback callback)
+    {
+        ResponseCache.Recorder recorder = (ResponseCache.Recorder)request.getAttribute(RECORDER_ATTRIBUTE);
+        if (recorder != null)
+            recorder.write(buffer, offset, length);
+        super.onResponseContent(request, response, proxyResponse, buffer, offset, length, callback);
+    }
+
+    @Override
+    protected void onProxyResponseSuccess(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse)
+    {
+        if (clientRequest.getAttribute(NOT_MODIFIED_ATTRIBUTE) != null)
+        {
+            ResponseCache.Entry entry = (ResponseCache.Entry)clientRequest.getAttribute(ENTRY_ATTRIBUTE);
+            try
+            {
+                serve(clientRequest, proxyResponse, entry);
+            }
+            catch (Throwable x)
+            {
+                if (_log.isDebugEnabled())
+                    _log.debug("{} could not serve revalidated {}", getRequestId(clientRequest), entry, x);
+            }
+            complete(clientRequest);
+            clientRequest.getAsyncContext().complete();
+            return;
+        }
+
+        ResponseCache.Recorder recorder = (ResponseCache.Recorder)clientRequest.getAttribute(RECORDER_ATTRIBUTE);
+        if (recorder != null)
+        {
+            clientRequest.removeAttribute(RECORDER_ATTRIBUTE);
+            _cache.store(recorder);
+        }
+        complete(clientRequest);
+        super.onProxyResponseSuccess(clientRequest, proxyResponse, serverResponse);
+    }
+
+    @Override
+    protected void onProxyResponseFailure(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse, Throwable failure)
+    {
+        complete(clientRequest);
+        super.onProxyResponseFailure(clientRequest, proxyResponse, serverResponse, failure);
+    }
+
+    @Override
+    protected void onProxyRewriteFailed(HttpServletRequest clientRequest, HttpServletResponse proxyResponse)
+    {
+        complete(clientRequest);
+        super.onProxyRewriteFailed(clientRequest, proxyResponse);
+    }
+
+    private void complete(HttpServletRequest request)
+    {
+        ResponseCache.Entry entry = (ResponseCache.Entry)request.getAttribute(ENTRY_ATTRIBUTE);
+        if (entry != null)
+        {
+            request.removeAttribute(ENTRY_ATTRIBUTE);
+            _cache.release(entry);
+        }
+        ResponseCache.Recorder recorder = (ResponseCache.Recorder)request.getAttribute(RECORDER_ATTRIBUTE);
+        if (recorder != null)
+        {
+            request.removeAttribute(RECORDER_ATTRIBUTE);
+            recorder.abort();
+        }
+        String key = (String)request.getAttribute(LEADER_ATTRIBUTE);
+        if (key != null)
+        {
+            request.removeAttribute(LEADER_ATTRIBUTE);
+            _cache.complete(key);
+        }
+    }
+
+    /**
+     * <p>Writes a stored response to the client, or a {@code 304} response
+     * if the stored response matches the conditional headers of the request.</p>
+     *
+     * @param request the client request
+     * @param response the client response
+     * @param entry the stored response
+     * @throws IOException if the response cannot be written
+     */
+    protected void serve(HttpServletRequest request, HttpServletResponse response, ResponseCache.Entry entry) throws IOException
+    {
+        if (_log.isDebugEnabled())
+            _log.debug("{} serving {}", getRequestId(request), entry);
+
+        boolean notModified = isNotModified(request, entry);
+        response.setStatus(notModified ? HttpStatus.NOT_MODIFIED_304 : entry.getStatus());
+        for (HttpField field : entry.getHeaders())
+        {
+            HttpHeader header = field.getHeader();
+            if (header == HttpHeader.AGE || header == HttpHeader.CONTENT_LENGTH)
+                continue;
+            if (notModified && !NOT_MODIFIED_HEADERS.contains(header))
+                continue;
+            response.addHeader(field.getName(), field.getValue());
+        }
+        response.setHeader(HttpHeader.AGE.asString(), String.valueOf(TimeUnit.MILLISECONDS.toSeconds(entry.getAge(System.currentTimeMillis()))));
+        if (notModified || HttpStatus.hasNoBody(entry.getStatus()))
+            return;
+        response.setContentLengthLong(entry.getContentLength());
+        if (!HttpMethod.HEAD.is(request.getMethod()))
+            entry.writeTo(response.getOutputStream());
+    }
+
+    private boolean isNotModified(HttpServletRequest request, ResponseCache.Entry entry)
+    {
+        if (entry.getStatus() != HttpStatus.OK_200)
+            return false;
+        List<String> ifNoneMatch = Collections.list(request.getHeaders(HttpHeader.IF_NONE_MATCH.asString()));
+        if (!ifNoneMatch.isEmpty())
+        {
+            String etag = entry.getETag();
+            if (etag == null)
+                return false;
+            for (String tag : new QuotedCSV(true, ifNoneMatch.toArray(new String[0])))
+            {
+                if ("*".equals(tag) || weakETag(tag).equals(weakETag(etag)))
+                    return true;
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getHeader(HttpHeader.IF_MODIFIED_SINCE.asString());
+        String lastModified = entry.getLastModified();
+        if (ifModifiedSince == null || lastModified == null)
+            return false;
+        long since = DateParser.parseDate(ifModifiedSince);
+        long modified = DateParser.parseDate(lastModified);
+        return since >= 0 && modified >= 0 && modified <= since;
+    }
+
+    private static String weakETag(String etag)
+    {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * <p>A miss that waits for a concurrent miss of the same key to complete,
+     * and is then dispatched again to be served from the cache.</p>
+     */
+    private class Follower implements Runnable
+    {
+        private final AtomicInteger _state = new AtomicInteger();
+        private final HttpServletRequest _request;
+        private AsyncContext _asyncContext;
+
+        private Follower(HttpServletRequest request)
+        {
+            _request = request;
+        }
+
+        private void await()
+        {
+            _request.setAttribute(COLLAPSED_ATTRIBUTE, Boolean.TRUE);
+            _asyncContext = _request.startAsync();
+            _asyncContext.setTimeout(0);
+            // The concurrent miss may have completed before the request was async.
+            if (_state.incrementAndGet() == 2)
+                _asyncContext.dispatch();
+        }
+
+        @Override
+        public void run()
+        {
+            if (_state.incrementAndGet() == 2)
+                _asyncContext.dispatch();
+        }
+    }
+}
@@ -22,6 +22,10 @@ import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.ServletException;
@@ -29,8 +33,12 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.client.AbstractConnectionPool;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
 import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Destination;
+import org.eclipse.jetty.client.util.FutureResponseListener;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.session.DefaultSessionIdManager;
@@ -41,12 +49,17 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class BalancerServletTest
 {
     private static final String CONTEXT_PATH = "/context";
     private static final String SERVLET_PATH = "/mapping";
 
+    private static volatile boolean node1Healthy;
+
+    private final Map<String, String> initParams = new HashMap<>();
     private boolean stickySessions;
     private Server server1;
     private Server server2;
@@ -56,6 +69,7 @@ public class BalancerServletTest
     @BeforeEach
     public void prepare() throws Exception
     {
+        node1Healthy = false;
         client = new HttpClient();
         client.start();
     }
@@ -78,6 +92,7 @@ public class BalancerServletTest
         server2.start();
 
         ServletHolder balancerServletHolder = new ServletHolder(BalancerServlet.class);
+        balancerServletHolder.setInitParameters(initParams);
         balancerServletHolder.setInitParameter("stickySessions", String.valueOf(stickySessions));
         balancerServletHolder.setInitParameter("proxyPassReverse", "true");
         balancerServletHolder.setInitParameter("balancerMember." + "node1" + ".proxyTo", "http://localhost:" + getServerPort(server1));
@@ -95,6 +110,8 @@ public class BalancerServletTest
 
         ServletContextHandler context = new ServletContextHandler(server, CONTEXT_PATH, ServletContextHandler.SESSIONS);
         context.addServlet(servletHolder, SERVLET_PATH + "/*");
+        if (nodeName != null)
+            servletHolder.setInitParameter("node", nodeName);
 
         if (nodeName != null)
         {
@@ -160,6 +177,144 @@ public class BalancerServletTest
         assertEquals("success", msg);
     }
 
+    @Test
+    public void testLeastRequestsBalancer() throws Exception
+    {
+        initParams.put("strategy", "least_requests");
+        startBalancer(NodeServlet.class);
+
+        // The slow request stays outstanding, so the other requests go to the other member.
+        FutureResponseListener slow = new FutureResponseListener(client.newRequest("localhost", getServerPort(balancer))
+            .path(CONTEXT_PATH + SERVLET_PATH + "/slow"));
+        slow.getRequest().send(slow);
+        Thread.sleep(500);
+
+        String node = readFirstLine(sendRequestToBalancer("/fast"));
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals(node, readFirstLine(sendRequestToBalancer("/fast")));
+        }
+        assertNotEquals(node, slow.get(5, TimeUnit.SECONDS).getContentAsString().trim());
+    }
+
+    @Test
+    public void testPeakEWMABalancer() throws Exception
+    {
+        initParams.put("strategy", "PEAK_EWMA");
+        startBalancer(NodeServlet.class);
+
+        // After both members are sampled, the slow node1 is avoided.
+        for (int i = 0; i < 4; i++)
+        {
+            sendRequestToBalancer("/slowNode1");
+        }
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals("node2", readFirstLine(sendRequestToBalancer("/slowNode1")));
+        }
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesBalancer() throws Exception
+    {
+        initParams.put("strategy", "POWER_OF_TWO_CHOICES");
+        startBalancer(NodeServlet.class);
+
+        // With two members, both are always chosen and requests go to the idle one.
+        FutureResponseListener slow = new FutureResponseListener(client.newRequest("localhost", getServerPort(balancer))
+            .path(CONTEXT_PATH + SERVLET_PATH + "/slow"));
+        slow.getRequest().send(slow);
+        Thread.sleep(500);
+
+        String node = readFirstLine(sendRequestToBalancer("/fast"));
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals(node, readFirstLine(sendRequestToBalancer("/fast")));
+        }
+        assertNotEquals(node, slow.get(5, TimeUnit.SECONDS).getContentAsString().trim());
+    }
+
+    @Test
+    public void testFailingMemberEjected() throws Exception
+    {
+        initParams.put("maxFailures", "2");
+        startBalancer(NodeServlet.class);
+
+        for (int i = 0; i < 4; i++)
+        {
+            sendRequestToBalancer("/failNode1");
+        }
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals("node2", readFirstLine(sendRequestToBalancer("/failNode1")));
+        }
+    }
+
+    @Test
+    public void testUnhealthyMemberNotSelected() throws Exception
+    {
+        initParams.put("healthCheckPath", CONTEXT_PATH + SERVLET_PATH + "/health");
+        initParams.put("healthCheckInterval", "100");
+        startBalancer(NodeServlet.class);
+        // The first request initializes the balancer, which starts the health checks.
+        sendRequestToBalancer("/fast");
+        Thread.sleep(1000);
+
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals("node2", readFirstLine(sendRequestToBalancer("/fast")));
+        }
+    }
+
+    @Test
+    public void testMemberHealthyAgain() throws Exception
+    {
+        initParams.put("healthCheckPath", CONTEXT_PATH + SERVLET_PATH + "/health");
+        initParams.put("healthCheckInterval", "100");
+        startBalancer(NodeServlet.class);
+        // The first request initializes the balancer, which starts the health checks.
+        sendRequestToBalancer("/fast");
+        Thread.sleep(1000);
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals("node2", readFirstLine(sendRequestToBalancer("/fast")));
+        }
+
+        // A later round of health checks selects node1 again.
+        node1Healthy = true;
+        boolean selected = false;
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!selected && System.nanoTime() < end)
+        {
+            selected = "node1".equals(readFirstLine(sendRequestToBalancer("/fast")));
+            if (!selected)
+                Thread.sleep(50);
+        }
+        assertTrue(selected);
+    }
+
+    @Test
+    public void testMemberMaxConnections() throws Exception
+    {
+        initParams.put("balancerMember.node1.maxConnections", "3");
+        startBalancer(NodeServlet.class);
+        for (int i = 0; i < 2; i++)
+        {
+            sendRequestToBalancer("/fast");
+        }
+
+        ServletContextHandler context = balancer.getChildHandlerByClass(ServletContextHandler.class);
+        BalancerServlet servlet = (BalancerServlet)context.getServletHandler().getServlets()[0].getServlet();
+        List<Destination> destinations = servlet.getHttpClient().getDestinations();
+        assertEquals(2, destinations.size());
+        for (Destination destination : destinations)
+        {
+            AbstractConnectionPool pool = (AbstractConnectionPool)((HttpDestination)destination).getConnectionPool();
+            int expected = destination.getPort() == getServerPort(server1) ? 3 : 256;
+            assertEquals(expected, pool.getMaxConnectionCount());
+        }
+    }
+
     private String readFirstLine(byte[] responseBytes) throws IOException
     {
         BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(responseBytes)));
@@ -180,6 +335,33 @@ public class BalancerServletTest
         }
     }
 
+    public static final class NodeServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+        {
+            String node = getInitParameter("node");
+            boolean node1 = "node1".equals(node);
+            String path = req.getPathInfo();
+            try
+            {
+                if ("/slow".equals(path) || "/slowNode1".equals(path) && node1)
+                    Thread.sleep(1000);
+            }
+            catch (InterruptedException x)
+            {
+                throw new ServletException(x);
+            }
+            if (node1 && ("/failNode1".equals(path) || "/health".equals(path) && !node1Healthy))
+            {
+                resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            resp.setContentType("text/plain");
+            resp.getOutputStream().write(node.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
     public static final class RelocationServlet extends HttpServlet
     {
         @Override
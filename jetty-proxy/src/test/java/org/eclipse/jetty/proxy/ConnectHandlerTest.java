@@ -30,7 +30,10 @@ import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -38,12 +41,15 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.tools.HttpTester;
+import org.eclipse.jetty.io.ByteArrayEndPoint;
 import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.MappedByteBufferPool;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.toolchain.test.Net;
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.Promise;
 import org.junit.jupiter.api.Assumptions;
@@ -51,6 +57,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -663,6 +672,139 @@ public class ConnectHandlerTest extends AbstractConnectHandlerTest
         }
     }
 
+    @Test
+    public void testCONNECTAndPOSTWithAdaptiveBuffers() throws Exception
+    {
+        AtomicInteger maxAcquired = new AtomicInteger();
+        connectHandler.setByteBufferPool(new MappedByteBufferPool()
+        {
+            @Override
+            public ByteBuffer acquire(int size, boolean direct)
+            {
+                maxAcquired.accumulateAndGet(size, Math::max);
+                return super.acquire(size, direct);
+            }
+        });
+        connectHandler.setMaxBufferSize(64 * 1024);
+
+        String hostPort = "localhost:" + serverConnector.getLocalPort();
+        String request =
+            "CONNECT " + hostPort + " HTTP/1.1\r\n" +
+                "Host: " + hostPort + "\r\n" +
+                "\r\n";
+        StringBuilder body = new StringBuilder();
+        try (Socket socket = newSocket())
+        {
+            OutputStream output = socket.getOutputStream();
+            InputStream input = socket.getInputStream();
+
+            output.write(request.getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            // Expect 200 OK from the CONNECT request
+            HttpTester.Input in = HttpTester.from(input);
+            HttpTester.Response response = HttpTester.parseResponse(in);
+            assertEquals(HttpStatus.OK_200, response.getStatus());
+            assertEquals(1, connectHandler.getTunnelsOpen());
+
+            String chunk = "0123456789ABCDEF";
+            for (int i = 0; i < 64 * 1024; ++i)
+            {
+                body.append(chunk);
+            }
+
+            request =
+                "POST /echo HTTP/1.1\r\n" +
+                    "Host: " + hostPort + "\r\n" +
+                    "Content-Length: " + body.length() + "\r\n" +
+                    "\r\n" +
+                    body;
+            output.write(request.getBytes(StandardCharsets.UTF_8));
+            output.flush();
+
+            response = HttpTester.parseResponse(in);
+            assertEquals(HttpStatus.OK_200, response.getStatus());
+            assertEquals("POST /echo\r\n" + body, response.getContent());
+        }
+
+        // The buffers grew past the initial size.
+        assertThat(maxAcquired.get(), greaterThan(connectHandler.getBufferSize()));
+        assertEquals(1, connectHandler.getTunnels());
+        assertThat(connectHandler.getBytesToServer(), greaterThanOrEqualTo((long)body.length()));
+        assertThat(connectHandler.getBytesToClient(), greaterThanOrEqualTo((long)body.length()));
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (connectHandler.getTunnelsOpen() > 0 && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(0, connectHandler.getTunnelsOpen());
+        assertThat(connectHandler.getTunnelRateMax(), greaterThan(0L));
+    }
+
+    @Test
+    public void testSteadyTunnelTrafficReusesBuffer() throws Exception
+    {
+        AtomicInteger acquired = new AtomicInteger();
+        MappedByteBufferPool bufferPool = new MappedByteBufferPool()
+        {
+            @Override
+            public ByteBuffer acquire(int size, boolean direct)
+            {
+                acquired.incrementAndGet();
+                return super.acquire(size, direct);
+            }
+        };
+
+        int reads = 16;
+        AtomicInteger remaining = new AtomicInteger(reads);
+        AtomicInteger written = new AtomicInteger();
+        ProxyConnection client = new ProxyConnection(new ByteArrayEndPoint(), Runnable::run, bufferPool, new ConcurrentHashMap<>())
+        {
+            @Override
+            protected int read(EndPoint endPoint, ByteBuffer buffer)
+            {
+                // A steady stream of reads that neither fill the buffer nor leave it mostly empty.
+                if (remaining.getAndDecrement() <= 0)
+                    return -1;
+                int length = getInputBufferSize() / 2;
+                int position = BufferUtil.flipToFill(buffer);
+                buffer.put(new byte[length]);
+                BufferUtil.flipToFlush(buffer, position);
+                return length;
+            }
+
+            @Override
+            protected void write(EndPoint endPoint, ByteBuffer buffer, Callback callback)
+            {
+                written.addAndGet(buffer.remaining());
+                callback.succeeded();
+            }
+        };
+        ProxyConnection server = new ProxyConnection(new ByteArrayEndPoint(), Runnable::run, bufferPool, new ConcurrentHashMap<>())
+        {
+            @Override
+            protected int read(EndPoint endPoint, ByteBuffer buffer)
+            {
+                return -1;
+            }
+
+            @Override
+            protected void write(EndPoint endPoint, ByteBuffer buffer, Callback callback)
+            {
+                callback.succeeded();
+            }
+        };
+        client.setMaxInputBufferSize(4 * client.getInputBufferSize());
+        client.setConnection(server);
+        server.setConnection(client);
+
+        client.onFillable();
+
+        assertEquals(reads * client.getInputBufferSize() / 2, written.get());
+        assertEquals(1, acquired.get());
+    }
+
     @Test
     public void testCONNECTAndPOSTWithContext() throws Exception
     {
@@ -0,0 +1,270 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.DeferredContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ProxyHandlerTest
+{
+    private Server server;
+    private ServerConnector serverConnector;
+    private Server proxy;
+    private ServerConnector proxyConnector;
+    private ProxyHandler proxyHandler;
+    private HttpClient client;
+
+    private void startServer(HttpServlet servlet) throws Exception
+    {
+        server = new Server();
+        serverConnector = new ServerConnector(server);
+        server.addConnector(serverConnector);
+
+        ServletContextHandler appCtx = new ServletContextHandler(server, "/", false, false);
+        appCtx.addServlet(new ServletHolder(servlet), "/*");
+
+        server.start();
+    }
+
+    private void startProxy() throws Exception
+    {
+        proxy = new Server();
+        proxyConnector = new ServerConnector(proxy);
+        proxy.addConnector(proxyConnector);
+
+        proxyHandler = new ProxyHandler("http://localhost:" + serverConnector.getLocalPort() + "/app");
+        proxyHandler.setPrefix("/proxy");
+        proxyHandler.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+            {
+                baseRequest.setHandled(true);
+                response.setStatus(HttpStatus.NO_CONTENT_204);
+            }
+        });
+        proxy.setHandler(proxyHandler);
+
+        proxy.start();
+    }
+
+    private void startClient() throws Exception
+    {
+        client = new HttpClient();
+        client.start();
+    }
+
+    @AfterEach
+    public void dispose() throws Exception
+    {
+        if (client != null)
+            client.stop();
+        if (proxy != null)
+            proxy.stop();
+        if (server != null)
+            server.stop();
+    }
+
+    @Test
+    public void testProxyHeaders() throws Exception
+    {
+        startServer(new HttpServlet()
+        {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+            {
+                response.setHeader("X-Path", request.getRequestURI() + "?" + request.getQueryString());
+                response.setHeader("X-Via", request.getHeader(HttpHeader.VIA.asString()));
+                response.setHeader("X-Client", request.getHeader("X-Client"));
+                response.setHeader("X-Private", request.getHeader("X-Private"));
+                response.setHeader(HttpHeader.CONNECTION.asString(), "X-Hop");
+                response.setHeader("X-Hop", "hop");
+                response.setContentType("text/plain");
+                response.getWriter().print("hello");
+            }
+        });
+        startProxy();
+        startClient();
+
+        ContentResponse response = client.newRequest("localhost", proxyConnector.getLocalPort())
+            .path("/proxy/path?a=b")
+            .header("X-Client", "client")
+            .header(HttpHeader.CONNECTION, "X-Private")
+            .header("X-Private", "private")
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertEquals("hello", response.getContentAsString());
+        assertEquals("text/plain", response.getMediaType());
+        assertEquals("/app/path?a=b", response.getHeaders().get("X-Path"));
+        assertEquals("http/1.1 " + proxyHandler.getViaHost(), response.getHeaders().get("X-Via"));
+        assertEquals("client", response.getHeaders().get("X-Client"));
+        // Hop-by-hop headers are not proxied.
+        assertNull(response.getHeaders().get("X-Private"));
+        assertNull(response.getHeaders().get("X-Hop"));
+    }
+
+    @Test
+    public void testProxyContent() throws Exception
+    {
+        startServer(new EchoHttpServlet());
+        startProxy();
+        startClient();
+
+        byte[] content = new byte[1024 * 1024];
+        new Random().nextBytes(content);
+
+        ContentResponse response = client.newRequest("localhost", proxyConnector.getLocalPort())
+            .method(HttpMethod.POST)
+            .path("/proxy/echo")
+            .content(new BytesContentProvider(content))
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertArrayEquals(content, response.getContent());
+    }
+
+    @Test
+    public void testProxyChunkedContent() throws Exception
+    {
+        startServer(new EchoHttpServlet());
+        startProxy();
+        startClient();
+
+        byte[] chunk = new byte[16 * 1024];
+        new Random().nextBytes(chunk);
+        int chunks = 32;
+        DeferredContentProvider provider = new DeferredContentProvider();
+        for (int i = 0; i < chunks; i++)
+        {
+            provider.offer(ByteBuffer.wrap(chunk));
+        }
+        provider.close();
+
+        ContentResponse response = client.newRequest("localhost", proxyConnector.getLocalPort())
+            .method(HttpMethod.POST)
+            .path("/proxy/echo")
+            .content(provider)
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        byte[] result = response.getContent();
+        assertEquals(chunk.length * chunks, result.length);
+        for (int i = 0; i < chunks; i++)
+        {
+            assertArrayEquals(chunk, Arrays.copyOfRange(result, i * chunk.length, (i + 1) * chunk.length));
+        }
+    }
+
+    @Test
+    public void testNotProxiedRequestIsHandledByWrappedHandler() throws Exception
+    {
+        startServer(new EmptyHttpServlet());
+        startProxy();
+        startClient();
+
+        ContentResponse response = client.newRequest("localhost", proxyConnector.getLocalPort())
+            .path("/other")
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+
+        assertEquals(HttpStatus.NO_CONTENT_204, response.getStatus());
+    }
+
+    @Test
+    public void testPrefixMatchesWholeSegments() throws Exception
+    {
+        startServer(new HttpServlet()
+        {
+            @Override
+            protected void service(HttpServletRequest request, HttpServletResponse response)
+            {
+                response.setHeader("X-Path", request.getRequestURI());
+            }
+        });
+        startProxy();
+        startClient();
+
+        ContentResponse response = client.newRequest("localhost", proxyConnector.getLocalPort())
+            .path("/proxyfoo")
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+        assertEquals(HttpStatus.NO_CONTENT_204, response.getStatus());
+
+        response = client.newRequest("localhost", proxyConnector.getLocalPort())
+            .path("/proxy")
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertEquals("/app", response.getHeaders().get("X-Path"));
+
+        response = client.newRequest("localhost", proxyConnector.getLocalPort())
+            .path("/proxy/foo")
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertEquals("/app/foo", response.getHeaders().get("X-Path"));
+    }
+
+    @Test
+    public void testServerDown() throws Exception
+    {
+        startServer(new EmptyHttpServlet());
+        startProxy();
+        startClient();
+        server.stop();
+
+        ContentResponse response = client.newRequest("localhost", proxyConnector.getLocalPort())
+            .path("/proxy/down")
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+
+        assertEquals(HttpStatus.BAD_GATEWAY_502, response.getStatus());
+    }
+}
@@ -0,0 +1,433 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.proxy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpProxy;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.FutureResponseListener;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ResponseCacheServletTest
+{
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private Server server;
+    private ServerConnector serverConnector;
+    private Server proxy;
+    private ResponseCacheServlet proxyServlet;
+    private HttpClient client;
+
+    private void start(Map<String, String> initParams) throws Exception
+    {
+        QueuedThreadPool serverPool = new QueuedThreadPool();
+        serverPool.setName("server");
+        server = new Server(serverPool);
+        serverConnector = new ServerConnector(server);
+        server.addConnector(serverConnector);
+        ServletContextHandler appCtx = new ServletContextHandler(server, "/", false, false);
+        appCtx.addServlet(new ServletHolder(new OriginServlet()), "/*");
+        server.start();
+
+        QueuedThreadPool proxyPool = new QueuedThreadPool();
+        proxyPool.setName("proxy");
+        proxy = new Server(proxyPool);
+        ServerConnector proxyConnector = new ServerConnector(proxy);
+        proxy.addConnector(proxyConnector);
+        proxyServlet = new ResponseCacheServlet();
+        ServletContextHandler proxyContext = new ServletContextHandler(proxy, "/", false, false);
+        ServletHolder proxyServletHolder = new ServletHolder(proxyServlet);
+        proxyServletHolder.setInitParameters(initParams);
+        proxyServletHolder.setInitOrder(0);
+        proxyContext.addServlet(proxyServletHolder, "/*");
+        proxy.start();
+
+        QueuedThreadPool clientPool = new QueuedThreadPool();
+        clientPool.setName("client");
+        client = new HttpClient();
+        client.setExecutor(clientPool);
+        client.getProxyConfiguration().getProxies().add(new HttpProxy("localhost", proxyConnector.getLocalPort()));
+        client.start();
+    }
+
+    @AfterEach
+    public void dispose() throws Exception
+    {
+        if (client != null)
+            client.stop();
+        if (proxy != null)
+            proxy.stop();
+        if (server != null)
+            server.stop();
+    }
+
+    private ContentResponse get(String pathQuery, String... headers) throws Exception
+    {
+        Request request = client.newRequest("localhost", serverConnector.getLocalPort())
+            .path(pathQuery)
+            .timeout(5, TimeUnit.SECONDS);
+        for (int i = 0; i < headers.length; i += 2)
+        {
+            request.header(headers[i], headers[i + 1]);
+        }
+        return request.send();
+    }
+
+    private void awaitEntries(int entries) throws Exception
+    {
+        // Responses are stored just after their content has been sent to the client.
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (proxyServlet.getResponseCache().getEntries() != entries && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(entries, proxyServlet.getResponseCache().getEntries());
+    }
+
+    private int requests(String pathQuery)
+    {
+        AtomicInteger count = requests.get(pathQuery);
+        return count == null ? 0 : count.get();
+    }
+
+    @Test
+    public void testFreshResponseServedFromCache() throws Exception
+    {
+        start(new HashMap<>());
+
+        ContentResponse response = get("/max-age");
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertEquals("max-age", response.getContentAsString());
+
+        response = get("/max-age");
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertEquals("max-age", response.getContentAsString());
+        assertEquals("max-age=60", response.getHeaders().get(HttpHeader.CACHE_CONTROL));
+        assertNotNull(response.getHeaders().get(HttpHeader.AGE));
+        assertEquals(1, requests("/max-age"));
+        assertEquals(1, proxyServlet.getResponseCache().getHits());
+    }
+
+    @Test
+    public void testNoStoreNotCached() throws Exception
+    {
+        start(new HashMap<>());
+
+        get("/no-store");
+        ContentResponse response = get("/no-store");
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertNull(response.getHeaders().get(HttpHeader.AGE));
+        assertEquals(2, requests("/no-store"));
+        assertEquals(0, proxyServlet.getResponseCache().getEntries());
+    }
+
+    @Test
+    public void testRequestNoCacheRevalidates() throws Exception
+    {
+        start(new HashMap<>());
+
+        get("/max-age");
+        ContentResponse response = get("/max-age", "Cache-Control", "no-cache");
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertEquals(2, requests("/max-age"));
+    }
+
+    @Test
+    public void testStaleResponseRevalidated() throws Exception
+    {
+        start(new HashMap<>());
+
+        ContentResponse response = get("/etag");
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+
+        // The server responds 304, and the stored response is served.
+        response = get("/etag");
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertEquals("etag", response.getContentAsString());
+        assertEquals("\"v1\"", response.getHeaders().get(HttpHeader.ETAG));
+        assertEquals(2, requests("/etag"));
+        assertEquals(1, requests("/etag 304"));
+        assertEquals(1, proxyServlet.getResponseCache().getRevalidations());
+
+        // The conditional request of the client is evaluated against the stored response.
+        response = get("/etag", "If-None-Match", "\"v0\", \"v1\"");
+        assertEquals(HttpStatus.NOT_MODIFIED_304, response.getStatus());
+        assertEquals(3, requests("/etag"));
+        assertEquals(2, requests("/etag 304"));
+    }
+
+    @Test
+    public void testVaryVariants() throws Exception
+    {
+        start(new HashMap<>());
+
+        assertEquals("en", get("/vary", "Accept-Language", "en").getContentAsString());
+        assertEquals("fr", get("/vary", "Accept-Language", "fr").getContentAsString());
+        assertEquals("en", get("/vary", "Accept-Language", "en").getContentAsString());
+        assertEquals("fr", get("/vary", "Accept-Language", "fr").getContentAsString());
+        assertEquals(2, requests("/vary"));
+        assertEquals(2, proxyServlet.getResponseCache().getEntries());
+    }
+
+    @Test
+    public void testConcurrentMissesCollapsed() throws Exception
+    {
+        start(new HashMap<>());
+
+        List<FutureResponseListener> listeners = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+        {
+            FutureResponseListener listener = new FutureResponseListener(client.newRequest("localhost", serverConnector.getLocalPort())
+                .path("/slow")
+                .timeout(5, TimeUnit.SECONDS));
+            listener.getRequest().send(listener);
+            listeners.add(listener);
+        }
+
+        for (FutureResponseListener listener : listeners)
+        {
+            ContentResponse response = listener.get(5, TimeUnit.SECONDS);
+            assertEquals(HttpStatus.OK_200, response.getStatus());
+            assertEquals("slow", response.getContentAsString());
+        }
+        assertEquals(1, requests("/slow"));
+        assertEquals(4, proxyServlet.getResponseCache().getCollapsed());
+    }
+
+    @Test
+    public void testConcurrentMissesCollapsedByVariant() throws Exception
+    {
+        start(new HashMap<>());
+
+        // Store a variant, so that the Vary header of the URI is known.
+        assertEquals("en", get("/vary-slow", "Accept-Language", "en").getContentAsString());
+        awaitEntries(1);
+
+        List<String> languages = List.of("fr", "de", "fr", "de");
+        List<FutureResponseListener> listeners = new ArrayList<>();
+        for (String language : languages)
+        {
+            FutureResponseListener listener = new FutureResponseListener(client.newRequest("localhost", serverConnector.getLocalPort())
+                .path("/vary-slow")
+                .header("Accept-Language", language)
+                .header("X-Slow", "true")
+                .timeout(5, TimeUnit.SECONDS));
+            listener.getRequest().send(listener);
+            listeners.add(listener);
+        }
+
+        for (int i = 0; i < listeners.size(); i++)
+        {
+            ContentResponse response = listeners.get(i).get(5, TimeUnit.SECONDS);
+            assertEquals(HttpStatus.OK_200, response.getStatus());
+            assertEquals(languages.get(i), response.getContentAsString());
+        }
+        // One request for each variant, and only the misses for the same variant waited.
+        assertEquals(3, requests("/vary-slow"));
+        assertEquals(2, proxyServlet.getResponseCache().getCollapsed());
+    }
+
+    @Test
+    public void testInvalidContentLengthIsUnknown() throws Exception
+    {
+        start(new HashMap<>());
+
+        ResponseCache cache = proxyServlet.getResponseCache();
+        HttpFields headers = new HttpFields();
+        headers.put(HttpHeader.CACHE_CONTROL, "max-age=60");
+        headers.put(HttpHeader.CONTENT_LENGTH, "invalid");
+        assertNotNull(cache.newRecorder("/invalid", null, HttpStatus.OK_200, headers, 0, 0));
+    }
+
+    @Test
+    public void testLargeResponseStoredInFile() throws Exception
+    {
+        Map<String, String> initParams = new HashMap<>();
+        initParams.put("maxHeapEntrySize", "1024");
+        start(initParams);
+
+        byte[] content = get("/large?size=100000").getContent();
+        assertEquals(100000, content.length);
+        assertArrayEquals(content, get("/large?size=100000").getContent());
+        assertEquals(1, requests("/large?size=100000"));
+
+        ResponseCache cache = proxyServlet.getResponseCache();
+        assertEquals(100000, cache.getFileSize());
+        assertEquals(0, cache.getHeapSize());
+
+        cache.clear();
+        assertEquals(0, cache.getFileSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception
+    {
+        Map<String, String> initParams = new HashMap<>();
+        initParams.put("maxHeapSize", "2500");
+        start(initParams);
+
+        get("/large?size=1000&a");
+        awaitEntries(1);
+        get("/large?size=1000&b");
+        awaitEntries(2);
+        // Use "a", so that "b" is the least recently used.
+        get("/large?size=1000&a");
+        get("/large?size=1000&c");
+
+        ResponseCache cache = proxyServlet.getResponseCache();
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getEvictions() == 0 && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(2, cache.getEntries());
+        assertEquals(1, cache.getEvictions());
+        assertThat(cache.getMaxHeapSize(), greaterThanOrEqualTo(cache.getHeapSize()));
+
+        get("/large?size=1000&a");
+        get("/large?size=1000&b");
+        assertEquals(1, requests("/large?size=1000&a"));
+        assertEquals(2, requests("/large?size=1000&b"));
+    }
+
+    @Test
+    public void testUnsafeRequestInvalidates() throws Exception
+    {
+        start(new HashMap<>());
+
+        get("/max-age");
+        ContentResponse response = client.newRequest("localhost", serverConnector.getLocalPort())
+            .method(HttpMethod.POST)
+            .path("/max-age")
+            .timeout(5, TimeUnit.SECONDS)
+            .send();
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertEquals(0, proxyServlet.getResponseCache().getEntries());
+
+        get("/max-age");
+        assertEquals(3, requests("/max-age"));
+    }
+
+    private class OriginServlet extends HttpServlet
+    {
+        @Override
+        protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+        {
+            String query = request.getQueryString();
+            String pathQuery = request.getRequestURI() + (query == null ? "" : "?" + query);
+            requests.computeIfAbsent(pathQuery, k -> new AtomicInteger()).incrementAndGet();
+            response.setContentType("text/plain");
+            switch (request.getRequestURI())
+            {
+                case "/max-age":
+                    response.setHeader("Cache-Control", "max-age=60");
+                    response.getWriter().print("max-age");
+                    break;
+                case "/no-store":
+                    response.setHeader("Cache-Control", "no-store");
+                    response.getWriter().print("no-store");
+                    break;
+                case "/etag":
+                    response.setHeader("Cache-Control", "max-age=0");
+                    response.setHeader("ETag", "\"v1\"");
+                    if ("\"v1\"".equals(request.getHeader("If-None-Match")))
+                    {
+                        requests.computeIfAbsent("/etag 304", k -> new AtomicInteger()).incrementAndGet();
+                        response.setStatus(HttpStatus.NOT_MODIFIED_304);
+                        return;
+                    }
+                    response.getWriter().print("etag");
+                    break;
+                case "/vary":
+                    response.setHeader("Cache-Control", "max-age=60");
+                    response.setHeader("Vary", "Accept-Language");
+                    response.getWriter().print(request.getHeader("Accept-Language"));
+                    break;
+                case "/vary-slow":
+                    if (request.getHeader("X-Slow") != null)
+                    {
+                        try
+                        {
+                            Thread.sleep(1000);
+                        }
+                        catch (InterruptedException x)
+                        {
+                            throw new ServletException(x);
+                        }
+                    }
+                    response.setHeader("Cache-Control", "max-age=60");
+                    response.setHeader("Vary", "Accept-Language");
+                    response.getWriter().print(request.getHeader("Accept-Language"));
+                    break;
+                case "/slow":
+                    try
+                    {
+                        Thread.sleep(1000);
+                    }
+                    catch (InterruptedException x)
+                    {
+                        throw new ServletException(x);
+                    }
+                    response.setHeader("Cache-Control", "max-age=60");
+                    response.getWriter().print("slow");
+                    break;
+                case "/large":
+                    response.setHeader("Cache-Control", "max-age=60");
+                    byte[] content = new byte[Integer.parseInt(request.getParameter("size"))];
+                    Arrays.fill(content, (byte)'x');
+                    response.getOutputStream().write(content);
+                    break;
+                default:
+                    response.setStatus(HttpStatus.NOT_FOUND_404);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+DO NOT EDIT - See: https://www.eclipse.org/jetty/documentation/current/startup-modules.html
+
+[description]
+Enable a first level session cache that holds a bounded number of sessions.
+The least recently used sessions are written to the session store and
+evicted from the cache when the cache is full.
+
+[tags]
+session
+
+[provides]
+session-cache
+
+[depends]
+sessions
+
+[xml]
+etc/sessions/session-cache-bounded.xml
+
+[ini-template]
+#jetty.session.maxSessions=10000
+#jetty.session.maxBytes=-1
+#jetty.session.evictionPolicy=-1
+#jetty.session.saveOnInactiveEvict=false
+#jetty.session.saveOnCreate=false
+#jetty.session.removeUnloadableSessions=false
+#jetty.session.flushOnResponseCommit=false
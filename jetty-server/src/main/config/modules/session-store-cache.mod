@@ -27,3 +27,6 @@ session-data-cache=xmemcached
 #jetty.session.memcached.port=11211
 #jetty.session.memcached.expirySec=
 #jetty.session.memcached.heartbeats=true
+#jetty.session.memcached.versioned=false
+#jetty.session.nearCache.maxEntries=0
+#jetty.session.nearCache.trustMs=1000
@@ -0,0 +1,26 @@
+DO NOT EDIT - See: https://www.eclipse.org/jetty/documentation/current/startup-modules.html
+
+[description]
+Enables session persistent storage in an append-only log of memory-mapped files.
+
+[tags]
+session
+
+[provides]
+session-store
+
+[depends]
+sessions
+
+[xml]
+etc/sessions/logstructured/session-store.xml
+
+[files]
+sessions/
+
+[ini-template]
+jetty.session.logstructured.storeDir=${jetty.base}/sessions
+#jetty.session.logstructured.segmentSize=16777216
+#jetty.session.logstructured.compactionRatio=0.5
+#jetty.session.logstructured.syncOnWrite=false
+#jetty.session.savePeriod.seconds=0
@@ -0,0 +1,219 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A RequestLog that writes each request as a JSON object on a single line.</p>
+ * <p>The selected {@link Field}s are encoded directly into a reused buffer, without
+ * reflection or intermediate objects, and passed to a {@link RequestLog.Writer}, which
+ * may be a {@link RingBufferRequestLogWriter} to also avoid creating a String per request.
+ * Absent values, such as the user of an unauthenticated request, are omitted.</p>
+ * <pre>
+ * {"time":1590000000000,"client":"127.0.0.1","method":"GET","uri":"/","protocol":"HTTP/1.1","status":200,"bytes":1234,"latency":3}
+ * </pre>
+ */
+@ManagedObject("JSON lines request log")
+public class JsonRequestLog extends ContainerLifeCycle implements RequestLog
+{
+    private static final Logger LOG = LoggerFactory.getLogger(JsonRequestLog.class);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final ThreadLocal<StringBuilder> _buffers = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    /**
+     * The fields that can be logged, with their JSON names.
+     */
+    public enum Field
+    {
+        /**
+         * The time the request was received, in ms since the epoch.
+         */
+        TIME("time"),
+        CLIENT("client"),
+        METHOD("method"),
+        URI("uri"),
+        PROTOCOL("protocol"),
+        STATUS("status"),
+        /**
+         * The bytes sent for the response, including headers.
+         */
+        BYTES("bytes"),
+        /**
+         * The time spent handling the request, in ms.
+         */
+        LATENCY("latency"),
+        USER("user"),
+        REFERER("referer"),
+        USER_AGENT("userAgent");
+
+        private final String _name;
+
+        Field(String name)
+        {
+            _name = name;
+        }
+
+        public String getName()
+        {
+            return _name;
+        }
+    }
+
+    private final RequestLog.Writer _requestLogWriter;
+    private final Field[] _fields;
+
+    public JsonRequestLog(RequestLog.Writer writer)
+    {
+        this(writer, Field.values());
+    }
+
+    public JsonRequestLog(RequestLog.Writer writer, Field... fields)
+    {
+        _requestLogWriter = Objects.requireNonNull(writer);
+        _fields = fields.clone();
+        addBean(_requestLogWriter);
+    }
+
+    @ManagedAttribute("The RequestLogWriter")
+    public RequestLog.Writer getWriter()
+    {
+        return _requestLogWriter;
+    }
+
+    @ManagedAttribute("The logged fields")
+    public String getFields()
+    {
+        return Arrays.toString(_fields);
+    }
+
+    @Override
+    public void log(Request request, Response response)
+    {
+        try
+        {
+            StringBuilder b = _buffers.get();
+            b.setLength(0);
+            b.append('{');
+            for (Field field : _fields)
+            {
+                int mark = b.length();
+                if (b.length() > 1)
+                    b.append(',');
+                b.append('"').append(field._name).append("\":");
+                if (!append(b, field, request, response))
+                    b.setLength(mark);
+            }
+            b.append('}');
+            _requestLogWriter.write(b);
+        }
+        catch (Throwable e)
+        {
+            LOG.warn("Unable to log request", e);
+        }
+    }
+
+    /**
+     * @return false if the field has no value, and should be omitted
+     */
+    private static boolean append(StringBuilder b, Field field, Request request, Response response)
+    {
+        switch (field)
+        {
+            case TIME:
+                b.append(request.getTimeStamp());
+                return true;
+            case CLIENT:
+                return appendString(b, request.getRemoteAddr());
+            case METHOD:
+                return appendString(b, request.getMethod());
+            case URI:
+                return appendString(b, request.getOriginalURI());
+            case PROTOCOL:
+                return appendString(b, request.getProtocol());
+            case STATUS:
+                b.append(response.getCommittedMetaData().getStatus());
+                return true;
+            case BYTES:
+                b.append(response.getHttpChannel().getBytesWritten());
+                return true;
+            case LATENCY:
+                b.append(System.currentTimeMillis() - request.getTimeStamp());
+                return true;
+            case USER:
+                return appendString(b, CustomRequestLog.getAuthentication(request, false));
+            case REFERER:
+                return appendString(b, request.getHeader(HttpHeader.REFERER.asString()));
+            case USER_AGENT:
+                return appendString(b, request.getHeader(HttpHeader.USER_AGENT.asString()));
+            default:
+                throw new IllegalStateException(field.toString());
+        }
+    }
+
+    private static boolean appendString(StringBuilder b, String value)
+    {
+        if (value == null)
+            return false;
+        b.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    b.append("\\\"");
+                    break;
+                case '\\':
+                    b.append("\\\\");
+                    break;
+                case '\n':
+                    b.append("\\n");
+                    break;
+                case '\r':
+                    b.append("\\r");
+                    break;
+                case '\t':
+                    b.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029)
+                        b.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+                    else
+                        b.append(c);
+            }
+        }
+        b.append('"');
+        return true;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s}", getClass().getSimpleName(), hashCode(), getFields());
+    }
+}
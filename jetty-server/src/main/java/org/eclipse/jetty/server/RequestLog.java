@@ -47,6 +47,18 @@ public interface RequestLog
     interface Writer
     {
         void write(String requestEntry) throws IOException;
+
+        /**
+         * <p>Writes a log entry held in a buffer that is reused once this method returns.</p>
+         * <p>Writers that can encode the characters directly avoid creating a String for each entry.</p>
+         *
+         * @param requestEntry the log entry
+         * @throws IOException if the entry cannot be written
+         */
+        default void write(CharSequence requestEntry) throws IOException
+        {
+            write(requestEntry.toString());
+        }
     }
 
     class Collection implements RequestLog
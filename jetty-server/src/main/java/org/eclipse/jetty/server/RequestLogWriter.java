@@ -22,8 +22,10 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.TimeZone;
 
+import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.RolloverFileOutputStream;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
@@ -185,6 +187,37 @@ public class RequestLogWriter extends AbstractLifeCycle implements RequestLog.Wr
         }
     }
 
+    /**
+     * Writes the remaining bytes of a sequence of buffers holding encoded log entries,
+     * including their line separators, with gathering writes when the log is a file.
+     *
+     * @param buffers the buffers to write
+     * @param offset the index of the first buffer to write
+     * @param length the number of buffers to write
+     * @throws IOException if the buffers cannot be written
+     */
+    protected void write(ByteBuffer[] buffers, int offset, int length) throws IOException
+    {
+        synchronized (this)
+        {
+            if (_writer == null)
+                return;
+            _writer.flush();
+            if (_out instanceof RolloverFileOutputStream)
+            {
+                ((RolloverFileOutputStream)_out).write(buffers, offset, length);
+            }
+            else
+            {
+                for (int i = offset; i < offset + length; i++)
+                {
+                    BufferUtil.writeTo(buffers[i], _out);
+                }
+                _out.flush();
+            }
+        }
+    }
+
     @Override
     protected synchronized void doStart() throws Exception
     {
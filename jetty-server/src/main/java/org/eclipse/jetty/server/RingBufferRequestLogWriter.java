@@ -0,0 +1,360 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jetty.io.ArrayByteBufferPool;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A RequestLogWriter that encodes log entries directly into pooled ByteBuffers
+ * and passes them through a bounded lock-free ring buffer to a writer thread.</p>
+ * <p>When used with {@link CustomRequestLog}, the entries are encoded as UTF-8 from
+ * the reused buffer they are formatted into, so no String is created per request.
+ * The writer thread drains the ring in batches and writes each batch with a single
+ * gathering write to the log file, which is rolled over like {@link RequestLogWriter}.</p>
+ * <p>If the ring is full, entries are dropped rather than blocking the request.</p>
+ */
+@ManagedObject("Request Log writer which writes batches of pooled buffers to file")
+public class RingBufferRequestLogWriter extends RequestLogWriter implements MetricsSource
+{
+    private static final Logger LOG = LoggerFactory.getLogger(RingBufferRequestLogWriter.class);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    private final int _mask;
+    private final AtomicReferenceArray<ByteBuffer> _entries;
+    private final AtomicLongArray _sequences;
+    private final AtomicLong _tail = new AtomicLong();
+    private final LongAdder _dropped = new LongAdder();
+    private final LongAdder _written = new LongAdder();
+    private final LongAdder _batches = new LongAdder();
+    private ByteBufferPool _bufferPool;
+    private int _batchSize = DEFAULT_BATCH_SIZE;
+    private long _head;
+    private volatile Thread _thread;
+    private volatile boolean _parked;
+    private boolean _warnedFull;
+
+    public RingBufferRequestLogWriter()
+    {
+        this(null);
+    }
+
+    public RingBufferRequestLogWriter(String filename)
+    {
+        this(filename, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param filename the file name of the request log, or null to log to {@code System.err}
+     * @param capacity the number of entries the ring buffer holds, rounded up to a power of 2
+     */
+    public RingBufferRequestLogWriter(String filename, int capacity)
+    {
+        super(filename);
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        _mask = size - 1;
+        _entries = new AtomicReferenceArray<>(size);
+        _sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+        {
+            _sequences.set(i, i);
+        }
+    }
+
+    @ManagedAttribute("The number of entries the ring buffer holds")
+    public int getCapacity()
+    {
+        return _mask + 1;
+    }
+
+    public ByteBufferPool getByteBufferPool()
+    {
+        return _bufferPool;
+    }
+
+    /**
+     * @param bufferPool the pool of the buffers the entries are encoded into
+     */
+    public void setByteBufferPool(ByteBufferPool bufferPool)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        _bufferPool = bufferPool;
+    }
+
+    @ManagedAttribute("The max number of entries written at once")
+    public int getBatchSize()
+    {
+        return _batchSize;
+    }
+
+    public void setBatchSize(int batchSize)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Invalid batch size " + batchSize);
+        _batchSize = batchSize;
+    }
+
+    @ManagedAttribute("The number of entries dropped because the ring buffer was full")
+    public long getDropped()
+    {
+        return _dropped.sum();
+    }
+
+    @ManagedAttribute("The number of entries written")
+    public long getWritten()
+    {
+        return _written.sum();
+    }
+
+    @ManagedAttribute("The number of gathering writes")
+    public long getBatches()
+    {
+        return _batches.sum();
+    }
+
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        registry.counter(this, "request_log_written", "The number of request log entries written", this::getWritten);
+        registry.counter(this, "request_log_dropped", "The number of request log entries dropped because the ring buffer was full", this::getDropped);
+        registry.counter(this, "request_log_batches", "The number of gathering writes of request log entries", this::getBatches);
+    }
+
+    @Override
+    protected synchronized void doStart() throws Exception
+    {
+        if (_bufferPool == null)
+            _bufferPool = new ArrayByteBufferPool();
+        super.doStart();
+        Thread thread = new Thread(this::drain, "RingBufferRequestLogWriter@" + Integer.toString(hashCode(), 16));
+        thread.setDaemon(true);
+        _thread = thread;
+        thread.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        Thread thread = _thread;
+        if (thread != null)
+        {
+            LockSupport.unpark(thread);
+            thread.join();
+            _thread = null;
+        }
+        super.doStop();
+    }
+
+    @Override
+    public void write(String requestEntry) throws IOException
+    {
+        write((CharSequence)requestEntry);
+    }
+
+    @Override
+    public void write(CharSequence requestEntry) throws IOException
+    {
+        if (_thread == null)
+            return;
+
+        // A char encodes to at most 3 bytes, or 4 bytes for a surrogate pair.
+        ByteBuffer buffer = _bufferPool.acquire(requestEntry.length() * 3 + LINE_SEPARATOR.length, true);
+        buffer.clear();
+        encode(requestEntry, buffer);
+        buffer.put(LINE_SEPARATOR);
+        buffer.flip();
+
+        if (!offer(buffer))
+        {
+            _bufferPool.release(buffer);
+            _dropped.increment();
+            if (!_warnedFull)
+            {
+                _warnedFull = true;
+                LOG.warn("Request log ring buffer overflow");
+            }
+            return;
+        }
+
+        if (_parked)
+            LockSupport.unpark(_thread);
+    }
+
+    private static void encode(CharSequence chars, ByteBuffer buffer)
+    {
+        int length = chars.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = chars.charAt(i);
+            if (c < 0x80)
+            {
+                buffer.put((byte)c);
+            }
+            else if (c < 0x800)
+            {
+                buffer.put((byte)(0xC0 | (c >> 6)));
+                buffer.put((byte)(0x80 | (c & 0x3F)));
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1)))
+            {
+                int cp = Character.toCodePoint(c, chars.charAt(++i));
+                buffer.put((byte)(0xF0 | (cp >> 18)));
+                buffer.put((byte)(0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put((byte)(0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put((byte)(0x80 | (cp & 0x3F)));
+            }
+            else if (Character.isSurrogate(c))
+            {
+                buffer.put((byte)'?');
+            }
+            else
+            {
+                buffer.put((byte)(0xE0 | (c >> 12)));
+                buffer.put((byte)(0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte)(0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * Claims a slot for the entry by moving the tail, then publishes the entry by
+     * advancing the sequence of the slot, which the writer thread waits for.
+     */
+    private boolean offer(ByteBuffer entry)
+    {
+        while (true)
+        {
+            long tail = _tail.get();
+            int index = (int)(tail & _mask);
+            long sequence = _sequences.get(index);
+            if (sequence == tail)
+            {
+                if (_tail.compareAndSet(tail, tail + 1))
+                {
+                    _entries.lazySet(index, entry);
+                    _sequences.set(index, tail + 1);
+                    return true;
+                }
+            }
+            else if (sequence < tail)
+            {
+                return false;
+            }
+        }
+    }
+
+    private ByteBuffer poll()
+    {
+        int index = (int)(_head & _mask);
+        if (_sequences.get(index) != _head + 1)
+            return null;
+        ByteBuffer entry = _entries.get(index);
+        _entries.lazySet(index, null);
+        _sequences.set(index, _head + _mask + 1);
+        _head++;
+        return entry;
+    }
+
+    private boolean isEmpty()
+    {
+        return _sequences.get((int)(_head & _mask)) != _head + 1;
+    }
+
+    private void drain()
+    {
+        ByteBuffer[] batch = new ByteBuffer[_batchSize];
+        while (true)
+        {
+            boolean running = isRunning() || isStarting();
+            int length = 0;
+            while (length < batch.length)
+            {
+                ByteBuffer entry = poll();
+                if (entry == null)
+                    break;
+                batch[length++] = entry;
+            }
+
+            if (length > 0)
+            {
+                try
+                {
+                    write(batch, 0, length);
+                    _written.add(length);
+                    _batches.increment();
+                }
+                catch (Throwable t)
+                {
+                    LOG.warn("Failed to write log", t);
+                }
+                finally
+                {
+                    for (int i = 0; i < length; i++)
+                    {
+                        _bufferPool.release(batch[i]);
+                        batch[i] = null;
+                    }
+                }
+            }
+            else if (!running)
+            {
+                return;
+            }
+            else
+            {
+                // Check again once parked is visible, so that an offer is not missed.
+                _parked = true;
+                if (isEmpty())
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                _parked = false;
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,capacity=%d,written=%d,dropped=%d}", getClass().getSimpleName(), hashCode(), getState(), getCapacity(), getWritten(), getDropped());
+    }
+}
@@ -0,0 +1,189 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+
+/**
+ * <p>A RequestLog that passes only a sample of the requests to another RequestLog.</p>
+ * <p>One in every {@link #setSampleRate(int) sample rate} requests is logged,
+ * deterministically counted rather than chosen at random, and at most
+ * {@link #setMaxRate(int) max rate} of them per second. Responses with a status
+ * of at least {@link #setErrorStatus(int) error status}, and requests that took at least
+ * {@link #setSlowThreshold(long) slow threshold} ms, are always logged.</p>
+ * <p>It may be set on the Server, or on a {@link org.eclipse.jetty.server.handler.RequestLogHandler}:</p>
+ * <pre>
+ * SamplingRequestLog sampling = new SamplingRequestLog(new CustomRequestLog(writer, format));
+ * sampling.setSampleRate(100);
+ * sampling.setSlowThreshold(500);
+ * server.setRequestLog(sampling);
+ * </pre>
+ */
+@ManagedObject("Request log that logs a sample of requests")
+public class SamplingRequestLog extends ContainerLifeCycle implements RequestLog
+{
+    private final RequestLog _requestLog;
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _rateWindow = new AtomicLong();
+    private final AtomicLong _rateCount = new AtomicLong();
+    private final LongAdder _logged = new LongAdder();
+    private final LongAdder _skipped = new LongAdder();
+    private int _sampleRate = 1;
+    private int _maxRate = -1;
+    private int _errorStatus = 500;
+    private long _slowThreshold = -1;
+
+    public SamplingRequestLog(RequestLog requestLog)
+    {
+        _requestLog = Objects.requireNonNull(requestLog);
+        addBean(requestLog);
+    }
+
+    public RequestLog getRequestLog()
+    {
+        return _requestLog;
+    }
+
+    @ManagedAttribute("1 in how many requests are logged")
+    public int getSampleRate()
+    {
+        return _sampleRate;
+    }
+
+    /**
+     * @param sampleRate log 1 in every sampleRate requests, or 0 to only log errors and slow requests
+     */
+    public void setSampleRate(int sampleRate)
+    {
+        if (sampleRate < 0)
+            throw new IllegalArgumentException("Invalid sample rate " + sampleRate);
+        _sampleRate = sampleRate;
+    }
+
+    @ManagedAttribute("max sampled requests logged per second")
+    public int getMaxRate()
+    {
+        return _maxRate;
+    }
+
+    /**
+     * @param maxRate the max number of sampled requests logged per second, or -1 for no limit.
+     * Errors and slow requests are logged regardless.
+     */
+    public void setMaxRate(int maxRate)
+    {
+        _maxRate = maxRate;
+    }
+
+    @ManagedAttribute("min response status that is always logged")
+    public int getErrorStatus()
+    {
+        return _errorStatus;
+    }
+
+    /**
+     * @param errorStatus the min status of the responses that are always logged, or -1 for none
+     */
+    public void setErrorStatus(int errorStatus)
+    {
+        _errorStatus = errorStatus;
+    }
+
+    @ManagedAttribute("min time in ms of the requests that are always logged")
+    public long getSlowThreshold()
+    {
+        return _slowThreshold;
+    }
+
+    /**
+     * @param slowThreshold the min time in ms of the requests that are always logged, or -1 for none
+     */
+    public void setSlowThreshold(long slowThreshold)
+    {
+        _slowThreshold = slowThreshold;
+    }
+
+    @ManagedAttribute("number of requests logged")
+    public long getLogged()
+    {
+        return _logged.sum();
+    }
+
+    @ManagedAttribute("number of requests not logged")
+    public long getSkipped()
+    {
+        return _skipped.sum();
+    }
+
+    @Override
+    public void log(Request request, Response response)
+    {
+        if (isLogged(request, response))
+        {
+            _logged.increment();
+            _requestLog.log(request, response);
+        }
+        else
+        {
+            _skipped.increment();
+        }
+    }
+
+    /**
+     * @param request the request
+     * @param response the response
+     * @return whether the request should be logged
+     */
+    protected boolean isLogged(Request request, Response response)
+    {
+        if (_errorStatus >= 0 && response.getCommittedMetaData().getStatus() >= _errorStatus)
+            return true;
+        if (_slowThreshold >= 0 && System.currentTimeMillis() - request.getTimeStamp() >= _slowThreshold)
+            return true;
+        int sampleRate = _sampleRate;
+        if (sampleRate == 0 || _count.getAndIncrement() % sampleRate != 0)
+            return false;
+        return isWithinRate();
+    }
+
+    private boolean isWithinRate()
+    {
+        int maxRate = _maxRate;
+        if (maxRate < 0)
+            return true;
+        long window = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        long current = _rateWindow.get();
+        if (current != window && _rateWindow.compareAndSet(current, window))
+            _rateCount.set(0);
+        return _rateCount.incrementAndGet() <= maxRate;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,rate=1/%d}", getClass().getSimpleName(), hashCode(), _requestLog, _sampleRate);
+    }
+}
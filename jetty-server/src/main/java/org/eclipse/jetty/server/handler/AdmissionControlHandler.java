@@ -0,0 +1,748 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.handler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpHeaderValue;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.server.HttpChannelState;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.annotation.Name;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
+import org.eclipse.jetty.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Handler to limit the number of concurrent requests, with an adaptive limit and
+ * priority- and tenant-aware queuing of the requests in excess of the limit.</p>
+ * <p>The limit on concurrent requests is adjusted from their observed latency: the
+ * average latency of each window of {@link #getSampleWindow() samples} is compared to
+ * a long term average, and the limit is reduced when latency grows, as requests are
+ * then queuing for some resource, or grown by the square root of the limit otherwise.
+ * The limit is kept between the {@link #getMinLimit() min} and {@link #getMaxLimit() max}
+ * limits, so a fixed limit is configured by setting both to the same value.</p>
+ * <p>Requests in excess of the limit are asynchronously suspended until they are admitted.
+ * Requests of higher {@link #getPriority(Request) priority} are always admitted first.
+ * Requests of the same priority are admitted by weighted fair queuing across the
+ * {@link #getTenant(Request) tenants} of the requests, so that a tenant with a
+ * {@link #setTenantWeight(String, int) weight} of 2 is admitted twice as often as a tenant with
+ * the default weight of 1, whatever the number of requests each of them has queued.</p>
+ * <p>Requests are rejected with a 503 status when {@link #getMaxQueued() too many} are queued,
+ * unless a lower priority request can be dropped from the queue instead, or when they
+ * have been queued for longer than the {@link #getMaxQueueTime() max queue time}.
+ * As requests are rejected before any of their content is read, rejected HTTP/1 requests
+ * with content close their connection rather than reading the content.</p>
+ * <p>Unlike the {@code QoSFilter}, this handler applies to the whole server and may
+ * be inserted before any context.</p>
+ */
+@ManagedObject("Admission control handler")
+public class AdmissionControlHandler extends HandlerWrapper implements MetricsSource
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AdmissionControlHandler.class);
+    private static final String PERMIT = AdmissionControlHandler.class.getName() + ".permit";
+
+    private final AutoLock _lock = new AutoLock();
+    private final NavigableMap<Integer, TreeSet<Waiter>> _queues = new TreeMap<>(Comparator.reverseOrder());
+    private final Map<String, Tenant> _tenants = new HashMap<>();
+    private final Map<String, Integer> _weights = new ConcurrentHashMap<>();
+    private final LongAdder _admitted = new LongAdder();
+    private final LongAdder _rejected = new LongAdder();
+    private final LongAdder _expired = new LongAdder();
+    private final String _tenantHeader;
+    private String _priorityHeader;
+    private int _maxPriority = 9;
+    private int _initialLimit = 20;
+    private int _minLimit = 4;
+    private int _maxLimit = 1000;
+    private int _maxQueued = 1000;
+    private long _maxQueueTime = 5000;
+    private int _sampleWindow = 50;
+    private int _longWindow = 20;
+    private double _tolerance = 1.5D;
+    private double _smoothing = 0.2D;
+    private double _limit;
+    private int _inFlight;
+    private int _queued;
+    private long _sequence;
+    private double _virtualTime;
+    private long _windowNanos;
+    private int _windowCount;
+    private int _windowMaxInFlight;
+    private double _longRtt;
+
+    public AdmissionControlHandler()
+    {
+        this(null);
+    }
+
+    /**
+     * @param tenantHeader the request header whose value is the tenant of the request,
+     * or null to use the remote IP address
+     */
+    public AdmissionControlHandler(@Name("tenantHeader") String tenantHeader)
+    {
+        _tenantHeader = tenantHeader;
+    }
+
+    @ManagedAttribute("The request header identifying the tenant of the request")
+    public String getTenantHeader()
+    {
+        return _tenantHeader;
+    }
+
+    @ManagedAttribute("The request header holding the priority of the request")
+    public String getPriorityHeader()
+    {
+        return _priorityHeader;
+    }
+
+    /**
+     * @param priorityHeader the request header whose integer value is the priority of the request,
+     * or null for all requests to have priority 0
+     * @see #getPriority(Request)
+     */
+    public void setPriorityHeader(String priorityHeader)
+    {
+        _priorityHeader = priorityHeader;
+    }
+
+    @ManagedAttribute("The maximum priority of a request")
+    public int getMaxPriority()
+    {
+        return _maxPriority;
+    }
+
+    public void setMaxPriority(int maxPriority)
+    {
+        _maxPriority = maxPriority;
+    }
+
+    @ManagedAttribute("The limit of concurrent requests when started")
+    public int getInitialLimit()
+    {
+        return _initialLimit;
+    }
+
+    public void setInitialLimit(int initialLimit)
+    {
+        _initialLimit = initialLimit;
+    }
+
+    @ManagedAttribute("The minimum limit of concurrent requests")
+    public int getMinLimit()
+    {
+        return _minLimit;
+    }
+
+    public void setMinLimit(int minLimit)
+    {
+        if (minLimit <= 0)
+            throw new IllegalArgumentException("limit must be >0");
+        _minLimit = minLimit;
+    }
+
+    @ManagedAttribute("The maximum limit of concurrent requests")
+    public int getMaxLimit()
+    {
+        return _maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit)
+    {
+        if (maxLimit <= 0)
+            throw new IllegalArgumentException("limit must be >0");
+        _maxLimit = maxLimit;
+    }
+
+    @ManagedAttribute("The maximum number of queued requests")
+    public int getMaxQueued()
+    {
+        return _maxQueued;
+    }
+
+    public void setMaxQueued(int maxQueued)
+    {
+        _maxQueued = maxQueued;
+    }
+
+    @ManagedAttribute("The maximum time in ms a request is queued before being rejected")
+    public long getMaxQueueTime()
+    {
+        return _maxQueueTime;
+    }
+
+    public void setMaxQueueTime(long maxQueueTime)
+    {
+        _maxQueueTime = maxQueueTime;
+    }
+
+    @ManagedAttribute("The number of latency samples used for each adjustment of the limit")
+    public int getSampleWindow()
+    {
+        return _sampleWindow;
+    }
+
+    public void setSampleWindow(int sampleWindow)
+    {
+        _sampleWindow = Math.max(1, sampleWindow);
+    }
+
+    @ManagedAttribute("The number of sample windows in the long term latency average")
+    public int getLongWindow()
+    {
+        return _longWindow;
+    }
+
+    public void setLongWindow(int longWindow)
+    {
+        _longWindow = Math.max(1, longWindow);
+    }
+
+    @ManagedAttribute("The ratio of latency to long term latency tolerated before reducing the limit")
+    public double getTolerance()
+    {
+        return _tolerance;
+    }
+
+    public void setTolerance(double tolerance)
+    {
+        _tolerance = tolerance;
+    }
+
+    @ManagedAttribute("The weight of each adjustment of the limit")
+    public double getSmoothing()
+    {
+        return _smoothing;
+    }
+
+    public void setSmoothing(double smoothing)
+    {
+        _smoothing = smoothing;
+    }
+
+    @ManagedOperation(value = "Set the weight of a tenant", impact = "ACTION")
+    public void setTenantWeight(@Name("tenant") String tenant, @Name("weight") int weight)
+    {
+        if (weight <= 0)
+            throw new IllegalArgumentException("weight must be >0");
+        _weights.put(tenant, weight);
+    }
+
+    @ManagedOperation(value = "Get the weight of a tenant", impact = "INFO")
+    public int getTenantWeight(@Name("tenant") String tenant)
+    {
+        return _weights.getOrDefault(tenant, 1);
+    }
+
+    @ManagedAttribute("The current limit of concurrent requests")
+    public int getLimit()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return (int)_limit;
+        }
+    }
+
+    @ManagedAttribute("The number of admitted requests currently being handled")
+    public int getInFlight()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _inFlight;
+        }
+    }
+
+    @ManagedAttribute("The number of requests currently queued")
+    public int getQueued()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _queued;
+        }
+    }
+
+    @ManagedAttribute("The number of admitted requests")
+    public long getAdmitted()
+    {
+        return _admitted.sum();
+    }
+
+    @ManagedAttribute("The number of requests rejected because too many were queued")
+    public long getRejected()
+    {
+        return _rejected.sum();
+    }
+
+    @ManagedAttribute("The number of requests rejected because they were queued for too long")
+    public long getExpired()
+    {
+        return _expired.sum();
+    }
+
+    @ManagedOperation(value = "Reset the statistics", impact = "ACTION")
+    public void resetStats()
+    {
+        _admitted.reset();
+        _rejected.reset();
+        _expired.reset();
+    }
+
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        registry.gauge(this, "admission_limit", "current limit of concurrent requests", this::getLimit);
+        registry.gauge(this, "admission_in_flight", "admitted requests currently being handled", this::getInFlight);
+        registry.gauge(this, "admission_queued", "requests currently queued", this::getQueued);
+        registry.counter(this, "admission_admitted", "admitted requests", this::getAdmitted);
+        registry.counter(this, "admission_rejected", "requests rejected because too many were queued", this::getRejected);
+        registry.counter(this, "admission_expired", "requests rejected because they were queued for too long", this::getExpired);
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            _limit = Math.max(_minLimit, Math.min(_maxLimit, _initialLimit));
+            _longRtt = 0;
+            _windowNanos = 0;
+            _windowCount = 0;
+            _windowMaxInFlight = 0;
+        }
+        super.doStart();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        List<Waiter> waiters = new ArrayList<>();
+        try (AutoLock l = _lock.lock())
+        {
+            for (TreeSet<Waiter> queue : _queues.values())
+            {
+                waiters.addAll(queue);
+            }
+            _queues.clear();
+            _tenants.clear();
+            _queued = 0;
+        }
+        for (Waiter waiter : waiters)
+        {
+            waiter.completeExceptionally(new RejectedExecutionException("Stopped"));
+        }
+        super.doStop();
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        Permit permit = (Permit)baseRequest.getAttribute(PERMIT);
+        if (permit == null)
+        {
+            // Only the initial dispatch of a request is subject to admission,
+            // any other dispatch of a request that was not admitted passes through.
+            if (baseRequest.getDispatcherType() != DispatcherType.REQUEST || !baseRequest.getHttpChannelState().isInitial())
+            {
+                super.handle(target, baseRequest, request, response);
+                return;
+            }
+
+            String tenant = getTenant(baseRequest);
+            int priority = getPriority(baseRequest);
+            Waiter waiter = null;
+            Waiter dropped = null;
+            try (AutoLock l = _lock.lock())
+            {
+                if (_inFlight < (int)_limit)
+                {
+                    _inFlight++;
+                    permit = new Permit();
+                }
+                else
+                {
+                    if (_queued >= _maxQueued)
+                    {
+                        // Drop the last queued request of the lowest priority, if lower than this request.
+                        Map.Entry<Integer, TreeSet<Waiter>> lowest = _queues.lastEntry();
+                        if (lowest != null && lowest.getKey() < priority)
+                            dropped = dequeue(lowest.getValue().last());
+                    }
+                    if (_queued < _maxQueued)
+                        waiter = enqueue(tenant, priority);
+                }
+            }
+
+            if (dropped != null)
+                dropped.completeExceptionally(new RejectedExecutionException("Dropped"));
+
+            if (permit == null)
+            {
+                if (waiter == null)
+                {
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Rejected {} {}", tenant, target);
+                    _rejected.increment();
+                    reject(baseRequest, response);
+                    return;
+                }
+
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Queued {} {} {}", tenant, priority, target);
+                suspend(baseRequest, waiter);
+                return;
+            }
+
+            // The permit stays on the request until it completes, so that
+            // further dispatches of the same request do not take another one.
+            _admitted.increment();
+            baseRequest.setAttribute(PERMIT, permit);
+        }
+
+        try
+        {
+            super.handle(target, baseRequest, request, response);
+        }
+        finally
+        {
+            HttpChannelState state = baseRequest.getHttpChannelState();
+            if (state.isSuspended())
+            {
+                if (!state.hasListener(permit))
+                    state.addListener(permit);
+            }
+            else
+            {
+                permit.release();
+            }
+        }
+    }
+
+    /**
+     * @param baseRequest the request
+     * @return the tenant of the request, from the tenant header or else the remote IP address
+     */
+    protected String getTenant(Request baseRequest)
+    {
+        if (_tenantHeader != null)
+        {
+            String tenant = baseRequest.getHttpFields().get(_tenantHeader);
+            if (tenant != null)
+                return tenant;
+        }
+        InetSocketAddress address = baseRequest.getHttpChannel().getRemoteAddress();
+        if (address != null && address.getAddress() != null)
+            return address.getAddress().getHostAddress();
+        return "";
+    }
+
+    /**
+     * @param baseRequest the request
+     * @return the priority of the request, from 0 to the max priority, higher priorities being admitted first
+     */
+    protected int getPriority(Request baseRequest)
+    {
+        if (_priorityHeader == null)
+            return 0;
+        String value = baseRequest.getHttpFields().get(_priorityHeader);
+        if (value == null)
+            return 0;
+        try
+        {
+            return Math.max(0, Math.min(_maxPriority, Integer.parseInt(value.trim())));
+        }
+        catch (NumberFormatException x)
+        {
+            return 0;
+        }
+    }
+
+    private void suspend(Request baseRequest, Waiter waiter)
+    {
+        AsyncContext async = baseRequest.startAsync();
+        async.setTimeout(_maxQueueTime);
+        async.addListener(new AsyncListener()
+        {
+            @Override
+            public void onComplete(AsyncEvent event)
+            {
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event)
+            {
+                boolean removed;
+                try (AutoLock l = _lock.lock())
+                {
+                    removed = dequeue(waiter) != null;
+                }
+                if (removed)
+                {
+                    _expired.increment();
+                    waiter.completeExceptionally(new RejectedExecutionException("Expired"));
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event)
+            {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event)
+            {
+            }
+        });
+
+        waiter.whenComplete((permit, failure) ->
+        {
+            if (failure == null)
+            {
+                _admitted.increment();
+                baseRequest.setAttribute(PERMIT, permit);
+                try
+                {
+                    async.dispatch();
+                }
+                catch (Throwable x)
+                {
+                    // Lost the race with the queue timeout.
+                    if (LOG.isDebugEnabled())
+                        LOG.debug("Could not dispatch admitted request", x);
+                    permit.release();
+                }
+            }
+            else
+            {
+                if (!"Expired".equals(failure.getMessage()))
+                    _rejected.increment();
+                try
+                {
+                    reject(baseRequest, (HttpServletResponse)async.getResponse());
+                }
+                catch (Throwable x)
+                {
+                    LOG.trace("IGNORED", x);
+                }
+                finally
+                {
+                    async.complete();
+                }
+            }
+        });
+    }
+
+    private void reject(Request baseRequest, HttpServletResponse response) throws IOException
+    {
+        if (response.isCommitted())
+            return;
+        response.setHeader(HttpHeader.RETRY_AFTER.asString(), "1");
+        // Do not read the content of a rejected request, close the connection instead.
+        boolean hasContent = baseRequest.getContentLengthLong() > 0 || baseRequest.getHttpFields().contains(HttpHeader.TRANSFER_ENCODING);
+        if (hasContent && baseRequest.getHttpVersion().getVersion() <= HttpVersion.HTTP_1_1.getVersion())
+            response.setHeader(HttpHeader.CONNECTION.asString(), HttpHeaderValue.CLOSE.asString());
+        response.sendError(HttpStatus.SERVICE_UNAVAILABLE_503);
+    }
+
+    private Waiter enqueue(String key, int priority)
+    {
+        Tenant tenant = _tenants.computeIfAbsent(key, Tenant::new);
+        double tag = Math.max(_virtualTime, tenant._lastTag) + 1D / getTenantWeight(key);
+        tenant._lastTag = tag;
+        tenant._queued++;
+        Waiter waiter = new Waiter(tenant, priority, tag, _sequence++);
+        _queues.computeIfAbsent(priority, p -> new TreeSet<>()).add(waiter);
+        _queued++;
+        return waiter;
+    }
+
+    private Waiter dequeue(Waiter waiter)
+    {
+        TreeSet<Waiter> queue = _queues.get(waiter._priority);
+        if (queue == null || !queue.remove(waiter))
+            return null;
+        if (queue.isEmpty())
+            _queues.remove(waiter._priority);
+        _queued--;
+        if (--waiter._tenant._queued == 0)
+            _tenants.remove(waiter._tenant._key);
+        return waiter;
+    }
+
+    private void release(long nanos)
+    {
+        List<Waiter> admitted = new ArrayList<>();
+        try (AutoLock l = _lock.lock())
+        {
+            _inFlight--;
+            sample(nanos);
+            while (_inFlight < (int)_limit && _queued > 0)
+            {
+                Waiter waiter = dequeue(_queues.firstEntry().getValue().first());
+                _virtualTime = waiter._tag;
+                _inFlight++;
+                admitted.add(waiter);
+            }
+        }
+        for (Waiter waiter : admitted)
+        {
+            // If the waiter was failed concurrently, release its permit.
+            Permit permit = new Permit();
+            if (!waiter.complete(permit))
+                permit.release();
+        }
+    }
+
+    private void sample(long nanos)
+    {
+        _windowNanos += nanos;
+        _windowMaxInFlight = Math.max(_windowMaxInFlight, _inFlight + 1);
+        if (++_windowCount < _sampleWindow)
+            return;
+
+        double shortRtt = (double)_windowNanos / _windowCount;
+        if (_longRtt <= 0)
+            _longRtt = shortRtt;
+        else
+            _longRtt += (shortRtt - _longRtt) * 2D / (_longWindow + 1);
+        // Recover faster from a drop of latency.
+        if (_longRtt / shortRtt > 2D)
+            _longRtt *= 0.95D;
+
+        double gradient = Math.max(0.5D, Math.min(1D, _tolerance * _longRtt / shortRtt));
+        // Do not grow the limit if it was not reached.
+        boolean limited = _windowMaxInFlight >= _limit / 2;
+        double newLimit = _limit * gradient + (limited ? Math.sqrt(_limit) : 0D);
+        _limit = Math.max(_minLimit, Math.min(_maxLimit, _limit * (1D - _smoothing) + newLimit * _smoothing));
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Limit {} rtt={}us longRtt={}us gradient={}", (int)_limit, TimeUnit.NANOSECONDS.toMicros((long)shortRtt), TimeUnit.NANOSECONDS.toMicros((long)_longRtt), gradient);
+
+        _windowNanos = 0;
+        _windowCount = 0;
+        _windowMaxInFlight = 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return String.format("%s@%x{%s,limit=%d,inFlight=%d,queued=%d}", getClass().getSimpleName(), hashCode(), getState(), (int)_limit, _inFlight, _queued);
+        }
+    }
+
+    private static class Tenant
+    {
+        private final String _key;
+        private double _lastTag;
+        private int _queued;
+
+        private Tenant(String key)
+        {
+            _key = key;
+        }
+    }
+
+    private static class Waiter extends CompletableFuture<Permit> implements Comparable<Waiter>
+    {
+        private final Tenant _tenant;
+        private final int _priority;
+        private final double _tag;
+        private final long _sequence;
+
+        private Waiter(Tenant tenant, int priority, double tag, long sequence)
+        {
+            _tenant = tenant;
+            _priority = priority;
+            _tag = tag;
+            _sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Waiter that)
+        {
+            int compare = Double.compare(_tag, that._tag);
+            return compare != 0 ? compare : Long.compare(_sequence, that._sequence);
+        }
+    }
+
+    private class Permit implements AsyncListener
+    {
+        private final long _start = System.nanoTime();
+        private final AtomicBoolean _released = new AtomicBoolean();
+
+        private void release()
+        {
+            if (_released.compareAndSet(false, true))
+                AdmissionControlHandler.this.release(System.nanoTime() - _start);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
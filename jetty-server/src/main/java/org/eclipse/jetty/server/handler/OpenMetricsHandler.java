@@ -0,0 +1,122 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.handler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.thread.AutoLock;
+
+/**
+ * <p>A Handler that serves the metrics of a {@link MetricsRegistry} in the
+ * <a href="https://openmetrics.io">OpenMetrics</a> text format, for scraping by Prometheus
+ * or any other OpenMetrics compatible collector.</p>
+ * <p>Requests to the configured path are handled, other requests are ignored so that
+ * this handler can be placed in a {@link HandlerList} before the other handlers.
+ * The text of the metrics is rendered into a buffer that is reused across scrapes,
+ * then encoded and written to the client outside of the lock that serializes
+ * the rendering, so that a slow client does not delay the other scrapes.</p>
+ * <p>For example:</p>
+ * <pre>
+ * MetricsRegistry registry = new MetricsRegistry();
+ * server.addEventListener(registry);
+ * server.addBean(registry);
+ * handlers.addHandler(new OpenMetricsHandler(registry));
+ * </pre>
+ */
+@ManagedObject("Serves metrics in the OpenMetrics text format")
+public class OpenMetricsHandler extends AbstractHandler
+{
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private final AutoLock _lock = new AutoLock();
+    private final StringBuilder _buffer = new StringBuilder(8192);
+    private final MetricsRegistry _registry;
+    private String _path = "/metrics";
+
+    public OpenMetricsHandler(MetricsRegistry registry)
+    {
+        _registry = Objects.requireNonNull(registry);
+        addBean(registry, false);
+    }
+
+    public MetricsRegistry getMetricsRegistry()
+    {
+        return _registry;
+    }
+
+    @ManagedAttribute("The path the metrics are served at")
+    public String getPath()
+    {
+        return _path;
+    }
+
+    /**
+     * @param path the path the metrics are served at, or null to serve them at every path
+     */
+    public void setPath(String path)
+    {
+        _path = path;
+    }
+
+    @Override
+    public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+    {
+        if (baseRequest.isHandled() || (_path != null && !_path.equals(target)))
+            return;
+        baseRequest.setHandled(true);
+
+        String method = request.getMethod();
+        if (!HttpMethod.GET.is(method) && !HttpMethod.HEAD.is(method))
+        {
+            response.setHeader(HttpHeader.ALLOW.asString(), "GET, HEAD");
+            response.sendError(HttpStatus.METHOD_NOT_ALLOWED_405);
+            return;
+        }
+
+        response.setStatus(HttpStatus.OK_200);
+        response.setContentType(CONTENT_TYPE);
+        response.setHeader(HttpHeader.CACHE_CONTROL.asString(), "no-store");
+        if (HttpMethod.HEAD.is(method))
+            return;
+
+        ByteBuffer content;
+        try (AutoLock l = _lock.lock())
+        {
+            _buffer.setLength(0);
+            _registry.write(_buffer);
+            content = StandardCharsets.UTF_8.encode(CharBuffer.wrap(_buffer));
+        }
+        response.setContentLength(content.remaining());
+        response.getOutputStream().write(content.array(), content.arrayOffset() + content.position(), content.remaining());
+    }
+}
@@ -19,7 +19,11 @@
 package org.eclipse.jetty.server.handler;
 
 import java.io.IOException;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.LongAdder;
@@ -38,16 +42,25 @@ import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
 import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.annotation.Name;
 import org.eclipse.jetty.util.component.Graceful;
 import org.eclipse.jetty.util.statistic.CounterStatistic;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
+import org.eclipse.jetty.util.statistic.RollingHistogramStatistic;
 import org.eclipse.jetty.util.statistic.SampleStatistic;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @ManagedObject("Request Statistics Gathering")
-public class StatisticsHandler extends HandlerWrapper implements Graceful
+public class StatisticsHandler extends HandlerWrapper implements Graceful, MetricsSource
 {
     private static final Logger LOG = LoggerFactory.getLogger(StatisticsHandler.class);
+    private static final String ASYNC_WAIT_START = StatisticsHandler.class.getName() + ".asyncWaitStart";
+    public static final long DEFAULT_LATENCY_WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+    private static final int LATENCY_WINDOW_SLOTS = 6;
+    private static final long LATENCY_HIGHEST_TRACKABLE_MS = TimeUnit.HOURS.toMillis(1);
     private final AtomicLong _statsStartedAt = new AtomicLong();
     private volatile Shutdown _shutdown;
 
@@ -69,6 +82,13 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
 
     private final AtomicBoolean _wrapWarning = new AtomicBoolean();
 
+    private long _latencyWindowMs = DEFAULT_LATENCY_WINDOW_MS;
+    private RollingHistogramStatistic _requestTimeHistogram = newLatencyHistogram();
+    private RollingHistogramStatistic _dispatchedTimeHistogram = newLatencyHistogram();
+    private RollingHistogramStatistic _asyncWaitTimeHistogram = newLatencyHistogram();
+    private RollingHistogramStatistic[] _responsesTimeHistograms = newLatencyHistograms(5);
+    private final ConcurrentMap<String, RollingHistogramStatistic> _contextTimeHistograms = new ConcurrentHashMap<>();
+
     private final AsyncListener _onCompletion = new AsyncListener()
     {
         @Override
@@ -94,10 +114,14 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
             HttpChannelState state = ((AsyncContextEvent)event).getHttpChannelState();
 
             Request request = state.getBaseRequest();
-            final long elapsed = System.currentTimeMillis() - request.getTimeStamp();
+            final long now = System.currentTimeMillis();
+            final long elapsed = now - request.getTimeStamp();
 
             final long d = _requestStats.decrement();
-            _requestTimeStats.record(elapsed);
+            recordRequestTime(request, elapsed);
+            Object asyncWaitStart = request.getAttribute(ASYNC_WAIT_START);
+            if (asyncWaitStart instanceof Long)
+                _asyncWaitTimeHistogram.record(now - (Long)asyncWaitStart);
 
             updateResponse(request);
 
@@ -135,6 +159,15 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         _responses4xx.reset();
         _responses5xx.reset();
         _responsesTotalBytes.reset();
+
+        _requestTimeHistogram.reset();
+        _dispatchedTimeHistogram.reset();
+        _asyncWaitTimeHistogram.reset();
+        for (RollingHistogramStatistic histogram : _responsesTimeHistograms)
+        {
+            histogram.reset();
+        }
+        _contextTimeHistograms.clear();
     }
 
     @Override
@@ -179,11 +212,13 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
 
             _dispatchedStats.decrement();
             _dispatchedTimeStats.record(dispatched);
+            _dispatchedTimeHistogram.record(dispatched);
 
             if (state.isSuspended())
             {
                 if (state.isInitial())
                 {
+                    baseRequest.setAttribute(ASYNC_WAIT_START, now);
                     state.addListener(_onCompletion);
                     _asyncWaitStats.increment();
                 }
@@ -191,7 +226,7 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
             else if (state.isInitial())
             {
                 long d = _requestStats.decrement();
-                _requestTimeStats.record(dispatched);
+                recordRequestTime(baseRequest, dispatched);
                 updateResponse(baseRequest);
 
                 // If we have no more dispatches, should we signal shutdown?
@@ -207,6 +242,41 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         }
     }
 
+    private void recordRequestTime(Request request, long elapsed)
+    {
+        _requestTimeStats.record(elapsed);
+        _requestTimeHistogram.record(elapsed);
+
+        int statusClass = request.getResponse().getStatus() / 100;
+        if (request.isHandled() && statusClass >= 1 && statusClass <= 5)
+            _responsesTimeHistograms[statusClass - 1].record(elapsed);
+
+        ContextHandler.Context context = request.getErrorContext();
+        if (context != null)
+        {
+            String contextPath = context.getContextHandler().getContextPath();
+            RollingHistogramStatistic histogram = _contextTimeHistograms.get(contextPath);
+            if (histogram == null)
+                histogram = _contextTimeHistograms.computeIfAbsent(contextPath, k -> newLatencyHistogram());
+            histogram.record(elapsed);
+        }
+    }
+
+    private RollingHistogramStatistic newLatencyHistogram()
+    {
+        return new RollingHistogramStatistic(_latencyWindowMs, LATENCY_WINDOW_SLOTS, LATENCY_HIGHEST_TRACKABLE_MS, HistogramStatistic.DEFAULT_PRECISION_BITS);
+    }
+
+    private RollingHistogramStatistic[] newLatencyHistograms(int count)
+    {
+        RollingHistogramStatistic[] histograms = new RollingHistogramStatistic[count];
+        for (int i = 0; i < count; i++)
+        {
+            histograms[i] = newLatencyHistogram();
+        }
+        return histograms;
+    }
+
     protected void updateResponse(Request request)
     {
         Response response = request.getResponse();
@@ -459,7 +529,7 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
      * @return the number of requests that expired while suspended.
      * @see #getAsyncDispatches()
      */
-    @ManagedAttribute("number of async requests requests that have expired")
+    @ManagedAttribute("number of async requests that have expired")
     public int getExpires()
     {
         return _expires.intValue();
@@ -533,6 +603,163 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         return _responsesTotalBytes.longValue();
     }
 
+    /**
+     * @return the duration in ms of the rolling window over which latency percentiles are calculated
+     */
+    @ManagedAttribute("window in ms over which latency percentiles are calculated")
+    public long getLatencyWindowMs()
+    {
+        return _latencyWindowMs;
+    }
+
+    /**
+     * Sets the duration of the rolling window over which latency percentiles are calculated.
+     * The window can only be set while the handler is stopped.
+     *
+     * @param latencyWindowMs the duration of the window in ms
+     */
+    public void setLatencyWindowMs(long latencyWindowMs)
+    {
+        if (isRunning())
+            throw new IllegalStateException(getState());
+        _latencyWindowMs = latencyWindowMs;
+        _requestTimeHistogram = newLatencyHistogram();
+        _dispatchedTimeHistogram = newLatencyHistogram();
+        _asyncWaitTimeHistogram = newLatencyHistogram();
+        _responsesTimeHistograms = newLatencyHistograms(5);
+        _contextTimeHistograms.clear();
+    }
+
+    @ManagedAttribute("median time spent handling requests in the latency window (in ms)")
+    public long getRequestTimeP50()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(50);
+    }
+
+    @ManagedAttribute("90th percentile of time spent handling requests in the latency window (in ms)")
+    public long getRequestTimeP90()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(90);
+    }
+
+    @ManagedAttribute("99th percentile of time spent handling requests in the latency window (in ms)")
+    public long getRequestTimeP99()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute("99.9th percentile of time spent handling requests in the latency window (in ms)")
+    public long getRequestTimeP999()
+    {
+        return _requestTimeHistogram.getValueAtPercentile(99.9);
+    }
+
+    @ManagedAttribute("median time spent in dispatch handling in the latency window (in ms)")
+    public long getDispatchedTimeP50()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(50);
+    }
+
+    @ManagedAttribute("90th percentile of time spent in dispatch handling in the latency window (in ms)")
+    public long getDispatchedTimeP90()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(90);
+    }
+
+    @ManagedAttribute("99th percentile of time spent in dispatch handling in the latency window (in ms)")
+    public long getDispatchedTimeP99()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute("99.9th percentile of time spent in dispatch handling in the latency window (in ms)")
+    public long getDispatchedTimeP999()
+    {
+        return _dispatchedTimeHistogram.getValueAtPercentile(99.9);
+    }
+
+    @ManagedAttribute("median time async requests waited in the latency window (in ms)")
+    public long getAsyncWaitTimeP50()
+    {
+        return _asyncWaitTimeHistogram.getValueAtPercentile(50);
+    }
+
+    @ManagedAttribute("90th percentile of time async requests waited in the latency window (in ms)")
+    public long getAsyncWaitTimeP90()
+    {
+        return _asyncWaitTimeHistogram.getValueAtPercentile(90);
+    }
+
+    @ManagedAttribute("99th percentile of time async requests waited in the latency window (in ms)")
+    public long getAsyncWaitTimeP99()
+    {
+        return _asyncWaitTimeHistogram.getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute("99.9th percentile of time async requests waited in the latency window (in ms)")
+    public long getAsyncWaitTimeP999()
+    {
+        return _asyncWaitTimeHistogram.getValueAtPercentile(99.9);
+    }
+
+    /**
+     * @param statusClass the class of the response status, from 1 for 1xx to 5 for 5xx
+     * @param percentile the percentile, between 0 and 100
+     * @return the time in ms spent handling requests with the given class of response
+     * status, at the given percentile of the latency window
+     */
+    @ManagedOperation(value = "percentile of time spent handling requests by response status class (in ms)", impact = "INFO")
+    public long getResponsesTimePercentile(@Name("statusClass") int statusClass, @Name("percentile") double percentile)
+    {
+        if (statusClass < 1 || statusClass > 5)
+            throw new IllegalArgumentException("Invalid status class " + statusClass);
+        return _responsesTimeHistograms[statusClass - 1].getValueAtPercentile(percentile);
+    }
+
+    /**
+     * @return the paths of the contexts for which request latencies have been recorded
+     */
+    @ManagedAttribute("paths of the contexts with request latencies")
+    public Set<String> getLatencyContextPaths()
+    {
+        return Set.copyOf(_contextTimeHistograms.keySet());
+    }
+
+    /**
+     * @param contextPath the context path
+     * @param percentile the percentile, between 0 and 100
+     * @return the time in ms spent handling requests to the given context,
+     * at the given percentile of the latency window
+     */
+    @ManagedOperation(value = "percentile of time spent handling requests by context (in ms)", impact = "INFO")
+    public long getContextRequestTimePercentile(@Name("contextPath") String contextPath, @Name("percentile") double percentile)
+    {
+        RollingHistogramStatistic histogram = _contextTimeHistograms.get(contextPath);
+        return histogram == null ? 0 : histogram.getValueAtPercentile(percentile);
+    }
+
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        registry.counter(this, "requests", "number of requests", this::getRequests);
+        registry.gauge(this, "requests_active", "number of requests currently active", this::getRequestsActive);
+        registry.counter(this, "dispatched", "number of dispatches", this::getDispatched);
+        registry.gauge(this, "dispatched_active", "number of dispatches currently active", this::getDispatchedActive);
+        registry.gauge(this, "async_requests_waiting", "number of requests currently suspended", this::getAsyncRequestsWaiting);
+        registry.counter(this, "async_expires", "number of async requests that have expired", this::getExpires);
+        registry.counter(this, "responses", "number of responses", this::getResponses1xx, "code", "1xx");
+        registry.counter(this, "responses", "number of responses", this::getResponses2xx, "code", "2xx");
+        registry.counter(this, "responses", "number of responses", this::getResponses3xx, "code", "3xx");
+        registry.counter(this, "responses", "number of responses", this::getResponses4xx, "code", "4xx");
+        registry.counter(this, "responses", "number of responses", this::getResponses5xx, "code", "5xx");
+        registry.counter(this, "responses_bytes", "total number of bytes across all responses", this::getResponsesBytesTotal);
+        double[] quantiles = {0.5, 0.9, 0.99, 0.999};
+        registry.summary(this, "request_time_seconds", "time spent handling requests, with quantiles over the latency window", quantiles,
+            quantile -> _requestTimeHistogram.getValueAtPercentile(quantile * 100) / 1000D, this::getRequests, () -> getRequestTimeTotal() / 1000D);
+        registry.summary(this, "dispatched_time_seconds", "time spent in dispatch handling, with quantiles over the latency window", quantiles,
+            quantile -> _dispatchedTimeHistogram.getValueAtPercentile(quantile * 100) / 1000D, this::getDispatched, () -> getDispatchedTimeTotal() / 1000D);
+    }
+
     public String toStatsHTML()
     {
         StringBuilder sb = new StringBuilder();
@@ -548,6 +775,8 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         sb.append("Mean request time: ").append(getRequestTimeMean()).append("<br />\n");
         sb.append("Max request time: ").append(getRequestTimeMax()).append("<br />\n");
         sb.append("Request time standard deviation: ").append(getRequestTimeStdDev()).append("<br />\n");
+        sb.append("Request time p50/p90/p99/p99.9: ").append(getRequestTimeP50()).append('/').append(getRequestTimeP90()).append('/')
+            .append(getRequestTimeP99()).append('/').append(getRequestTimeP999()).append("<br />\n");
 
         sb.append("<h2>Dispatches:</h2>\n");
         sb.append("Total dispatched: ").append(getDispatched()).append("<br />\n");
@@ -557,6 +786,8 @@ public class StatisticsHandler extends HandlerWrapper implements Graceful
         sb.append("Mean dispatched time: ").append(getDispatchedTimeMean()).append("<br />\n");
         sb.append("Max dispatched time: ").append(getDispatchedTimeMax()).append("<br />\n");
         sb.append("Dispatched time standard deviation: ").append(getDispatchedTimeStdDev()).append("<br />\n");
+        sb.append("Dispatched time p50/p90/p99/p99.9: ").append(getDispatchedTimeP50()).append('/').append(getDispatchedTimeP90()).append('/')
+            .append(getDispatchedTimeP99()).append('/').append(getDispatchedTimeP999()).append("<br />\n");
 
         sb.append("Total requests suspended: ").append(getAsyncRequests()).append("<br />\n");
         sb.append("Total requests expired: ").append(getExpires()).append("<br />\n");
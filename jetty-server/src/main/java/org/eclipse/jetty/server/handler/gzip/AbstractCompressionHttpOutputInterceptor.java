@@ -0,0 +1,314 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.WritePendingException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.http.CompressedContentFormat;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Response;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>The common part of the {@link HttpOutput.Interceptor}s installed by the {@link GzipHandler}.</p>
+ * <p>This class decides, when the response is committed, whether the response is compressed:
+ * responses are excluded by status, by mime-type, or because they already have a
+ * {@code Content-Encoding}. For a compressed response it adds the {@code Vary} header,
+ * sets the {@code Content-Encoding} header and adjusts the {@code ETag}, before the
+ * content is passed to {@link #compress(ByteBuffer, boolean, Callback)}.</p>
+ */
+public abstract class AbstractCompressionHttpOutputInterceptor implements HttpOutput.Interceptor
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractCompressionHttpOutputInterceptor.class);
+
+    protected enum State
+    {
+        MIGHT_COMPRESS, NOT_COMPRESSING, COMMITTING, COMPRESSING, CACHED, FINISHED
+    }
+
+    private final AtomicReference<State> _state = new AtomicReference<>(State.MIGHT_COMPRESS);
+    protected final GzipFactory _factory;
+    protected final HttpOutput.Interceptor _interceptor;
+    protected final HttpChannel _channel;
+    protected final HttpField _vary;
+    protected final int _bufferSize;
+    protected final boolean _syncFlush;
+
+    protected AbstractCompressionHttpOutputInterceptor(GzipFactory factory, HttpField vary, int bufferSize, HttpChannel channel, HttpOutput.Interceptor next, boolean syncFlush)
+    {
+        _factory = factory;
+        _channel = channel;
+        _interceptor = next;
+        _vary = vary;
+        _bufferSize = bufferSize;
+        _syncFlush = syncFlush;
+    }
+
+    /**
+     * @return the format of the compressed content
+     */
+    protected abstract CompressedContentFormat getFormat();
+
+    /**
+     * <p>Acquires the resources needed to compress the response content.</p>
+     *
+     * @param contentLength the length of the response content, or -1 if unknown
+     * @return whether the response content will be compressed
+     */
+    protected abstract boolean acquireCompressor(long contentLength);
+
+    /**
+     * <p>Compresses the given content and writes it to the next interceptor.</p>
+     *
+     * @param content the content to compress
+     * @param complete whether the content is the last content of the response
+     * @param callback the callback to complete when the content has been compressed and written
+     */
+    protected abstract void compress(ByteBuffer content, boolean complete, Callback callback);
+
+    /**
+     * <p>Called with the committing response, before the headers are modified.</p>
+     *
+     * @param response the response being committed
+     */
+    protected void onCommitting(Response response)
+    {
+    }
+
+    /**
+     * <p>Called once the headers have been adjusted for a compressed response,
+     * to start writing the compressed content.</p>
+     *
+     * @param content the first content of the response
+     * @param complete whether the content is the last content of the response
+     * @param callback the callback to complete when the content has been written
+     */
+    protected void startCompressing(ByteBuffer content, boolean complete, Callback callback)
+    {
+        setState(State.COMPRESSING);
+        compress(content, complete, callback);
+    }
+
+    protected State getState()
+    {
+        return _state.get();
+    }
+
+    protected void setState(State state)
+    {
+        _state.set(state);
+    }
+
+    @Override
+    public HttpOutput.Interceptor getNextInterceptor()
+    {
+        return _interceptor;
+    }
+
+    @Override
+    public void write(ByteBuffer content, boolean complete, Callback callback)
+    {
+        switch (_state.get())
+        {
+            case MIGHT_COMPRESS:
+                commit(content, complete, callback);
+                break;
+
+            case NOT_COMPRESSING:
+                _interceptor.write(content, complete, callback);
+                return;
+
+            case COMMITTING:
+                callback.failed(new WritePendingException());
+                break;
+
+            case COMPRESSING:
+                compress(content, complete, callback);
+                break;
+
+            case CACHED:
+                // The cached content has replaced the content written by the application.
+                content.position(content.limit());
+                if (complete)
+                    _interceptor.write(BufferUtil.EMPTY_BUFFER, true, callback);
+                else
+                    callback.succeeded();
+                break;
+
+            default:
+                callback.failed(new IllegalStateException("state=" + _state.get()));
+                break;
+        }
+    }
+
+    protected void commit(ByteBuffer content, boolean complete, Callback callback)
+    {
+        // Are we excluding because of status?
+        Response response = _channel.getResponse();
+        int sc = response.getStatus();
+        if (sc > 0 && (sc < 200 || sc == 204 || sc == 205 || sc >= 300))
+        {
+            LOG.debug("{} exclude by status {}", this, sc);
+            noCompression();
+
+            if (sc == 304)
+            {
+                String requestEtags = (String)_channel.getRequest().getAttribute("o.e.j.s.h.gzip.GzipHandler.etag");
+                String responseEtag = response.getHttpFields().get(HttpHeader.ETAG);
+                if (requestEtags != null && responseEtag != null)
+                {
+                    String responseEtagCompressed = etagCompressed(responseEtag);
+                    if (requestEtags.contains(responseEtagCompressed))
+                        response.getHttpFields().put(HttpHeader.ETAG, responseEtagCompressed);
+                }
+            }
+
+            _interceptor.write(content, complete, callback);
+            return;
+        }
+
+        // Are we excluding because of mime-type?
+        String ct = response.getContentType();
+        if (ct != null)
+        {
+            ct = MimeTypes.getContentTypeWithoutCharset(ct);
+            if (!_factory.isMimeTypeGzipable(StringUtil.asciiToLowerCase(ct)))
+            {
+                LOG.debug("{} exclude by mimeType {}", this, ct);
+                noCompression();
+                _interceptor.write(content, complete, callback);
+                return;
+            }
+        }
+
+        // Has the Content-Encoding header already been set?
+        HttpFields fields = response.getHttpFields();
+        String ce = fields.get(HttpHeader.CONTENT_ENCODING);
+        if (ce != null)
+        {
+            LOG.debug("{} exclude by content-encoding {}", this, ce);
+            noCompression();
+            _interceptor.write(content, complete, callback);
+            return;
+        }
+
+        // Are we the thread that commits?
+        if (_state.compareAndSet(State.MIGHT_COMPRESS, State.COMMITTING))
+        {
+            onCommitting(response);
+
+            // We are varying the response due to accept encoding header.
+            if (_vary != null)
+            {
+                if (fields.contains(HttpHeader.VARY))
+                    fields.addCSV(HttpHeader.VARY, _vary.getValues());
+                else
+                    fields.add(_vary);
+            }
+
+            long contentLength = response.getContentLength();
+            if (contentLength < 0 && complete)
+                contentLength = content.remaining();
+
+            if (!acquireCompressor(contentLength))
+            {
+                LOG.debug("{} exclude not compressible", this);
+                _state.set(State.NOT_COMPRESSING);
+                _interceptor.write(content, complete, callback);
+                return;
+            }
+
+            fields.put(getFormat()._contentEncoding);
+
+            // Adjust headers
+            response.setContentLength(-1);
+            String etag = fields.get(HttpHeader.ETAG);
+            if (etag != null)
+                fields.put(HttpHeader.ETAG, etagCompressed(etag));
+
+            startCompressing(content, complete, callback);
+        }
+        else
+            callback.failed(new WritePendingException());
+    }
+
+    private String etagCompressed(String etag)
+    {
+        String suffix = getFormat()._etag;
+        int end = etag.length() - 1;
+        return (etag.charAt(end) == '"') ? etag.substring(0, end) + suffix + '"' : etag + suffix;
+    }
+
+    public void noCompression()
+    {
+        while (true)
+        {
+            switch (_state.get())
+            {
+                case NOT_COMPRESSING:
+                    return;
+
+                case MIGHT_COMPRESS:
+                    if (_state.compareAndSet(State.MIGHT_COMPRESS, State.NOT_COMPRESSING))
+                        return;
+                    break;
+
+                default:
+                    throw new IllegalStateException(_state.get().toString());
+            }
+        }
+    }
+
+    public void noCompressionIfPossible()
+    {
+        while (true)
+        {
+            switch (_state.get())
+            {
+                case COMPRESSING:
+                case NOT_COMPRESSING:
+                    return;
+
+                case MIGHT_COMPRESS:
+                    if (_state.compareAndSet(State.MIGHT_COMPRESS, State.NOT_COMPRESSING))
+                        return;
+                    break;
+
+                default:
+                    throw new IllegalStateException(_state.get().toString());
+            }
+        }
+    }
+
+    public boolean mightCompress()
+    {
+        return _state.get() == State.MIGHT_COMPRESS;
+    }
+}
@@ -0,0 +1,215 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import java.util.zip.Deflater;
+
+import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.server.LowResourceMonitor;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.StringUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+/**
+ * <p>A {@link CompressionLevelPolicy} that compresses harder when the server is idle,
+ * and faster when it is busy.</p>
+ * <p>The load of the server is the utilization of its thread pool, which is where the
+ * CPU time of compression is spent. At or below the {@link #getLowLoad() low load} the
+ * {@link #getMaxLevel() max level} is used, at or above the {@link #getHighLoad() high load}
+ * the {@link #getMinLevel() min level} is used, and the level is interpolated in between.
+ * The min level is also used while a {@link LowResourceMonitor} reports low resources.</p>
+ * <p>Higher levels cost proportionally more for large responses and for content that does
+ * not compress well, for little gain, so the level of responses larger than the
+ * {@link #getLargeContentLength() large content length}, or with a content type that is
+ * not {@link #isHighlyCompressible(String) highly compressible}, is capped at the
+ * middle of the range.</p>
+ */
+@ManagedObject("Adaptive compression level policy")
+public class AdaptiveCompressionLevelPolicy implements CompressionLevelPolicy, MetricsSource
+{
+    private int _minLevel = Deflater.BEST_SPEED;
+    private int _maxLevel = Deflater.BEST_COMPRESSION;
+    private double _lowLoad = 0.25D;
+    private double _highLoad = 0.75D;
+    private long _largeContentLength = 1024 * 1024;
+    private volatile int _lastLevel = -1;
+
+    @ManagedAttribute("The level used when the server is busy")
+    public int getMinLevel()
+    {
+        return _minLevel;
+    }
+
+    public void setMinLevel(int minLevel)
+    {
+        _minLevel = checkLevel(minLevel);
+    }
+
+    @ManagedAttribute("The level used when the server is idle")
+    public int getMaxLevel()
+    {
+        return _maxLevel;
+    }
+
+    public void setMaxLevel(int maxLevel)
+    {
+        _maxLevel = checkLevel(maxLevel);
+    }
+
+    @ManagedAttribute("The thread pool utilization at or below which the max level is used")
+    public double getLowLoad()
+    {
+        return _lowLoad;
+    }
+
+    public void setLowLoad(double lowLoad)
+    {
+        _lowLoad = lowLoad;
+    }
+
+    @ManagedAttribute("The thread pool utilization at or above which the min level is used")
+    public double getHighLoad()
+    {
+        return _highLoad;
+    }
+
+    public void setHighLoad(double highLoad)
+    {
+        _highLoad = highLoad;
+    }
+
+    @ManagedAttribute("The content length above which the level is capped")
+    public long getLargeContentLength()
+    {
+        return _largeContentLength;
+    }
+
+    public void setLargeContentLength(long largeContentLength)
+    {
+        _largeContentLength = largeContentLength;
+    }
+
+    @ManagedAttribute("The last selected level")
+    public int getLastLevel()
+    {
+        return _lastLevel;
+    }
+
+    @Override
+    public int getCompressionLevel(Request request, long contentLength)
+    {
+        int min = Math.min(_minLevel, _maxLevel);
+        int max = Math.max(_minLevel, _maxLevel);
+
+        int level;
+        Server server = request.getHttpChannel().getServer();
+        if (isLowOnResources(server))
+        {
+            level = min;
+        }
+        else
+        {
+            double load = getLoad(server);
+            if (load <= _lowLoad)
+                level = max;
+            else if (load >= _highLoad)
+                level = min;
+            else
+                level = max - (int)Math.round((max - min) * (load - _lowLoad) / (_highLoad - _lowLoad));
+        }
+
+        String contentType = request.getResponse().getContentType();
+        String mimeType = contentType == null ? null : StringUtil.asciiToLowerCase(MimeTypes.getContentTypeWithoutCharset(contentType));
+        if (contentLength > _largeContentLength || !isHighlyCompressible(mimeType))
+            level = Math.min(level, (min + max) / 2);
+
+        _lastLevel = level;
+        return level;
+    }
+
+    /**
+     * @param server the server
+     * @return the load of the server, from 0 to 1
+     */
+    protected double getLoad(Server server)
+    {
+        ThreadPool threadPool = server.getThreadPool();
+        if (threadPool instanceof QueuedThreadPool)
+        {
+            QueuedThreadPool qtp = (QueuedThreadPool)threadPool;
+            int max = qtp.getMaxThreads();
+            return max <= 0 ? 0D : (double)qtp.getBusyThreads() / max;
+        }
+        if (threadPool instanceof ThreadPool.SizedThreadPool)
+        {
+            int max = ((ThreadPool.SizedThreadPool)threadPool).getMaxThreads();
+            return max <= 0 ? 0D : (double)(threadPool.getThreads() - threadPool.getIdleThreads()) / max;
+        }
+        return 0D;
+    }
+
+    /**
+     * @param server the server
+     * @return whether a {@link LowResourceMonitor} of the server reports low resources
+     */
+    protected boolean isLowOnResources(Server server)
+    {
+        LowResourceMonitor monitor = server.getBean(LowResourceMonitor.class);
+        return monitor != null && monitor.isLowOnResources();
+    }
+
+    /**
+     * @param mimeType the mime type of the response, without charset, or null if unknown
+     * @return whether content of the mime type typically compresses well
+     */
+    protected boolean isHighlyCompressible(String mimeType)
+    {
+        if (mimeType == null || mimeType.startsWith("text/"))
+            return true;
+        return mimeType.contains("json") ||
+            mimeType.contains("xml") ||
+            mimeType.contains("javascript") ||
+            mimeType.contains("ecmascript");
+    }
+
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        registry.gauge(this, "gzip_compression_level", "last selected compression level", this::getLastLevel);
+    }
+
+    private static int checkLevel(int level)
+    {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        return level;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{min=%d,max=%d,load=%.2f-%.2f}", getClass().getSimpleName(), hashCode(), _minLevel, _maxLevel, _lowLoad, _highLoad);
+    }
+}
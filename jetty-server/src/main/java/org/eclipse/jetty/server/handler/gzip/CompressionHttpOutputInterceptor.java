@@ -0,0 +1,192 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import java.nio.ByteBuffer;
+
+import org.eclipse.jetty.http.CompressedContentFormat;
+import org.eclipse.jetty.http.CompressionCodec;
+import org.eclipse.jetty.http.CompressionEncoderPool;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.util.IteratingNestedCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>An {@link HttpOutput.Interceptor} that compresses the response content with a
+ * {@link CompressionCodec}, such as {@code br} or {@code zstd}, that has been negotiated
+ * by the {@link GzipHandler}.</p>
+ * <p>Responses are excluded from compression in the same way as by the
+ * {@link GzipHttpOutputInterceptor}, see {@link AbstractCompressionHttpOutputInterceptor}.</p>
+ */
+public class CompressionHttpOutputInterceptor extends AbstractCompressionHttpOutputInterceptor
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CompressionHttpOutputInterceptor.class);
+
+    private final CompressionEncoderPool _pool;
+    private final CompressedContentFormat _format;
+
+    private CompressionCodec.Encoder _encoder;
+    private ByteBuffer _buffer;
+    private long _bytesIn;
+    private long _bytesOut;
+    private long _compressionNanos;
+
+    public CompressionHttpOutputInterceptor(GzipFactory factory, CompressionEncoderPool pool, HttpField vary, HttpChannel channel, HttpOutput.Interceptor next, boolean syncFlush)
+    {
+        this(factory, pool, vary, channel.getHttpConfiguration().getOutputBufferSize(), channel, next, syncFlush);
+    }
+
+    public CompressionHttpOutputInterceptor(GzipFactory factory, CompressionEncoderPool pool, HttpField vary, int bufferSize, HttpChannel channel, HttpOutput.Interceptor next, boolean syncFlush)
+    {
+        super(factory, vary, bufferSize, channel, next, syncFlush);
+        _pool = pool;
+        _format = pool.getCodec().getFormat();
+    }
+
+    @Override
+    protected CompressedContentFormat getFormat()
+    {
+        return _format;
+    }
+
+    @Override
+    protected boolean acquireCompressor(long contentLength)
+    {
+        if (!_factory.isCompressible(_channel.getRequest(), contentLength))
+            return false;
+        _encoder = _pool.acquire();
+        LOG.debug("{} compressing {}", this, _encoder);
+        return true;
+    }
+
+    @Override
+    protected void compress(ByteBuffer content, boolean complete, Callback callback)
+    {
+        if (content.hasRemaining() || complete)
+            new EncodeCB(content, complete, callback).iterate();
+        else
+            callback.succeeded();
+    }
+
+    private void release()
+    {
+        if (_encoder != null)
+        {
+            _pool.release(_encoder);
+            _encoder = null;
+        }
+        if (_buffer != null)
+        {
+            _channel.getByteBufferPool().release(_buffer);
+            _buffer = null;
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{%s,%s}", getClass().getSimpleName(), hashCode(), _format._encoding, getState());
+    }
+
+    private class EncodeCB extends IteratingNestedCallback
+    {
+        private final ByteBuffer _content;
+        private final boolean _last;
+        private boolean _consumed;
+
+        private EncodeCB(ByteBuffer content, boolean complete, Callback callback)
+        {
+            super(callback);
+            _content = content;
+            _last = complete;
+        }
+
+        @Override
+        protected Action process() throws Exception
+        {
+            // The content has been entirely compressed and written.
+            if (_consumed)
+                return Action.SUCCEEDED;
+            if (_encoder == null)
+            {
+                release();
+                return Action.SUCCEEDED;
+            }
+
+            if (_buffer == null)
+                _buffer = _channel.getByteBufferPool().acquire(_bufferSize, false);
+            BufferUtil.clear(_buffer);
+
+            CompressionCodec.Flush flush = _last ? CompressionCodec.Flush.FINISH
+                : _syncFlush ? CompressionCodec.Flush.SYNC : CompressionCodec.Flush.NONE;
+            int remaining = _content.remaining();
+            long start = System.nanoTime();
+            int pos = BufferUtil.flipToFill(_buffer);
+            boolean done = _encoder.encode(_content, _buffer, flush);
+            BufferUtil.flipToFlush(_buffer, pos);
+            _compressionNanos += System.nanoTime() - start;
+            _bytesIn += remaining - _content.remaining();
+            _bytesOut += _buffer.remaining();
+
+            if (done)
+            {
+                if (_last)
+                {
+                    // Release the encoder to flag that the content is complete
+                    // when the write below completes.
+                    _factory.compressed(_channel.getRequest(), _bytesIn, _bytesOut, _compressionNanos);
+                    _pool.release(_encoder);
+                    _encoder = null;
+                    setState(State.FINISHED);
+                    _interceptor.write(_buffer, true, this);
+                    return Action.SCHEDULED;
+                }
+                _consumed = true;
+                if (!_buffer.hasRemaining())
+                    return Action.SUCCEEDED;
+            }
+
+            _interceptor.write(_buffer, false, this);
+            return Action.SCHEDULED;
+        }
+
+        @Override
+        protected void onCompleteFailure(Throwable x)
+        {
+            release();
+            super.onCompleteFailure(x);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s[content=%s last=%b buffer=%s encoder=%s]",
+                super.toString(),
+                BufferUtil.toDetailString(_content),
+                _last,
+                BufferUtil.toDetailString(_buffer),
+                _encoder);
+        }
+    }
+}
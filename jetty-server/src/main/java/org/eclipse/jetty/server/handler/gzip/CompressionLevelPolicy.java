@@ -0,0 +1,37 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import org.eclipse.jetty.server.Request;
+
+/**
+ * <p>Selects the compression level of the {@link java.util.zip.Deflater} used to gzip a response.</p>
+ *
+ * @see GzipHandler#setCompressionLevelPolicy(CompressionLevelPolicy)
+ * @see AdaptiveCompressionLevelPolicy
+ */
+public interface CompressionLevelPolicy
+{
+    /**
+     * @param request the request whose response is about to be compressed
+     * @param contentLength the length of the response content, or -1 if unknown
+     * @return the compression level, from 0 to 9
+     */
+    int getCompressionLevel(Request request, long contentLength);
+}
@@ -0,0 +1,189 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.handler.gzip;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
+import org.eclipse.jetty.util.thread.AutoLock;
+
+/**
+ * <p>A bounded cache of gzip compressed response content, used by {@link GzipHandler}.</p>
+ * <p>Responses are cached by their URI and validator (ETag or Last-Modified), so that
+ * a response with the same validator as a cached response is served with the cached
+ * compressed bytes instead of being compressed again. The least recently used
+ * entries are evicted to keep the cache within its max size.</p>
+ */
+@ManagedObject("Cache of compressed response content")
+public class GzipContentCache implements MetricsSource
+{
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+    public static final int DEFAULT_MAX_ENTRY_SIZE = 512 * 1024;
+
+    private final AutoLock _lock = new AutoLock();
+    private final LinkedHashMap<String, byte[]> _entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LongAdder _hits = new LongAdder();
+    private final LongAdder _misses = new LongAdder();
+    private final LongAdder _evictions = new LongAdder();
+    private final long _maxSize;
+    private final int _maxEntrySize;
+    private long _size;
+
+    public GzipContentCache()
+    {
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_ENTRY_SIZE);
+    }
+
+    /**
+     * @param maxSize the max total bytes of compressed content held
+     * @param maxEntrySize the max bytes of the compressed content of a single response
+     */
+    public GzipContentCache(long maxSize, int maxEntrySize)
+    {
+        if (maxSize <= 0 || maxEntrySize <= 0)
+            throw new IllegalArgumentException("Invalid size");
+        _maxSize = maxSize;
+        _maxEntrySize = (int)Math.min(maxSize, maxEntrySize);
+    }
+
+    @ManagedAttribute("max total bytes of compressed content held")
+    public long getMaxSize()
+    {
+        return _maxSize;
+    }
+
+    @ManagedAttribute("max bytes of the compressed content of a response")
+    public int getMaxEntrySize()
+    {
+        return _maxEntrySize;
+    }
+
+    @ManagedAttribute("total bytes of compressed content held")
+    public long getSize()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _size;
+        }
+    }
+
+    @ManagedAttribute("number of responses held")
+    public int getEntries()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _entries.size();
+        }
+    }
+
+    @ManagedAttribute("number of responses served from the cache")
+    public long getHits()
+    {
+        return _hits.sum();
+    }
+
+    @ManagedAttribute("number of cacheable responses not in the cache")
+    public long getMisses()
+    {
+        return _misses.sum();
+    }
+
+    @ManagedAttribute("number of responses evicted")
+    public long getEvictions()
+    {
+        return _evictions.sum();
+    }
+
+    /**
+     * @param key the URI and validator of the response
+     * @return a buffer of the compressed content, or null if it is not cached
+     */
+    public ByteBuffer get(String key)
+    {
+        byte[] content;
+        try (AutoLock l = _lock.lock())
+        {
+            content = _entries.get(key);
+        }
+        if (content == null)
+        {
+            _misses.increment();
+            return null;
+        }
+        _hits.increment();
+        return ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    /**
+     * @param key the URI and validator of the response
+     * @param content the compressed content
+     */
+    public void put(String key, byte[] content)
+    {
+        if (content.length > _maxEntrySize)
+            return;
+        try (AutoLock l = _lock.lock())
+        {
+            byte[] old = _entries.put(key, content);
+            _size += content.length - (old == null ? 0 : old.length);
+            Iterator<Map.Entry<String, byte[]>> entries = _entries.entrySet().iterator();
+            while (_size > _maxSize && entries.hasNext())
+            {
+                Map.Entry<String, byte[]> eldest = entries.next();
+                _size -= eldest.getValue().length;
+                entries.remove();
+                _evictions.increment();
+            }
+        }
+    }
+
+    @ManagedOperation(value = "clear the cache", impact = "ACTION")
+    public void clear()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            _entries.clear();
+            _size = 0;
+        }
+    }
+
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        registry.gauge(this, "gzip_cache_bytes", "total bytes of compressed content held", this::getSize);
+        registry.gauge(this, "gzip_cache_entries", "number of responses held", this::getEntries);
+        registry.counter(this, "gzip_cache_hits", "number of responses served from the cache", this::getHits);
+        registry.counter(this, "gzip_cache_misses", "number of cacheable responses not in the cache", this::getMisses);
+        registry.counter(this, "gzip_cache_evictions", "number of responses evicted", this::getEvictions);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{size=%d/%d,entries=%d}", getClass().getSimpleName(), hashCode(), getSize(), _maxSize, getEntries());
+    }
+}
@@ -29,4 +29,34 @@ public interface GzipFactory
     boolean isMimeTypeGzipable(String mimetype);
 
     void recycle(Deflater deflater);
+
+    /**
+     * @param request the request
+     * @param contentLength the length of the response content, or -1 if unknown
+     * @return whether the response to the request may be compressed, regardless of its content encoding
+     */
+    default boolean isCompressible(Request request, long contentLength)
+    {
+        return true;
+    }
+
+    /**
+     * Called when the compression of a response is complete.
+     *
+     * @param request the request whose response has been compressed
+     * @param bytesIn the number of bytes of the response content
+     * @param bytesOut the number of bytes of the compressed content
+     * @param nanos the time in nanoseconds spent compressing
+     */
+    default void compressed(Request request, long bytesIn, long bytesOut, long nanos)
+    {
+    }
+
+    /**
+     * @return the cache of compressed responses, or null if they are not cached
+     */
+    default GzipContentCache getContentCache()
+    {
+        return null;
+    }
 }
@@ -19,10 +19,17 @@
 package org.eclipse.jetty.server.handler.gzip;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Pattern;
 import java.util.zip.Deflater;
 import javax.servlet.DispatcherType;
@@ -32,6 +39,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.http.CompressedContentFormat;
+import org.eclipse.jetty.http.CompressionCodec;
+import org.eclipse.jetty.http.CompressionEncoderPool;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
@@ -39,6 +48,8 @@ import org.eclipse.jetty.http.HttpHeaderValue;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.http.MimeTypes;
 import org.eclipse.jetty.http.PreEncodedHttpField;
+import org.eclipse.jetty.http.QuotedCSV;
+import org.eclipse.jetty.http.QuotedQualityCSV;
 import org.eclipse.jetty.http.pathmap.PathSpecSet;
 import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
@@ -47,7 +58,12 @@ import org.eclipse.jetty.util.IncludeExclude;
 import org.eclipse.jetty.util.RegexSet;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.URIUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.compression.DeflaterPool;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -149,7 +165,8 @@ import org.slf4j.LoggerFactory;
  * in web applications has been problematic and bug ridden.
  * </p>
  */
-public class GzipHandler extends HandlerWrapper implements GzipFactory
+@ManagedObject("GZIP Handler")
+public class GzipHandler extends HandlerWrapper implements GzipFactory, MetricsSource
 {
     public static final String GZIP = "gzip";
     public static final String DEFLATE = "deflate";
@@ -173,6 +190,15 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
     private final IncludeExclude<String> _paths = new IncludeExclude<>(PathSpecSet.class);
     private final IncludeExclude<String> _mimeTypes = new IncludeExclude<>();
     private HttpField _vary;
+    private GzipContentCache _contentCache;
+    private List<CompressionCodec> _codecs;
+    private final Map<String, CompressionEncoderPool> _encoderPools = new LinkedHashMap<>();
+    private String[] _preferredEncodings = new String[]{GZIP};
+    private CompressionLevelPolicy _compressionLevelPolicy;
+    private final LongAdder _compressedResponses = new LongAdder();
+    private final LongAdder _compressedBytesIn = new LongAdder();
+    private final LongAdder _compressedBytesOut = new LongAdder();
+    private final LongAdder _compressionNanos = new LongAdder();
 
     /**
      * Instantiates a new GzipHandler.
@@ -362,6 +388,131 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
         _syncFlush = syncFlush;
     }
 
+    @Override
+    public GzipContentCache getContentCache()
+    {
+        return _contentCache;
+    }
+
+    /**
+     * Set the cache of compressed responses. Responses to GET requests with status 200
+     * and an ETag or Last-Modified header are cached, unless they set cookies, are
+     * private or no-store, or vary on headers other than Accept-Encoding.
+     * A response with the same URI and validator as a cached response is then served
+     * with the cached compressed bytes instead of being compressed again, although its
+     * content is still generated by the handler.
+     *
+     * @param contentCache the cache of compressed responses, or null to not cache them
+     */
+    public void setContentCache(GzipContentCache contentCache)
+    {
+        updateBean(_contentCache, contentCache);
+        _contentCache = contentCache;
+    }
+
+    /**
+     * @return the codecs used to compress responses, in addition to gzip
+     * @see #setCompressionCodecs(List)
+     */
+    public List<CompressionCodec> getCompressionCodecs()
+    {
+        return _codecs;
+    }
+
+    /**
+     * Set the codecs used to compress responses to requests that accept their
+     * content encoding, such as {@code br} or {@code zstd}. When a request accepts
+     * several encodings with the same quality, the codecs are preferred in the given
+     * order, and all of them are preferred to gzip.
+     * By default, the codecs discovered by {@link CompressionCodec#loadCodecs()} are used.
+     *
+     * @param codecs the codecs used to compress responses, or an empty list to only use gzip
+     */
+    public void setCompressionCodecs(List<CompressionCodec> codecs)
+    {
+        if (isStarted())
+            throw new IllegalStateException(getState());
+        _codecs = codecs == null ? null : new ArrayList<>(codecs);
+    }
+
+    public CompressionLevelPolicy getCompressionLevelPolicy()
+    {
+        return _compressionLevelPolicy;
+    }
+
+    /**
+     * Set the policy that selects the compression level of each gzipped response,
+     * for example from the load of the server. If null, the level of the
+     * {@link #newDeflaterPool(int) deflater pool} is used for all responses.
+     *
+     * @param policy the compression level policy, or null for a fixed level
+     * @see AdaptiveCompressionLevelPolicy
+     */
+    public void setCompressionLevelPolicy(CompressionLevelPolicy policy)
+    {
+        updateBean(_compressionLevelPolicy, policy);
+        _compressionLevelPolicy = policy;
+    }
+
+    @ManagedAttribute("number of compressed responses")
+    public long getCompressedResponses()
+    {
+        return _compressedResponses.sum();
+    }
+
+    @ManagedAttribute("number of bytes of response content that have been compressed")
+    public long getCompressedBytesIn()
+    {
+        return _compressedBytesIn.sum();
+    }
+
+    @ManagedAttribute("number of bytes of compressed response content")
+    public long getCompressedBytesOut()
+    {
+        return _compressedBytesOut.sum();
+    }
+
+    @ManagedAttribute("number of bytes saved by compressing responses")
+    public long getCompressedBytesSaved()
+    {
+        return getCompressedBytesIn() - getCompressedBytesOut();
+    }
+
+    @ManagedAttribute("time in ms spent compressing responses")
+    public long getCompressionTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(_compressionNanos.sum());
+    }
+
+    @ManagedOperation(value = "resets the compression statistics", impact = "ACTION")
+    public void resetStats()
+    {
+        _compressedResponses.reset();
+        _compressedBytesIn.reset();
+        _compressedBytesOut.reset();
+        _compressionNanos.reset();
+    }
+
+    @Override
+    public void compressed(Request request, long bytesIn, long bytesOut, long nanos)
+    {
+        _compressedResponses.increment();
+        _compressedBytesIn.add(bytesIn);
+        _compressedBytesOut.add(bytesOut);
+        _compressionNanos.add(nanos);
+    }
+
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        registry.counter(this, "gzip_responses", "number of compressed responses", this::getCompressedResponses);
+        registry.counter(this, "gzip_bytes_in", "number of bytes of response content that have been compressed", this::getCompressedBytesIn);
+        registry.counter(this, "gzip_bytes_out", "number of bytes of compressed response content", this::getCompressedBytesOut);
+        registry.counter(this, "gzip_bytes_saved", "number of bytes saved by compressing responses", this::getCompressedBytesSaved);
+        registry.counter(this, "gzip_compression_time_microseconds", "time spent compressing responses",
+            () -> TimeUnit.NANOSECONDS.toMicros(_compressionNanos.sum()));
+    }
+
     /**
      * Add included MIME types for response filtering
      *
@@ -415,34 +566,157 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
     {
         _deflaterPool = newDeflaterPool(poolCapacity);
         _vary = (_agentPatterns.size() > 0) ? GzipHttpOutputInterceptor.VARY_ACCEPT_ENCODING_USER_AGENT : GzipHttpOutputInterceptor.VARY_ACCEPT_ENCODING;
+
+        if (_codecs == null)
+            _codecs = CompressionCodec.loadCodecs();
+        List<String> preferred = new ArrayList<>();
+        for (CompressionCodec codec : _codecs)
+        {
+            String encoding = StringUtil.asciiToLowerCase(codec.getEncoding());
+            if (GZIP.equals(encoding) || _encoderPools.containsKey(encoding))
+                continue;
+            CompressionEncoderPool pool = new CompressionEncoderPool(codec, poolCapacity, -1);
+            pool.start();
+            _encoderPools.put(encoding, pool);
+            preferred.add(encoding);
+        }
+        preferred.add(GZIP);
+        _preferredEncodings = preferred.toArray(new String[0]);
+
         super.doStart();
     }
 
     @Override
-    public Deflater getDeflater(Request request, long contentLength)
+    protected void doStop() throws Exception
+    {
+        super.doStop();
+        for (CompressionEncoderPool pool : _encoderPools.values())
+        {
+            pool.stop();
+        }
+        _encoderPools.clear();
+    }
+
+    /**
+     * Select the codec to compress the response with, from the codecs
+     * accepted by the {@code Accept-Encoding} header of the request.
+     *
+     * @param request the request
+     * @return the pool of encoders of the selected codec, or null to compress with gzip, if accepted
+     */
+    protected CompressionEncoderPool getEncoderPool(Request request)
+    {
+        if (_encoderPools.isEmpty())
+            return null;
+
+        List<String> values = request.getHttpFields().getValuesList(HttpHeader.ACCEPT_ENCODING);
+        if (values.isEmpty())
+            return null;
+
+        QuotedQualityCSV accepted = new QuotedQualityCSV(_preferredEncodings);
+        for (String value : values)
+        {
+            accepted.addValue(value);
+        }
+        Set<String> rejected = null;
+        for (String encoding : accepted)
+        {
+            encoding = StringUtil.asciiToLowerCase(encoding);
+            if (GZIP.equals(encoding))
+                return null;
+            if ("*".equals(encoding))
+            {
+                // The wildcard does not match the codings explicitly refused with q=0,
+                // which the QuotedQualityCSV iteration has dropped.
+                if (rejected == null)
+                    rejected = getRejectedEncodings(values);
+                for (Map.Entry<String, CompressionEncoderPool> entry : _encoderPools.entrySet())
+                {
+                    if (!rejected.contains(entry.getKey()))
+                        return entry.getValue();
+                }
+                return null;
+            }
+            CompressionEncoderPool pool = _encoderPools.get(encoding);
+            if (pool != null)
+                return pool;
+        }
+        return null;
+    }
+
+    /**
+     * @param values the values of the {@code Accept-Encoding} header
+     * @return the lower case codings listed with a quality of zero
+     */
+    private static Set<String> getRejectedEncodings(List<String> values)
+    {
+        Set<String> rejected = new HashSet<>();
+        QuotedCSV codings = new QuotedCSV(false);
+        for (String value : values)
+        {
+            codings.addValue(value);
+        }
+        for (String coding : codings)
+        {
+            int semicolon = coding.indexOf(';');
+            if (semicolon < 0)
+                continue;
+            for (String param : coding.substring(semicolon + 1).split(";"))
+            {
+                param = param.trim();
+                if (param.length() > 2 && Character.toLowerCase(param.charAt(0)) == 'q' && param.charAt(1) == '=')
+                {
+                    try
+                    {
+                        if (Double.parseDouble(param.substring(2)) == 0.0D)
+                            rejected.add(StringUtil.asciiToLowerCase(coding.substring(0, semicolon).trim()));
+                    }
+                    catch (NumberFormatException x)
+                    {
+                        LOG.trace("IGNORED", x);
+                    }
+                }
+            }
+        }
+        return rejected;
+    }
+
+    @Override
+    public boolean isCompressible(Request request, long contentLength)
     {
-        HttpFields httpFields = request.getHttpFields();
-        String ua = httpFields.get(HttpHeader.USER_AGENT);
+        String ua = request.getHttpFields().get(HttpHeader.USER_AGENT);
         if (ua != null && !isAgentGzipable(ua))
         {
             LOG.debug("{} excluded user agent {}", this, request);
-            return null;
+            return false;
         }
 
         if (contentLength >= 0 && contentLength < _minGzipSize)
         {
             LOG.debug("{} excluded minGzipSize {}", this, request);
-            return null;
+            return false;
         }
+        return true;
+    }
+
+    @Override
+    public Deflater getDeflater(Request request, long contentLength)
+    {
+        if (!isCompressible(request, contentLength))
+            return null;
 
         // check the accept encoding header
-        if (!httpFields.contains(HttpHeader.ACCEPT_ENCODING, "gzip"))
+        if (!request.getHttpFields().contains(HttpHeader.ACCEPT_ENCODING, "gzip"))
         {
             LOG.debug("{} excluded not gzip accept {}", this, request);
             return null;
         }
 
-        return _deflaterPool.acquire();
+        Deflater deflater = _deflaterPool.acquire();
+        CompressionLevelPolicy policy = _compressionLevelPolicy;
+        if (policy != null)
+            deflater.setLevel(policy.getCompressionLevel(request, contentLength));
+        return deflater;
     }
 
     /**
@@ -646,7 +920,7 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
         HttpOutput.Interceptor interceptor = out.getInterceptor();
         while (interceptor != null)
         {
-            if (interceptor instanceof GzipHttpOutputInterceptor)
+            if (interceptor instanceof AbstractCompressionHttpOutputInterceptor)
             {
                 LOG.debug("{} already intercepting {}", this, request);
                 _handler.handle(target, baseRequest, request, response);
@@ -662,17 +936,15 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
             if (field.getHeader() == HttpHeader.IF_NONE_MATCH || field.getHeader() == HttpHeader.IF_MATCH)
             {
                 String etag = field.getValue();
-                int i = etag.indexOf(CompressedContentFormat.GZIP._etagQuote);
-                if (i > 0)
+                String stripped = stripEtag(etag, CompressedContentFormat.GZIP);
+                for (CompressionEncoderPool pool : _encoderPools.values())
+                {
+                    stripped = stripEtag(stripped, pool.getCodec().getFormat());
+                }
+                if (!stripped.equals(etag))
                 {
                     baseRequest.setAttribute("o.e.j.s.h.gzip.GzipHandler.etag", etag);
-                    while (i >= 0)
-                    {
-                        etag = etag.substring(0, i) + etag.substring(i + CompressedContentFormat.GZIP._etag.length());
-                        i = etag.indexOf(CompressedContentFormat.GZIP._etagQuote, i);
-                    }
-
-                    fields.set(new HttpField(field.getHeader(), etag));
+                    fields.set(new HttpField(field.getHeader(), stripped));
                 }
             }
         }
@@ -712,7 +984,11 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
         try
         {
             // install interceptor and handle
-            out.setInterceptor(new GzipHttpOutputInterceptor(this, getVaryField(), baseRequest.getHttpChannel(), origInterceptor, isSyncFlush()));
+            CompressionEncoderPool encoderPool = getEncoderPool(baseRequest);
+            if (encoderPool == null)
+                out.setInterceptor(new GzipHttpOutputInterceptor(this, getVaryField(), baseRequest.getHttpChannel(), origInterceptor, isSyncFlush()));
+            else
+                out.setInterceptor(new CompressionHttpOutputInterceptor(this, encoderPool, getVaryField(), baseRequest.getHttpChannel(), origInterceptor, isSyncFlush()));
 
             if (_handler != null)
                 _handler.handle(target, baseRequest, request, response);
@@ -725,6 +1001,17 @@ public class GzipHandler extends HandlerWrapper implements GzipFactory
         }
     }
 
+    private static String stripEtag(String etag, CompressedContentFormat format)
+    {
+        int i = etag.indexOf(format._etagQuote);
+        while (i > 0)
+        {
+            etag = etag.substring(0, i) + etag.substring(i + format._etag.length());
+            i = etag.indexOf(format._etagQuote, i);
+        }
+        return etag;
+    }
+
     /**
      * Test if the provided User-Agent is allowed based on the User-Agent filters.
      *
@@ -18,30 +18,31 @@
 
 package org.eclipse.jetty.server.handler.gzip;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
-import java.nio.channels.WritePendingException;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 
+import org.eclipse.jetty.http.CompressedContentFormat;
 import org.eclipse.jetty.http.HttpField;
 import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
-import org.eclipse.jetty.http.MimeTypes;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http.HttpStatus;
 import org.eclipse.jetty.http.PreEncodedHttpField;
 import org.eclipse.jetty.server.HttpChannel;
 import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingNestedCallback;
-import org.eclipse.jetty.util.StringUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static org.eclipse.jetty.http.CompressedContentFormat.GZIP;
 
-public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
+public class GzipHttpOutputInterceptor extends AbstractCompressionHttpOutputInterceptor
 {
     public static Logger LOG = LoggerFactory.getLogger(GzipHttpOutputInterceptor.class);
     private static final byte[] GZIP_HEADER = new byte[]{(byte)0x1f, (byte)0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
@@ -49,23 +50,13 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
     public static final HttpField VARY_ACCEPT_ENCODING_USER_AGENT = new PreEncodedHttpField(HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING + ", " + HttpHeader.USER_AGENT);
     public static final HttpField VARY_ACCEPT_ENCODING = new PreEncodedHttpField(HttpHeader.VARY, HttpHeader.ACCEPT_ENCODING.asString());
 
-    private enum GZState
-    {
-        MIGHT_COMPRESS, NOT_COMPRESSING, COMMITTING, COMPRESSING, FINISHED
-    }
-
-    private final AtomicReference<GZState> _state = new AtomicReference<>(GZState.MIGHT_COMPRESS);
     private final CRC32 _crc = new CRC32();
 
-    private final GzipFactory _factory;
-    private final HttpOutput.Interceptor _interceptor;
-    private final HttpChannel _channel;
-    private final HttpField _vary;
-    private final int _bufferSize;
-    private final boolean _syncFlush;
-
     private Deflater _deflater;
     private ByteBuffer _buffer;
+    private String _cacheKey;
+    private ByteArrayOutputStream _cacheContent;
+    private long _compressionNanos;
 
     public GzipHttpOutputInterceptor(GzipFactory factory, HttpChannel channel, HttpOutput.Interceptor next, boolean syncFlush)
     {
@@ -79,45 +70,13 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
 
     public GzipHttpOutputInterceptor(GzipFactory factory, HttpField vary, int bufferSize, HttpChannel channel, HttpOutput.Interceptor next, boolean syncFlush)
     {
-        _factory = factory;
-        _channel = channel;
-        _interceptor = next;
-        _vary = vary;
-        _bufferSize = bufferSize;
-        _syncFlush = syncFlush;
+        super(factory, vary, bufferSize, channel, next, syncFlush);
     }
 
     @Override
-    public HttpOutput.Interceptor getNextInterceptor()
+    protected CompressedContentFormat getFormat()
     {
-        return _interceptor;
-    }
-
-    @Override
-    public void write(ByteBuffer content, boolean complete, Callback callback)
-    {
-        switch (_state.get())
-        {
-            case MIGHT_COMPRESS:
-                commit(content, complete, callback);
-                break;
-
-            case NOT_COMPRESSING:
-                _interceptor.write(content, complete, callback);
-                return;
-
-            case COMMITTING:
-                callback.failed(new WritePendingException());
-                break;
-
-            case COMPRESSING:
-                gzip(content, complete, callback);
-                break;
-
-            default:
-                callback.failed(new IllegalStateException("state=" + _state.get()));
-                break;
-        }
+        return GZIP;
     }
 
     private void addTrailer()
@@ -126,7 +85,8 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
         BufferUtil.putIntLittleEndian(_buffer, _deflater.getTotalIn());
     }
 
-    private void gzip(ByteBuffer content, boolean complete, final Callback callback)
+    @Override
+    protected void compress(ByteBuffer content, boolean complete, final Callback callback)
     {
         if (content.hasRemaining() || complete)
             new GzipBufferCB(content, complete, callback).iterate();
@@ -134,153 +94,99 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
             callback.succeeded();
     }
 
-    protected void commit(ByteBuffer content, boolean complete, Callback callback)
+    @Override
+    protected void onCommitting(Response response)
     {
-        // Are we excluding because of status?
-        Response response = _channel.getResponse();
-        int sc = response.getStatus();
-        if (sc > 0 && (sc < 200 || sc == 204 || sc == 205 || sc >= 300))
-        {
-            LOG.debug("{} exclude by status {}", this, sc);
-            noCompression();
-
-            if (sc == 304)
-            {
-                String requestEtags = (String)_channel.getRequest().getAttribute("o.e.j.s.h.gzip.GzipHandler.etag");
-                String responseEtag = response.getHttpFields().get(HttpHeader.ETAG);
-                if (requestEtags != null && responseEtag != null)
-                {
-                    String responseEtagGzip = etagGzip(responseEtag);
-                    if (requestEtags.contains(responseEtagGzip))
-                        response.getHttpFields().put(HttpHeader.ETAG, responseEtagGzip);
-                }
-            }
-
-            _interceptor.write(content, complete, callback);
-            return;
-        }
-
-        // Are we excluding because of mime-type?
-        String ct = response.getContentType();
-        if (ct != null)
-        {
-            ct = MimeTypes.getContentTypeWithoutCharset(ct);
-            if (!_factory.isMimeTypeGzipable(StringUtil.asciiToLowerCase(ct)))
-            {
-                LOG.debug("{} exclude by mimeType {}", this, ct);
-                noCompression();
-                _interceptor.write(content, complete, callback);
-                return;
-            }
-        }
+        GzipContentCache cache = _factory.getContentCache();
+        _cacheKey = cache == null ? null : getCacheKey(response);
+    }
 
-        // Has the Content-Encoding header already been set?
-        HttpFields fields = response.getHttpFields();
-        String ce = fields.get(HttpHeader.CONTENT_ENCODING);
-        if (ce != null)
+    @Override
+    protected boolean acquireCompressor(long contentLength)
+    {
+        _deflater = _factory.getDeflater(_channel.getRequest(), contentLength);
+        if (_deflater == null)
         {
-            LOG.debug("{} exclude by content-encoding {}", this, ce);
-            noCompression();
-            _interceptor.write(content, complete, callback);
-            return;
+            LOG.debug("{} exclude no deflater", this);
+            _cacheKey = null;
+            return false;
         }
+        _crc.reset();
+        return true;
+    }
 
-        // Are we the thread that commits?
-        if (_state.compareAndSet(GZState.MIGHT_COMPRESS, GZState.COMMITTING))
+    @Override
+    protected void startCompressing(ByteBuffer content, boolean complete, Callback callback)
+    {
+        if (_cacheKey != null)
         {
-            // We are varying the response due to accept encoding header.
-            if (_vary != null)
-            {
-                if (fields.contains(HttpHeader.VARY))
-                    fields.addCSV(HttpHeader.VARY, _vary.getValues());
-                else
-                    fields.add(_vary);
-            }
-
-            long contentLength = response.getContentLength();
-            if (contentLength < 0 && complete)
-                contentLength = content.remaining();
-
-            _deflater = _factory.getDeflater(_channel.getRequest(), contentLength);
-
-            if (_deflater == null)
+            ByteBuffer cached = _factory.getContentCache().get(_cacheKey);
+            if (cached != null)
             {
-                LOG.debug("{} exclude no deflater", this);
-                _state.set(GZState.NOT_COMPRESSING);
-                _interceptor.write(content, complete, callback);
+                LOG.debug("{} serving cached {}", this, _cacheKey);
+                _factory.recycle(_deflater);
+                _deflater = null;
+                _cacheKey = null;
+                _channel.getResponse().setLongContentLength(cached.remaining());
+                setState(State.CACHED);
+                content.position(content.limit());
+                _interceptor.write(cached, complete, callback);
                 return;
             }
-
-            fields.put(GZIP._contentEncoding);
-            _crc.reset();
-
-            // Adjust headers
-            response.setContentLength(-1);
-            String etag = fields.get(HttpHeader.ETAG);
-            if (etag != null)
-                fields.put(HttpHeader.ETAG, etagGzip(etag));
-
-            LOG.debug("{} compressing {}", this, _deflater);
-            _state.set(GZState.COMPRESSING);
-
-            gzip(content, complete, callback);
+            if (HttpMethod.GET.is(_channel.getRequest().getMethod()))
+                _cacheContent = new ByteArrayOutputStream();
+            else
+                _cacheKey = null;
         }
-        else
-            callback.failed(new WritePendingException());
+
+        LOG.debug("{} compressing {}", this, _deflater);
+        super.startCompressing(content, complete, callback);
     }
 
-    private String etagGzip(String etag)
+    /**
+     * @return the key of the response in the cache, or null if the response is not cacheable
+     */
+    private String getCacheKey(Response response)
     {
-        int end = etag.length() - 1;
-        return (etag.charAt(end) == '"') ? etag.substring(0, end) + GZIP._etag + '"' : etag + GZIP._etag;
+        if (response.getStatus() != HttpStatus.OK_200)
+            return null;
+        HttpFields fields = response.getHttpFields();
+        if (fields.contains(HttpHeader.SET_COOKIE) || fields.contains(HttpHeader.VARY) ||
+            fields.contains(HttpHeader.CACHE_CONTROL, "no-store") ||
+            fields.contains(HttpHeader.CACHE_CONTROL, "private"))
+            return null;
+        String validator = fields.get(HttpHeader.ETAG);
+        if (validator == null)
+            validator = fields.get(HttpHeader.LAST_MODIFIED);
+        if (validator == null)
+            return null;
+        Request request = _channel.getRequest();
+        String query = request.getQueryString();
+        StringBuilder key = new StringBuilder();
+        key.append(request.getServerName()).append(':').append(request.getServerPort()).append(request.getRequestURI());
+        if (query != null)
+            key.append('?').append(query);
+        return key.append(' ').append(validator).toString();
     }
 
-    public void noCompression()
+    private void cache(ByteBuffer buffer, boolean last)
     {
-        while (true)
+        int length = buffer.remaining();
+        if (_cacheContent.size() + length > _factory.getContentCache().getMaxEntrySize())
         {
-            switch (_state.get())
-            {
-                case NOT_COMPRESSING:
-                    return;
-
-                case MIGHT_COMPRESS:
-                    if (_state.compareAndSet(GZState.MIGHT_COMPRESS, GZState.NOT_COMPRESSING))
-                        return;
-                    break;
-
-                default:
-                    throw new IllegalStateException(_state.get().toString());
-            }
+            _cacheKey = null;
+            _cacheContent = null;
+            return;
         }
-    }
-
-    public void noCompressionIfPossible()
-    {
-        while (true)
+        _cacheContent.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+        if (last)
         {
-            switch (_state.get())
-            {
-                case COMPRESSING:
-                case NOT_COMPRESSING:
-                    return;
-
-                case MIGHT_COMPRESS:
-                    if (_state.compareAndSet(GZState.MIGHT_COMPRESS, GZState.NOT_COMPRESSING))
-                        return;
-                    break;
-
-                default:
-                    throw new IllegalStateException(_state.get().toString());
-            }
+            _factory.getContentCache().put(_cacheKey, _cacheContent.toByteArray());
+            _cacheKey = null;
+            _cacheContent = null;
         }
     }
 
-    public boolean mightCompress()
-    {
-        return _state.get() == GZState.MIGHT_COMPRESS;
-    }
-
     private class GzipBufferCB extends IteratingNestedCallback
     {
         private ByteBuffer _copy;
@@ -384,7 +290,9 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
                 // deflate the content into the available space in the buffer
                 int off = _buffer.arrayOffset() + _buffer.limit();
                 int len = BufferUtil.space(_buffer);
+                long start = System.nanoTime();
                 int produced = _deflater.deflate(_buffer.array(), off, len, _syncFlush ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH);
+                _compressionNanos += System.nanoTime() - start;
                 _buffer.limit(_buffer.limit() + produced);
             }
 
@@ -394,10 +302,14 @@ public class GzipHttpOutputInterceptor implements HttpOutput.Interceptor
                 // add the trailer and recycle the deflator to flag that we will have had completeSuccess when
                 // the write below completes.
                 addTrailer();
+                _factory.compressed(_channel.getRequest(), _deflater.getBytesRead(), _deflater.getBytesWritten() + GZIP_HEADER.length + 8, _compressionNanos);
                 _factory.recycle(_deflater);
                 _deflater = null;
             }
 
+            if (_cacheKey != null)
+                cache(_buffer, _deflater == null);
+
             // write the compressed buffer.
             _interceptor.write(_buffer, _deflater == null, this);
             return Action.SCHEDULED;
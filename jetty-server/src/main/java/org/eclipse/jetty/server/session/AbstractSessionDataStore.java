@@ -18,6 +18,9 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
@@ -40,6 +43,7 @@ public abstract class AbstractSessionDataStore extends ContainerLifeCycle implem
     protected int _gracePeriodSec = 60 * 60; //default of 1hr 
     protected long _lastExpiryCheckTime = 0; //last time in ms that getExpired was called
     protected int _savePeriodSec = 0; //time in sec between saves
+    protected SessionDataSerializer _serializer = new JavaSessionDataSerializer(); //format of serialized attributes
 
     /**
      * Store the session data persistently.
@@ -131,8 +135,7 @@ public abstract class AbstractSessionDataStore extends ContainerLifeCycle implem
                 }
 
                 //save session if attribute changed, never been saved or metadata changed (eg expiry time) and save interval exceeded
-                if (data.isDirty() || (lastSave <= 0) ||
-                    (data.isMetaDataDirty() && ((System.currentTimeMillis() - lastSave) >= savePeriodMs)))
+                if (isStoreRequired(data, System.currentTimeMillis()))
                 {
                     //set the last saved time to now
                     data.setLastSaved(System.currentTimeMillis());
@@ -159,6 +162,137 @@ public abstract class AbstractSessionDataStore extends ContainerLifeCycle implem
             throw exception.get();
     }
 
+    /**
+     * Store several sessions.
+     * <p>
+     * Each session is subject to the same save policy as {@link #store(String, SessionData)}.
+     * This implementation stores the sessions one at a time, attempting all of them even if
+     * some fail; subclasses that can write several sessions in one operation may override it.
+     * Whether or not an exception is thrown, the sessions that were written have had their
+     * last saved time updated and their dirty flags cleared, and the sessions that were
+     * not written are unchanged.
+     *
+     * @param sessions the sessions to store, keyed by id
+     * @throws Exception the failure to store any of the sessions
+     */
+    public void storeAll(Map<String, SessionData> sessions) throws Exception
+    {
+        Exception failure = null;
+        for (Map.Entry<String, SessionData> entry : sessions.entrySet())
+        {
+            try
+            {
+                store(entry.getKey(), entry.getValue());
+            }
+            catch (Exception e)
+            {
+                if (failure == null)
+                    failure = e;
+                else
+                    failure.addSuppressed(e);
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Load several sessions, for example to warm up a session cache.
+     *
+     * @param ids the ids of the sessions to load
+     * @return the sessions found, keyed by id
+     * @throws Exception if unable to load the sessions
+     */
+    public Map<String, SessionData> loadAll(Set<String> ids) throws Exception
+    {
+        if (!isStarted())
+            throw new IllegalStateException("Not started");
+
+        final AtomicReference<Map<String, SessionData>> reference = new AtomicReference<>();
+        final AtomicReference<Exception> exception = new AtomicReference<>();
+
+        _context.run(() ->
+        {
+            try
+            {
+                reference.set(doLoadAll(ids));
+            }
+            catch (Exception e)
+            {
+                exception.set(e);
+            }
+        });
+        if (exception.get() != null)
+            throw exception.get();
+
+        return reference.get();
+    }
+
+    /**
+     * Load several sessions from persistent store.
+     * <p>
+     * This implementation loads the sessions one at a time, omitting
+     * sessions that cannot be read.
+     *
+     * @param ids the ids of the sessions to load
+     * @return the re-inflated sessions, keyed by id
+     * @throws Exception if unable to load the sessions
+     */
+    protected Map<String, SessionData> doLoadAll(Set<String> ids) throws Exception
+    {
+        Map<String, SessionData> sessions = new HashMap<>();
+        for (String id : ids)
+        {
+            try
+            {
+                SessionData data = doLoad(id);
+                if (data != null)
+                    sessions.put(id, data);
+            }
+            catch (UnreadableSessionDataException e)
+            {
+                LOG.warn("Unable to load session {}", id, e);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Delete several sessions.
+     * <p>
+     * This implementation deletes the sessions one at a time.
+     *
+     * @param ids the ids of the sessions to delete
+     * @return the ids of the sessions that were deleted
+     * @throws Exception if unable to delete the sessions
+     */
+    public Set<String> deleteAll(Set<String> ids) throws Exception
+    {
+        Set<String> deleted = new HashSet<>();
+        for (String id : ids)
+        {
+            if (delete(id))
+                deleted.add(id);
+        }
+        return deleted;
+    }
+
+    /**
+     * Check whether session data must be written, according to the save policy:
+     * sessions are saved if an attribute changed, if they have never been saved,
+     * or if metadata such as the expiry time changed and the save period has elapsed.
+     *
+     * @param data the session data
+     * @param now the current time in ms
+     * @return true if the session data must be written
+     */
+    protected boolean isStoreRequired(SessionData data, long now)
+    {
+        long lastSave = data.getLastSaved();
+        long savePeriodMs = (_savePeriodSec <= 0 ? 0 : TimeUnit.SECONDS.toMillis(_savePeriodSec));
+        return data.isDirty() || (lastSave <= 0) || (data.isMetaDataDirty() && ((now - lastSave) >= savePeriodMs));
+    }
+
     @Override
     public Set<String> getExpired(Set<String> candidates)
     {
@@ -237,6 +371,23 @@ public abstract class AbstractSessionDataStore extends ContainerLifeCycle implem
         _savePeriodSec = savePeriodSec;
     }
 
+    /**
+     * @return the serializer for session attributes, for stores that persist them as bytes
+     */
+    public SessionDataSerializer getSessionDataSerializer()
+    {
+        return _serializer;
+    }
+
+    /**
+     * @param serializer the serializer for session attributes, for stores that persist them as bytes
+     */
+    public void setSessionDataSerializer(SessionDataSerializer serializer)
+    {
+        checkStarted();
+        _serializer = serializer == null ? new JavaSessionDataSerializer() : serializer;
+    }
+
     @Override
     public String toString()
     {
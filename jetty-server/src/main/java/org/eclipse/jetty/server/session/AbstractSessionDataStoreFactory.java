@@ -26,6 +26,7 @@ public abstract class AbstractSessionDataStoreFactory implements SessionDataStor
 
     int _gracePeriodSec;
     int _savePeriodSec;
+    SessionDataSerializer _sessionDataSerializer;
 
     /**
      * @return the gracePeriodSec
@@ -58,4 +59,20 @@ public abstract class AbstractSessionDataStoreFactory implements SessionDataStor
     {
         _savePeriodSec = savePeriodSec;
     }
+
+    /**
+     * @return the serializer for session attributes, or null for the store's default
+     */
+    public SessionDataSerializer getSessionDataSerializer()
+    {
+        return _sessionDataSerializer;
+    }
+
+    /**
+     * @param serializer the serializer for session attributes, or null for the store's default
+     */
+    public void setSessionDataSerializer(SessionDataSerializer serializer)
+    {
+        _sessionDataSerializer = serializer;
+    }
 }
@@ -0,0 +1,391 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+import org.eclipse.jetty.util.thread.AutoLock;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * BoundedSessionCache
+ *
+ * A DefaultSessionCache that limits the number of sessions it holds,
+ * and optionally their estimated size in bytes. When either limit is
+ * exceeded, the least recently used sessions that are not in use by a
+ * request are written to the SessionDataStore and evicted from the cache.
+ * They are reloaded from the SessionDataStore on their next access.
+ *
+ * Eviction is done asynchronously by the SessionHandler's scheduler, so
+ * the limits may be briefly exceeded while a burst of new sessions is
+ * being evicted. As evicted sessions are only kept by the SessionDataStore,
+ * this cache should not be used with a NullSessionDataStore.
+ */
+@ManagedObject
+public class BoundedSessionCache extends DefaultSessionCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(BoundedSessionCache.class);
+
+    public static final int DEFAULT_MAX_SESSIONS = 10000;
+
+    private final AutoLock _lock = new AutoLock();
+    /**
+     * Estimated size of each cached session, in least recently used order
+     */
+    private final LinkedHashMap<String, Long> _lru = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicBoolean _evictionScheduled = new AtomicBoolean();
+    private final LongAdder _sizeEvictions = new LongAdder();
+    private final SampleStatistic _loadStats = new SampleStatistic();
+    private long _bytes;
+    private int _maxSessions = DEFAULT_MAX_SESSIONS;
+    private long _maxBytes = -1;
+
+    /**
+     * @param manager The SessionHandler related to this SessionCache
+     */
+    public BoundedSessionCache(SessionHandler manager)
+    {
+        super(manager);
+    }
+
+    @ManagedAttribute(value = "max sessions held before evicting", readonly = true)
+    public int getMaxSessions()
+    {
+        return _maxSessions;
+    }
+
+    /**
+     * @param maxSessions the max number of sessions to hold in the cache, or -1 for no limit
+     */
+    public void setMaxSessions(int maxSessions)
+    {
+        _maxSessions = maxSessions;
+    }
+
+    @ManagedAttribute(value = "max estimated bytes of sessions held before evicting", readonly = true)
+    public long getMaxBytes()
+    {
+        return _maxBytes;
+    }
+
+    /**
+     * @param maxBytes the max estimated size in bytes of the sessions held
+     * in the cache, or -1 for no limit
+     * @see #estimateSize(Session)
+     */
+    public void setMaxBytes(long maxBytes)
+    {
+        _maxBytes = maxBytes;
+    }
+
+    @ManagedAttribute(value = "estimated bytes of sessions in cache", readonly = true)
+    public long getSessionsBytes()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _bytes;
+        }
+    }
+
+    @ManagedAttribute(value = "sessions evicted to stay within limits", readonly = true)
+    public long getSessionsEvicted()
+    {
+        return _sizeEvictions.sum();
+    }
+
+    @ManagedAttribute(value = "sessions loaded from the session data store", readonly = true)
+    public long getSessionsLoaded()
+    {
+        return _loadStats.getCount();
+    }
+
+    @ManagedAttribute(value = "mean time in us to load a session", readonly = true)
+    public double getSessionLoadTimeMean()
+    {
+        return _loadStats.getMean();
+    }
+
+    @ManagedAttribute(value = "max time in us to load a session", readonly = true)
+    public long getSessionLoadTimeMax()
+    {
+        return _loadStats.getMax();
+    }
+
+    @ManagedAttribute(value = "standard deviation of time in us to load a session", readonly = true)
+    public double getSessionLoadTimeStdDev()
+    {
+        return _loadStats.getStdDev();
+    }
+
+    @Override
+    @ManagedOperation(value = "reset statistics", impact = "ACTION")
+    public void resetStats()
+    {
+        super.resetStats();
+        _sizeEvictions.reset();
+        _loadStats.reset();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        super.doStart();
+        if (_sessionDataStore instanceof NullSessionDataStore)
+            LOG.warn("Sessions evicted from {} will be lost, as there is no SessionDataStore", this);
+    }
+
+    @Override
+    public Session doPutIfAbsent(String id, Session session)
+    {
+        Session s = super.doPutIfAbsent(id, session);
+        if (s == null)
+            cached(id, session);
+        return s;
+    }
+
+    @Override
+    protected Session doComputeIfAbsent(String id, Function<String, Session> mappingFunction)
+    {
+        AtomicBoolean loaded = new AtomicBoolean();
+        Session session = super.doComputeIfAbsent(id, k ->
+        {
+            long start = System.nanoTime();
+            Session s = mappingFunction.apply(k);
+            if (s != null)
+            {
+                _loadStats.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                loaded.set(true);
+            }
+            return s;
+        });
+
+        if (loaded.get())
+            cached(id, session);
+        else if (session != null)
+            touch(id);
+        return session;
+    }
+
+    @Override
+    public Session doDelete(String id)
+    {
+        Session s = super.doDelete(id);
+        try (AutoLock l = _lock.lock())
+        {
+            Long size = _lru.remove(id);
+            if (size != null)
+                _bytes -= size;
+        }
+        return s;
+    }
+
+    @Override
+    public void release(String id, Session session) throws Exception
+    {
+        super.release(id, session);
+        //the attributes may have changed, so update the estimated size
+        if (session.isResident())
+        {
+            long size = estimateSize(session);
+            try (AutoLock l = _lock.lock())
+            {
+                Long old = _lru.replace(id, size);
+                if (old != null)
+                    _bytes += size - old;
+            }
+            if (isOverLimit())
+                scheduleEviction();
+        }
+    }
+
+    /**
+     * Estimate the heap used by a session. The estimate is deliberately
+     * cheap: common attribute types are sized from their length, and any
+     * other attribute value is counted as a fixed amount.
+     *
+     * @param session the session
+     * @return the estimated size of the session in bytes
+     */
+    protected long estimateSize(Session session)
+    {
+        SessionData data = session.getSessionData();
+        long size = 512;
+        for (String name : data.getKeys())
+        {
+            size += 48 + 2L * name.length();
+            Object value = data.getAttribute(name);
+            if (value instanceof CharSequence)
+                size += 40 + 2L * ((CharSequence)value).length();
+            else if (value instanceof byte[])
+                size += 16 + ((byte[])value).length;
+            else if (value instanceof Number || value instanceof Boolean || value instanceof Character)
+                size += 16;
+            else if (value != null)
+                size += 128;
+        }
+        return size;
+    }
+
+    /**
+     * @return true if the cache holds more sessions, or more estimated bytes, than allowed
+     */
+    protected boolean isOverLimit()
+    {
+        if (_maxSessions >= 0 && getSessionsCurrent() > _maxSessions)
+            return true;
+        return _maxBytes >= 0 && getSessionsBytes() > _maxBytes;
+    }
+
+    /**
+     * Evict the least recently used sessions that are not in use,
+     * until the cache is within its limits.
+     */
+    @ManagedOperation(value = "evict sessions to within limits", impact = "ACTION")
+    public void evict()
+    {
+        while (isOverLimit())
+        {
+            List<String> eldest = new ArrayList<>();
+            try (AutoLock l = _lock.lock())
+            {
+                long excess = _maxSessions >= 0 ? getSessionsCurrent() - _maxSessions : 0;
+                int batch = (int)Math.min(1024, Math.max(16, excess));
+                Iterator<String> ids = _lru.keySet().iterator();
+                while (ids.hasNext() && eldest.size() < batch)
+                {
+                    eldest.add(ids.next());
+                }
+            }
+
+            boolean evicted = false;
+            for (String id : eldest)
+            {
+                if (!isOverLimit())
+                    return;
+                evicted |= evict(id);
+            }
+
+            //every candidate was in use, try again on the next put
+            if (!evicted)
+                return;
+        }
+    }
+
+    /**
+     * Write a session to the SessionDataStore and remove it from the cache,
+     * unless it is in use by a request.
+     *
+     * @param id the id of the session to evict
+     * @return true if the session was evicted
+     */
+    protected boolean evict(String id)
+    {
+        Session session = doGet(id);
+        if (session == null)
+            return false;
+
+        try (AutoLock lock = session.lock())
+        {
+            if (session.getRequests() > 0 || !session.isResident() || !session.isValid())
+            {
+                //it is in use, so it is not the least recently used
+                touch(id);
+                return false;
+            }
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Evicting session {} to stay within limits", id);
+
+            if (_sessionDataStore.isPassivating())
+                session.willPassivate();
+
+            //Fake being dirty to force the write
+            session.getSessionData().setDirty(true);
+            _sessionDataStore.store(id, session.getSessionData());
+            doDelete(id);
+            session.setResident(false);
+            _sizeEvictions.increment();
+            return true;
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Passivation of session {} failed", id, e);
+            touch(id);
+            return false;
+        }
+    }
+
+    private void cached(String id, Session session)
+    {
+        long size = estimateSize(session);
+        try (AutoLock l = _lock.lock())
+        {
+            Long old = _lru.put(id, size);
+            _bytes += size - (old == null ? 0 : old);
+        }
+        if (isOverLimit())
+            scheduleEviction();
+    }
+
+    private void touch(String id)
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            _lru.get(id);
+        }
+    }
+
+    private void scheduleEviction()
+    {
+        if (!isStarted() || !_evictionScheduled.compareAndSet(false, true))
+            return;
+
+        Scheduler scheduler = getSessionHandler().getScheduler();
+        if (scheduler == null)
+        {
+            _evictionScheduled.set(false);
+            return;
+        }
+
+        scheduler.schedule(() ->
+        {
+            try
+            {
+                _context.run(this::evict);
+            }
+            finally
+            {
+                _evictionScheduled.set(false);
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+    }
+}
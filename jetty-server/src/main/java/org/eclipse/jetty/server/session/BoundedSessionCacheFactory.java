@@ -0,0 +1,76 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+/**
+ * BoundedSessionCacheFactory
+ *
+ * Factory for BoundedSessionCaches.
+ */
+public class BoundedSessionCacheFactory extends AbstractSessionCacheFactory
+{
+    int _maxSessions = BoundedSessionCache.DEFAULT_MAX_SESSIONS;
+    long _maxBytes = -1;
+
+    /**
+     * @return the max number of sessions held in the cache
+     */
+    public int getMaxSessions()
+    {
+        return _maxSessions;
+    }
+
+    /**
+     * @param maxSessions the max number of sessions held in the cache, or -1 for no limit
+     */
+    public void setMaxSessions(int maxSessions)
+    {
+        _maxSessions = maxSessions;
+    }
+
+    /**
+     * @return the max estimated bytes of the sessions held in the cache
+     */
+    public long getMaxBytes()
+    {
+        return _maxBytes;
+    }
+
+    /**
+     * @param maxBytes the max estimated bytes of the sessions held in the cache, or -1 for no limit
+     */
+    public void setMaxBytes(long maxBytes)
+    {
+        _maxBytes = maxBytes;
+    }
+
+    @Override
+    public SessionCache getSessionCache(SessionHandler handler)
+    {
+        BoundedSessionCache cache = new BoundedSessionCache(handler);
+        cache.setMaxSessions(getMaxSessions());
+        cache.setMaxBytes(getMaxBytes());
+        cache.setEvictionPolicy(getEvictionPolicy());
+        cache.setSaveOnInactiveEviction(isSaveOnInactiveEvict());
+        cache.setSaveOnCreate(isSaveOnCreate());
+        cache.setRemoveUnloadableSessions(isRemoveUnloadableSessions());
+        cache.setFlushOnResponseCommit(isFlushOnResponseCommit());
+        return cache;
+    }
+}
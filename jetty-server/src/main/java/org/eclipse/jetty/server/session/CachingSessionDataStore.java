@@ -18,9 +18,16 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.thread.AutoLock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,10 +48,26 @@ import org.slf4j.LoggerFactory;
  * deletes, the data is deleted first from the SessionDataStore, and then from the
  * cache. There is no transaction manager ensuring atomic operations, so it is
  * possible that failures can result in cache inconsistency.
+ *
+ * Optionally, a bounded near-cache on this node can be put in front of the
+ * fronting cache. It holds a copy of the session data last loaded or stored on
+ * this node, stamped with its lastSaved time. Before a near-cache entry is used
+ * its stamp is compared with the version held by the fronting cache (see
+ * {@link SessionDataMap#getLastSaved(String)}); if they differ, the session was
+ * changed on another node and is loaded from the fronting cache or store as usual.
+ * Fronting caches that cannot report versions, such as the default unversioned
+ * memcached map, cannot validate entries, so with them an entry is only used
+ * within {@link #getNearCacheTrustMs()} of being loaded or stored. The trust time
+ * defaults to {@link #DEFAULT_NEAR_CACHE_TRUST_MS}; setting it to 0 with such a
+ * cache leaves the near-cache unused. With sticky sessions most loads can then be served without
+ * fetching the whole session from the fronting cache. Copies are shallow: attribute
+ * values are shared with the session data they were copied from.
  */
+@ManagedObject
 public class CachingSessionDataStore extends ContainerLifeCycle implements SessionDataStore
 {
     private static final Logger LOG = LoggerFactory.getLogger(CachingSessionDataStore.class);
+    public static final long DEFAULT_NEAR_CACHE_TRUST_MS = 1000;
     /**
      * The actual store for the session data
      */
@@ -55,6 +78,35 @@ public class CachingSessionDataStore extends ContainerLifeCycle implements Sessi
      */
     protected SessionDataMap _cache;
 
+    private final AutoLock _nearLock = new AutoLock();
+    private final Map<String, NearEntry> _nearCache = new LinkedHashMap<>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, NearEntry> eldest)
+        {
+            return size() > _nearCacheMaxEntries;
+        }
+    };
+    private final LongAdder _nearHits = new LongAdder();
+    private final LongAdder _nearValidatedHits = new LongAdder();
+    private final LongAdder _nearStale = new LongAdder();
+    private final LongAdder _nearMisses = new LongAdder();
+    private int _nearCacheMaxEntries;
+    private long _nearCacheTrustMs = DEFAULT_NEAR_CACHE_TRUST_MS;
+    private volatile boolean _nearCacheUnversionedWarned;
+
+    private static class NearEntry
+    {
+        private final SessionData _data;
+        private volatile long _validated;
+
+        private NearEntry(SessionData data, long validated)
+        {
+            _data = data;
+            _validated = validated;
+        }
+    }
+
     /**
      * @param cache the front cache to use
      * @param store the actual store for the the session data
@@ -83,8 +135,116 @@ public class CachingSessionDataStore extends ContainerLifeCycle implements Sessi
         return _cache;
     }
 
+    @ManagedAttribute(value = "max entries in the near-cache, 0 if disabled", readonly = true)
+    public int getNearCacheMaxEntries()
+    {
+        return _nearCacheMaxEntries;
+    }
+
+    /**
+     * @param maxEntries the max number of sessions held in the near-cache, or 0 to disable it
+     */
+    public void setNearCacheMaxEntries(int maxEntries)
+    {
+        _nearCacheMaxEntries = Math.max(0, maxEntries);
+    }
+
+    @ManagedAttribute(value = "ms after loading or storing that a near-cache entry is used if the fronting cache has no versions", readonly = true)
+    public long getNearCacheTrustMs()
+    {
+        return _nearCacheTrustMs;
+    }
+
+    /**
+     * If the fronting cache cannot report versions, near-cache entries
+     * are only used within this time of being loaded or stored, so with
+     * such a cache this must be greater than 0 for the near-cache to be used.
+     * Entries are always validated against fronting caches that report versions.
+     * Defaults to {@link #DEFAULT_NEAR_CACHE_TRUST_MS}.
+     *
+     * @param trustMs the time in ms after loading or storing that a near-cache entry
+     * is used if the fronting cache cannot report versions
+     */
+    public void setNearCacheTrustMs(long trustMs)
+    {
+        _nearCacheTrustMs = trustMs;
+    }
+
+    @ManagedAttribute(value = "sessions in the near-cache", readonly = true)
+    public int getNearCacheSize()
+    {
+        try (AutoLock l = _nearLock.lock())
+        {
+            return _nearCache.size();
+        }
+    }
+
+    @ManagedAttribute(value = "loads served by the near-cache without a version check", readonly = true)
+    public long getNearCacheHits()
+    {
+        return _nearHits.sum();
+    }
+
+    @ManagedAttribute(value = "loads served by the near-cache after a version check", readonly = true)
+    public long getNearCacheValidatedHits()
+    {
+        return _nearValidatedHits.sum();
+    }
+
+    @ManagedAttribute(value = "near-cache entries found to be stale", readonly = true)
+    public long getNearCacheStale()
+    {
+        return _nearStale.sum();
+    }
+
+    @ManagedAttribute(value = "loads not served by the near-cache", readonly = true)
+    public long getNearCacheMisses()
+    {
+        return _nearMisses.sum();
+    }
+
+    @ManagedOperation(value = "reset statistics", impact = "ACTION")
+    public void resetStats()
+    {
+        _nearHits.reset();
+        _nearValidatedHits.reset();
+        _nearStale.reset();
+        _nearMisses.reset();
+    }
+
+    /**
+     * Remove a session from the near-cache of this node, for example
+     * when told that it has been changed on another node.
+     *
+     * @param id the id of the session
+     */
+    @ManagedOperation(value = "remove a session from the near-cache", impact = "ACTION")
+    public void invalidateNearCache(String id)
+    {
+        try (AutoLock l = _nearLock.lock())
+        {
+            _nearCache.remove(id);
+        }
+    }
+
     @Override
     public SessionData load(String id) throws Exception
+    {
+        if (_nearCacheMaxEntries > 0)
+        {
+            SessionData near = loadNear(id);
+            if (near != null)
+                return near;
+            _nearMisses.increment();
+        }
+
+        SessionData d = loadFar(id);
+        if (d != null)
+            storeNear(id, d);
+        return d;
+    }
+
+    private SessionData loadFar(String id) throws Exception
     {
         SessionData d = null;
 
@@ -107,9 +267,83 @@ public class CachingSessionDataStore extends ContainerLifeCycle implements Sessi
         return d;
     }
 
+    private SessionData loadNear(String id)
+    {
+        NearEntry entry;
+        try (AutoLock l = _nearLock.lock())
+        {
+            entry = _nearCache.get(id);
+        }
+        if (entry == null)
+            return null;
+
+        long now = System.currentTimeMillis();
+        long version = 0;
+        try
+        {
+            version = _cache.getLastSaved(id);
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to get version of {}", id, e);
+        }
+
+        if (version < 0)
+        {
+            //the fronting cache cannot report versions, so only trust recent entries
+            if (now - entry._validated < _nearCacheTrustMs)
+            {
+                _nearHits.increment();
+                return copy(entry._data);
+            }
+            if (_nearCacheTrustMs <= 0 && !_nearCacheUnversionedWarned)
+            {
+                _nearCacheUnversionedWarned = true;
+                LOG.warn("{} cannot report versions and nearCacheTrustMs={}, the near-cache will not be used", _cache, _nearCacheTrustMs);
+            }
+        }
+        else if (version > 0 && version == entry._data.getLastSaved())
+        {
+            entry._validated = now;
+            _nearValidatedHits.increment();
+            return copy(entry._data);
+        }
+
+        //changed elsewhere, or no longer trusted
+        if (LOG.isDebugEnabled())
+            LOG.debug("Stale near-cache entry for {}, lastSaved={} version={}", id, entry._data.getLastSaved(), version);
+        _nearStale.increment();
+        try (AutoLock l = _nearLock.lock())
+        {
+            _nearCache.remove(id, entry);
+        }
+        return null;
+    }
+
+    private void storeNear(String id, SessionData data)
+    {
+        if (_nearCacheMaxEntries <= 0)
+            return;
+        NearEntry entry = new NearEntry(copy(data), System.currentTimeMillis());
+        try (AutoLock l = _nearLock.lock())
+        {
+            _nearCache.put(id, entry);
+        }
+    }
+
+    private SessionData copy(SessionData data)
+    {
+        SessionData copy = _store.newSessionData(data.getId(), data.getCreated(), data.getAccessed(), data.getLastAccessed(), data.getMaxInactiveMs());
+        copy.copy(data);
+        copy.setDirty(false);
+        copy.setMetaDataDirty(false);
+        return copy;
+    }
+
     @Override
     public boolean delete(String id) throws Exception
     {
+        invalidateNearCache(id);
         //delete from the store
         boolean deleted = _store.delete(id);
         //and from the cache
@@ -131,11 +365,22 @@ public class CachingSessionDataStore extends ContainerLifeCycle implements Sessi
         long lastSaved = data.getLastSaved();
 
         //write to the SessionDataStore first
-        _store.store(id, data);
+        try
+        {
+            _store.store(id, data);
+        }
+        catch (Exception e)
+        {
+            invalidateNearCache(id);
+            throw e;
+        }
 
-        //if the store saved it, then update the cache too
+        //if the store saved it, then update the caches too
         if (data.getLastSaved() != lastSaved)
+        {
             _cache.store(id, data);
+            storeNear(id, data);
+        }
     }
 
     @Override
@@ -147,6 +392,10 @@ public class CachingSessionDataStore extends ContainerLifeCycle implements Sessi
     @Override
     protected void doStop() throws Exception
     {
+        try (AutoLock l = _nearLock.lock())
+        {
+            _nearCache.clear();
+        }
         super.doStop();
     }
 
@@ -31,6 +31,10 @@ public class CachingSessionDataStoreFactory extends AbstractSessionDataStoreFact
 
     protected SessionDataMapFactory _mapFactory;
 
+    protected int _nearCacheMaxEntries;
+
+    protected long _nearCacheTrustMs = CachingSessionDataStore.DEFAULT_NEAR_CACHE_TRUST_MS;
+
     /**
      * @return the SessionDataMapFactory
      */
@@ -56,9 +60,44 @@ public class CachingSessionDataStoreFactory extends AbstractSessionDataStoreFact
         _sessionStoreFactory = factory;
     }
 
+    /**
+     * @return the max number of sessions held in the near-cache of each node, 0 if disabled
+     */
+    public int getNearCacheMaxEntries()
+    {
+        return _nearCacheMaxEntries;
+    }
+
+    /**
+     * @param maxEntries the max number of sessions held in the near-cache of each node, 0 to disable it
+     */
+    public void setNearCacheMaxEntries(int maxEntries)
+    {
+        _nearCacheMaxEntries = maxEntries;
+    }
+
+    /**
+     * @return the time in ms after loading or storing that a near-cache entry is used if the fronting cache cannot report versions
+     */
+    public long getNearCacheTrustMs()
+    {
+        return _nearCacheTrustMs;
+    }
+
+    /**
+     * @param trustMs the time in ms after loading or storing that a near-cache entry is used if the fronting cache cannot report versions
+     */
+    public void setNearCacheTrustMs(long trustMs)
+    {
+        _nearCacheTrustMs = trustMs;
+    }
+
     @Override
     public SessionDataStore getSessionDataStore(SessionHandler handler) throws Exception
     {
-        return new CachingSessionDataStore(_mapFactory.getSessionDataMap(), _sessionStoreFactory.getSessionDataStore(handler));
+        CachingSessionDataStore store = new CachingSessionDataStore(_mapFactory.getSessionDataMap(), _sessionStoreFactory.getSessionDataStore(handler));
+        store.setNearCacheMaxEntries(getNearCacheMaxEntries());
+        store.setNearCacheTrustMs(getNearCacheTrustMs());
+        return store;
     }
 }
@@ -0,0 +1,545 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
+
+/**
+ * CompactSessionDataSerializer
+ *
+ * Writes session attributes in a length-prefixed binary format.
+ * <p>
+ * Values of common types are written directly: {@link String}, the primitive
+ * wrappers, {@code byte[]}, and {@link ArrayList}, {@link HashMap} and
+ * {@link LinkedHashMap} whose elements are themselves of these types. Any other
+ * value is written with java serialization, recording the classloader to load
+ * it with in the same way as {@link SessionData#serializeAttribute(String, Object, ObjectOutputStream)}.
+ * All such values of a session are written to a single {@link ObjectOutputStream},
+ * following the compact values, so that objects shared between attributes keep
+ * their identity and class descriptors are written only once.
+ * <p>
+ * Once written, the attributes may be compressed with Deflate if they are larger
+ * than {@link #getCompressionThreshold()} bytes.
+ * <p>
+ * Attributes written by {@link JavaSessionDataSerializer} are recognized and read,
+ * so existing sessions remain readable after switching a store to this format.
+ */
+public class CompactSessionDataSerializer implements SessionDataSerializer
+{
+    private static final int MAGIC = 0x4A53; //"JS"
+    private static final int VERSION = 2;
+    private static final int FLAG_DEFLATED = 0x01;
+    private static final int MAX_DEPTH = 16;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte FLOAT = 6;
+    private static final byte SHORT = 7;
+    private static final byte BYTE = 8;
+    private static final byte CHARACTER = 9;
+    private static final byte BYTES = 10;
+    private static final byte ARRAY_LIST = 11;
+    private static final byte HASH_MAP = 12;
+    private static final byte LINKED_HASH_MAP = 13;
+    private static final byte JAVA = 14;
+
+    private final JavaSessionDataSerializer _java = new JavaSessionDataSerializer();
+    private int _compressionThreshold = -1;
+    private int _compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * @return the size in bytes above which attributes are compressed, or -1 if never compressed
+     */
+    public int getCompressionThreshold()
+    {
+        return _compressionThreshold;
+    }
+
+    /**
+     * @param compressionThreshold the size in bytes above which attributes are compressed, or -1 to never compress
+     */
+    public void setCompressionThreshold(int compressionThreshold)
+    {
+        _compressionThreshold = compressionThreshold;
+    }
+
+    public int getCompressionLevel()
+    {
+        return _compressionLevel;
+    }
+
+    /**
+     * @param compressionLevel the Deflate compression level, see {@link Deflater#setLevel(int)}
+     */
+    public void setCompressionLevel(int compressionLevel)
+    {
+        if (compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel);
+        _compressionLevel = compressionLevel;
+    }
+
+    @Override
+    public void serializeAttributes(SessionData data, OutputStream out) throws IOException
+    {
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(compact);
+        ByteArrayOutputStream java = new ByteArrayOutputStream();
+        ObjectOutputStream oos = null;
+        Map<String, Object> attributes = data.getAllAttributes();
+        body.writeInt(attributes.size());
+        for (Map.Entry<String, Object> entry : attributes.entrySet())
+        {
+            String name = entry.getKey();
+            Object value = entry.getValue();
+            body.writeUTF(name);
+            if (isCompact(value, 0))
+            {
+                writeValue(body, value);
+            }
+            else
+            {
+                //the value itself is written to the java serialization stream that follows the compact values
+                body.writeByte(JAVA);
+                if (oos == null)
+                    oos = new ObjectOutputStream(java);
+                SessionData.serializeAttribute(name, value, oos);
+            }
+        }
+        body.flush();
+        if (oos != null)
+            oos.close();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + compact.size() + java.size());
+        DataOutputStream sections = new DataOutputStream(bytes);
+        sections.writeInt(compact.size());
+        compact.writeTo(sections);
+        java.writeTo(sections);
+        sections.flush();
+
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeShort(MAGIC);
+        header.writeByte(VERSION);
+        if (_compressionThreshold >= 0 && bytes.size() > _compressionThreshold)
+        {
+            byte[] deflated = deflate(bytes.toByteArray());
+            header.writeByte(FLAG_DEFLATED);
+            header.writeInt(bytes.size());
+            header.writeInt(deflated.length);
+            header.write(deflated);
+        }
+        else
+        {
+            header.writeByte(0);
+            header.writeInt(bytes.size());
+            bytes.writeTo(header);
+        }
+        header.flush();
+    }
+
+    @Override
+    public void deserializeAttributes(SessionData data, InputStream in) throws IOException, ClassNotFoundException
+    {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        int b0 = pushback.read();
+        int b1 = pushback.read();
+        if (b1 >= 0)
+            pushback.unread(b1);
+        if (b0 >= 0)
+            pushback.unread(b0);
+
+        if (((b0 << 8) | b1) != MAGIC)
+        {
+            //not our format, assume java serialization
+            _java.deserializeAttributes(data, pushback);
+            return;
+        }
+
+        DataInputStream header = new DataInputStream(pushback);
+        header.readShort();
+        int version = header.readUnsignedByte();
+        if (version != VERSION)
+            throw new StreamCorruptedException("Unknown version " + version);
+        int flags = header.readUnsignedByte();
+
+        //read the whole body in one go, rather than value by value from the underlying stream
+        byte[] bytes;
+        if ((flags & FLAG_DEFLATED) != 0)
+        {
+            int length = readLength(header);
+            bytes = inflate(readBytes(header, readLength(header)), length);
+        }
+        else
+        {
+            bytes = readBytes(header, readLength(header));
+        }
+
+        DataInputStream sections = new DataInputStream(new ByteArrayInputStream(bytes));
+        int compactLength = readSize(sections);
+        DataInputStream body = new DataInputStream(new ByteArrayInputStream(bytes, 4, compactLength));
+        Values values = new Values(body, new ByteArrayInputStream(bytes, 4 + compactLength, bytes.length - 4 - compactLength));
+
+        try
+        {
+            int entries = readSize(body);
+            Map<String, Object> attributes = new HashMap<>();
+            for (int i = 0; i < entries; i++)
+            {
+                String name = body.readUTF();
+                attributes.put(name, values.read(0));
+            }
+            data.putAllAttributes(attributes);
+        }
+        finally
+        {
+            values.close();
+        }
+    }
+
+    /**
+     * Writes a value for which {@link #isCompact(Object, int)} is true.
+     */
+    private void writeValue(DataOutputStream out, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(NULL);
+        }
+        else if (value instanceof String)
+        {
+            byte[] utf8 = ((String)value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        else if (value instanceof Integer)
+        {
+            out.writeByte(INTEGER);
+            out.writeInt((Integer)value);
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeLong((Long)value);
+        }
+        else if (value instanceof Boolean)
+        {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double)value);
+        }
+        else if (value instanceof Float)
+        {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float)value);
+        }
+        else if (value instanceof Short)
+        {
+            out.writeByte(SHORT);
+            out.writeShort((Short)value);
+        }
+        else if (value instanceof Byte)
+        {
+            out.writeByte(BYTE);
+            out.writeByte((Byte)value);
+        }
+        else if (value instanceof Character)
+        {
+            out.writeByte(CHARACTER);
+            out.writeChar((Character)value);
+        }
+        else if (value instanceof byte[])
+        {
+            byte[] array = (byte[])value;
+            out.writeByte(BYTES);
+            out.writeInt(array.length);
+            out.write(array);
+        }
+        else if (value instanceof List)
+        {
+            List<?> list = (List<?>)value;
+            out.writeByte(ARRAY_LIST);
+            out.writeInt(list.size());
+            for (Object element : list)
+            {
+                writeValue(out, element);
+            }
+        }
+        else
+        {
+            Map<?, ?> map = (Map<?, ?>)value;
+            out.writeByte(value.getClass() == LinkedHashMap.class ? LINKED_HASH_MAP : HASH_MAP);
+            out.writeInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet())
+            {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return a length read from the stream, checked against the bytes remaining in the stream
+     */
+    private static int readSize(DataInputStream in) throws IOException
+    {
+        int size = readLength(in);
+        //each element takes at least one byte, so a larger size cannot be valid
+        if (size > in.available())
+            throw new StreamCorruptedException("Invalid size " + size);
+        return size;
+    }
+
+    /**
+     * @return the given number of bytes, read without trusting the length
+     * before the bytes have actually been read
+     */
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException
+    {
+        byte[] bytes = in.readNBytes(length);
+        if (bytes.length != length)
+            throw new EOFException("Expected " + length + " bytes, read " + bytes.length);
+        return bytes;
+    }
+
+    private static int readLength(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0)
+            throw new StreamCorruptedException("Invalid length " + length);
+        return length;
+    }
+
+    /**
+     * @return true if the value and, for collections, all of its elements can be written
+     * directly and read back as an instance of the same class
+     */
+    private boolean isCompact(Object value, int depth)
+    {
+        if (value == null)
+            return true;
+        Class<?> clazz = value.getClass();
+        if (clazz == String.class || clazz == Integer.class || clazz == Long.class || clazz == Boolean.class ||
+            clazz == Double.class || clazz == Float.class || clazz == Short.class || clazz == Byte.class ||
+            clazz == Character.class || clazz == byte[].class)
+            return true;
+        if (depth >= MAX_DEPTH)
+            return false;
+        if (clazz == ArrayList.class)
+        {
+            for (Object element : (List<?>)value)
+            {
+                if (!isCompact(element, depth + 1))
+                    return false;
+            }
+            return true;
+        }
+        if (clazz == HashMap.class || clazz == LinkedHashMap.class)
+        {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet())
+            {
+                if (!isCompact(entry.getKey(), depth + 1) || !isCompact(entry.getValue(), depth + 1))
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private byte[] deflate(byte[] bytes)
+    {
+        Deflater deflater = new Deflater(_compressionLevel);
+        try
+        {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished())
+            {
+                int len = deflater.deflate(buffer);
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    private byte[] inflate(byte[] bytes, int length) throws IOException
+    {
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(bytes);
+            //grow the result as it is inflated, rather than trusting the length up front
+            ByteArrayOutputStream result = new ByteArrayOutputStream(Math.min(length, 4 * bytes.length + 64));
+            byte[] buffer = new byte[4096];
+            while (result.size() < length && !inflater.finished())
+            {
+                int len = inflater.inflate(buffer, 0, Math.min(buffer.length, length - result.size()));
+                if (len == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new StreamCorruptedException("Truncated compressed attributes");
+                result.write(buffer, 0, len);
+            }
+            if (result.size() != length)
+                throw new StreamCorruptedException("Expected " + length + " bytes, inflated " + result.size());
+            return result.toByteArray();
+        }
+        catch (DataFormatException e)
+        {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads the values of a session, taking the java serialized ones in order
+     * from a single stream.
+     */
+    private static class Values implements AutoCloseable
+    {
+        private final DataInputStream _in;
+        private final InputStream _java;
+        private ClassLoadingObjectInputStream _ois;
+
+        private Values(DataInputStream in, InputStream java)
+        {
+            _in = in;
+            _java = java;
+        }
+
+        private Object read(int depth) throws IOException, ClassNotFoundException
+        {
+            if (depth > MAX_DEPTH)
+                throw new StreamCorruptedException("Attributes nested too deeply");
+
+            byte type = _in.readByte();
+            switch (type)
+            {
+                case NULL:
+                    return null;
+                case STRING:
+                {
+                    byte[] utf8 = new byte[readSize(_in)];
+                    _in.readFully(utf8);
+                    return new String(utf8, StandardCharsets.UTF_8);
+                }
+                case INTEGER:
+                    return _in.readInt();
+                case LONG:
+                    return _in.readLong();
+                case BOOLEAN:
+                    return _in.readBoolean();
+                case DOUBLE:
+                    return _in.readDouble();
+                case FLOAT:
+                    return _in.readFloat();
+                case SHORT:
+                    return _in.readShort();
+                case BYTE:
+                    return _in.readByte();
+                case CHARACTER:
+                    return _in.readChar();
+                case BYTES:
+                {
+                    byte[] array = new byte[readSize(_in)];
+                    _in.readFully(array);
+                    return array;
+                }
+                case ARRAY_LIST:
+                {
+                    int size = readSize(_in);
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++)
+                    {
+                        list.add(read(depth + 1));
+                    }
+                    return list;
+                }
+                case HASH_MAP:
+                case LINKED_HASH_MAP:
+                {
+                    int size = readSize(_in);
+                    Map<Object, Object> map = type == HASH_MAP ? new HashMap<>() : new LinkedHashMap<>();
+                    for (int i = 0; i < size; i++)
+                    {
+                        Object key = read(depth + 1);
+                        map.put(key, read(depth + 1));
+                    }
+                    return map;
+                }
+                case JAVA:
+                {
+                    if (_ois == null)
+                        _ois = new ClassLoadingObjectInputStream(_java);
+                    return SessionData.deserializeAttribute(_ois);
+                }
+                default:
+                    throw new StreamCorruptedException("Unknown type " + type);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (_ois != null)
+                _ois.close();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[compressionThreshold=%d,compressionLevel=%d]", getClass().getSimpleName(), _compressionThreshold, _compressionLevel);
+    }
+}
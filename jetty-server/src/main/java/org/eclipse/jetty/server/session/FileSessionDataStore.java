@@ -18,6 +18,8 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -25,18 +27,19 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.nio.file.FileVisitOption;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashSet;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
-import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
+import org.eclipse.jetty.util.IO;
 import org.eclipse.jetty.util.MultiException;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
@@ -53,11 +56,23 @@ import org.slf4j.LoggerFactory;
 public class FileSessionDataStore extends AbstractSessionDataStore
 {
     private static final Logger LOG = LoggerFactory.getLogger(FileSessionDataStore.class);
+
+    /**
+     * Name of the file in the store dir that records the expiry of the
+     * session files of other contexts, as of the last full walk of the dir.
+     */
+    public static final String SWEEP_INDEX_FILENAME = ".sweep.idx";
+    public static final int DEFAULT_SWEEP_RESCAN_INTERVAL_SEC = (int)TimeUnit.DAYS.toSeconds(1);
+
     protected File _storeDir;
     protected boolean _deleteUnrestorableFiles = false;
     protected Map<String, String> _sessionFileMap = new ConcurrentHashMap<>();
     protected String _contextString;
     protected long _lastSweepTime = 0L;
+    protected long _lastFullSweepTime = 0L;
+    protected int _sweepRescanIntervalSec = DEFAULT_SWEEP_RESCAN_INTERVAL_SEC;
+    protected SessionExpiryIndex _expiryIndex = new SessionExpiryIndex(); //our sessions by id
+    protected SessionExpiryIndex _sweepIndex = new SessionExpiryIndex(TimeUnit.MINUTES.toMillis(1)); //other contexts' files by filename
 
     @Override
     public void initialize(SessionContext context) throws Exception
@@ -77,7 +92,10 @@ public class FileSessionDataStore extends AbstractSessionDataStore
     protected void doStop() throws Exception
     {
         _sessionFileMap.clear();
+        _expiryIndex.clear();
+        _sweepIndex.clear();
         _lastSweepTime = 0;
+        _lastFullSweepTime = 0;
         super.doStop();
     }
 
@@ -104,6 +122,27 @@ public class FileSessionDataStore extends AbstractSessionDataStore
         _deleteUnrestorableFiles = deleteUnrestorableFiles;
     }
 
+    @ManagedAttribute(value = "secs between full walks of the store dir when sweeping", readonly = true)
+    public int getSweepRescanIntervalSec()
+    {
+        return _sweepRescanIntervalSec;
+    }
+
+    /**
+     * Between full walks of the store dir, the periodic sweep for ancient
+     * session files of other contexts only visits the files recorded in
+     * the sweep index that are due for removal. Files written by other
+     * contexts after the last walk are picked up by the next walk.
+     *
+     * @param sec the interval in secs between full walks of the store dir;
+     * 0 or less walks the dir on every sweep
+     */
+    public void setSweepRescanIntervalSec(int sec)
+    {
+        checkStarted();
+        _sweepRescanIntervalSec = sec;
+    }
+
     /**
      * Delete a session
      *
@@ -116,6 +155,7 @@ public class FileSessionDataStore extends AbstractSessionDataStore
         {
             //remove from our map
             String filename = _sessionFileMap.remove(getIdWithContext(id));
+            _expiryIndex.remove(id);
             if (filename == null)
                 return false;
 
@@ -153,22 +193,9 @@ public class FileSessionDataStore extends AbstractSessionDataStore
     public Set<String> doGetExpired(final Set<String> candidates)
     {
         final long now = System.currentTimeMillis();
-        HashSet<String> expired = new HashSet<String>();
 
-        //iterate over the files and work out which have expired
-        for (String filename : _sessionFileMap.values())
-        {
-            try
-            {
-                long expiry = getExpiryFromFilename(filename);
-                if (expiry > 0 && expiry < now)
-                    expired.add(getIdFromFilename(filename));
-            }
-            catch (Exception e)
-            {
-                LOG.warn("Unable to get expired for {}", filename, e);
-            }
-        }
+        //only look at the sessions whose expiry is before now
+        Set<String> expired = _expiryIndex.getExpired(now);
 
         //check candidates that were not found to be expired, perhaps 
         //because they no longer exist and they should be expired
@@ -191,11 +218,53 @@ public class FileSessionDataStore extends AbstractSessionDataStore
         if ((_gracePeriodSec > 0) && ((_lastSweepTime == 0) || ((now - _lastSweepTime) >= (5 * TimeUnit.SECONDS.toMillis(_gracePeriodSec)))))
         {
             _lastSweepTime = now;
-            sweepDisk();
+            sweep(now);
         }
         return expired;
     }
 
+    /**
+     * Remove the session files of other contexts that expired long ago.
+     * The store dir is only walked if neither this store nor another
+     * sharing the same dir has walked it within the sweep rescan interval;
+     * otherwise only the files in the sweep index that are due are checked.
+     *
+     * @param now the time now in msec
+     */
+    protected void sweep(long now)
+    {
+        long rescanMs = TimeUnit.SECONDS.toMillis(_sweepRescanIntervalSec);
+        if (rescanMs <= 0 || (now - _lastFullSweepTime) >= rescanMs)
+        {
+            //another node sharing the dir may have walked it more recently
+            if (!readSweepIndex(now))
+            {
+                sweepDisk();
+                return;
+            }
+        }
+
+        long ancient = now - (5 * TimeUnit.SECONDS.toMillis(_gracePeriodSec));
+        Set<String> due = _sweepIndex.removeExpired(ancient + 1);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Sweeping {} indexed session files in {}", due.size(), _storeDir);
+        for (String filename : due)
+        {
+            if (isOurContextSessionFilename(filename))
+                continue;
+            try
+            {
+                sweepFile(now, _storeDir.toPath().resolve(filename));
+            }
+            catch (Exception e)
+            {
+                LOG.warn("Unable to sweep file {}", filename, e);
+            }
+        }
+        if (!due.isEmpty())
+            writeSweepIndex();
+    }
+
     /**
      * Check all session files that do not belong to this context and
      * remove any that expired long ago (ie at least 5 gracePeriods ago).
@@ -208,6 +277,7 @@ public class FileSessionDataStore extends AbstractSessionDataStore
             LOG.debug("Sweeping {} for old session files", _storeDir);
         try
         {
+            _sweepIndex.clear();
             Files.walk(_storeDir.toPath(), 1, FileVisitOption.FOLLOW_LINKS)
                 .filter(p -> !Files.isDirectory(p)).filter(p -> !isOurContextSessionFilename(p.getFileName().toString()))
                 .filter(p -> isSessionFilename(p.getFileName().toString()))
@@ -217,12 +287,15 @@ public class FileSessionDataStore extends AbstractSessionDataStore
                     try
                     {
                         sweepFile(now, p);
+                        indexForSweep(p);
                     }
                     catch (Exception e)
                     {
                         LOG.warn("Unable to sweep file {}", p, e);
                     }
                 });
+            _lastFullSweepTime = now;
+            writeSweepIndex();
         }
         catch (Exception e)
         {
@@ -230,6 +303,117 @@ public class FileSessionDataStore extends AbstractSessionDataStore
         }
     }
 
+    /**
+     * Record a session file of another context that survived a sweep
+     * in the sweep index, so that later sweeps can find it without
+     * walking the store dir.
+     *
+     * @param p the session file
+     */
+    protected void indexForSweep(Path p)
+    {
+        if (!Files.exists(p))
+            return;
+        String filename = p.getFileName().toString();
+        try
+        {
+            _sweepIndex.put(filename, getExpiryFromFilename(filename));
+        }
+        catch (NumberFormatException e)
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Not indexing {}", filename, e);
+        }
+    }
+
+    /**
+     * Write the sweep index to the store dir. The index is replaced
+     * atomically where the file system supports it, so that other
+     * stores sharing the dir never see a partially written index.
+     */
+    protected void writeSweepIndex()
+    {
+        List<String> filenames = new ArrayList<>();
+        List<Long> expiries = new ArrayList<>();
+        _sweepIndex.forEach((filename, expiry) ->
+        {
+            filenames.add(filename);
+            expiries.add(expiry);
+        });
+
+        Path index = _storeDir.toPath().resolve(SWEEP_INDEX_FILENAME);
+        Path tmp = null;
+        try
+        {
+            tmp = Files.createTempFile(_storeDir.toPath(), ".sweep", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))
+            {
+                out.writeLong(_lastFullSweepTime);
+                out.writeInt(filenames.size());
+                for (int i = 0; i < filenames.size(); i++)
+                {
+                    out.writeLong(expiries.get(i));
+                    out.writeUTF(filenames.get(i));
+                }
+            }
+            try
+            {
+                Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException e)
+            {
+                Files.move(tmp, index, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to write sweep index {}", index, e);
+            if (tmp != null)
+                IO.delete(tmp.toFile());
+        }
+    }
+
+    /**
+     * Replace the sweep index with the one in the store dir, if that
+     * was written after a walk of the dir within the sweep rescan interval.
+     *
+     * @param now the time now in msec
+     * @return true if the sweep index was read and is recent enough to use
+     */
+    protected boolean readSweepIndex(long now)
+    {
+        long rescanMs = TimeUnit.SECONDS.toMillis(_sweepRescanIntervalSec);
+        if (rescanMs <= 0)
+            return false;
+
+        File index = new File(_storeDir, SWEEP_INDEX_FILENAME);
+        if (!index.exists())
+            return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(index))))
+        {
+            long walked = in.readLong();
+            if (walked <= _lastFullSweepTime || (now - walked) >= rescanMs)
+                return false;
+
+            int size = in.readInt();
+            _sweepIndex.clear();
+            for (int i = 0; i < size; i++)
+            {
+                long expiry = in.readLong();
+                _sweepIndex.put(in.readUTF(), expiry);
+            }
+            _lastFullSweepTime = walked;
+            return true;
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to read sweep index {}", index, e);
+            _sweepIndex.clear();
+            return false;
+        }
+    }
+
     /**
      * Check to see if the expiry on the file is very old, and
      * delete the file if so. "Old" means that it expired at least
@@ -282,7 +466,7 @@ public class FileSessionDataStore extends AbstractSessionDataStore
             return null;
         }
 
-        try (FileInputStream in = new FileInputStream(file))
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file)))
         {
             SessionData data = load(in, id);
             data.setLastSaved(file.lastModified());
@@ -319,10 +503,12 @@ public class FileSessionDataStore extends AbstractSessionDataStore
             String idWithContext = getIdWithContext(id);
             file = new File(_storeDir, filename);
 
-            try (FileOutputStream fos = new FileOutputStream(file, false))
+            try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(file, false)))
             {
                 save(fos, id, data);
+                fos.flush();
                 _sessionFileMap.put(idWithContext, filename);
+                _expiryIndex.put(id, data.getExpiry());
             }
             catch (Exception e)
             {
@@ -380,6 +566,8 @@ public class FileSessionDataStore extends AbstractSessionDataStore
 
                     String filename = p.getFileName().toString();
                     String context = getContextFromFilename(filename);
+                    if (!_contextString.equals(context))
+                        indexForSweep(p);
                     //now process it if it wasn't deleted, and it is for our context
                     if (Files.exists(p) && _contextString.equals(context))
                     {
@@ -427,6 +615,20 @@ public class FileSessionDataStore extends AbstractSessionDataStore
                     }
                 });
             me.ifExceptionThrow();
+
+            for (String filename : _sessionFileMap.values())
+            {
+                try
+                {
+                    _expiryIndex.put(getIdFromFilename(filename), getExpiryFromFilename(filename));
+                }
+                catch (NumberFormatException e)
+                {
+                    LOG.warn("Not valid session filename {}", filename, e);
+                }
+            }
+            _lastFullSweepTime = now;
+            writeSweepIndex();
         }
     }
 
@@ -475,8 +677,7 @@ public class FileSessionDataStore extends AbstractSessionDataStore
         out.writeLong(data.getExpiry());
         out.writeLong(data.getMaxInactiveMs());
 
-        ObjectOutputStream oos = new ObjectOutputStream(out);
-        SessionData.serializeAttributes(data, oos);
+        _serializer.serializeAttributes(data, out);
     }
 
     /**
@@ -620,8 +821,7 @@ public class FileSessionDataStore extends AbstractSessionDataStore
             data.setMaxInactiveMs(maxIdle);
 
             // Attributes
-            ClassLoadingObjectInputStream ois = new ClassLoadingObjectInputStream(is);
-            SessionData.deserializeAttributes(data, ois);
+            _serializer.deserializeAttributes(data, is);
             return data;
         }
         catch (Exception e)
@@ -27,6 +27,7 @@ public class FileSessionDataStoreFactory extends AbstractSessionDataStoreFactory
 {
     boolean _deleteUnrestorableFiles;
     File _storeDir;
+    int _sweepRescanIntervalSec = FileSessionDataStore.DEFAULT_SWEEP_RESCAN_INTERVAL_SEC;
 
     /**
      * @return the deleteUnrestorableFiles
@@ -60,14 +61,32 @@ public class FileSessionDataStoreFactory extends AbstractSessionDataStoreFactory
         _storeDir = storeDir;
     }
 
+    /**
+     * @return the interval in secs between full walks of the storeDir when sweeping
+     */
+    public int getSweepRescanIntervalSec()
+    {
+        return _sweepRescanIntervalSec;
+    }
+
+    /**
+     * @param sec the interval in secs between full walks of the storeDir when sweeping
+     */
+    public void setSweepRescanIntervalSec(int sec)
+    {
+        _sweepRescanIntervalSec = sec;
+    }
+
     @Override
     public SessionDataStore getSessionDataStore(SessionHandler handler)
     {
         FileSessionDataStore fsds = new FileSessionDataStore();
         fsds.setDeleteUnrestorableFiles(isDeleteUnrestorableFiles());
         fsds.setStoreDir(getStoreDir());
+        fsds.setSweepRescanIntervalSec(getSweepRescanIntervalSec());
         fsds.setGracePeriodSec(getGracePeriodSec());
         fsds.setSavePeriodSec(getSavePeriodSec());
+        fsds.setSessionDataSerializer(getSessionDataSerializer());
         return fsds;
     }
 }
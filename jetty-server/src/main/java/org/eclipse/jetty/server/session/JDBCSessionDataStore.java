@@ -21,17 +21,21 @@ package org.eclipse.jetty.server.session;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
-import java.io.ObjectOutputStream;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
-import org.eclipse.jetty.util.ClassLoadingObjectInputStream;
 import org.eclipse.jetty.util.StringUtil;
 import org.eclipse.jetty.util.annotation.ManagedAttribute;
 import org.eclipse.jetty.util.annotation.ManagedObject;
@@ -53,10 +57,14 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
      */
     public static final String NULL_CONTEXT_PATH = "/";
 
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
     protected boolean _initialized = false;
     protected DatabaseAdaptor _dbAdaptor;
     protected SessionTableSchema _sessionTableSchema;
     protected boolean _schemaProvided;
+    protected int _batchSize = DEFAULT_BATCH_SIZE;
+    protected boolean _attributeDeltas;
 
     private static final ByteArrayInputStream EMPTY = new ByteArrayInputStream(new byte[0]);
 
@@ -82,6 +90,9 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
         protected String _expiryTimeColumn = "expiryTime";
         protected String _maxIntervalColumn = "maxInterval";
         protected String _mapColumn = "map";
+        protected String _attributeTableName = "JettySessionAttributes";
+        protected String _attributeNameColumn = "attributeName";
+        protected String _attributeValueColumn = "attributeValue";
 
         protected void setDatabaseAdaptor(DatabaseAdaptor dbadaptor)
         {
@@ -247,6 +258,44 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
             _mapColumn = mapColumn;
         }
 
+        public String getAttributeTableName()
+        {
+            return _attributeTableName;
+        }
+
+        public void setAttributeTableName(String attributeTableName)
+        {
+            checkNotNull(attributeTableName);
+            _attributeTableName = attributeTableName;
+        }
+
+        private String getSchemaAttributeTableName()
+        {
+            return (getSchemaName() != null ? getSchemaName() + "." : "") + getAttributeTableName();
+        }
+
+        public String getAttributeNameColumn()
+        {
+            return _attributeNameColumn;
+        }
+
+        public void setAttributeNameColumn(String attributeNameColumn)
+        {
+            checkNotNull(attributeNameColumn);
+            _attributeNameColumn = attributeNameColumn;
+        }
+
+        public String getAttributeValueColumn()
+        {
+            return _attributeValueColumn;
+        }
+
+        public void setAttributeValueColumn(String attributeValueColumn)
+        {
+            checkNotNull(attributeValueColumn);
+            _attributeValueColumn = attributeValueColumn;
+        }
+
         public String getCreateStatementAsString()
         {
             if (_dbAdaptor == null)
@@ -263,6 +312,48 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
                 _mapColumn + " " + blobType + ", primary key(" + _idColumn + ", " + _contextPathColumn + "," + _virtualHostColumn + "))";
         }
 
+        public String getCreateAttributeTableStatementAsString()
+        {
+            if (_dbAdaptor == null)
+                throw new IllegalStateException("No DBAdaptor");
+
+            String blobType = _dbAdaptor.getBlobType();
+            String stringType = _dbAdaptor.getStringType();
+
+            return "create table " + getSchemaAttributeTableName() + " (" + _idColumn + " " + stringType + "(120), " +
+                _contextPathColumn + " " + stringType + "(60), " + _virtualHostColumn + " " + stringType + "(60), " +
+                _attributeNameColumn + " " + stringType + "(255), " + _attributeValueColumn + " " + blobType + ", " +
+                "primary key(" + _idColumn + ", " + _contextPathColumn + ", " + _virtualHostColumn + ", " + _attributeNameColumn + "))";
+        }
+
+        public String getInsertAttributeStatementAsString()
+        {
+            return "insert into " + getSchemaAttributeTableName() +
+                " (" + getIdColumn() + ", " + getContextPathColumn() + ", " + getVirtualHostColumn() + ", " +
+                getAttributeNameColumn() + ", " + getAttributeValueColumn() + ") values (?, ?, ?, ?, ?)";
+        }
+
+        public String getDeleteAttributeStatementAsString()
+        {
+            return "delete from " + getSchemaAttributeTableName() +
+                " where " + getIdColumn() + " = ? and " + getContextPathColumn() + " = ? and " +
+                getVirtualHostColumn() + " = ? and " + getAttributeNameColumn() + " = ?";
+        }
+
+        public String getDeleteAttributesStatementAsString()
+        {
+            return "delete from " + getSchemaAttributeTableName() +
+                " where " + getIdColumn() + " = ? and " + getContextPathColumn() + " = ? and " +
+                getVirtualHostColumn() + " = ?";
+        }
+
+        public String getLoadAttributesStatementAsString()
+        {
+            return "select " + getAttributeNameColumn() + ", " + getAttributeValueColumn() + " from " + getSchemaAttributeTableName() +
+                " where " + getIdColumn() + " = ? and " + getContextPathColumn() + " = ? and " +
+                getVirtualHostColumn() + " = ?";
+        }
+
         public String getCreateIndexOverExpiryStatementAsString(String indexName)
         {
             return "create index " + indexName + " on " + getSchemaTableName() + " (" + getExpiryTimeColumn() + ")";
@@ -300,22 +391,78 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
                 " values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
         }
 
-        public PreparedStatement getUpdateSessionStatement(Connection connection, String id, SessionContext context)
-            throws SQLException
+        public String getUpdateSessionStatementAsString()
         {
-            String s = "update " + getSchemaTableName() +
+            return "update " + getSchemaTableName() +
                 " set " + getLastNodeColumn() + " = ?, " + getAccessTimeColumn() + " = ?, " +
                 getLastAccessTimeColumn() + " = ?, " + getLastSavedTimeColumn() + " = ?, " + getExpiryTimeColumn() + " = ?, " +
                 getMaxIntervalColumn() + " = ?, " + getMapColumn() + " = ? where " + getIdColumn() + " = ? and " + getContextPathColumn() +
                 " = ? and " + getVirtualHostColumn() + " = ?";
+        }
+
+        public String getDeleteSessionStatementAsString()
+        {
+            return "delete from " + getSchemaTableName() +
+                " where " + getIdColumn() + " = ? and " + getContextPathColumn() +
+                " = ? and " + getVirtualHostColumn() + " = ?";
+        }
+
+        /**
+         * @param count the number of session ids to select
+         * @return a select of all columns of the sessions of a context, with placeholders for
+         * the context path, the virtual host and <code>count</code> session ids
+         */
+        public String getLoadSessionsStatementAsString(int count)
+        {
+            return "select * from " + getSchemaTableName() +
+                " where " + getContextPathColumn() + " = ? and " + getVirtualHostColumn() + " = ? and " +
+                getIdColumn() + " in (" + getPlaceholders(count) + ")";
+        }
 
+        /**
+         * @param count the number of session ids to check
+         * @return a select of the ids of existing sessions of a context, with placeholders for
+         * the context path, the virtual host and <code>count</code> session ids
+         */
+        public String getCheckSessionsExistStatementAsString(int count)
+        {
+            return "select " + getIdColumn() + " from " + getSchemaTableName() +
+                " where " + getContextPathColumn() + " = ? and " + getVirtualHostColumn() + " = ? and " +
+                getIdColumn() + " in (" + getPlaceholders(count) + ")";
+        }
+
+        private String getPlaceholders(int count)
+        {
+            if (count <= 0)
+                throw new IllegalArgumentException("count must be > 0");
+            StringBuilder builder = new StringBuilder(count * 3);
+            for (int i = 0; i < count; i++)
+            {
+                if (i > 0)
+                    builder.append(", ");
+                builder.append('?');
+            }
+            return builder.toString();
+        }
+
+        /**
+         * @param context the session context
+         * @return the canonical context path as stored in the table
+         */
+        public String getContextPath(SessionContext context)
+        {
             String cp = context.getCanonicalContextPath();
             if (_dbAdaptor.isEmptyStringNull() && StringUtil.isBlank(cp))
                 cp = NULL_CONTEXT_PATH;
+            return cp;
+        }
 
-            PreparedStatement statement = connection.prepareStatement(s);
+        public PreparedStatement getUpdateSessionStatement(Connection connection, String id, SessionContext context)
+            throws SQLException
+        {
+            PreparedStatement statement = connection.prepareStatement(getUpdateSessionStatementAsString());
             statement.setString(8, id);
-            statement.setString(9, cp);
+            statement.setString(9, getContextPath(context));
             statement.setString(10, context.getVhost());
             return statement;
         }
@@ -456,9 +603,7 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
             if (_dbAdaptor.isEmptyStringNull() && StringUtil.isBlank(cp))
                 cp = NULL_CONTEXT_PATH;
 
-            PreparedStatement statement = connection.prepareStatement("delete from " + getSchemaTableName() +
-                " where " + getIdColumn() + " = ? and " + getContextPathColumn() +
-                " = ? and " + getVirtualHostColumn() + " = ?");
+            PreparedStatement statement = connection.prepareStatement(getDeleteSessionStatementAsString());
             statement.setString(1, id);
             statement.setString(2, cp);
             statement.setString(3, contextId.getVhost());
@@ -556,6 +701,35 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
             }
         }
 
+        /**
+         * Set up the table holding one row per session attribute, used
+         * when the store writes attribute deltas.
+         *
+         * @throws SQLException if unable to create the table
+         */
+        public void prepareAttributeTable()
+            throws SQLException
+        {
+            try (Connection connection = _dbAdaptor.getConnection();
+                 Statement statement = connection.createStatement())
+            {
+                connection.setAutoCommit(true);
+                DatabaseMetaData metaData = connection.getMetaData();
+                _dbAdaptor.adaptTo(metaData);
+
+                String tableName = _dbAdaptor.convertIdentifier(getAttributeTableName());
+                String schemaName = _dbAdaptor.convertIdentifier(getSchemaName());
+                try (ResultSet result = metaData.getTables(null, schemaName, tableName, null))
+                {
+                    if (!result.next())
+                    {
+                        //table does not exist, so create it
+                        statement.executeUpdate(getCreateAttributeTableStatementAsString());
+                    }
+                }
+            }
+        }
+
         @Override
         public String toString()
         {
@@ -605,6 +779,8 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
             _dbAdaptor.initialize();
             _sessionTableSchema.setDatabaseAdaptor(_dbAdaptor);
             _sessionTableSchema.prepareTables();
+            if (_attributeDeltas)
+                _sessionTableSchema.prepareAttributeTable();
         }
     }
 
@@ -618,27 +794,9 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
             SessionData data = null;
             if (result.next())
             {
-                data = newSessionData(id,
-                    result.getLong(_sessionTableSchema.getCreateTimeColumn()),
-                    result.getLong(_sessionTableSchema.getAccessTimeColumn()),
-                    result.getLong(_sessionTableSchema.getLastAccessTimeColumn()),
-                    result.getLong(_sessionTableSchema.getMaxIntervalColumn()));
-                data.setCookieSet(result.getLong(_sessionTableSchema.getCookieTimeColumn()));
-                data.setLastNode(result.getString(_sessionTableSchema.getLastNodeColumn()));
-                data.setLastSaved(result.getLong(_sessionTableSchema.getLastSavedTimeColumn()));
-                data.setExpiry(result.getLong(_sessionTableSchema.getExpiryTimeColumn()));
-                data.setContextPath(_context.getCanonicalContextPath());
-                data.setVhost(_context.getVhost());
-
-                try (InputStream is = _dbAdaptor.getBlobInputStream(result, _sessionTableSchema.getMapColumn());
-                     ClassLoadingObjectInputStream ois = new ClassLoadingObjectInputStream(is))
-                {
-                    SessionData.deserializeAttributes(data, ois);
-                }
-                catch (Exception e)
-                {
-                    throw new UnreadableSessionDataException(id, _context, e);
-                }
+                data = readSessionData(id, result);
+                if (_attributeDeltas)
+                    readAttributes(connection, data);
 
                 if (LOG.isDebugEnabled())
                     LOG.debug("LOADED session {}", data);
@@ -650,6 +808,127 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
         }
     }
 
+    /**
+     * Load several sessions with one query per batch of ids.
+     * <p>
+     * Sessions that cannot be read are omitted.
+     *
+     * @param ids the ids of the sessions to load
+     * @return the sessions found, keyed by id
+     * @throws Exception if unable to load the sessions
+     */
+    @Override
+    protected Map<String, SessionData> doLoadAll(Set<String> ids) throws Exception
+    {
+        if (_attributeDeltas)
+            return super.doLoadAll(ids);
+
+        Map<String, SessionData> sessions = new HashMap<>();
+        if (ids.isEmpty())
+            return sessions;
+
+        int count = Math.min(ids.size(), _batchSize);
+        try (Connection connection = _dbAdaptor.getConnection();
+             PreparedStatement statement = connection.prepareStatement(_sessionTableSchema.getLoadSessionsStatementAsString(count)))
+        {
+            statement.setString(1, _sessionTableSchema.getContextPath(_context));
+            statement.setString(2, _context.getVhost());
+
+            for (List<String> batch : partition(ids, count))
+            {
+                for (int i = 0; i < count; i++)
+                {
+                    //pad a short final batch by repeating its last id, so the statement can be reused
+                    statement.setString(3 + i, batch.get(Math.min(i, batch.size() - 1)));
+                }
+
+                try (ResultSet result = statement.executeQuery())
+                {
+                    while (result.next())
+                    {
+                        String id = result.getString(_sessionTableSchema.getIdColumn());
+                        try
+                        {
+                            sessions.put(id, readSessionData(id, result));
+                        }
+                        catch (UnreadableSessionDataException e)
+                        {
+                            LOG.warn("Unable to load session {}", id, e);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("LOADED {} of {} sessions", sessions.size(), ids.size());
+        return sessions;
+    }
+
+    /**
+     * Read the attributes of a session from the attribute table.
+     *
+     * @param connection the connection to use
+     * @param data the session data to which to add the attributes
+     * @throws Exception if unable to read the attributes
+     */
+    protected void readAttributes(Connection connection, SessionData data) throws Exception
+    {
+        try (PreparedStatement statement = connection.prepareStatement(_sessionTableSchema.getLoadAttributesStatementAsString()))
+        {
+            bindSessionKey(statement, data.getId());
+            try (ResultSet result = statement.executeQuery())
+            {
+                Map<String, Object> attributes = new HashMap<>();
+                while (result.next())
+                {
+                    String name = result.getString(_sessionTableSchema.getAttributeNameColumn());
+                    try (InputStream is = _dbAdaptor.getBlobInputStream(result, _sessionTableSchema.getAttributeValueColumn()))
+                    {
+                        //each row holds the attribute on its own, written with the serializer
+                        SessionData row = newAttributeRow(data.getId());
+                        _serializer.deserializeAttributes(row, is);
+                        attributes.put(name, row.getAttribute(name));
+                    }
+                    catch (Exception e)
+                    {
+                        throw new UnreadableSessionDataException(data.getId(), _context, e);
+                    }
+                }
+                data.putAllAttributes(attributes);
+            }
+        }
+    }
+
+    protected SessionData readSessionData(String id, ResultSet result) throws Exception
+    {
+        SessionData data = newSessionData(id,
+            result.getLong(_sessionTableSchema.getCreateTimeColumn()),
+            result.getLong(_sessionTableSchema.getAccessTimeColumn()),
+            result.getLong(_sessionTableSchema.getLastAccessTimeColumn()),
+            result.getLong(_sessionTableSchema.getMaxIntervalColumn()));
+        data.setCookieSet(result.getLong(_sessionTableSchema.getCookieTimeColumn()));
+        data.setLastNode(result.getString(_sessionTableSchema.getLastNodeColumn()));
+        data.setLastSaved(result.getLong(_sessionTableSchema.getLastSavedTimeColumn()));
+        data.setExpiry(result.getLong(_sessionTableSchema.getExpiryTimeColumn()));
+        data.setContextPath(_context.getCanonicalContextPath());
+        data.setVhost(_context.getVhost());
+
+        //with attribute deltas the attributes are in the attribute table
+        if (_attributeDeltas)
+            return data;
+
+        try (InputStream is = _dbAdaptor.getBlobInputStream(result, _sessionTableSchema.getMapColumn()))
+        {
+            _serializer.deserializeAttributes(data, is);
+        }
+        catch (Exception e)
+        {
+            throw new UnreadableSessionDataException(id, _context, e);
+        }
+        return data;
+    }
+
     @Override
     public boolean delete(String id) throws Exception
     {
@@ -657,6 +936,14 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
              PreparedStatement statement = _sessionTableSchema.getDeleteStatement(connection, id, _context))
         {
             connection.setAutoCommit(true);
+            if (_attributeDeltas)
+            {
+                try (PreparedStatement deleteAttributes = connection.prepareStatement(_sessionTableSchema.getDeleteAttributesStatementAsString()))
+                {
+                    bindSessionKey(deleteAttributes, id);
+                    deleteAttributes.executeUpdate();
+                }
+            }
             int rows = statement.executeUpdate();
             if (LOG.isDebugEnabled())
                 LOG.debug("Deleted Session {}:{}", id, (rows > 0));
@@ -665,13 +952,64 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
         }
     }
 
+    /**
+     * Delete several sessions using JDBC batches.
+     *
+     * @param ids the ids of the sessions to delete
+     * @return the ids of the sessions that were deleted
+     * @throws Exception if unable to delete the sessions
+     */
+    @Override
+    public Set<String> deleteAll(Set<String> ids) throws Exception
+    {
+        if (_attributeDeltas)
+            return super.deleteAll(ids);
+
+        Set<String> deleted = new HashSet<>();
+        if (ids.isEmpty())
+            return deleted;
+
+        try (Connection connection = _dbAdaptor.getConnection())
+        {
+            connection.setAutoCommit(true);
+            try (PreparedStatement statement = connection.prepareStatement(_sessionTableSchema.getDeleteSessionStatementAsString()))
+            {
+                String cp = _sessionTableSchema.getContextPath(_context);
+                for (List<String> batch : partition(ids, _batchSize))
+                {
+                    for (String id : batch)
+                    {
+                        statement.setString(1, id);
+                        statement.setString(2, cp);
+                        statement.setString(3, _context.getVhost());
+                        statement.addBatch();
+                    }
+                    int[] rows = statement.executeBatch();
+                    for (int i = 0; i < rows.length; i++)
+                    {
+                        if (rows[i] > 0 || rows[i] == Statement.SUCCESS_NO_INFO)
+                            deleted.add(batch.get(i));
+                    }
+                }
+            }
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Deleted {} of {} sessions", deleted.size(), ids.size());
+        return deleted;
+    }
+
     @Override
     public void doStore(String id, SessionData data, long lastSaveTime) throws Exception
     {
         if (data == null || id == null)
             return;
 
-        if (lastSaveTime <= 0)
+        if (_attributeDeltas)
+        {
+            doStoreAttributeDeltas(id, data, lastSaveTime);
+        }
+        else if (lastSaveTime <= 0)
         {
             doInsert(id, data);
         }
@@ -681,49 +1019,122 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
         }
     }
 
-    protected void doInsert(String id, SessionData data)
-        throws Exception
+    /**
+     * Write a session whose attributes are kept one per row in the attribute table.
+     * <p>
+     * Only the attributes named by {@link SessionData#getDirtyAttributes()} are
+     * written or deleted, unless the session is new or is dirty without any
+     * attribute names recorded, in which case all of its attributes are rewritten.
+     * A session that is not dirty only has its metadata written.
+     *
+     * @param id the id of the session
+     * @param data the session data
+     * @param lastSaveTime time of previous save or 0 if never saved
+     * @throws Exception if unable to write the session
+     */
+    protected void doStoreAttributeDeltas(String id, SessionData data, long lastSaveTime) throws Exception
     {
-        String s = _sessionTableSchema.getInsertSessionStatementAsString();
-
         try (Connection connection = _dbAdaptor.getConnection())
         {
-            connection.setAutoCommit(true);
-            try (PreparedStatement statement = connection.prepareStatement(s))
+            connection.setAutoCommit(false);
+            try
             {
-                statement.setString(1, id); //session id
-
-                String cp = _context.getCanonicalContextPath();
-                if (_dbAdaptor.isEmptyStringNull() && StringUtil.isBlank(cp))
-                    cp = NULL_CONTEXT_PATH;
-
-                statement.setString(2, cp); //context path
-
-                statement.setString(3, _context.getVhost()); //first vhost
-                statement.setString(4, data.getLastNode());//my node id
-                statement.setLong(5, data.getAccessed());//accessTime
-                statement.setLong(6, data.getLastAccessed()); //lastAccessTime
-                statement.setLong(7, data.getCreated()); //time created
-                statement.setLong(8, data.getCookieSet());//time cookie was set
-                statement.setLong(9, data.getLastSaved()); //last saved time
-                statement.setLong(10, data.getExpiry());
-                statement.setLong(11, data.getMaxInactiveMs());
-
-                if (!data.getAllAttributes().isEmpty())
+                if (lastSaveTime <= 0)
                 {
-                    try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                         ObjectOutputStream oos = new ObjectOutputStream(baos))
+                    try (PreparedStatement statement = connection.prepareStatement(_sessionTableSchema.getInsertSessionStatementAsString()))
                     {
-                        SessionData.serializeAttributes(data, oos);
-                        byte[] bytes = baos.toByteArray();
-                        ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-                        statement.setBinaryStream(12, bais, bytes.length);//attribute map as blob
+                        bindInsert(statement, id, data);
+                        statement.executeUpdate();
                     }
                 }
                 else
                 {
-                    statement.setBinaryStream(12, EMPTY, 0);
+                    try (PreparedStatement statement = _sessionTableSchema.getUpdateSessionStatement(connection, id, _context))
+                    {
+                        bindUpdate(statement, data);
+                        statement.executeUpdate();
+                    }
                 }
+
+                Set<String> names = data.getDirtyAttributes();
+                if (lastSaveTime <= 0 || (data.isDirty() && names.isEmpty()))
+                {
+                    try (PreparedStatement statement = connection.prepareStatement(_sessionTableSchema.getDeleteAttributesStatementAsString()))
+                    {
+                        bindSessionKey(statement, id);
+                        statement.executeUpdate();
+                    }
+                    names = data.getKeys();
+                }
+                else if (!names.isEmpty())
+                {
+                    try (PreparedStatement statement = connection.prepareStatement(_sessionTableSchema.getDeleteAttributeStatementAsString()))
+                    {
+                        for (String name : names)
+                        {
+                            bindSessionKey(statement, id);
+                            statement.setString(4, name);
+                            statement.addBatch();
+                        }
+                        statement.executeBatch();
+                    }
+                }
+
+                int inserts = 0;
+                if (!names.isEmpty())
+                {
+                    try (PreparedStatement statement = connection.prepareStatement(_sessionTableSchema.getInsertAttributeStatementAsString()))
+                    {
+                        for (String name : names)
+                        {
+                            Object value = data.getAttribute(name);
+                            if (value == null)
+                                continue; //removed
+                            bindSessionKey(statement, id);
+                            statement.setString(4, name);
+                            SessionData row = newAttributeRow(id);
+                            row.setAttribute(name, value);
+                            try (ByteArrayOutputStream baos = new ByteArrayOutputStream())
+                            {
+                                _serializer.serializeAttributes(row, baos);
+                                byte[] bytes = baos.toByteArray();
+                                statement.setBinaryStream(5, new ByteArrayInputStream(bytes), bytes.length);
+                            }
+                            statement.addBatch();
+                            inserts++;
+                        }
+                        if (inserts > 0)
+                            statement.executeBatch();
+                    }
+                }
+                connection.commit();
+
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Stored session {} writing {} of {} attributes", data, inserts, data.getKeys().size());
+            }
+            catch (Exception e)
+            {
+                connection.rollback();
+                throw e;
+            }
+            finally
+            {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    protected void doInsert(String id, SessionData data)
+        throws Exception
+    {
+        String s = _sessionTableSchema.getInsertSessionStatementAsString();
+
+        try (Connection connection = _dbAdaptor.getConnection())
+        {
+            connection.setAutoCommit(true);
+            try (PreparedStatement statement = connection.prepareStatement(s))
+            {
+                bindInsert(statement, id, data);
                 statement.executeUpdate();
                 if (LOG.isDebugEnabled())
                     LOG.debug("Inserted session " + data);
@@ -739,38 +1150,204 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
             connection.setAutoCommit(true);
             try (PreparedStatement statement = _sessionTableSchema.getUpdateSessionStatement(connection, data.getId(), _context))
             {
-                statement.setString(1, data.getLastNode());//should be my node id
-                statement.setLong(2, data.getAccessed());//accessTime
-                statement.setLong(3, data.getLastAccessed()); //lastAccessTime
-                statement.setLong(4, data.getLastSaved()); //last saved time
-                statement.setLong(5, data.getExpiry());
-                statement.setLong(6, data.getMaxInactiveMs());
-
-                if (!data.getAllAttributes().isEmpty())
+                bindUpdate(statement, data);
+                statement.executeUpdate();
+
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Updated session " + data);
+            }
+        }
+    }
+
+    /**
+     * Store several sessions using JDBC batches.
+     * <p>
+     * The sessions that need to be saved are inserted or updated in a single
+     * transaction, so either all of them are written or none of them are.
+     *
+     * @param sessions the sessions to store, keyed by id
+     * @throws Exception if unable to store the sessions
+     */
+    @Override
+    public void storeAll(Map<String, SessionData> sessions) throws Exception
+    {
+        if (!isStarted())
+            throw new IllegalStateException("Not started");
+
+        if (sessions.size() <= 1 || _attributeDeltas)
+        {
+            super.storeAll(sessions);
+            return;
+        }
+
+        final AtomicReference<Exception> exception = new AtomicReference<>();
+
+        _context.run(() ->
+        {
+            //the previous save time of each session that needs saving
+            Map<SessionData, Long> lastSaveTimes = new LinkedHashMap<>();
+            long now = System.currentTimeMillis();
+            for (SessionData data : sessions.values())
+            {
+                if (data != null && isStoreRequired(data, now))
                 {
-                    try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                         ObjectOutputStream oos = new ObjectOutputStream(baos))
-                    {
-                        SessionData.serializeAttributes(data, oos);
-                        byte[] bytes = baos.toByteArray();
-                        try (ByteArrayInputStream bais = new ByteArrayInputStream(bytes))
-                        {
-                            statement.setBinaryStream(7, bais, bytes.length);//attribute map as blob
-                        }
-                    }
+                    lastSaveTimes.put(data, data.getLastSaved());
+                    data.setLastSaved(now);
                 }
-                else
+            }
+
+            try
+            {
+                doStoreAll(lastSaveTimes);
+                lastSaveTimes.keySet().forEach(SessionData::clean);
+            }
+            catch (Exception e)
+            {
+                //reset last save times if save failed
+                lastSaveTimes.forEach(SessionData::setLastSaved);
+                exception.set(e);
+            }
+        });
+
+        if (exception.get() != null)
+            throw exception.get();
+    }
+
+    /**
+     * @param lastSaveTimes the sessions to write, mapped to their time of previous save or 0 if never saved
+     * @throws Exception if unable to write the sessions
+     */
+    protected void doStoreAll(Map<SessionData, Long> lastSaveTimes) throws Exception
+    {
+        if (lastSaveTimes.isEmpty())
+            return;
+
+        try (Connection connection = _dbAdaptor.getConnection())
+        {
+            connection.setAutoCommit(false);
+            try (PreparedStatement insert = connection.prepareStatement(_sessionTableSchema.getInsertSessionStatementAsString());
+                 PreparedStatement update = connection.prepareStatement(_sessionTableSchema.getUpdateSessionStatementAsString()))
+            {
+                int inserts = 0;
+                int updates = 0;
+                for (Map.Entry<SessionData, Long> entry : lastSaveTimes.entrySet())
                 {
-                    statement.setBinaryStream(7, EMPTY, 0);
+                    SessionData data = entry.getKey();
+                    if (entry.getValue() <= 0)
+                    {
+                        bindInsert(insert, data.getId(), data);
+                        insert.addBatch();
+                        if (++inserts % _batchSize == 0)
+                            insert.executeBatch();
+                    }
+                    else
+                    {
+                        bindUpdate(update, data);
+                        update.addBatch();
+                        if (++updates % _batchSize == 0)
+                            update.executeBatch();
+                    }
                 }
-                statement.executeUpdate();
+                if (inserts % _batchSize != 0)
+                    insert.executeBatch();
+                if (updates % _batchSize != 0)
+                    update.executeBatch();
+                connection.commit();
 
                 if (LOG.isDebugEnabled())
-                    LOG.debug("Updated session " + data);
+                    LOG.debug("Inserted {} and updated {} sessions", inserts, updates);
+            }
+            catch (Exception e)
+            {
+                connection.rollback();
+                throw e;
+            }
+            finally
+            {
+                connection.setAutoCommit(true);
             }
         }
     }
 
+    private void bindInsert(PreparedStatement statement, String id, SessionData data) throws Exception
+    {
+        statement.setString(1, id); //session id
+        statement.setString(2, _sessionTableSchema.getContextPath(_context)); //context path
+        statement.setString(3, _context.getVhost()); //first vhost
+        statement.setString(4, data.getLastNode());//my node id
+        statement.setLong(5, data.getAccessed());//accessTime
+        statement.setLong(6, data.getLastAccessed()); //lastAccessTime
+        statement.setLong(7, data.getCreated()); //time created
+        statement.setLong(8, data.getCookieSet());//time cookie was set
+        statement.setLong(9, data.getLastSaved()); //last saved time
+        statement.setLong(10, data.getExpiry());
+        statement.setLong(11, data.getMaxInactiveMs());
+        bindAttributes(statement, 12, data); //attribute map as blob
+    }
+
+    private void bindUpdate(PreparedStatement statement, SessionData data) throws Exception
+    {
+        statement.setString(1, data.getLastNode());//should be my node id
+        statement.setLong(2, data.getAccessed());//accessTime
+        statement.setLong(3, data.getLastAccessed()); //lastAccessTime
+        statement.setLong(4, data.getLastSaved()); //last saved time
+        statement.setLong(5, data.getExpiry());
+        statement.setLong(6, data.getMaxInactiveMs());
+        bindAttributes(statement, 7, data); //attribute map as blob
+        statement.setString(8, data.getId());
+        statement.setString(9, _sessionTableSchema.getContextPath(_context));
+        statement.setString(10, _context.getVhost());
+    }
+
+    private void bindSessionKey(PreparedStatement statement, String id) throws Exception
+    {
+        statement.setString(1, id);
+        statement.setString(2, _sessionTableSchema.getContextPath(_context));
+        statement.setString(3, _context.getVhost());
+    }
+
+    private void bindAttributes(PreparedStatement statement, int index, SessionData data) throws Exception
+    {
+        if (!_attributeDeltas && !data.getAllAttributes().isEmpty())
+        {
+            try (ByteArrayOutputStream baos = new ByteArrayOutputStream())
+            {
+                _serializer.serializeAttributes(data, baos);
+                byte[] bytes = baos.toByteArray();
+                statement.setBinaryStream(index, new ByteArrayInputStream(bytes), bytes.length);
+            }
+        }
+        else
+        {
+            statement.setBinaryStream(index, EMPTY, 0);
+        }
+    }
+
+    /**
+     * @param id the session id
+     * @return session data to hold a single attribute of a row of the attribute table
+     */
+    private SessionData newAttributeRow(String id)
+    {
+        return new SessionData(id, _context.getCanonicalContextPath(), _context.getVhost(), 0, 0, 0, 0);
+    }
+
+    private static List<List<String>> partition(Set<String> ids, int size)
+    {
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = null;
+        for (String id : ids)
+        {
+            if (batch == null || batch.size() == size)
+            {
+                batch = new ArrayList<>(size);
+                batches.add(batch);
+            }
+            batch.add(id);
+        }
+        return batches;
+    }
+
     @Override
     public Set<String> doGetExpired(Set<String> candidates)
     {
@@ -848,24 +1425,38 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
 
             if (!notExpiredInDB.isEmpty())
             {
-                //we have some sessions to check
-                try (PreparedStatement checkSessionExists = _sessionTableSchema.getCheckSessionExistsStatement(connection, _context))
+                //we have some sessions to check, in batches
+                int count = Math.min(notExpiredInDB.size(), _batchSize);
+                try (PreparedStatement checkSessionsExist = connection.prepareStatement(_sessionTableSchema.getCheckSessionsExistStatementAsString(count)))
                 {
-                    for (String k : notExpiredInDB)
+                    checkSessionsExist.setString(1, _sessionTableSchema.getContextPath(_context));
+                    checkSessionsExist.setString(2, _context.getVhost());
+                    for (List<String> batch : partition(notExpiredInDB, count))
                     {
-                        checkSessionExists.setString(1, k);
-                        try (ResultSet result = checkSessionExists.executeQuery())
+                        for (int i = 0; i < count; i++)
                         {
-                            if (!result.next())
+                            checkSessionsExist.setString(3 + i, batch.get(Math.min(i, batch.size() - 1)));
+                        }
+
+                        Set<String> existing = new HashSet<>();
+                        try (ResultSet result = checkSessionsExist.executeQuery())
+                        {
+                            while (result.next())
                             {
-                                //session doesn't exist any more, can be expired
-                                expiredSessionKeys.add(k);
+                                existing.add(result.getString(_sessionTableSchema.getIdColumn()));
                             }
-                            //else its expiry time has not been reached
                         }
                         catch (Exception e)
                         {
-                            LOG.warn("{} Problem checking if potentially expired session {} exists in db", _context.getWorkerName(), k, e);
+                            LOG.warn("{} Problem checking if potentially expired sessions {} exist in db", _context.getWorkerName(), batch, e);
+                            continue;
+                        }
+
+                        for (String k : batch)
+                        {
+                            //session doesn't exist any more, can be expired, otherwise its expiry time has not been reached
+                            if (!existing.contains(k))
+                                expiredSessionKeys.add(k);
                         }
                     }
                 }
@@ -880,6 +1471,51 @@ public class JDBCSessionDataStore extends AbstractSessionDataStore
         }
     }
 
+    /**
+     * @return the max number of sessions written, loaded or deleted per JDBC batch
+     */
+    @ManagedAttribute(value = "max sessions per jdbc batch", readonly = true)
+    public int getBatchSize()
+    {
+        return _batchSize;
+    }
+
+    /**
+     * @param batchSize the max number of sessions written, loaded or deleted per JDBC batch
+     */
+    public void setBatchSize(int batchSize)
+    {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("Batch size must be > 0");
+        _batchSize = batchSize;
+    }
+
+    /**
+     * @return true if only the changed attributes of a session are written
+     */
+    @ManagedAttribute(value = "only changed session attributes are written", readonly = true)
+    public boolean isAttributeDeltas()
+    {
+        return _attributeDeltas;
+    }
+
+    /**
+     * Whether to keep each session attribute in its own row of the
+     * attribute table, so that a save writes only the attributes that
+     * were set or removed since the previous save.
+     * <p>
+     * Attribute values that are modified without being set again on
+     * the session are not written in this mode. Each attribute is written
+     * on its own with the {@link #getSessionDataSerializer() serializer}.
+     *
+     * @param attributeDeltas true to write only changed attributes
+     */
+    public void setAttributeDeltas(boolean attributeDeltas)
+    {
+        checkStarted();
+        _attributeDeltas = attributeDeltas;
+    }
+
     public void setDatabaseAdaptor(DatabaseAdaptor dbAdaptor)
     {
         checkStarted();
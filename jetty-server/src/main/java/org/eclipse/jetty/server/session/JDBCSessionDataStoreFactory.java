@@ -34,6 +34,10 @@ public class JDBCSessionDataStoreFactory extends AbstractSessionDataStoreFactory
      */
     JDBCSessionDataStore.SessionTableSchema _schema;
 
+    int _batchSize = JDBCSessionDataStore.DEFAULT_BATCH_SIZE;
+
+    boolean _attributeDeltas;
+
     @Override
     public SessionDataStore getSessionDataStore(SessionHandler handler)
     {
@@ -42,6 +46,9 @@ public class JDBCSessionDataStoreFactory extends AbstractSessionDataStoreFactory
         ds.setSessionTableSchema(_schema);
         ds.setGracePeriodSec(getGracePeriodSec());
         ds.setSavePeriodSec(getSavePeriodSec());
+        ds.setBatchSize(getBatchSize());
+        ds.setAttributeDeltas(isAttributeDeltas());
+        ds.setSessionDataSerializer(getSessionDataSerializer());
         return ds;
     }
 
@@ -60,4 +67,36 @@ public class JDBCSessionDataStoreFactory extends AbstractSessionDataStoreFactory
     {
         _schema = schema;
     }
+
+    /**
+     * @return the max number of sessions written, loaded or deleted per JDBC batch
+     */
+    public int getBatchSize()
+    {
+        return _batchSize;
+    }
+
+    /**
+     * @param batchSize the max number of sessions written, loaded or deleted per JDBC batch
+     */
+    public void setBatchSize(int batchSize)
+    {
+        _batchSize = batchSize;
+    }
+
+    /**
+     * @return true if the store writes only the changed attributes of a session
+     */
+    public boolean isAttributeDeltas()
+    {
+        return _attributeDeltas;
+    }
+
+    /**
+     * @param attributeDeltas true if the store should write only the changed attributes of a session
+     */
+    public void setAttributeDeltas(boolean attributeDeltas)
+    {
+        _attributeDeltas = attributeDeltas;
+    }
 }
@@ -0,0 +1,847 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import org.eclipse.jetty.util.IO;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LogStructuredSessionDataStore
+ *
+ * A file-based store of session data that appends every store and delete of a
+ * session to a log, rather than writing a file per session. The log is a series
+ * of fixed size, memory-mapped segment files in a directory per context under
+ * the store dir. An in-memory index maps each session id to the location of its
+ * latest record, so loads read a single record from a mapped segment.
+ * <p>
+ * Each record carries a CRC. On start, the segments are replayed in order to
+ * rebuild the index; a torn record at the end of the last segment, as left by a
+ * crash part way through a write, ends the replay and is erased.
+ * <p>
+ * Records that have been superseded or deleted are reclaimed by compaction:
+ * when the live records of a full segment fall below {@link #getCompactionRatio()}
+ * of its size, they are copied to the end of the log and the segment is deleted.
+ * Compaction is done when the store is asked for expired sessions, which happens
+ * on the scavenger thread, or on demand with {@link #compact()}. A compacted
+ * segment is deleted once no load is reading from it. The file channel of a
+ * segment is closed once it is mapped, so the mapping itself is released when
+ * the segment is garbage collected.
+ * <p>
+ * Records are written to the mapped segments, and so reach the disk when the
+ * operating system writes back the mapped pages, unless {@link #isSyncOnWrite()}
+ * is set. The log of a context must only be written by one store at a time, which
+ * is enforced with a file lock, so this store does not support several nodes
+ * sharing a store dir for the same context.
+ */
+@ManagedObject
+public class LogStructuredSessionDataStore extends AbstractSessionDataStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LogStructuredSessionDataStore.class);
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+
+    private static final int MAGIC = 0x4A534C47; // "JSLG"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String LOCK_FILENAME = "store.lock";
+
+    private final AutoLock _lock = new AutoLock();
+    private final Map<String, Location> _index = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Segment> _segments = new TreeMap<>();
+    private final ConcurrentSkipListSet<Long> _retiring = new ConcurrentSkipListSet<>();
+    private final SessionExpiryIndex _expiryIndex = new SessionExpiryIndex();
+    private final LongAdder _compactions = new LongAdder();
+    private final LongAdder _bytesReclaimed = new LongAdder();
+    private File _storeDir;
+    private File _logDir;
+    private int _segmentSize = DEFAULT_SEGMENT_SIZE;
+    private double _compactionRatio = DEFAULT_COMPACTION_RATIO;
+    private boolean _syncOnWrite;
+    private Segment _active;
+    private RandomAccessFile _lockFile;
+    private FileLock _fileLock;
+
+    /**
+     * A segment file of the log, mapped into memory.
+     * <p>
+     * The log holds a reference to each of its segments, and each load holds
+     * one while it reads a record. A compacted segment is deleted when the
+     * last reference is released.
+     */
+    private static class Segment
+    {
+        private final long _sequence;
+        private final File _file;
+        private final MappedByteBuffer _buffer;
+        private final AtomicInteger _references = new AtomicInteger(1);
+        private volatile boolean _delete;
+        private int _position = SEGMENT_HEADER_SIZE;
+        private long _live;
+
+        private Segment(long sequence, File file, MappedByteBuffer buffer)
+        {
+            _sequence = sequence;
+            _file = file;
+            _buffer = buffer;
+        }
+
+        private int getCapacity()
+        {
+            return _buffer.capacity();
+        }
+
+        private int getRemaining()
+        {
+            return getCapacity() - _position;
+        }
+
+        private ByteBuffer slice(int offset, int length)
+        {
+            ByteBuffer buffer = _buffer.duplicate();
+            buffer.limit(offset + length).position(offset);
+            return buffer.slice();
+        }
+
+        /**
+         * @return true if a reference was taken, false if the segment has been released
+         */
+        private boolean retain()
+        {
+            while (true)
+            {
+                int references = _references.get();
+                if (references <= 0)
+                    return false;
+                if (_references.compareAndSet(references, references + 1))
+                    return true;
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s[position=%d,live=%d]", _file.getName(), _position, _live);
+        }
+    }
+
+    /**
+     * The location of the latest record of a session.
+     */
+    private static class Location
+    {
+        private final Segment _segment;
+        private final int _offset;
+        private final int _length;
+        private final long _expiry;
+
+        private Location(Segment segment, int offset, int length, long expiry)
+        {
+            _segment = segment;
+            _offset = offset;
+            _length = length;
+            _expiry = expiry;
+        }
+    }
+
+    @ManagedAttribute(value = "dir where session logs are stored", readonly = true)
+    public File getStoreDir()
+    {
+        return _storeDir;
+    }
+
+    public void setStoreDir(File storeDir)
+    {
+        checkStarted();
+        _storeDir = storeDir;
+    }
+
+    @ManagedAttribute(value = "size in bytes of each segment of the log", readonly = true)
+    public int getSegmentSize()
+    {
+        return _segmentSize;
+    }
+
+    /**
+     * @param segmentSize the size in bytes of each segment of the log. A record
+     * larger than this is written to a segment of its own.
+     */
+    public void setSegmentSize(int segmentSize)
+    {
+        checkStarted();
+        if (segmentSize <= SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        _segmentSize = segmentSize;
+    }
+
+    @ManagedAttribute(value = "fraction of live bytes below which a segment is compacted", readonly = true)
+    public double getCompactionRatio()
+    {
+        return _compactionRatio;
+    }
+
+    /**
+     * @param compactionRatio the fraction of a full segment that must still be live
+     * records for it to be kept; segments with fewer live bytes are compacted
+     */
+    public void setCompactionRatio(double compactionRatio)
+    {
+        if (compactionRatio < 0 || compactionRatio > 1)
+            throw new IllegalArgumentException("Compaction ratio must be between 0 and 1");
+        _compactionRatio = compactionRatio;
+    }
+
+    @ManagedAttribute(value = "force each record to disk as it is written", readonly = true)
+    public boolean isSyncOnWrite()
+    {
+        return _syncOnWrite;
+    }
+
+    /**
+     * @param syncOnWrite true to force each record to disk before a store or
+     * delete returns, rather than when the operating system writes back the mapped pages
+     */
+    public void setSyncOnWrite(boolean syncOnWrite)
+    {
+        checkStarted();
+        _syncOnWrite = syncOnWrite;
+    }
+
+    @ManagedAttribute(value = "number of segments in the log", readonly = true)
+    public int getSegments()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _segments.size();
+        }
+    }
+
+    @ManagedAttribute(value = "bytes of live records in the log", readonly = true)
+    public long getLiveBytes()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            long live = 0;
+            for (Segment segment : _segments.values())
+            {
+                live += segment._live;
+            }
+            return live;
+        }
+    }
+
+    @ManagedAttribute(value = "number of segments compacted", readonly = true)
+    public long getCompactions()
+    {
+        return _compactions.sum();
+    }
+
+    @ManagedAttribute(value = "bytes reclaimed by compaction", readonly = true)
+    public long getBytesReclaimed()
+    {
+        return _bytesReclaimed.sum();
+    }
+
+    @Override
+    @ManagedAttribute(value = "are sessions serialized by this store", readonly = true)
+    public boolean isPassivating()
+    {
+        return true;
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (_storeDir == null)
+            throw new IllegalStateException("No file store specified");
+        _logDir = getLogDir();
+        if (!_logDir.exists() && !_logDir.mkdirs())
+            throw new IllegalStateException("Unable to create " + _logDir.getAbsolutePath());
+        if (!(_logDir.isDirectory() && _logDir.canWrite() && _logDir.canRead()))
+            throw new IllegalStateException(_logDir.getAbsolutePath() + " must be readable/writeable dir");
+
+        _lockFile = new RandomAccessFile(new File(_logDir, LOCK_FILENAME), "rw");
+        try
+        {
+            _fileLock = _lockFile.getChannel().tryLock();
+        }
+        catch (OverlappingFileLockException e)
+        {
+            //held by another store in this jvm
+            _fileLock = null;
+        }
+        if (_fileLock == null)
+        {
+            IO.close(_lockFile);
+            throw new IllegalStateException("Session log " + _logDir.getAbsolutePath() + " is in use by another store");
+        }
+
+        try
+        {
+            recover(true);
+            super.doStart();
+        }
+        catch (Throwable x)
+        {
+            releaseLock();
+            throw x;
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            if (_active != null)
+                _active._buffer.force();
+            _active = null;
+            clearSegments();
+            _index.clear();
+            _expiryIndex.clear();
+        }
+        releaseLock();
+        super.doStop();
+    }
+
+    private void clearSegments()
+    {
+        for (Segment segment : _segments.values())
+        {
+            retire(segment, false);
+        }
+        _segments.clear();
+    }
+
+    /**
+     * Release the reference of the log to a segment, so that it is
+     * optionally deleted once no load is reading from it.
+     *
+     * @param segment the segment removed from the log
+     * @param delete true to delete the segment file
+     */
+    private void retire(Segment segment, boolean delete)
+    {
+        if (delete)
+        {
+            segment._delete = true;
+            _retiring.add(segment._sequence);
+        }
+        release(segment);
+    }
+
+    private void release(Segment segment)
+    {
+        if (segment._references.decrementAndGet() != 0)
+            return;
+
+        if (segment._delete)
+        {
+            try
+            {
+                Files.deleteIfExists(segment._file.toPath());
+            }
+            catch (IOException e)
+            {
+                LOG.warn("Unable to delete session log segment {}", segment._file, e);
+            }
+            _retiring.remove(segment._sequence);
+        }
+    }
+
+    private void releaseLock()
+    {
+        try
+        {
+            if (_fileLock != null)
+                _fileLock.release();
+        }
+        catch (IOException e)
+        {
+            LOG.trace("IGNORED", e);
+        }
+        IO.close(_lockFile);
+        _fileLock = null;
+        _lockFile = null;
+    }
+
+    /**
+     * @return the dir that holds the log of this context
+     */
+    protected File getLogDir()
+    {
+        return new File(_storeDir, _context.getCanonicalContextPath() + "_" + _context.getVhost());
+    }
+
+    /**
+     * Rebuild the index by replaying the segments of the log in order.
+     *
+     * @param repair true if the log is owned by this store, so that a torn record
+     * at the end of the last segment can be erased and the segment written to
+     * @throws IOException if the segments cannot be read
+     */
+    void recover(boolean repair) throws IOException
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            clearSegments();
+            _index.clear();
+            _expiryIndex.clear();
+            _active = null;
+
+            if (_logDir == null)
+                _logDir = getLogDir();
+            File[] files = _logDir.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+            if (files != null)
+            {
+                for (File file : files)
+                {
+                    Segment segment = openSegment(file, repair);
+                    if (segment != null)
+                        _segments.put(segment._sequence, segment);
+                }
+            }
+
+            for (Segment segment : _segments.values())
+            {
+                replay(segment, repair && segment == _segments.lastEntry().getValue());
+            }
+
+            if (repair && !_segments.isEmpty())
+                _active = _segments.lastEntry().getValue();
+
+            if (LOG.isDebugEnabled())
+                LOG.debug("Recovered {} sessions from {} segments in {}", _index.size(), _segments.size(), _logDir);
+        }
+    }
+
+    private Segment openSegment(File file, boolean writable) throws IOException
+    {
+        try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r"))
+        {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < SEGMENT_HEADER_SIZE)
+            {
+                LOG.warn("Ignoring truncated session log segment {}", file);
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            {
+                LOG.warn("Ignoring session log segment {} with unknown format", file);
+                return null;
+            }
+            return new Segment(buffer.getLong(8), file, buffer);
+        }
+    }
+
+    private void replay(Segment segment, boolean last)
+    {
+        ByteBuffer buffer = segment._buffer;
+        int position = SEGMENT_HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= segment.getCapacity())
+        {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > segment.getCapacity() - position - RECORD_HEADER_SIZE)
+                break;
+            crc.reset();
+            crc.update(segment.slice(position + RECORD_HEADER_SIZE, length));
+            if ((int)crc.getValue() != buffer.getInt(position + 4))
+                break;
+
+            ByteBuffer body = segment.slice(position + RECORD_HEADER_SIZE, length);
+            byte type = body.get();
+            String id = readId(body);
+            if (type == PUT)
+                indexed(id, new Location(segment, position, RECORD_HEADER_SIZE + length, readExpiry(body)));
+            else
+                unindexed(id);
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        segment._position = position;
+        if (position + RECORD_HEADER_SIZE <= segment.getCapacity() && buffer.getInt(position) != 0)
+        {
+            if (last)
+            {
+                LOG.warn("Erasing torn record at {} of session log segment {}", position, segment._file);
+                for (int i = position; i < segment.getCapacity(); i++)
+                {
+                    buffer.put(i, (byte)0);
+                }
+                segment._buffer.force();
+            }
+            else
+            {
+                LOG.warn("Corrupt record at {} of session log segment {}", position, segment._file);
+            }
+        }
+    }
+
+    private static String readId(ByteBuffer body)
+    {
+        int length = body.getShort() & 0xFFFF;
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readExpiry(ByteBuffer body)
+    {
+        //the expiry follows the lastNode, created, accessed, lastAccessed and cookieSet
+        int lastNode = body.getShort() & 0xFFFF;
+        body.position(body.position() + lastNode + 4 * 8);
+        return body.getLong();
+    }
+
+    private void indexed(String id, Location location)
+    {
+        Location old = _index.put(id, location);
+        if (old != null)
+            old._segment._live -= old._length;
+        location._segment._live += location._length;
+        _expiryIndex.put(id, location._expiry);
+    }
+
+    private void unindexed(String id)
+    {
+        Location old = _index.remove(id);
+        if (old != null)
+            old._segment._live -= old._length;
+        _expiryIndex.remove(id);
+    }
+
+    @Override
+    public SessionData doLoad(String id) throws Exception
+    {
+        Location location;
+        while (true)
+        {
+            location = _index.get(id);
+            if (location == null)
+                return null;
+            //if the segment has been compacted, the index holds the new location
+            if (location._segment.retain())
+                break;
+        }
+
+        try
+        {
+            ByteBuffer record = location._segment.slice(location._offset + RECORD_HEADER_SIZE, location._length - RECORD_HEADER_SIZE);
+            byte[] bytes = new byte[record.remaining()];
+            record.get(bytes);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            in.readByte(); //type
+            in.readUTF(); //id
+            String lastNode = in.readUTF();
+            long created = in.readLong();
+            long accessed = in.readLong();
+            long lastAccessed = in.readLong();
+            long cookieSet = in.readLong();
+            long expiry = in.readLong();
+            long maxInactive = in.readLong();
+            long lastSaved = in.readLong();
+
+            SessionData data = newSessionData(id, created, accessed, lastAccessed, maxInactive);
+            data.setContextPath(_context.getCanonicalContextPath());
+            data.setVhost(_context.getVhost());
+            data.setLastNode(lastNode);
+            data.setCookieSet(cookieSet);
+            data.setExpiry(expiry);
+            data.setLastSaved(lastSaved);
+            _serializer.deserializeAttributes(data, in);
+            return data;
+        }
+        catch (Exception e)
+        {
+            throw new UnreadableSessionDataException(id, _context, e);
+        }
+        finally
+        {
+            release(location._segment);
+        }
+    }
+
+    @Override
+    public void doStore(String id, SessionData data, long lastSaveTime) throws Exception
+    {
+        ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+        _serializer.serializeAttributes(data, attributes);
+        append(id, data, attributes.toByteArray());
+    }
+
+    /**
+     * Append a record of a session to the log.
+     *
+     * @param id the id of the session
+     * @param data the session data
+     * @param attributes the serialized attributes of the session
+     * @throws Exception if the record cannot be written
+     */
+    void append(String id, SessionData data, byte[] attributes) throws Exception
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(128 + attributes.length);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeByte(PUT);
+        out.writeUTF(id);
+        out.writeUTF(data.getLastNode() == null ? "" : data.getLastNode());
+        out.writeLong(data.getCreated());
+        out.writeLong(data.getAccessed());
+        out.writeLong(data.getLastAccessed());
+        out.writeLong(data.getCookieSet());
+        out.writeLong(data.getExpiry());
+        out.writeLong(data.getMaxInactiveMs());
+        out.writeLong(data.getLastSaved());
+        out.write(attributes);
+        out.flush();
+
+        try (AutoLock l = _lock.lock())
+        {
+            Location location = write(baos.toByteArray(), data.getExpiry());
+            indexed(id, location);
+        }
+        catch (Exception e)
+        {
+            throw new UnwriteableSessionDataException(id, _context, e);
+        }
+    }
+
+    @Override
+    public boolean delete(String id) throws Exception
+    {
+        if (!_index.containsKey(id))
+            return false;
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeByte(DELETE);
+        out.writeUTF(id);
+        out.flush();
+
+        try (AutoLock l = _lock.lock())
+        {
+            if (!_index.containsKey(id))
+                return false;
+            write(baos.toByteArray(), 0);
+            unindexed(id);
+            return true;
+        }
+    }
+
+    private Location write(byte[] body, long expiry) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return write(body.length, (int)crc.getValue(), ByteBuffer.wrap(body), expiry);
+    }
+
+    private Location write(int length, int crc, ByteBuffer body, long expiry) throws IOException
+    {
+        int size = RECORD_HEADER_SIZE + length;
+        if (_active == null || _active.getRemaining() < size)
+            roll(size);
+
+        Segment segment = _active;
+        int position = segment._position;
+        ByteBuffer buffer = segment._buffer;
+        buffer.putInt(position + 4, crc);
+        ByteBuffer target = segment._buffer.duplicate();
+        target.position(position + RECORD_HEADER_SIZE);
+        target.put(body);
+        //write the length last, so that replay never sees a record without its body
+        buffer.putInt(position, length);
+        segment._position = position + size;
+        if (_syncOnWrite)
+            segment._buffer.force();
+        return new Location(segment, position, size, expiry);
+    }
+
+    private void roll(int recordSize) throws IOException
+    {
+        if (_active != null)
+            _active._buffer.force();
+
+        long sequence = _segments.isEmpty() ? 1 : _segments.lastKey() + 1;
+        int capacity = Math.max(_segmentSize, SEGMENT_HEADER_SIZE + recordSize);
+        File file = new File(_logDir, String.format("%016d%s", sequence, SEGMENT_SUFFIX));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(capacity);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, sequence);
+            Segment segment = new Segment(sequence, file, buffer);
+            _segments.put(sequence, segment);
+            _active = segment;
+            if (LOG.isDebugEnabled())
+                LOG.debug("Rolled session log to {}", file);
+        }
+    }
+
+    @Override
+    public boolean exists(String id) throws Exception
+    {
+        Location location = _index.get(id);
+        if (location == null)
+            return false;
+        if (location._expiry <= 0)
+            return true; //never expires
+        return location._expiry > System.currentTimeMillis();
+    }
+
+    @Override
+    public Set<String> doGetExpired(Set<String> candidates)
+    {
+        Set<String> expired = _expiryIndex.getExpired(System.currentTimeMillis());
+
+        //candidates without a record no longer exist, so should be expired
+        for (String c : candidates)
+        {
+            if (!_index.containsKey(c))
+                expired.add(c);
+        }
+
+        //the scavenger calls this periodically, so compact in its thread
+        try
+        {
+            compact();
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to compact {}", _logDir, e);
+        }
+        return expired;
+    }
+
+    /**
+     * Compact the full segments of the log whose live records
+     * have fallen below the compaction ratio.
+     *
+     * @return the number of segments compacted
+     * @throws IOException if the log cannot be written
+     */
+    @ManagedOperation(value = "compact the session log", impact = "ACTION")
+    public int compact() throws IOException
+    {
+        List<Segment> candidates = new ArrayList<>();
+        try (AutoLock l = _lock.lock())
+        {
+            for (Segment segment : _segments.values())
+            {
+                if (segment != _active && segment._live < _compactionRatio * (segment._position - SEGMENT_HEADER_SIZE))
+                    candidates.add(segment);
+            }
+        }
+
+        int compacted = 0;
+        for (Segment segment : candidates)
+        {
+            //compact one segment at a time to limit how long stores wait
+            try (AutoLock l = _lock.lock())
+            {
+                if (_segments.get(segment._sequence) != segment)
+                    continue;
+                compact(segment);
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    private void compact(Segment segment) throws IOException
+    {
+        //segments being retired are still on disk, so are replayed if the store restarts
+        boolean older = _segments.firstKey() < segment._sequence ||
+            !_retiring.headSet(segment._sequence).isEmpty();
+        ByteBuffer buffer = segment._buffer;
+        int position = SEGMENT_HEADER_SIZE;
+        while (position < segment._position)
+        {
+            int length = buffer.getInt(position);
+            int crc = buffer.getInt(position + 4);
+            ByteBuffer body = segment.slice(position + RECORD_HEADER_SIZE, length);
+            byte type = body.get();
+            String id = readId(body);
+            Location location = _index.get(id);
+            if (type == PUT)
+            {
+                //copy the record if it is still the latest for its session
+                if (location != null && location._segment == segment && location._offset == position)
+                    indexed(id, write(length, crc, segment.slice(position + RECORD_HEADER_SIZE, length), location._expiry));
+            }
+            else if (location == null && older)
+            {
+                //keep the delete while an older segment may hold a record of the session
+                write(length, crc, segment.slice(position + RECORD_HEADER_SIZE, length), 0);
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+
+        _segments.remove(segment._sequence);
+        if (_active != null)
+            _active._buffer.force();
+        _compactions.increment();
+        _bytesReclaimed.add(segment.getCapacity());
+        retire(segment, true);
+        if (LOG.isDebugEnabled())
+            LOG.debug("Compacted {}", segment);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s[dir=%s,segmentSize=%d,compactionRatio=%.2f,syncOnWrite=%b]", super.toString(), _storeDir, _segmentSize, _compactionRatio, _syncOnWrite);
+    }
+}
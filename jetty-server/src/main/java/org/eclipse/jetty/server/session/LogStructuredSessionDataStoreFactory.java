@@ -0,0 +1,110 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.File;
+
+/**
+ * LogStructuredSessionDataStoreFactory
+ */
+public class LogStructuredSessionDataStoreFactory extends AbstractSessionDataStoreFactory
+{
+    File _storeDir;
+    int _segmentSize = LogStructuredSessionDataStore.DEFAULT_SEGMENT_SIZE;
+    double _compactionRatio = LogStructuredSessionDataStore.DEFAULT_COMPACTION_RATIO;
+    boolean _syncOnWrite;
+
+    /**
+     * @return the storeDir
+     */
+    public File getStoreDir()
+    {
+        return _storeDir;
+    }
+
+    /**
+     * @param storeDir the storeDir to set
+     */
+    public void setStoreDir(File storeDir)
+    {
+        _storeDir = storeDir;
+    }
+
+    /**
+     * @return the size in bytes of each segment of the log
+     */
+    public int getSegmentSize()
+    {
+        return _segmentSize;
+    }
+
+    /**
+     * @param segmentSize the size in bytes of each segment of the log
+     */
+    public void setSegmentSize(int segmentSize)
+    {
+        _segmentSize = segmentSize;
+    }
+
+    /**
+     * @return the fraction of live bytes below which a segment is compacted
+     */
+    public double getCompactionRatio()
+    {
+        return _compactionRatio;
+    }
+
+    /**
+     * @param compactionRatio the fraction of live bytes below which a segment is compacted
+     */
+    public void setCompactionRatio(double compactionRatio)
+    {
+        _compactionRatio = compactionRatio;
+    }
+
+    /**
+     * @return true if each record is forced to disk as it is written
+     */
+    public boolean isSyncOnWrite()
+    {
+        return _syncOnWrite;
+    }
+
+    /**
+     * @param syncOnWrite true to force each record to disk as it is written
+     */
+    public void setSyncOnWrite(boolean syncOnWrite)
+    {
+        _syncOnWrite = syncOnWrite;
+    }
+
+    @Override
+    public SessionDataStore getSessionDataStore(SessionHandler handler)
+    {
+        LogStructuredSessionDataStore store = new LogStructuredSessionDataStore();
+        store.setStoreDir(getStoreDir());
+        store.setSegmentSize(getSegmentSize());
+        store.setCompactionRatio(getCompactionRatio());
+        store.setSyncOnWrite(isSyncOnWrite());
+        store.setGracePeriodSec(getGracePeriodSec());
+        store.setSavePeriodSec(getSavePeriodSec());
+        store.setSessionDataSerializer(getSessionDataSerializer());
+        return store;
+    }
+}
@@ -19,8 +19,11 @@
 package org.eclipse.jetty.server.session;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -59,6 +62,7 @@ public class SessionData implements Serializable
     protected boolean _dirty;
     protected long _lastSaved; //time in msec since last save
     protected boolean _metaDataDirty; //non-attribute data has changed
+    protected transient Set<String> _dirtyAttributes = ConcurrentHashMap.newKeySet(); //names of attributes changed since last save
 
     /**
      * Serialize the attribute map of the session.
@@ -70,7 +74,7 @@ public class SessionData implements Serializable
      * @param data the SessionData for which to serialize the attributes
      * @param out the stream to which to serialize
      */
-    public static void serializeAttributes(SessionData data, java.io.ObjectOutputStream out)
+    public static void serializeAttributes(SessionData data, ObjectOutputStream out)
         throws IOException
     {
         int entries = data._attributes.size();
@@ -78,43 +82,77 @@ public class SessionData implements Serializable
         for (Entry<String, Object> entry : data._attributes.entrySet())
         {
             out.writeUTF(entry.getKey());
+            serializeAttribute(entry.getKey(), entry.getValue(), out);
+        }
+    }
 
-            Class<?> clazz = entry.getValue().getClass();
-            ClassLoader loader = clazz.getClassLoader();
-            ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
-            boolean isContextLoader;
+    /**
+     * Serialize the value of a single attribute, recording which classloader should be used to load it.
+     *
+     * @param name the name of the attribute
+     * @param value the value of the attribute
+     * @param out the stream to which to serialize
+     * @throws IOException if the value cannot be serialized
+     * @see #deserializeAttribute(ObjectInputStream)
+     */
+    public static void serializeAttribute(String name, Object value, ObjectOutputStream out)
+        throws IOException
+    {
+        Class<?> clazz = value.getClass();
+        ClassLoader loader = clazz.getClassLoader();
+        ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+        boolean isContextLoader;
 
-            if (loader == contextLoader) //is it the context classloader?
-                isContextLoader = true;
-            else if (contextLoader == null) //not context classloader
-                isContextLoader = false;
-            else if (contextLoader instanceof ClassVisibilityChecker)
+        if (loader == contextLoader) //is it the context classloader?
+            isContextLoader = true;
+        else if (contextLoader == null) //not context classloader
+            isContextLoader = false;
+        else if (contextLoader instanceof ClassVisibilityChecker)
+        {
+            //Clazz not loaded by context classloader, but ask if loadable by context classloader,
+            //because preferable to use context classloader if possible (eg for deep structures).
+            ClassVisibilityChecker checker = (ClassVisibilityChecker)(contextLoader);
+            isContextLoader = (checker.isSystemClass(clazz) && !(checker.isServerClass(clazz)));
+        }
+        else
+        {
+            //Class wasn't loaded by context classloader, but try loading from context loader,
+            //because preferable to use context classloader if possible (eg for deep structures).
+            try
             {
-                //Clazz not loaded by context classloader, but ask if loadable by context classloader,
-                //because preferable to use context classloader if possible (eg for deep structures).
-                ClassVisibilityChecker checker = (ClassVisibilityChecker)(contextLoader);
-                isContextLoader = (checker.isSystemClass(clazz) && !(checker.isServerClass(clazz)));
+                Class<?> result = contextLoader.loadClass(clazz.getName());
+                isContextLoader = (result == clazz); //only if TTCL loaded this instance of the class
             }
-            else
+            catch (Throwable e)
             {
-                //Class wasn't loaded by context classloader, but try loading from context loader,
-                //because preferable to use context classloader if possible (eg for deep structures).
-                try
-                {
-                    Class<?> result = contextLoader.loadClass(clazz.getName());
-                    isContextLoader = (result == clazz); //only if TTCL loaded this instance of the class
-                }
-                catch (Throwable e)
-                {
-                    isContextLoader = false; //TCCL can't see the class
-                }
+                isContextLoader = false; //TCCL can't see the class
             }
-
-            if (LOG.isDebugEnabled())
-                LOG.debug("Attribute {} class={} isServerLoader={}", entry.getKey(), clazz.getName(), (!isContextLoader));
-            out.writeBoolean(!isContextLoader);
-            out.writeObject(entry.getValue());
         }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Attribute {} class={} isServerLoader={}", name, clazz.getName(), (!isContextLoader));
+        out.writeBoolean(!isContextLoader);
+        out.writeObject(value);
+    }
+
+    /**
+     * De-serialize the value of a single attribute written by
+     * {@link #serializeAttribute(String, Object, ObjectOutputStream)}.
+     *
+     * @param in the serialized stream, which must be a {@link ClassLoadingObjectInputStream}
+     * @return the value of the attribute
+     * @throws IOException if the value cannot be read
+     * @throws ClassNotFoundException if the class of the value cannot be loaded
+     */
+    public static Object deserializeAttribute(ObjectInputStream in)
+        throws IOException, ClassNotFoundException
+    {
+        if (!(ClassLoadingObjectInputStream.class.isAssignableFrom(in.getClass())))
+            throw new IOException("Not ClassLoadingObjectInputStream");
+
+        boolean isServerClassLoader = in.readBoolean(); //use server or webapp classloader to load
+        ClassLoader loader = isServerClassLoader ? SessionData.class.getClassLoader() : Thread.currentThread().getContextClassLoader();
+        return ((ClassLoadingObjectInputStream)in).readObject(loader);
     }
 
     /**
@@ -127,7 +165,7 @@ public class SessionData implements Serializable
      * @param data the SessionData for which to deserialize the attribute map
      * @param in the serialized stream
      */
-    public static void deserializeAttributes(SessionData data, java.io.ObjectInputStream in)
+    public static void deserializeAttributes(SessionData data, ObjectInputStream in)
         throws IOException, ClassNotFoundException
     {
         Object o = in.readObject();
@@ -234,11 +272,34 @@ public class SessionData implements Serializable
     public void setDirty(boolean dirty)
     {
         _dirty = dirty;
+        if (!dirty)
+            _dirtyAttributes.clear();
     }
 
+    /**
+     * Mark the session as needing to be written out because of
+     * a change to the named attribute.
+     *
+     * @param name the name of the attribute that was set or removed
+     */
     public void setDirty(String name)
     {
         setDirty(true);
+        _dirtyAttributes.add(name);
+    }
+
+    /**
+     * The names of the attributes set or removed since the session was last written out.
+     * <p>
+     * A session may be dirty without any attribute names being recorded, for example when it
+     * is new, or when something other than an attribute changed; stores that write attribute
+     * deltas must then write all the attributes.
+     *
+     * @return a copy of the names of the changed attributes
+     */
+    public Set<String> getDirtyAttributes()
+    {
+        return new HashSet<>(_dirtyAttributes);
     }
 
     /**
@@ -460,7 +521,7 @@ public class SessionData implements Serializable
         _maxInactiveMs = maxInactive;
     }
 
-    private void writeObject(java.io.ObjectOutputStream out) throws IOException
+    private void writeObject(ObjectOutputStream out) throws IOException
     {
         out.writeUTF(_id); //session id
         out.writeUTF(_contextPath); //context path
@@ -475,7 +536,7 @@ public class SessionData implements Serializable
         serializeAttributes(this, out);
     }
 
-    private void readObject(java.io.ObjectInputStream in) throws IOException, ClassNotFoundException
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
     {
         _id = in.readUTF();
         _contextPath = in.readUTF();
@@ -487,6 +548,7 @@ public class SessionData implements Serializable
         _lastNode = in.readUTF(); //last managing node
         _expiry = in.readLong();
         _maxInactiveMs = in.readLong();
+        _dirtyAttributes = ConcurrentHashMap.newKeySet();
         deserializeAttributes(this, in);
     }
 
@@ -63,4 +63,21 @@ public interface SessionDataMap extends LifeCycle
      * @throws Exception if unable to delete session data
      */
     public boolean delete(String id) throws Exception;
+
+    /**
+     * Get the version of the session data held for an id, which is
+     * the time at which it was last saved. Implementations that can
+     * find this more cheaply than loading the whole session data
+     * should override this, so that copies of the session data held
+     * elsewhere can be validated against it.
+     *
+     * @param id identity of session
+     * @return the lastSaved time of the session data, 0 if there is no
+     * session data for the id, or -1 if the version is not known
+     * @throws Exception if unable to read the version
+     */
+    public default long getLastSaved(String id) throws Exception
+    {
+        return -1;
+    }
 }
@@ -0,0 +1,57 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * SessionDataSerializer
+ *
+ * Converts the attributes of a session to and from bytes, for SessionDataStores
+ * that persist sessions as a stream of bytes.
+ * <p>
+ * Implementations are called with the thread context classloader set to the
+ * classloader of the webapp, and must be thread safe.
+ *
+ * @see JavaSessionDataSerializer
+ * @see CompactSessionDataSerializer
+ */
+public interface SessionDataSerializer
+{
+    /**
+     * Write the attributes of a session.
+     *
+     * @param data the session whose attributes to write
+     * @param out the stream to write to, which is not closed
+     * @throws IOException if the attributes cannot be written
+     */
+    void serializeAttributes(SessionData data, OutputStream out) throws IOException;
+
+    /**
+     * Read the attributes of a session.
+     *
+     * @param data the session to which to add the attributes
+     * @param in the stream to read from, positioned at the start of the attributes
+     * @throws IOException if the attributes cannot be read
+     * @throws ClassNotFoundException if the class of an attribute cannot be loaded
+     */
+    void deserializeAttributes(SessionData data, InputStream in) throws IOException, ClassNotFoundException;
+}
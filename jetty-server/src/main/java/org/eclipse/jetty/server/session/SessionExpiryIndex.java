@@ -0,0 +1,254 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+import org.eclipse.jetty.util.thread.AutoLock;
+
+/**
+ * SessionExpiryIndex
+ *
+ * Index of keys (typically session ids or session filenames) by their
+ * expiry time. Keys are grouped into buckets of a fixed width, so that
+ * finding the keys that have expired by a given time only visits the
+ * buckets that lie before that time, rather than every key in the index.
+ *
+ * Keys with an expiry of 0 or less never expire, and are not indexed.
+ */
+public class SessionExpiryIndex
+{
+    public static final long DEFAULT_BUCKET_MS = 1000L;
+
+    private final AutoLock _lock = new AutoLock();
+    private final long _bucketMs;
+    private final Map<String, Long> _expiries = new HashMap<>();
+    private final NavigableMap<Long, Set<String>> _buckets = new TreeMap<>();
+
+    public SessionExpiryIndex()
+    {
+        this(DEFAULT_BUCKET_MS);
+    }
+
+    /**
+     * @param bucketMs the width in ms of each bucket of the index
+     */
+    public SessionExpiryIndex(long bucketMs)
+    {
+        if (bucketMs <= 0)
+            throw new IllegalArgumentException("Bucket width must be positive");
+        _bucketMs = bucketMs;
+    }
+
+    public long getBucketMs()
+    {
+        return _bucketMs;
+    }
+
+    /**
+     * Add a key to the index, or move it if its expiry has changed.
+     *
+     * @param key the key to index
+     * @param expiry the time in ms at which the key expires; 0 or less
+     * means it never expires and is removed from the index
+     */
+    public void put(String key, long expiry)
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            if (expiry <= 0)
+            {
+                doRemove(key);
+                return;
+            }
+
+            Long old = _expiries.put(key, expiry);
+            if (old != null)
+            {
+                if (getBucket(old) == getBucket(expiry))
+                    return;
+                removeFromBucket(key, old);
+            }
+            _buckets.computeIfAbsent(getBucket(expiry), b -> new HashSet<>()).add(key);
+        }
+    }
+
+    /**
+     * @param key the key to remove
+     * @return true if the key was in the index
+     */
+    public boolean remove(String key)
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return doRemove(key);
+        }
+    }
+
+    /**
+     * @param key the key to look up
+     * @return the expiry of the key, or 0 if it is not indexed
+     */
+    public long getExpiry(String key)
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            Long expiry = _expiries.get(key);
+            return expiry == null ? 0 : expiry;
+        }
+    }
+
+    /**
+     * Find the keys that expired before the given time. Only the buckets
+     * before the time are visited, and only the keys in the last of those
+     * buckets need to have their exact expiry checked.
+     *
+     * @param time the time in ms
+     * @return the keys whose expiry is before the given time
+     */
+    public Set<String> getExpired(long time)
+    {
+        Set<String> expired = new HashSet<>();
+        try (AutoLock l = _lock.lock())
+        {
+            long last = getBucket(time);
+            for (Map.Entry<Long, Set<String>> entry : _buckets.headMap(last, true).entrySet())
+            {
+                if (entry.getKey() < last)
+                {
+                    expired.addAll(entry.getValue());
+                }
+                else
+                {
+                    for (String key : entry.getValue())
+                    {
+                        if (_expiries.get(key) < time)
+                            expired.add(key);
+                    }
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Remove and return the keys that expired before the given time.
+     *
+     * @param time the time in ms
+     * @return the keys whose expiry is before the given time
+     */
+    public Set<String> removeExpired(long time)
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            Set<String> expired = getExpired(time);
+            for (String key : expired)
+            {
+                doRemove(key);
+            }
+            return expired;
+        }
+    }
+
+    /**
+     * @param consumer called with each key and its expiry, in order of expiry bucket
+     */
+    public void forEach(BiConsumer<String, Long> consumer)
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            for (Set<String> bucket : _buckets.values())
+            {
+                for (String key : bucket)
+                {
+                    consumer.accept(key, _expiries.get(key));
+                }
+            }
+        }
+    }
+
+    public int size()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _expiries.size();
+        }
+    }
+
+    /**
+     * @return the number of non-empty buckets in the index
+     */
+    public int getBuckets()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return _buckets.size();
+        }
+    }
+
+    public void clear()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            _expiries.clear();
+            _buckets.clear();
+        }
+    }
+
+    private long getBucket(long expiry)
+    {
+        return expiry / _bucketMs;
+    }
+
+    private boolean doRemove(String key)
+    {
+        Long old = _expiries.remove(key);
+        if (old == null)
+            return false;
+        removeFromBucket(key, old);
+        return true;
+    }
+
+    private void removeFromBucket(String key, long expiry)
+    {
+        long bucket = getBucket(expiry);
+        Set<String> keys = _buckets.get(bucket);
+        if (keys != null)
+        {
+            keys.remove(key);
+            if (keys.isEmpty())
+                _buckets.remove(bucket);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            return String.format("%s@%x[bucketMs=%d,size=%d,buckets=%d]", getClass().getSimpleName(), hashCode(), _bucketMs, _expiries.size(), _buckets.size());
+        }
+    }
+}
@@ -0,0 +1,710 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+import org.eclipse.jetty.util.thread.Scheduler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * WriteBehindSessionDataStore
+ *
+ * A SessionDataStore that defers writes to a delegate SessionDataStore.
+ * <p>
+ * Calls to {@link #store(String, SessionData)} take a snapshot of the session
+ * data and queue it, rather than writing it synchronously on the request thread.
+ * Repeated stores of the same session within the flush interval are coalesced
+ * into a single write of the latest snapshot. The queue is flushed to the
+ * delegate periodically, at most {@link #getMaxBatchSize()} sessions at a time,
+ * and is flushed completely when this store is stopped.
+ * <p>
+ * Loads, existence checks and expiry checks consult the queue before the delegate,
+ * so queued but not yet written sessions remain visible on this node. Other nodes
+ * of a cluster will not see changes until they have been flushed, so this store is
+ * best suited to deployments using sticky sessions.
+ * <p>
+ * The snapshot is a deep copy, taken by serializing the attributes with the
+ * {@link SessionDataSerializer} of the delegate on the thread calling
+ * {@link #store(String, SessionData)}, so the flush thread never sees attribute
+ * values that the application is still mutating. Loads of a queued session return
+ * another deep copy of its snapshot, for the same reason. The last saved time of
+ * the session is only updated once its snapshot has actually been written.
+ * <p>
+ * The number of queued sessions is bounded by {@link #getMaxPendingSessions()}: once
+ * the bound is reached, stores of sessions that are not already queued are written
+ * synchronously to the delegate.
+ */
+@ManagedObject
+public class WriteBehindSessionDataStore extends ContainerLifeCycle implements SessionDataStore
+{
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindSessionDataStore.class);
+
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    public static final int DEFAULT_MAX_PENDING_SESSIONS = 10000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * The actual store for the session data
+     */
+    protected final SessionDataStore _store;
+
+    private final Map<String, Pending> _pending = new ConcurrentHashMap<>();
+    private final Object _flushLock = new Object();
+    private final LongAdder _queued = new LongAdder();
+    private final LongAdder _coalesced = new LongAdder();
+    private final LongAdder _written = new LongAdder();
+    private final LongAdder _writtenSync = new LongAdder();
+    private final LongAdder _failures = new LongAdder();
+    private final LongAdder _dropped = new LongAdder();
+    private long _flushIntervalMs = DEFAULT_FLUSH_INTERVAL_MS;
+    private int _maxPendingSessions = DEFAULT_MAX_PENDING_SESSIONS;
+    private int _maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int _maxRetries = DEFAULT_MAX_RETRIES;
+    private SessionContext _context;
+    private Scheduler _scheduler;
+    private Scheduler.Task _task;
+
+    /**
+     * @param store the actual store for the session data
+     */
+    public WriteBehindSessionDataStore(SessionDataStore store)
+    {
+        _store = store;
+        addBean(_store, true);
+    }
+
+    /**
+     * @return the delegate session store
+     */
+    public SessionDataStore getSessionStore()
+    {
+        return _store;
+    }
+
+    @ManagedAttribute(value = "interval in ms between flushes of queued sessions", readonly = true)
+    public long getFlushIntervalMs()
+    {
+        return _flushIntervalMs;
+    }
+
+    /**
+     * @param flushIntervalMs the interval in ms between flushes of the queue, which is also
+     * the window within which repeated stores of the same session are coalesced
+     */
+    public void setFlushIntervalMs(long flushIntervalMs)
+    {
+        if (flushIntervalMs <= 0)
+            throw new IllegalArgumentException("Flush interval must be > 0");
+        _flushIntervalMs = flushIntervalMs;
+    }
+
+    @ManagedAttribute(value = "max number of queued sessions before stores become synchronous", readonly = true)
+    public int getMaxPendingSessions()
+    {
+        return _maxPendingSessions;
+    }
+
+    /**
+     * @param maxPendingSessions the max number of distinct sessions that may be queued;
+     * once reached, stores of sessions not already queued are written synchronously
+     */
+    public void setMaxPendingSessions(int maxPendingSessions)
+    {
+        _maxPendingSessions = maxPendingSessions;
+    }
+
+    @ManagedAttribute(value = "max number of sessions written per flush", readonly = true)
+    public int getMaxBatchSize()
+    {
+        return _maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize the max number of sessions written to the delegate by a single
+     * flush; any remaining sessions are written by an immediately following flush
+     */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("Max batch size must be > 0");
+        _maxBatchSize = maxBatchSize;
+    }
+
+    @ManagedAttribute(value = "max attempts to write a queued session", readonly = true)
+    public int getMaxRetries()
+    {
+        return _maxRetries;
+    }
+
+    /**
+     * @param maxRetries the max number of failed attempts to write a queued session
+     * before it is discarded
+     */
+    public void setMaxRetries(int maxRetries)
+    {
+        _maxRetries = maxRetries;
+    }
+
+    /**
+     * @param scheduler the scheduler to use for flushing, or null to use the
+     * scheduler of the SessionHandler
+     */
+    public void setScheduler(Scheduler scheduler)
+    {
+        updateBean(_scheduler, scheduler);
+        _scheduler = scheduler;
+    }
+
+    public Scheduler getScheduler()
+    {
+        return _scheduler;
+    }
+
+    @ManagedAttribute(value = "number of sessions waiting to be written", readonly = true)
+    public int getPendingSessions()
+    {
+        return _pending.size();
+    }
+
+    @ManagedAttribute(value = "number of stores queued", readonly = true)
+    public long getStoresQueued()
+    {
+        return _queued.sum();
+    }
+
+    @ManagedAttribute(value = "number of stores coalesced with an already queued store", readonly = true)
+    public long getStoresCoalesced()
+    {
+        return _coalesced.sum();
+    }
+
+    @ManagedAttribute(value = "number of queued sessions written to the delegate store", readonly = true)
+    public long getSessionsWritten()
+    {
+        return _written.sum();
+    }
+
+    @ManagedAttribute(value = "number of sessions written synchronously because the queue was full", readonly = true)
+    public long getSessionsWrittenSynchronously()
+    {
+        return _writtenSync.sum();
+    }
+
+    @ManagedAttribute(value = "number of failed writes to the delegate store", readonly = true)
+    public long getWriteFailures()
+    {
+        return _failures.sum();
+    }
+
+    @ManagedAttribute(value = "number of queued sessions discarded after failed writes", readonly = true)
+    public long getSessionsDropped()
+    {
+        return _dropped.sum();
+    }
+
+    @ManagedOperation(value = "reset statistics", impact = "ACTION")
+    public void resetStatistics()
+    {
+        _queued.reset();
+        _coalesced.reset();
+        _written.reset();
+        _writtenSync.reset();
+        _failures.reset();
+        _dropped.reset();
+    }
+
+    @Override
+    public void initialize(SessionContext context) throws Exception
+    {
+        _context = context;
+        _store.initialize(context);
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        if (_scheduler == null && _context != null && _context.getSessionHandler() != null)
+            _scheduler = _context.getSessionHandler().getScheduler();
+        if (_scheduler == null)
+            setScheduler(new ScheduledExecutorScheduler(String.format("Session-WriteBehind-%x", hashCode()), false));
+        super.doStart();
+        schedule(_flushIntervalMs);
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        synchronized (this)
+        {
+            if (_task != null)
+                _task.cancel();
+            _task = null;
+        }
+
+        //write out everything that is still queued, before the delegate is stopped
+        int remaining = _pending.size();
+        while (remaining > 0)
+        {
+            flush(Integer.MAX_VALUE);
+            int now = _pending.size();
+            if (now >= remaining)
+                break; //only failing writes are left
+            remaining = now;
+        }
+        if (!_pending.isEmpty())
+        {
+            LOG.warn("Discarding {} unwritten sessions", _pending.size());
+            _dropped.add(_pending.size());
+            _pending.clear();
+        }
+
+        super.doStop();
+    }
+
+    @Override
+    public SessionData newSessionData(String id, long created, long accessed, long lastAccessed, long maxInactiveMs)
+    {
+        return _store.newSessionData(id, created, accessed, lastAccessed, maxInactiveMs);
+    }
+
+    @Override
+    public boolean isPassivating()
+    {
+        return _store.isPassivating();
+    }
+
+    @Override
+    public SessionData load(String id) throws Exception
+    {
+        Pending pending = _pending.get(id);
+        if (pending != null)
+            return snapshot(id, pending._data);
+        return _store.load(id);
+    }
+
+    @Override
+    public boolean exists(String id) throws Exception
+    {
+        Pending pending = _pending.get(id);
+        if (pending != null)
+            return !pending._data.isExpiredAt(System.currentTimeMillis());
+        return _store.exists(id);
+    }
+
+    @Override
+    public Set<String> getExpired(Set<String> candidates)
+    {
+        Set<String> expired = new HashSet<>(_store.getExpired(candidates));
+        if (_pending.isEmpty())
+            return expired;
+
+        //the queue holds more recent expiry times than the delegate
+        long now = System.currentTimeMillis();
+        for (Pending pending : _pending.values())
+        {
+            if (pending._data.isExpiredAt(now))
+                expired.add(pending._data.getId());
+            else
+                expired.remove(pending._data.getId());
+        }
+        return expired;
+    }
+
+    @Override
+    public boolean delete(String id) throws Exception
+    {
+        //a concurrent flush that writes the session notices its removal and deletes it again
+        boolean queued = _pending.remove(id) != null;
+        return _store.delete(id) || queued;
+    }
+
+    @Override
+    public void store(String id, SessionData data) throws Exception
+    {
+        if (!isStarted())
+            throw new IllegalStateException("Not started");
+
+        if (data == null)
+            return;
+
+        //apply the same save policy as AbstractSessionDataStore, counting a queued store as a save
+        long lastSave = data.getLastSaved();
+        Pending queued = _pending.get(id);
+        if (queued != null)
+            lastSave = Math.max(lastSave, queued._queuedTime);
+        long now = System.currentTimeMillis();
+        if (!data.isDirty() && lastSave > 0 && !(data.isMetaDataDirty() && (now - lastSave) >= getSavePeriodMs()))
+            return;
+
+        if (_pending.size() >= _maxPendingSessions && !_pending.containsKey(id))
+        {
+            if (LOG.isDebugEnabled())
+                LOG.debug("Queue full, storing {} synchronously", id);
+            _store.store(id, data);
+            _writtenSync.increment();
+            return;
+        }
+
+        SessionData snapshot = snapshot(id, data);
+        snapshot.setDirty(data.isDirty());
+        for (String name : data.getDirtyAttributes())
+        {
+            snapshot.setDirty(name);
+        }
+        snapshot.setMetaDataDirty(data.isMetaDataDirty());
+
+        _pending.compute(id, (k, existing) ->
+        {
+            if (existing == null)
+                return new Pending(snapshot, data, now);
+            _coalesced.increment();
+            return existing.merge(snapshot, data, now);
+        });
+        _queued.increment();
+
+        //the last saved time is only updated once the snapshot has been written
+        data.clean();
+    }
+
+    /**
+     * @return the serializer of the delegate store, used to take snapshots of sessions
+     */
+    public SessionDataSerializer getSessionDataSerializer()
+    {
+        if (_store instanceof AbstractSessionDataStore)
+            return ((AbstractSessionDataStore)_store).getSessionDataSerializer();
+        return new JavaSessionDataSerializer();
+    }
+
+    /**
+     * Take a deep copy of the session, serializing its attributes in the
+     * context of the session so that the copy shares no state with it.
+     *
+     * @param id the session id
+     * @param data the live session data
+     * @return the copy of the session data
+     * @throws Exception if the attributes cannot be serialized
+     */
+    private SessionData snapshot(String id, SessionData data) throws Exception
+    {
+        SessionData snapshot = _store.newSessionData(id, data.getCreated(), data.getAccessed(), data.getLastAccessed(), data.getMaxInactiveMs());
+        snapshot.copy(data);
+
+        SessionDataSerializer serializer = getSessionDataSerializer();
+        AtomicReference<Exception> exception = new AtomicReference<>();
+        Runnable r = () ->
+        {
+            try
+            {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                serializer.serializeAttributes(data, baos);
+                serializer.deserializeAttributes(snapshot, new ByteArrayInputStream(baos.toByteArray()));
+            }
+            catch (Exception e)
+            {
+                exception.set(e);
+            }
+        };
+        if (_context == null)
+            r.run();
+        else
+            _context.run(r);
+        if (exception.get() != null)
+            throw new UnwriteableSessionDataException(id, _context, exception.get());
+        return snapshot;
+    }
+
+    /**
+     * Write queued sessions to the delegate store.
+     *
+     * @param maxSessions the max number of sessions to write
+     * @return the number of sessions written
+     */
+    protected int flush(int maxSessions)
+    {
+        List<Pending> batch = new ArrayList<>(Math.min(maxSessions, _pending.size()));
+        for (Pending pending : _pending.values())
+        {
+            if (batch.size() >= maxSessions)
+                break;
+            batch.add(pending);
+        }
+
+        if (batch.size() > 1 && _store instanceof AbstractSessionDataStore)
+            return writeAll(batch);
+
+        int written = 0;
+        for (Pending pending : batch)
+        {
+            synchronized (_flushLock)
+            {
+                String id = pending._data.getId();
+                if (_pending.get(id) != pending)
+                    continue; //deleted or superseded since the batch was taken
+                if (write(pending))
+                    written++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Write out everything currently queued.
+     */
+    @ManagedOperation(value = "write all queued sessions", impact = "ACTION")
+    public void flush()
+    {
+        flush(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Write a batch with a single call to {@link AbstractSessionDataStore#storeAll(Map)},
+     * so that stores able to write several sessions at once can do so. Sessions of a
+     * failed batch that were not written are retried one at a time.
+     */
+    private int writeAll(List<Pending> batch)
+    {
+        synchronized (_flushLock)
+        {
+            Map<String, SessionData> sessions = new LinkedHashMap<>();
+            Map<Pending, Long> lastSaves = new LinkedHashMap<>();
+            for (Pending pending : batch)
+            {
+                String id = pending._data.getId();
+                if (_pending.get(id) != pending)
+                    continue; //deleted or superseded since the batch was taken
+                sessions.put(id, pending._data);
+                lastSaves.put(pending, pending._data.getLastSaved());
+            }
+
+            boolean failed = false;
+            try
+            {
+                ((AbstractSessionDataStore)_store).storeAll(sessions);
+            }
+            catch (Exception e)
+            {
+                if (LOG.isDebugEnabled())
+                    LOG.debug("Batch of {} sessions failed", sessions.size(), e);
+                failed = true;
+            }
+
+            int written = 0;
+            for (Map.Entry<Pending, Long> entry : lastSaves.entrySet())
+            {
+                Pending pending = entry.getKey();
+                long lastSave = entry.getValue();
+                if (!failed || pending._data.getLastSaved() != lastSave)
+                {
+                    if (undoIfDeleted(pending._data.getId()))
+                        continue;
+                    onWritten(pending, lastSave);
+                    written++;
+                }
+                else if (write(pending))
+                {
+                    written++;
+                }
+            }
+            return written;
+        }
+    }
+
+    private boolean write(Pending pending)
+    {
+        String id = pending._data.getId();
+        long lastSave = pending._data.getLastSaved();
+        try
+        {
+            _store.store(id, pending._data);
+            if (undoIfDeleted(id))
+                return false;
+            onWritten(pending, lastSave);
+            return true;
+        }
+        catch (UnwriteableSessionDataException e)
+        {
+            LOG.warn("Discarding unwriteable session {}", id, e);
+            _failures.increment();
+            _dropped.increment();
+            _pending.remove(id, pending);
+            return false;
+        }
+        catch (Exception e)
+        {
+            _failures.increment();
+            if (pending.failed() >= _maxRetries)
+            {
+                LOG.warn("Discarding session {} after {} failed writes", id, _maxRetries, e);
+                _dropped.increment();
+                _pending.remove(id, pending);
+            }
+            else
+            {
+                LOG.warn("Unable to write session {}, will retry", id, e);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A session deleted while its snapshot was being written has been
+     * resurrected by the write, so delete it again.
+     *
+     * @param id the id of the session just written
+     * @return true if the session had been deleted
+     */
+    private boolean undoIfDeleted(String id)
+    {
+        if (_pending.containsKey(id))
+            return false;
+        try
+        {
+            _store.delete(id);
+        }
+        catch (Exception e)
+        {
+            LOG.warn("Unable to delete session {}", id, e);
+        }
+        return true;
+    }
+
+    private void onWritten(Pending pending, long lastSave)
+    {
+        _written.increment();
+        long saved = pending._data.getLastSaved();
+        pending._live.setLastSaved(Math.max(pending._live.getLastSaved(), saved));
+        //remove the entry, or tell a coalesced successor that the session now exists in the store
+        _pending.computeIfPresent(pending._data.getId(), (k, current) ->
+        {
+            if (current == pending)
+                return null;
+            if (saved != lastSave)
+                current.saved(saved);
+            return current;
+        });
+    }
+
+    private long getSavePeriodMs()
+    {
+        if (_store instanceof AbstractSessionDataStore)
+        {
+            int savePeriodSec = ((AbstractSessionDataStore)_store).getSavePeriodSec();
+            return savePeriodSec <= 0 ? 0 : TimeUnit.SECONDS.toMillis(savePeriodSec);
+        }
+        return 0;
+    }
+
+    private void schedule(long delayMs)
+    {
+        synchronized (this)
+        {
+            if (isRunning())
+                _task = _scheduler.schedule(this::onFlushTimeout, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void onFlushTimeout()
+    {
+        boolean more = false;
+        try
+        {
+            int written = flush(_maxBatchSize);
+            more = written >= _maxBatchSize;
+        }
+        catch (Throwable x)
+        {
+            LOG.warn("Flush failed", x);
+        }
+        finally
+        {
+            schedule(more ? 0 : _flushIntervalMs);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[pending=%d,store=%s]", getClass().getSimpleName(), hashCode(), _pending.size(), _store);
+    }
+
+    /**
+     * A snapshot of a session waiting to be written.
+     * <p>
+     * The snapshot carries the time the session was last actually written to the
+     * delegate, so that the delegate can distinguish inserts from updates.
+     */
+    private class Pending
+    {
+        private final SessionData _data;
+        private final SessionData _live;
+        private final long _queuedTime;
+        private int _failures;
+
+        private Pending(SessionData data, SessionData live, long queuedTime)
+        {
+            _data = data;
+            _live = live;
+            _queuedTime = queuedTime;
+        }
+
+        private Pending merge(SessionData newer, SessionData live, long queuedTime)
+        {
+            newer.setLastSaved(Math.min(_data.getLastSaved(), newer.getLastSaved()));
+            newer.setDirty(_data.isDirty() || newer.isDirty());
+            for (String name : _data.getDirtyAttributes())
+            {
+                newer.setDirty(name);
+            }
+            newer.setMetaDataDirty(_data.isMetaDataDirty() || newer.isMetaDataDirty());
+            Pending merged = new Pending(newer, live, queuedTime);
+            merged._failures = _failures;
+            return merged;
+        }
+
+        private void saved(long time)
+        {
+            _data.setLastSaved(time);
+        }
+
+        private int failed()
+        {
+            return ++_failures;
+        }
+    }
+}
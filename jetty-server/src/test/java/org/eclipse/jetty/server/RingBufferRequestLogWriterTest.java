@@ -0,0 +1,178 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.handler.DefaultHandler;
+import org.eclipse.jetty.toolchain.test.jupiter.WorkDir;
+import org.eclipse.jetty.toolchain.test.jupiter.WorkDirExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@ExtendWith(WorkDirExtension.class)
+public class RingBufferRequestLogWriterTest
+{
+    private static final String SYMBOLS = new String(new int[]{0x20AC, 0x1F600}, 0, 2);
+
+    public WorkDir workDir;
+
+    @Test
+    public void testCustomRequestLog() throws Exception
+    {
+        Path file = workDir.getEmptyPathDir().resolve("request.log");
+        RingBufferRequestLogWriter writer = new RingBufferRequestLogWriter(file.toString());
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.addConnector(connector);
+        server.setRequestLog(new CustomRequestLog(writer, "%m %U %s"));
+        server.setHandler(new DefaultHandler());
+        server.start();
+        try
+        {
+            connector.getResponse("GET /foo HTTP/1.0\r\n\r\n");
+            connector.getResponse("GET /b%C3%A4r HTTP/1.0\r\n\r\n");
+            // The request is logged after the response is sent.
+            long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (writer.getWritten() < 2 && System.nanoTime() < end)
+            {
+                Thread.sleep(10);
+            }
+        }
+        finally
+        {
+            server.stop();
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(List.of("GET /foo 404", "GET /b%C3%A4r 404"), lines);
+        assertEquals(2, writer.getWritten());
+    }
+
+    @Test
+    public void testConcurrentWrites() throws Exception
+    {
+        Path file = workDir.getEmptyPathDir().resolve("request.log");
+        RingBufferRequestLogWriter writer = new RingBufferRequestLogWriter(file.toString(), 64);
+        writer.start();
+
+        int threads = 4;
+        int entries = 2000;
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++)
+        {
+            int thread = t;
+            new Thread(() ->
+            {
+                StringBuilder builder = new StringBuilder();
+                for (int i = 0; i < entries; i++)
+                {
+                    builder.setLength(0);
+                    builder.append("thread ").append(thread).append(" entry ").append(i).append(' ').append(SYMBOLS);
+                    while (true)
+                    {
+                        long dropped = writer.getDropped();
+                        try
+                        {
+                            writer.write(builder);
+                        }
+                        catch (IOException x)
+                        {
+                            throw new RuntimeException(x);
+                        }
+                        // Retry dropped entries, so that every entry must be written.
+                        if (writer.getDropped() == dropped)
+                            break;
+                        Thread.yield();
+                    }
+                }
+                latch.countDown();
+            }).start();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        writer.stop();
+
+        Set<String> lines = new HashSet<>(Files.readAllLines(file, StandardCharsets.UTF_8));
+        for (int t = 0; t < threads; t++)
+        {
+            for (int i = 0; i < entries; i++)
+            {
+                String line = "thread " + t + " entry " + i + " " + SYMBOLS;
+                assertTrue(lines.contains(line), line);
+            }
+        }
+        assertThat(writer.getBatches(), greaterThan(0L));
+    }
+
+    @Test
+    public void testOverflow() throws Exception
+    {
+        Path file = workDir.getEmptyPathDir().resolve("request.log");
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        RingBufferRequestLogWriter writer = new RingBufferRequestLogWriter(file.toString(), 4)
+        {
+            @Override
+            protected void write(ByteBuffer[] buffers, int offset, int length) throws IOException
+            {
+                writing.countDown();
+                try
+                {
+                    resume.await();
+                }
+                catch (InterruptedException x)
+                {
+                    throw new IOException(x);
+                }
+                super.write(buffers, offset, length);
+            }
+        };
+        writer.start();
+
+        writer.write("first");
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 10; i++)
+        {
+            writer.write("entry " + i);
+        }
+        assertEquals(6, writer.getDropped());
+        resume.countDown();
+        writer.stop();
+
+        String log = Files.readString(file, StandardCharsets.UTF_8);
+        assertThat(log, containsString("first"));
+        assertThat(log, containsString("entry 3"));
+        assertEquals(5, writer.getWritten());
+    }
+}
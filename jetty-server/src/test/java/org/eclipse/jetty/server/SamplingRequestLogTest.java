@@ -0,0 +1,166 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SamplingRequestLogTest
+{
+    private final BlockingQueue<String> _entries = new BlockingArrayQueue<>();
+    private Server _server;
+    private LocalConnector _connector;
+
+    private SamplingRequestLog start(RequestLog requestLog) throws Exception
+    {
+        _server = new Server();
+        _connector = new LocalConnector(_server);
+        _server.addConnector(_connector);
+        SamplingRequestLog sampling = new SamplingRequestLog(requestLog);
+        _server.setRequestLog(sampling);
+        _server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+            {
+                baseRequest.setHandled(true);
+                if (target.startsWith("/error"))
+                    response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                if (target.startsWith("/slow"))
+                {
+                    try
+                    {
+                        Thread.sleep(200);
+                    }
+                    catch (InterruptedException x)
+                    {
+                        throw new IOException(x);
+                    }
+                }
+            }
+        });
+        _server.start();
+        return sampling;
+    }
+
+    @AfterEach
+    public void after() throws Exception
+    {
+        _server.stop();
+    }
+
+    private void request(String path) throws Exception
+    {
+        _connector.getResponse("GET " + path + " HTTP/1.0\r\n\r\n");
+    }
+
+    @Test
+    public void testSampleRate() throws Exception
+    {
+        SamplingRequestLog sampling = start((request, response) -> _entries.add(request.getRequestURI()));
+        sampling.setSampleRate(3);
+
+        for (int i = 0; i < 9; i++)
+        {
+            request("/ok/" + i);
+        }
+
+        assertEquals("/ok/0", _entries.poll(5, TimeUnit.SECONDS));
+        assertEquals("/ok/3", _entries.poll(5, TimeUnit.SECONDS));
+        assertEquals("/ok/6", _entries.poll(5, TimeUnit.SECONDS));
+        assertNull(_entries.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(3, sampling.getLogged());
+        assertEquals(6, sampling.getSkipped());
+    }
+
+    @Test
+    public void testErrorsAndSlowRequestsAlwaysLogged() throws Exception
+    {
+        SamplingRequestLog sampling = start((request, response) -> _entries.add(request.getRequestURI()));
+        sampling.setSampleRate(0);
+        sampling.setSlowThreshold(100);
+
+        request("/ok");
+        request("/error");
+        request("/slow");
+        request("/ok");
+
+        assertEquals("/error", _entries.poll(5, TimeUnit.SECONDS));
+        assertEquals("/slow", _entries.poll(5, TimeUnit.SECONDS));
+        assertNull(_entries.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMaxRate() throws Exception
+    {
+        SamplingRequestLog sampling = start((request, response) -> _entries.add(request.getRequestURI()));
+        sampling.setMaxRate(2);
+
+        // Errors are not limited.
+        for (int i = 0; i < 5; i++)
+        {
+            request("/ok/" + i);
+            request("/error/" + i);
+        }
+
+        int ok = 0;
+        int errors = 0;
+        String entry;
+        while ((entry = _entries.poll(100, TimeUnit.MILLISECONDS)) != null)
+        {
+            if (entry.startsWith("/error"))
+                errors++;
+            else
+                ok++;
+        }
+        assertEquals(5, errors);
+        // The requests may straddle two one second windows.
+        assertTrue(ok >= 2 && ok <= 4, String.valueOf(ok));
+    }
+
+    @Test
+    public void testJsonRequestLog() throws Exception
+    {
+        RequestLog.Writer writer = _entries::add;
+        start(new JsonRequestLog(writer, JsonRequestLog.Field.METHOD, JsonRequestLog.Field.URI, JsonRequestLog.Field.STATUS,
+            JsonRequestLog.Field.USER, JsonRequestLog.Field.USER_AGENT));
+
+        _connector.getResponse("GET /json?q=%22 HTTP/1.0\r\nUser-Agent: a \"quoted\" \\ agent\r\n\r\n");
+        String entry = _entries.poll(5, TimeUnit.SECONDS);
+        assertEquals("{\"method\":\"GET\",\"uri\":\"/json?q=%22\",\"status\":200,\"userAgent\":\"a \\\"quoted\\\" \\\\ agent\"}", entry);
+
+        _connector.getResponse("GET /error HTTP/1.0\r\n\r\n");
+        entry = _entries.poll(5, TimeUnit.SECONDS);
+        assertThat(entry, containsString("\"status\":503}"));
+    }
+}
@@ -0,0 +1,287 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.handler;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.tools.HttpTester;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AdmissionControlHandlerTest
+{
+    private final List<String> _handled = new CopyOnWriteArrayList<>();
+    private final CountDownLatch _blocking = new CountDownLatch(1);
+    private final CountDownLatch _unblock = new CountDownLatch(1);
+    private Server _server;
+    private LocalConnector _connector;
+    private AdmissionControlHandler _admission;
+
+    @BeforeEach
+    public void before() throws Exception
+    {
+        _server = new Server();
+        _connector = new LocalConnector(_server);
+        _server.addConnector(_connector);
+        _admission = new AdmissionControlHandler("Tenant");
+        _admission.setPriorityHeader("Priority");
+        _admission.setMinLimit(1);
+        _admission.setMaxLimit(1);
+        _admission.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+            {
+                baseRequest.setHandled(true);
+                if (baseRequest.getDispatcherType() == DispatcherType.ERROR)
+                {
+                    _handled.add("error");
+                    return;
+                }
+                if ("/async".equals(target) && baseRequest.getDispatcherType() == DispatcherType.REQUEST)
+                {
+                    baseRequest.startAsync().dispatch();
+                    return;
+                }
+                if ("/error".equals(target))
+                {
+                    response.sendError(HttpStatus.INTERNAL_SERVER_ERROR_500);
+                    return;
+                }
+                if ("/block".equals(target))
+                {
+                    _blocking.countDown();
+                    try
+                    {
+                        _unblock.await(10, TimeUnit.SECONDS);
+                    }
+                    catch (InterruptedException x)
+                    {
+                        throw new IOException(x);
+                    }
+                }
+                else if (target.startsWith("/sleep/"))
+                {
+                    try
+                    {
+                        Thread.sleep(Long.parseLong(target.substring(7)));
+                    }
+                    catch (InterruptedException x)
+                    {
+                        throw new IOException(x);
+                    }
+                }
+                _handled.add(request.getHeader("Tenant"));
+                response.setStatus(HttpStatus.OK_200);
+            }
+        });
+        _server.setHandler(_admission);
+    }
+
+    @AfterEach
+    public void after() throws Exception
+    {
+        _unblock.countDown();
+        _server.stop();
+    }
+
+    private LocalConnector.LocalEndPoint send(String target, String tenant, int priority) throws Exception
+    {
+        return _connector.executeRequest("GET " + target + " HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Tenant: " + tenant + "\r\n" +
+            "Priority: " + priority + "\r\n" +
+            "Connection: close\r\n" +
+            "\r\n");
+    }
+
+    private LocalConnector.LocalEndPoint queue(String tenant, int priority) throws Exception
+    {
+        int queued = _admission.getQueued();
+        LocalConnector.LocalEndPoint endPoint = send("/", tenant, priority);
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (_admission.getQueued() != queued + 1 && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertThat(_admission.getQueued(), is(queued + 1));
+        return endPoint;
+    }
+
+    private static int status(LocalConnector.LocalEndPoint endPoint) throws Exception
+    {
+        return HttpTester.parseResponse(endPoint.getResponse(false, 5, TimeUnit.SECONDS)).getStatus();
+    }
+
+    @Test
+    public void testWeightedFairQueuing() throws Exception
+    {
+        _admission.setTenantWeight("heavy", 2);
+        _server.start();
+
+        LocalConnector.LocalEndPoint blocked = send("/block", "block", 0);
+        assertTrue(_blocking.await(5, TimeUnit.SECONDS));
+
+        // A tenant with many queued requests does not starve the others.
+        List<LocalConnector.LocalEndPoint> endPoints = List.of(
+            queue("busy", 0), queue("busy", 0), queue("busy", 0),
+            queue("quiet", 0),
+            queue("heavy", 0), queue("heavy", 0));
+
+        _unblock.countDown();
+        assertEquals(200, status(blocked));
+        for (LocalConnector.LocalEndPoint endPoint : endPoints)
+        {
+            assertEquals(200, status(endPoint));
+        }
+        assertThat(_handled, contains("block", "heavy", "busy", "quiet", "heavy", "busy", "busy"));
+        assertEquals(7, _admission.getAdmitted());
+        assertEquals(0, _admission.getInFlight());
+    }
+
+    @Test
+    public void testPriority() throws Exception
+    {
+        _admission.setMaxQueued(2);
+        _server.start();
+
+        LocalConnector.LocalEndPoint blocked = send("/block", "block", 0);
+        assertTrue(_blocking.await(5, TimeUnit.SECONDS));
+
+        LocalConnector.LocalEndPoint low1 = queue("low1", 1);
+        LocalConnector.LocalEndPoint low2 = queue("low2", 1);
+
+        // The queue is full, so the last request of lower priority is dropped.
+        LocalConnector.LocalEndPoint high = send("/", "high", 5);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE_503, status(low2));
+
+        // The queue is full with requests of the same or higher priority.
+        LocalConnector.LocalEndPoint rejected = send("/", "low3", 1);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE_503, status(rejected));
+        assertEquals(2, _admission.getRejected());
+
+        _unblock.countDown();
+        assertEquals(200, status(blocked));
+        assertEquals(200, status(high));
+        assertEquals(200, status(low1));
+        assertThat(_handled, contains("block", "high", "low1"));
+    }
+
+    @Test
+    public void testExpired() throws Exception
+    {
+        _admission.setMaxQueueTime(100);
+        _server.start();
+
+        LocalConnector.LocalEndPoint blocked = send("/block", "block", 0);
+        assertTrue(_blocking.await(5, TimeUnit.SECONDS));
+
+        LocalConnector.LocalEndPoint expired = queue("expired", 0);
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE_503, status(expired));
+        assertEquals(1, _admission.getExpired());
+        assertEquals(0, _admission.getQueued());
+
+        _unblock.countDown();
+        assertEquals(200, status(blocked));
+    }
+
+    @Test
+    public void testAsyncDispatchAtLimit() throws Exception
+    {
+        _admission.setMaxQueueTime(5000);
+        _server.start();
+
+        // The async dispatch of an admitted request does not take another permit.
+        assertEquals(200, status(send("/async", "async", 0)));
+        assertThat(_handled, contains("async"));
+        assertEquals(1, _admission.getAdmitted());
+        assertEquals(0, _admission.getInFlight());
+        assertEquals(0, _admission.getExpired());
+
+        assertEquals(200, status(send("/", "next", 0)));
+        assertEquals(0, _admission.getInFlight());
+    }
+
+    @Test
+    public void testErrorDispatchAtLimit() throws Exception
+    {
+        _admission.setMaxQueueTime(5000);
+        // Dispatch the error to the handlers, as an error page would.
+        _server.setErrorHandler(new ErrorHandler()
+        {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException
+            {
+                getServer().getHandler().handle(target, baseRequest, request, response);
+            }
+        });
+        _server.start();
+
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR_500, status(send("/error", "error", 0)));
+        assertThat(_handled, contains("error"));
+        assertEquals(1, _admission.getAdmitted());
+        assertEquals(0, _admission.getInFlight());
+        assertEquals(0, _admission.getExpired());
+
+        assertEquals(200, status(send("/", "next", 0)));
+        assertEquals(0, _admission.getInFlight());
+    }
+
+    @Test
+    public void testLimitDecreasesWithLatency() throws Exception
+    {
+        _admission.setMinLimit(1);
+        _admission.setMaxLimit(100);
+        _admission.setInitialLimit(20);
+        _admission.setSampleWindow(5);
+        _server.start();
+
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals(200, status(send("/", "fast", 0)));
+        }
+        assertEquals(20, _admission.getLimit());
+
+        for (int i = 0; i < 5; i++)
+        {
+            assertEquals(200, status(send("/sleep/50", "slow", 0)));
+        }
+        assertThat(_admission.getLimit(), lessThan(20));
+    }
+}
@@ -0,0 +1,108 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.handler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpStatus;
+import org.eclipse.jetty.http.tools.HttpTester;
+import org.eclipse.jetty.io.ConnectionStatistics;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class OpenMetricsHandlerTest
+{
+    private Server server;
+    private LocalConnector connector;
+
+    @BeforeEach
+    public void before() throws Exception
+    {
+        QueuedThreadPool threadPool = new QueuedThreadPool();
+        threadPool.setName("server");
+        server = new Server(threadPool);
+        connector = new LocalConnector(server);
+        connector.addBean(new ConnectionStatistics());
+        server.addConnector(connector);
+
+        MetricsRegistry registry = new MetricsRegistry();
+        server.addEventListener(registry);
+        server.addBean(registry);
+
+        StatisticsHandler statistics = new StatisticsHandler();
+        statistics.setHandler(new DefaultHandler());
+        HandlerList handlers = new HandlerList();
+        handlers.setHandlers(new Handler[]{new OpenMetricsHandler(registry), statistics});
+        server.setHandler(handlers);
+        server.start();
+    }
+
+    @AfterEach
+    public void after() throws Exception
+    {
+        server.stop();
+    }
+
+    @Test
+    public void testScrape() throws Exception
+    {
+        HttpTester.Response response = HttpTester.parseResponse(connector.getResponse("GET /other HTTP/1.0\r\n\r\n"));
+        assertEquals(HttpStatus.NOT_FOUND_404, response.getStatus());
+
+        response = HttpTester.parseResponse(connector.getResponse("GET /metrics HTTP/1.0\r\n\r\n"));
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+        assertEquals(OpenMetricsHandler.CONTENT_TYPE, response.get(HttpHeader.CONTENT_TYPE));
+        String content = response.getContent();
+        assertThat(content, startsWith("# TYPE "));
+        assertThat(content, endsWith("# EOF\n"));
+        assertThat(content, containsString("jetty_thread_pool_max_threads{pool=\"server\"} 200\n"));
+        assertThat(content, containsString("jetty_connections_opened_total "));
+        assertThat(content, containsString("jetty_buffer_pool_memory_bytes{type=\"direct\"} "));
+        assertThat(content, containsString("jetty_requests_total 1\n"));
+        assertThat(content, containsString("jetty_responses_total{code=\"4xx\"} 1\n"));
+        assertThat(content, containsString("# TYPE jetty_request_time_seconds summary\n"));
+        assertThat(content, containsString("jetty_request_time_seconds{quantile=\"0.99\"} "));
+        assertThat(content, containsString("jetty_request_time_seconds_count 1\n"));
+        assertEquals(String.valueOf(response.getContentBytes().length), response.get(HttpHeader.CONTENT_LENGTH));
+    }
+
+    @Test
+    public void testMethodNotAllowed() throws Exception
+    {
+        HttpTester.Response response = HttpTester.parseResponse(connector.getResponse("POST /metrics HTTP/1.0\r\n\r\n"));
+        assertEquals(HttpStatus.METHOD_NOT_ALLOWED_405, response.getStatus());
+        assertEquals("GET, HEAD", response.get(HttpHeader.ALLOW));
+
+        response = HttpTester.parseResponse(connector.getResponse("HEAD /metrics HTTP/1.0\r\n\r\n", true, 5, TimeUnit.SECONDS));
+        assertEquals(HttpStatus.OK_200, response.getStatus());
+    }
+}
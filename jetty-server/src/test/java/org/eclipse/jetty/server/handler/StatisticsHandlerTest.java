@@ -41,7 +41,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -650,6 +652,56 @@ public class StatisticsHandlerTest
      * handle() is fully executed before asserting its values in the tests, to avoid race conditions with the
      * tests' code where the test executes but the statistics handler has not finished yet.
      */
+    @Test
+    public void testLatencyPercentiles() throws Exception
+    {
+        ContextHandler context = new ContextHandler("/ctx");
+        context.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String path, Request request, HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException
+            {
+                request.setHandled(true);
+                if ("/slow".equals(path))
+                {
+                    try
+                    {
+                        Thread.sleep(250);
+                    }
+                    catch (InterruptedException x)
+                    {
+                        throw new IOException(x);
+                    }
+                    httpResponse.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
+                }
+            }
+        });
+        _statsHandler.setHandler(context);
+        _server.start();
+
+        for (int i = 0; i < 10; i++)
+        {
+            _latchHandler.reset();
+            _connector.getResponse("GET /ctx/" + (i == 9 ? "slow" : "fast") + " HTTP/1.0\r\n\r\n");
+            assertTrue(_latchHandler.await());
+        }
+
+        assertThat(_statsHandler.getRequestTimeP50(), lessThan(250L));
+        assertThat(_statsHandler.getRequestTimeP90(), lessThan(250L));
+        assertThat(_statsHandler.getRequestTimeP99(), greaterThanOrEqualTo(250L));
+        assertThat(_statsHandler.getRequestTimeP999(), greaterThanOrEqualTo(250L));
+        assertThat(_statsHandler.getDispatchedTimeP99(), greaterThanOrEqualTo(250L));
+        assertThat(_statsHandler.getResponsesTimePercentile(2, 99), lessThan(250L));
+        assertThat(_statsHandler.getResponsesTimePercentile(5, 50), greaterThanOrEqualTo(250L));
+        assertThat(_statsHandler.getLatencyContextPaths(), contains("/ctx"));
+        assertThat(_statsHandler.getContextRequestTimePercentile("/ctx", 99), greaterThanOrEqualTo(250L));
+        assertEquals(0, _statsHandler.getContextRequestTimePercentile("/other", 99));
+
+        _statsHandler.statsReset();
+        assertEquals(0, _statsHandler.getRequestTimeP99());
+        assertEquals(0, _statsHandler.getResponsesTimePercentile(5, 50));
+    }
+
     private static class LatchHandler extends HandlerWrapper
     {
         private volatile CountDownLatch _latch = new CountDownLatch(1);
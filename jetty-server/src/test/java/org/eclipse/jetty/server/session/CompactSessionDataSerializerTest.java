@@ -0,0 +1,289 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CompactSessionDataSerializerTest
+{
+    private static SessionData newSessionData()
+    {
+        return new SessionData("1234", "/test", "0.0.0.0", 100, 200, 199, -1);
+    }
+
+    private static SessionData roundTrip(SessionDataSerializer writer, SessionDataSerializer reader, SessionData data) throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.serializeAttributes(data, out);
+        SessionData result = newSessionData();
+        reader.deserializeAttributes(result, new ByteArrayInputStream(out.toByteArray()));
+        return result;
+    }
+
+    @Test
+    public void testCommonTypes() throws Exception
+    {
+        SessionData data = newSessionData();
+        data.setAttribute("string", "héllo");
+        data.setAttribute("int", 42);
+        data.setAttribute("long", Long.MAX_VALUE);
+        data.setAttribute("boolean", true);
+        data.setAttribute("double", 1.5D);
+        data.setAttribute("float", 2.5F);
+        data.setAttribute("short", (short)3);
+        data.setAttribute("byte", (byte)4);
+        data.setAttribute("char", 'x');
+        data.setAttribute("bytes", new byte[]{1, 2, 3});
+        List<Object> list = new ArrayList<>(Arrays.asList("a", 1, null));
+        data.setAttribute("list", list);
+        Map<Object, Object> map = new LinkedHashMap<>();
+        map.put("b", 2);
+        map.put("a", new ArrayList<>(Arrays.asList(1L, 2L)));
+        data.setAttribute("map", map);
+
+        CompactSessionDataSerializer serializer = new CompactSessionDataSerializer();
+        SessionData result = roundTrip(serializer, serializer, data);
+
+        assertEquals(data.getKeys(), result.getKeys());
+        for (String name : data.getKeys())
+        {
+            if ("bytes".equals(name))
+                assertArrayEquals((byte[])data.getAttribute(name), (byte[])result.getAttribute(name));
+            else
+                assertEquals(data.getAttribute(name), result.getAttribute(name));
+        }
+        assertThat(result.getAttribute("map"), instanceOf(LinkedHashMap.class));
+        assertEquals(Arrays.asList("b", "a"), new ArrayList<>(((Map<?, ?>)result.getAttribute("map")).keySet()));
+    }
+
+    @Test
+    public void testFallbackToJavaSerialization() throws Exception
+    {
+        SessionData data = newSessionData();
+        data.setAttribute("date", new Date(1000));
+        data.setAttribute("custom", new Custom("x"));
+        //not an ArrayList, so must keep its class
+        data.setAttribute("linked", new LinkedList<>(Arrays.asList(1, 2)));
+        //contains a value without a compact form
+        data.setAttribute("mixed", new HashMap<>(Map.of("k", new Custom("y"))));
+
+        CompactSessionDataSerializer serializer = new CompactSessionDataSerializer();
+        SessionData result = roundTrip(serializer, serializer, data);
+
+        assertEquals(new Date(1000), result.getAttribute("date"));
+        assertEquals(new Custom("x"), result.getAttribute("custom"));
+        assertThat(result.getAttribute("linked"), instanceOf(LinkedList.class));
+        assertEquals(data.getAttribute("linked"), result.getAttribute("linked"));
+        assertEquals(data.getAttribute("mixed"), result.getAttribute("mixed"));
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception
+    {
+        SessionData data = newSessionData();
+        data.setAttribute("user", "someone");
+        data.setAttribute("count", 7);
+        data.setAttribute("ids", new ArrayList<>(Arrays.asList(1L, 2L, 3L)));
+
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        new CompactSessionDataSerializer().serializeAttributes(data, compact);
+        ByteArrayOutputStream java = new ByteArrayOutputStream();
+        new JavaSessionDataSerializer().serializeAttributes(data, java);
+
+        assertThat(compact.size(), lessThan(java.size()));
+    }
+
+    @Test
+    public void testCompression() throws Exception
+    {
+        SessionData data = newSessionData();
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 1000; i++)
+        {
+            builder.append("cart item ").append(i % 10).append(';');
+        }
+        data.setAttribute("cart", builder.toString());
+        data.setAttribute("count", 1);
+
+        CompactSessionDataSerializer plain = new CompactSessionDataSerializer();
+        CompactSessionDataSerializer compressing = new CompactSessionDataSerializer();
+        compressing.setCompressionThreshold(1024);
+
+        ByteArrayOutputStream plainBytes = new ByteArrayOutputStream();
+        plain.serializeAttributes(data, plainBytes);
+        ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
+        compressing.serializeAttributes(data, compressedBytes);
+        assertThat(compressedBytes.size(), lessThan(plainBytes.size() / 4));
+
+        //any instance can read compressed attributes
+        SessionData result = roundTrip(compressing, plain, data);
+        assertEquals(data.getAttribute("cart"), result.getAttribute("cart"));
+        assertEquals(1, result.getAttribute("count"));
+    }
+
+    @Test
+    public void testReadsJavaSerializedAttributes() throws Exception
+    {
+        SessionData data = newSessionData();
+        data.setAttribute("a", "b");
+        data.setAttribute("custom", new Custom("z"));
+
+        SessionData result = roundTrip(new JavaSessionDataSerializer(), new CompactSessionDataSerializer(), data);
+        assertEquals("b", result.getAttribute("a"));
+        assertEquals(new Custom("z"), result.getAttribute("custom"));
+    }
+
+    @Test
+    public void testTruncated() throws Exception
+    {
+        SessionData data = newSessionData();
+        data.setAttribute("a", "bcdefgh");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompactSessionDataSerializer serializer = new CompactSessionDataSerializer();
+        serializer.serializeAttributes(data, out);
+        byte[] bytes = Arrays.copyOf(out.toByteArray(), out.size() - 3);
+
+        InputStream in = new ByteArrayInputStream(bytes);
+        assertThrows(IOException.class, () -> serializer.deserializeAttributes(newSessionData(), in));
+    }
+
+    @Test
+    public void testJavaSerializedValuesShareIdentity() throws Exception
+    {
+        SessionData data = newSessionData();
+        Custom shared = new Custom("shared");
+        data.setAttribute("a", shared);
+        data.setAttribute("b", new LinkedList<>(Arrays.asList(shared)));
+        data.setAttribute("c", "compact");
+
+        CompactSessionDataSerializer serializer = new CompactSessionDataSerializer();
+        SessionData result = roundTrip(serializer, serializer, data);
+
+        assertEquals("compact", result.getAttribute("c"));
+        assertSame(result.getAttribute("a"), ((List<?>)result.getAttribute("b")).get(0));
+    }
+
+    @Test
+    public void testInvalidCompressedLength() throws Exception
+    {
+        byte[] deflated = {0x78, (byte)0x9C, 0x03, 0x00, 0x00, 0x00, 0x00, 0x01};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeShort(0x4A53);
+        header.writeByte(2);
+        header.writeByte(1); //deflated
+        header.writeInt(Integer.MAX_VALUE - 8);
+        header.writeInt(deflated.length);
+        header.write(deflated);
+        header.flush();
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertThrows(StreamCorruptedException.class, () -> new CompactSessionDataSerializer().deserializeAttributes(newSessionData(), in));
+    }
+
+    @Test
+    public void testInvalidLength() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeShort(0x4A53);
+        header.writeByte(2);
+        header.writeByte(0);
+        header.writeInt(Integer.MAX_VALUE - 8);
+        header.writeInt(0);
+        header.flush();
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertThrows(EOFException.class, () -> new CompactSessionDataSerializer().deserializeAttributes(newSessionData(), in));
+    }
+
+    @Test
+    public void testInvalidSize() throws Exception
+    {
+        ByteArrayOutputStream compact = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(compact);
+        body.writeInt(1);
+        body.writeUTF("list");
+        body.writeByte(11); //ArrayList
+        body.writeInt(Integer.MAX_VALUE - 8);
+        body.flush();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeShort(0x4A53);
+        header.writeByte(2);
+        header.writeByte(0);
+        header.writeInt(4 + compact.size());
+        header.writeInt(compact.size());
+        compact.writeTo(header);
+        header.flush();
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+        assertThrows(StreamCorruptedException.class, () -> new CompactSessionDataSerializer().deserializeAttributes(newSessionData(), in));
+    }
+
+    public static class Custom implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        public Custom(String value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof Custom && ((Custom)obj).value.equals(value);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return value.hashCode();
+        }
+    }
+}
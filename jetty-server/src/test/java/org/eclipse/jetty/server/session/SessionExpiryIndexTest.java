@@ -0,0 +1,103 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SessionExpiryIndexTest
+{
+    @Test
+    public void testGetExpired()
+    {
+        SessionExpiryIndex index = new SessionExpiryIndex(100);
+        index.put("a", 1010);
+        index.put("b", 1050);
+        index.put("c", 1150);
+        index.put("d", 2000);
+        index.put("never", 0);
+
+        assertEquals(4, index.size());
+        assertEquals(3, index.getBuckets());
+        assertThat(index.getExpired(1010), empty());
+        assertThat(index.getExpired(1011), containsInAnyOrder("a"));
+        assertThat(index.getExpired(1100), containsInAnyOrder("a", "b"));
+        assertThat(index.getExpired(1151), containsInAnyOrder("a", "b", "c"));
+        assertThat(index.getExpired(Long.MAX_VALUE), containsInAnyOrder("a", "b", "c", "d"));
+
+        //getExpired does not remove
+        assertEquals(4, index.size());
+    }
+
+    @Test
+    public void testMoveAndRemove()
+    {
+        SessionExpiryIndex index = new SessionExpiryIndex(100);
+        index.put("a", 1010);
+        index.put("b", 1020);
+
+        //move to a later bucket
+        index.put("a", 5000);
+        assertEquals(5000, index.getExpiry("a"));
+        assertThat(index.getExpired(2000), containsInAnyOrder("b"));
+        assertEquals(2, index.getBuckets());
+
+        //moving within a bucket keeps the exact expiry
+        index.put("b", 1090);
+        assertThat(index.getExpired(1050), empty());
+
+        //never expires removes from the index
+        index.put("b", -1);
+        assertEquals(0, index.getExpiry("b"));
+        assertEquals(1, index.getBuckets());
+
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertEquals(0, index.size());
+        assertEquals(0, index.getBuckets());
+    }
+
+    @Test
+    public void testRemoveExpired()
+    {
+        SessionExpiryIndex index = new SessionExpiryIndex(1000);
+        for (int i = 0; i < 100; i++)
+        {
+            index.put("s" + i, 10_000 + i * 100);
+        }
+
+        assertEquals(50, index.removeExpired(15_000).size());
+        assertEquals(50, index.size());
+        assertThat(index.getExpired(15_000), empty());
+
+        Map<String, Long> remaining = new HashMap<>();
+        index.forEach(remaining::put);
+        assertEquals(50, remaining.size());
+        assertEquals(15_000L, remaining.get("s50"));
+    }
+}
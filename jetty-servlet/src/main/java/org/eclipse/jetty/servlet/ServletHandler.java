@@ -124,6 +124,8 @@ public class ServletHandler extends ScopedHandler
     @SuppressWarnings("unchecked")
     protected final Queue<String>[] _chainLRU = new Queue[FilterMapping.ALL];
 
+    private volatile Map<PathSpec, MappedChains> _mappedChains;
+
     /**
      * Constructor.
      */
@@ -182,6 +184,8 @@ public class ServletHandler extends ScopedHandler
             _chainLRU[FilterMapping.INCLUDE] = new ConcurrentLinkedQueue<>();
             _chainLRU[FilterMapping.ERROR] = new ConcurrentLinkedQueue<>();
             _chainLRU[FilterMapping.ASYNC] = new ConcurrentLinkedQueue<>();
+
+            updateMappedChains();
         }
 
         if (_contextHandler == null)
@@ -335,6 +339,7 @@ public class ServletHandler extends ScopedHandler
         _filterPathMappings = null;
         _filterNameMappings = null;
         _servletPathMap = null;
+        _mappedChains = null;
         _initialized = false;
     }
 
@@ -575,6 +580,16 @@ public class ServletHandler extends ScopedHandler
 
         if (_filterChainsCached && _chainCache != null)
         {
+            // Chains precompiled for the servlet path spec, which are the same for every path it matches
+            Map<PathSpec, MappedChains> mappedChains = _mappedChains;
+            PathSpec pathSpec = baseRequest.getPathSpec();
+            if (mappedChains != null && pathInContext != null && pathSpec != null && dispatch != FilterMapping.INCLUDE)
+            {
+                MappedChains mapped = mappedChains.get(pathSpec);
+                if (mapped != null && mapped._servletHolder == servletHolder && (mapped._resolved & dispatch) != 0)
+                    return mapped._chains[dispatch];
+            }
+
             FilterChain chain = _chainCache[dispatch].get(key);
             if (chain != null)
                 return chain;
@@ -594,25 +609,7 @@ public class ServletHandler extends ScopedHandler
         }
 
         // Servlet name filters
-        if (servletHolder != null && _filterNameMappings != null && !_filterNameMappings.isEmpty())
-        {
-            Object o = _filterNameMappings.get(servletHolder.getName());
-
-            for (int i = 0; i < LazyList.size(o); i++)
-            {
-                FilterMapping mapping = LazyList.get(o, i);
-                if (mapping.appliesTo(dispatch))
-                    filters.add(mapping.getFilterHolder());
-            }
-
-            o = _filterNameMappings.get("*");
-            for (int i = 0; i < LazyList.size(o); i++)
-            {
-                FilterMapping mapping = LazyList.get(o, i);
-                if (mapping.appliesTo(dispatch))
-                    filters.add(mapping.getFilterHolder());
-            }
-        }
+        addServletNameFilters(filters, servletHolder, dispatch);
 
         if (filters.isEmpty())
             return null;
@@ -650,8 +647,171 @@ public class ServletHandler extends ScopedHandler
         return chain;
     }
 
+    private void addServletNameFilters(List<FilterHolder> filters, ServletHolder servletHolder, int dispatch)
+    {
+        if (servletHolder != null && _filterNameMappings != null && !_filterNameMappings.isEmpty())
+        {
+            Object o = _filterNameMappings.get(servletHolder.getName());
+
+            for (int i = 0; i < LazyList.size(o); i++)
+            {
+                FilterMapping mapping = LazyList.get(o, i);
+                if (mapping.appliesTo(dispatch))
+                    filters.add(mapping.getFilterHolder());
+            }
+
+            o = _filterNameMappings.get("*");
+            for (int i = 0; i < LazyList.size(o); i++)
+            {
+                FilterMapping mapping = LazyList.get(o, i);
+                if (mapping.appliesTo(dispatch))
+                    filters.add(mapping.getFilterHolder());
+            }
+        }
+    }
+
+    /**
+     * Precompile the filter chain of each servlet path spec and dispatch type, where
+     * every filter path spec either matches all or none of the paths that the servlet
+     * path spec matches. Requests to such a servlet mapping get their chain without
+     * a lookup by path, so the cache by path is only used for the remaining mappings.
+     */
+    private synchronized void updateMappedChains()
+    {
+        if (!_filterChainsCached || _servletPathMap == null || _chainCache[FilterMapping.REQUEST] == null)
+        {
+            _mappedChains = null;
+            return;
+        }
+
+        int[] dispatches = {FilterMapping.REQUEST, FilterMapping.FORWARD, FilterMapping.ERROR, FilterMapping.ASYNC};
+        Map<PathSpec, MappedChains> mappedChains = new HashMap<>();
+        for (MappedResource<ServletHolder> mapping : _servletPathMap)
+        {
+            PathSpec pathSpec = mapping.getPathSpec();
+            ServletHolder servletHolder = mapping.getResource();
+            MappedChains mapped = new MappedChains(servletHolder);
+            for (int dispatch : dispatches)
+            {
+                List<FilterHolder> filters = new ArrayList<>();
+                boolean resolved = true;
+                if (_filterPathMappings != null)
+                {
+                    for (FilterMapping filterPathMapping : _filterPathMappings)
+                    {
+                        if (!filterPathMapping.appliesTo(dispatch))
+                            continue;
+                        Boolean applies = appliesToAll(filterPathMapping, pathSpec);
+                        if (applies == null)
+                        {
+                            resolved = false;
+                            break;
+                        }
+                        if (applies)
+                            filters.add(filterPathMapping.getFilterHolder());
+                    }
+                }
+                if (!resolved)
+                    continue;
+
+                addServletNameFilters(filters, servletHolder, dispatch);
+                mapped._chains[dispatch] = filters.isEmpty() ? null : newCachedChain(filters, servletHolder);
+                mapped._resolved |= dispatch;
+            }
+            if (mapped._resolved != 0)
+                mappedChains.put(pathSpec, mapped);
+        }
+
+        if (LOG.isDebugEnabled())
+            LOG.debug("Precompiled filter chains for {} of {} servlet mappings", mappedChains.size(), _servletPathMap.size());
+        _mappedChains = mappedChains;
+    }
+
+    /**
+     * @param filterMapping the filter mapping
+     * @param servletPathSpec the servlet path spec
+     * @return true if the filter mapping matches every path matched by the servlet path spec,
+     * false if it matches none of them, or null if it matches only some of them
+     */
+    private static Boolean appliesToAll(FilterMapping filterMapping, PathSpec servletPathSpec)
+    {
+        Boolean result = Boolean.FALSE;
+        for (String filterPathSpec : filterMapping.getPathSpecs())
+        {
+            if (filterPathSpec == null)
+                continue;
+            Boolean applies = appliesToAll(filterPathSpec, servletPathSpec);
+            if (applies == Boolean.TRUE)
+                return Boolean.TRUE;
+            if (applies == null)
+                result = null;
+        }
+        return result;
+    }
+
+    private static Boolean appliesToAll(String filterPathSpec, PathSpec servletPathSpec)
+    {
+        // A filter mapped to "/*" matches every path
+        if ("/*".equals(filterPathSpec))
+            return Boolean.TRUE;
+
+        boolean prefix = filterPathSpec.startsWith("/") && filterPathSpec.endsWith("/*");
+        switch (servletPathSpec.getGroup())
+        {
+            case EXACT:
+                return ServletPathSpec.match(filterPathSpec, servletPathSpec.getDeclaration(), true);
+
+            case ROOT:
+                return ServletPathSpec.match(filterPathSpec, "/", true);
+
+            case PREFIX_GLOB:
+            {
+                // The servlet matches its prefix and every path below it
+                String servletPrefix = servletPathSpec.getPrefix();
+                if (prefix)
+                {
+                    String filterPrefix = filterPathSpec.substring(0, filterPathSpec.length() - 2);
+                    if (servletPrefix.equals(filterPrefix) || servletPrefix.startsWith(filterPrefix + "/"))
+                        return Boolean.TRUE;
+                    if (filterPrefix.startsWith(servletPrefix + "/"))
+                        return null;
+                    return Boolean.FALSE;
+                }
+                if (filterPathSpec.startsWith("/"))
+                {
+                    if (filterPathSpec.equals(servletPrefix) || filterPathSpec.startsWith(servletPrefix + "/"))
+                        return null;
+                    return Boolean.FALSE;
+                }
+                // The root mapping matches a request for "/", which a "/*" servlet receives
+                return filterPathSpec.startsWith("*") || (filterPathSpec.isEmpty() && servletPrefix.isEmpty()) ? null : Boolean.FALSE;
+            }
+
+            case SUFFIX_GLOB:
+            {
+                // The servlet matches paths ending with its suffix
+                if (filterPathSpec.startsWith("*"))
+                {
+                    String servletSuffix = servletPathSpec.getDeclaration().substring(1);
+                    String filterSuffix = filterPathSpec.substring(1);
+                    if (servletSuffix.endsWith(filterSuffix))
+                        return Boolean.TRUE;
+                    if (filterSuffix.endsWith(servletSuffix))
+                        return null;
+                    return Boolean.FALSE;
+                }
+                return filterPathSpec.startsWith("/") ? null : Boolean.FALSE;
+            }
+
+            default:
+                // The default servlet also receives the request for "/", matched by the root mapping
+                return filterPathSpec.isEmpty() || filterPathSpec.startsWith("/") || filterPathSpec.startsWith("*") ? null : Boolean.FALSE;
+        }
+    }
+
     protected void invalidateChainsCache()
     {
+        updateMappedChains();
         if (_chainLRU[FilterMapping.REQUEST] != null)
         {
             _chainLRU[FilterMapping.REQUEST].clear();
@@ -1406,6 +1566,7 @@ public class ServletHandler extends ScopedHandler
                     _chainCache[i].clear();
             }
         }
+        updateMappedChains();
 
         if (LOG.isDebugEnabled())
         {
@@ -1524,6 +1685,21 @@ public class ServletHandler extends ScopedHandler
         invalidateChainsCache();
     }
 
+    /**
+     * The filter chains of a servlet path spec, by dispatch type.
+     */
+    private static class MappedChains
+    {
+        private final ServletHolder _servletHolder;
+        private final FilterChain[] _chains = new FilterChain[FilterMapping.ALL];
+        private int _resolved;
+
+        private MappedChains(ServletHolder servletHolder)
+        {
+            _servletHolder = servletHolder;
+        }
+    }
+
     protected class CachedChain implements FilterChain
     {
         FilterHolder _filterHolder;
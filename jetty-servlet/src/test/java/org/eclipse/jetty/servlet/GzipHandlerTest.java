@@ -28,8 +28,11 @@ import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 import javax.servlet.AsyncContext;
 import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
@@ -44,10 +47,13 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jetty.http.DeflateCompressionCodec;
 import org.eclipse.jetty.http.tools.HttpTester;
 import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.LocalConnector;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.gzip.AdaptiveCompressionLevelPolicy;
+import org.eclipse.jetty.server.handler.gzip.GzipContentCache;
 import org.eclipse.jetty.server.handler.gzip.GzipHandler;
 import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.IO;
@@ -60,6 +66,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalToIgnoringCase;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
@@ -581,6 +588,154 @@ public class GzipHandlerTest
         assertThat(response.get("ETag"), is(__contentETagGzip));
     }
 
+    @Test
+    public void testContentCache() throws Exception
+    {
+        GzipContentCache cache = new GzipContentCache();
+        _server.getChildHandlerByClass(GzipHandler.class).setContentCache(cache);
+
+        HttpTester.Request request = HttpTester.newRequest();
+        request.setMethod("GET");
+        request.setURI("/ctx/content");
+        request.setVersion("HTTP/1.0");
+        request.setHeader("Host", "tester");
+        request.setHeader("accept-encoding", "gzip");
+
+        HttpTester.Response compressed = HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getEntries());
+
+        HttpTester.Response cached = HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertEquals(1, cache.getHits());
+        assertThat(cached.getStatus(), is(200));
+        assertThat(cached.get("Content-Encoding"), equalToIgnoringCase("gzip"));
+        assertThat(cached.get("ETag"), is(__contentETagGzip));
+        assertThat(cached.getCSV("Vary", false), contains("Accept-Encoding"));
+        assertEquals(String.valueOf(compressed.getContentBytes().length), cached.get("Content-Length"));
+        assertEquals(__content, IO.toString(new GZIPInputStream(new ByteArrayInputStream(cached.getContentBytes())), StandardCharsets.UTF_8));
+
+        // Responses that vary on other headers are not cached.
+        request.setURI("/ctx/content?vary=Other");
+        HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertEquals(1, cache.getEntries());
+        assertEquals(1, cache.getHits());
+
+        // Responses without a validator are not cached.
+        request.setURI("/ctx/microchunked");
+        HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertEquals(1, cache.getEntries());
+    }
+
+    @Test
+    public void testContentCacheEviction()
+    {
+        GzipContentCache cache = new GzipContentCache(100, 60);
+        cache.put("a", new byte[40]);
+        cache.put("b", new byte[40]);
+        assertThat(cache.get("a"), Matchers.notNullValue());
+        cache.put("c", new byte[40]);
+        cache.put("too big", new byte[61]);
+
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.get("a"), Matchers.notNullValue());
+        assertThat(cache.get("c"), Matchers.notNullValue());
+        assertThat(cache.get("too big"), nullValue());
+        assertEquals(80, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testAdaptiveCompressionLevel() throws Exception
+    {
+        AtomicReference<Double> load = new AtomicReference<>(0D);
+        AdaptiveCompressionLevelPolicy policy = new AdaptiveCompressionLevelPolicy()
+        {
+            @Override
+            protected double getLoad(Server server)
+            {
+                return load.get();
+            }
+        };
+        GzipHandler gzipHandler = _server.getChildHandlerByClass(GzipHandler.class);
+        gzipHandler.setCompressionLevelPolicy(policy);
+
+        HttpTester.Request request = HttpTester.newRequest();
+        request.setMethod("GET");
+        request.setURI("/ctx/content");
+        request.setVersion("HTTP/1.0");
+        request.setHeader("Host", "tester");
+        request.setHeader("accept-encoding", "gzip");
+
+        HttpTester.Response response = HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertThat(response.get("Content-Encoding"), equalToIgnoringCase("gzip"));
+        assertEquals(9, policy.getLastLevel());
+        assertEquals(__content, IO.toString(new GZIPInputStream(new ByteArrayInputStream(response.getContentBytes())), StandardCharsets.UTF_8));
+        assertEquals(1, gzipHandler.getCompressedResponses());
+        assertEquals(__content.length(), gzipHandler.getCompressedBytesIn());
+        assertEquals(response.getContentBytes().length, gzipHandler.getCompressedBytesOut());
+        assertThat(gzipHandler.getCompressedBytesSaved(), greaterThan(0L));
+
+        load.set(0.5D);
+        HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertEquals(5, policy.getLastLevel());
+
+        load.set(1D);
+        HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertEquals(1, policy.getLastLevel());
+
+        // Large responses are capped to the middle level, even when idle.
+        load.set(0D);
+        policy.setLargeContentLength(__content.length() - 1);
+        HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertEquals(5, policy.getLastLevel());
+        assertEquals(4, gzipHandler.getCompressedResponses());
+    }
+
+    @Test
+    public void testCompressionCodec() throws Exception
+    {
+        GzipHandler gzipHandler = _server.getChildHandlerByClass(GzipHandler.class);
+        gzipHandler.stop();
+        gzipHandler.setCompressionCodecs(List.of(new DeflateCompressionCodec()));
+        gzipHandler.start();
+        String etag = __contentETag.substring(0, __contentETag.length() - 1) + "--deflate\"";
+
+        HttpTester.Request request = HttpTester.newRequest();
+        request.setMethod("GET");
+        request.setURI("/ctx/content");
+        request.setVersion("HTTP/1.0");
+        request.setHeader("Host", "tester");
+        request.setHeader("accept-encoding", "gzip, deflate");
+
+        // The codec is preferred to gzip.
+        HttpTester.Response response = HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.get("Content-Encoding"), equalToIgnoringCase("deflate"));
+        assertThat(response.get("ETag"), is(etag));
+        assertThat(response.getCSV("Vary", false), contains("Accept-Encoding"));
+        assertEquals(__content, IO.toString(new InflaterInputStream(new ByteArrayInputStream(response.getContentBytes())), StandardCharsets.UTF_8));
+
+        // Unless gzip has a higher quality.
+        request.setHeader("accept-encoding", "gzip, deflate;q=0.5");
+        response = HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertThat(response.get("Content-Encoding"), equalToIgnoringCase("gzip"));
+
+        // A codec refused with q=0 is not selected by the wildcard.
+        request.setHeader("accept-encoding", "deflate;q=0, *");
+        response = HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.get("Content-Encoding"), not(equalToIgnoringCase("deflate")));
+        assertEquals(__content, response.getContent());
+
+        // The codec etag is recognized in conditional requests.
+        request.setHeader("accept-encoding", "deflate");
+        request.setHeader("If-None-Match", etag);
+        response = HttpTester.parseResponse(_connector.getResponse(request.generate()));
+        assertThat(response.getStatus(), is(304));
+        assertThat(response.get("ETag"), is(etag));
+    }
+
     @Test
     public void testDeleteETagGzipHandler() throws Exception
     {
@@ -18,13 +18,27 @@
 
 package org.eclipse.jetty.servlet;
 
+import java.io.IOException;
 import java.util.EnumSet;
 import javax.servlet.DispatcherType;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.http.pathmap.MappedResource;
+import org.eclipse.jetty.server.LocalConnector;
+import org.eclipse.jetty.server.Server;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -645,4 +659,134 @@ public class ServletHandlerTest
         assertTrue(fh3 == mappings[5].getFilterHolder()); //isMatchAfter = true;
         assertTrue(pf == mappings[6].getFilterHolder()); //isMatchAfter = true;
     }
+
+    @Test
+    public void testFilterChainsByServletPathSpec() throws Exception
+    {
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        server.setHandler(context);
+
+        ServletHandler handler = context.getServletHandler();
+        ServletHolder api = new ServletHolder("api", ChainServlet.class);
+        handler.addServletWithMapping(api, "/api/*");
+        handler.addServletWithMapping(new ServletHolder("jsp", ChainServlet.class), "*.jsp");
+        handler.addServletWithMapping(new ServletHolder("exact", ChainServlet.class), "/exact");
+        handler.addServletWithMapping(new ServletHolder("default", ChainServlet.class), "/");
+
+        handler.addFilterWithMapping(newChainFilter("all"), "/*", EnumSet.of(DispatcherType.REQUEST));
+        handler.addFilterWithMapping(newChainFilter("api"), "/api/*", EnumSet.of(DispatcherType.REQUEST));
+        handler.addFilterWithMapping(newChainFilter("orders"), "/api/orders/*", EnumSet.of(DispatcherType.REQUEST));
+        handler.addFilterWithMapping(newChainFilter("jsp"), "*.jsp", EnumSet.of(DispatcherType.REQUEST));
+        handler.addFilterWithMapping(newChainFilter("exact"), "/exact", EnumSet.of(DispatcherType.REQUEST));
+        handler.addFilterWithMapping(newChainFilter("root"), "", EnumSet.of(DispatcherType.REQUEST));
+        FilterHolder named = newChainFilter("named");
+        FilterMapping namedMapping = new FilterMapping();
+        namedMapping.setFilterName("named");
+        namedMapping.setServletName("api");
+        handler.addFilter(named, namedMapping);
+
+        server.start();
+        try
+        {
+            //request each path twice, to use both newly built and cached chains
+            for (int i = 0; i < 2; i++)
+            {
+                assertChain(connector, "/api/users/1", "all,api,named");
+                assertChain(connector, "/api/orders/1", "all,api,orders,named");
+                assertChain(connector, "/api", "all,api,named");
+                assertChain(connector, "/page.jsp", "all,jsp");
+                assertChain(connector, "/exact", "all,exact");
+                assertChain(connector, "/other", "all");
+                assertChain(connector, "/", "all,root");
+            }
+
+            //chains are rebuilt when the mappings change
+            handler.addFilterWithMapping(newChainFilter("users"), "/api/users/*", EnumSet.of(DispatcherType.REQUEST));
+            assertChain(connector, "/api/users/1", "all,api,users,named");
+            assertChain(connector, "/api/orders/1", "all,api,orders,named");
+            assertChain(connector, "/page.jsp", "all,jsp");
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testFilterChainsByServletPathSpecRootMapping() throws Exception
+    {
+        Server server = new Server();
+        LocalConnector connector = new LocalConnector(server);
+        server.addConnector(connector);
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        server.setHandler(context);
+
+        //only filters that could be precompiled for the default servlet
+        ServletHandler handler = context.getServletHandler();
+        handler.addServletWithMapping(new ServletHolder("default", ChainServlet.class), "/");
+        handler.addServletWithMapping(new ServletHolder("all", ChainServlet.class), "/all/*");
+        handler.addFilterWithMapping(newChainFilter("all"), "/*", EnumSet.of(DispatcherType.REQUEST));
+        handler.addFilterWithMapping(newChainFilter("root"), "", EnumSet.of(DispatcherType.REQUEST));
+
+        server.start();
+        try
+        {
+            for (int i = 0; i < 2; i++)
+            {
+                assertChain(connector, "/", "all,root");
+                assertChain(connector, "/other", "all");
+                assertChain(connector, "/all/x", "all");
+            }
+        }
+        finally
+        {
+            server.stop();
+        }
+    }
+
+    private static FilterHolder newChainFilter(String name)
+    {
+        FilterHolder holder = new FilterHolder(ChainFilter.class);
+        holder.setName(name);
+        return holder;
+    }
+
+    private static void assertChain(LocalConnector connector, String path, String chain) throws Exception
+    {
+        String response = connector.getResponse("GET " + path + " HTTP/1.0\r\n\r\n");
+        assertThat(response, containsString("chain=" + chain + "\n"));
+    }
+
+    public static class ChainFilter implements Filter
+    {
+        private String _name;
+
+        @Override
+        public void init(FilterConfig filterConfig)
+        {
+            _name = filterConfig.getFilterName();
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException
+        {
+            String filters = (String)request.getAttribute("chain");
+            request.setAttribute("chain", filters == null ? _name : filters + "," + _name);
+            chain.doFilter(request, response);
+        }
+    }
+
+    public static class ChainServlet extends HttpServlet
+    {
+        @Override
+        protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException
+        {
+            response.getWriter().println("chain=" + request.getAttribute("chain"));
+        }
+    }
 }
@@ -111,6 +111,12 @@ import org.slf4j.LoggerFactory;
  * <dd>if true and session tracking is not used, then rate is tracked by IP+port (effectively connection). Defaults to false.</dd>
  * <dt>ipWhitelist</dt>
  * <dd>a comma-separated list of IP addresses that will not be rate limited</dd>
+ * <dt>sketchRateTracking</dt>
+ * <dd>if true, the request rate of IP addresses is first estimated by a fixed size sketch, and
+ * a rate tracker is only created for an IP address whose rate is at least half the limit, so that
+ * memory is bounded when requests come from many distinct addresses. Defaults to false.</dd>
+ * <dt>sketchWidth</dt>
+ * <dd>the number of counters in each row of the sketch. Defaults to 16384.</dd>
  * <dt>managedAttr</dt>
  * <dd>if set to true, then this servlet is set as a {@link ServletContext} attribute with the
  * filter name as the attribute name.  This allows context external mechanism (eg JMX via {@link ContextHandler#MANAGED_ATTRIBUTES}) to
@@ -160,6 +166,11 @@ public class DoSFilter implements Filter
     static final String IP_WHITELIST_INIT_PARAM = "ipWhitelist";
     static final String ENABLED_INIT_PARAM = "enabled";
     static final String TOO_MANY_CODE = "tooManyCode";
+    static final String SKETCH_RATE_TRACKING_INIT_PARAM = "sketchRateTracking";
+    static final String SKETCH_WIDTH_INIT_PARAM = "sketchWidth";
+
+    private static final int __DEFAULT_SKETCH_WIDTH = 16384;
+    private static final int __SKETCH_DEPTH = 4;
 
     private static final int USER_AUTH = 2;
     private static final int USER_SESSION = 2;
@@ -170,6 +181,9 @@ public class DoSFilter implements Filter
     private final String _resumed = "DoSFilter@" + Integer.toHexString(hashCode()) + ".RESUMED";
     private final ConcurrentHashMap<String, RateTracker> _rateTrackers = new ConcurrentHashMap<>();
     private final List<String> _whitelist = new CopyOnWriteArrayList<>();
+    private final RateTracker _sketchedRateTracker = new SketchedRateTracker();
+    private volatile RateSketch _sketch;
+    private volatile int _sketchWidth = __DEFAULT_SKETCH_WIDTH;
     private int _tooManyCode;
     private volatile long _delayMs;
     private volatile long _throttleMs;
@@ -265,6 +279,12 @@ public class DoSFilter implements Filter
         parameter = filterConfig.getInitParameter(TOO_MANY_CODE);
         setTooManyCode(parameter == null ? 429 : Integer.parseInt(parameter));
 
+        parameter = filterConfig.getInitParameter(SKETCH_WIDTH_INIT_PARAM);
+        setSketchWidth(parameter == null ? __DEFAULT_SKETCH_WIDTH : Integer.parseInt(parameter));
+
+        parameter = filterConfig.getInitParameter(SKETCH_RATE_TRACKING_INIT_PARAM);
+        setSketchRateTracking(parameter != null && Boolean.parseBoolean(parameter));
+
         setName(filterConfig.getFilterName());
         _context = filterConfig.getServletContext();
         if (_context != null)
@@ -552,6 +572,13 @@ public class DoSFilter implements Filter
      * into one.
      * <p>
      * When a session expires, its rate tracker is automatically deleted.
+     * <p>
+     * When sketch rate tracking is enabled, client IP addresses that do not
+     * already have a rate tracker are first counted by the sketch, and share
+     * a tracker that never exceeds the rate until the sketch estimates that
+     * their rate is at least half the limit. As the sketch may overestimate,
+     * but never underestimates, the rate, collisions in the sketch may only
+     * cause a rate tracker to be created earlier than needed.
      *
      * @param request the current request
      * @return the request rate tracker for the current connection
@@ -582,6 +609,17 @@ public class DoSFilter implements Filter
 
         RateTracker tracker = _rateTrackers.get(loadId);
 
+        long estimate = 0;
+        RateSketch sketch = _sketch;
+        if (tracker == null && type == USER_IP && sketch != null)
+        {
+            estimate = sketch.record(loadId, System.currentTimeMillis());
+            if (estimate * 2 < getMaxRequestsPerSec())
+                return _sketchedRateTracker;
+            if (LOG.isDebugEnabled())
+                LOG.debug("Tracking rate of {}", loadId);
+        }
+
         if (tracker == null)
         {
             boolean allowed = checkWhitelist(request.getRemoteAddr());
@@ -589,6 +627,9 @@ public class DoSFilter implements Filter
             tracker = allowed ? new FixedRateTracker(_context, _name, loadId, type, maxRequestsPerSec)
                 : new RateTracker(_context, _name, loadId, type, maxRequestsPerSec);
             tracker.setContext(_context);
+            // The requests counted by the sketch, other than this one, count towards the rate.
+            if (estimate > 1)
+                tracker.seed(System.currentTimeMillis(), estimate - 1);
             RateTracker existing = _rateTrackers.putIfAbsent(loadId, tracker);
             if (existing != null)
                 tracker = existing;
@@ -1031,6 +1072,61 @@ public class DoSFilter implements Filter
         _enabled = enabled;
     }
 
+    /**
+     * @return whether the rate of IP addresses is estimated by a sketch
+     * before being tracked exactly
+     * @see #setSketchRateTracking(boolean)
+     */
+    @ManagedAttribute("whether the rate of IP addresses is estimated by a sketch before being tracked")
+    public boolean isSketchRateTracking()
+    {
+        return _sketch != null;
+    }
+
+    /**
+     * Set whether the request rate of IP addresses is first estimated by a
+     * sketch of fixed size, so that a rate tracker is only created for the
+     * IP addresses whose rate is at least half the limit.
+     *
+     * @param value whether the rate of IP addresses is estimated by a sketch
+     */
+    public void setSketchRateTracking(boolean value)
+    {
+        if (value != isSketchRateTracking())
+            _sketch = value ? new RateSketch(getSketchWidth(), __SKETCH_DEPTH) : null;
+    }
+
+    /**
+     * @return the number of counters in each row of the rate sketch
+     */
+    @ManagedAttribute("number of counters in each row of the rate sketch")
+    public int getSketchWidth()
+    {
+        return _sketchWidth;
+    }
+
+    /**
+     * @param width the number of counters in each row of the rate sketch,
+     * rounded up to a power of 2
+     */
+    public void setSketchWidth(int width)
+    {
+        if (width <= 0)
+            throw new IllegalArgumentException("Invalid sketch width " + width);
+        _sketchWidth = width;
+        if (isSketchRateTracking())
+            _sketch = new RateSketch(width, __SKETCH_DEPTH);
+    }
+
+    /**
+     * @return the number of rate trackers
+     */
+    @ManagedAttribute("number of rate trackers")
+    public int getRateTrackers()
+    {
+        return _rateTrackers.size();
+    }
+
     public int getTooManyCode()
     {
         return _tooManyCode;
@@ -1162,6 +1258,24 @@ public class DoSFilter implements Filter
             return last != 0 && (now - last) < 1000L;
         }
 
+        /**
+         * Record requests that were counted before this tracker was created.
+         *
+         * @param now the time now (in milliseconds)
+         * @param count the number of requests to record
+         */
+        protected void seed(long now, long count)
+        {
+            synchronized (this)
+            {
+                for (long i = Math.min(count, _timestamps.length); i > 0; i--)
+                {
+                    _timestamps[_next] = now;
+                    _next = (_next + 1) % _timestamps.length;
+                }
+            }
+        }
+
         public String getId()
         {
             return _id;
@@ -1297,6 +1411,35 @@ public class DoSFilter implements Filter
         }
     }
 
+    /**
+     * The RateTracker shared by the IP addresses whose rate is estimated
+     * by the sketch to be well within the limit.
+     */
+    private static class SketchedRateTracker extends RateTracker
+    {
+        public SketchedRateTracker()
+        {
+            super(null, null, "sketch", USER_IP, 1);
+        }
+
+        @Override
+        public boolean isRateExceeded(long now)
+        {
+            return false;
+        }
+
+        @Override
+        public void run()
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Sketched" + super.toString();
+        }
+    }
+
     private static class DoSTimeoutAsyncListener implements AsyncListener
     {
         @Override
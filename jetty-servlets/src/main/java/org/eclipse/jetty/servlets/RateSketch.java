@@ -0,0 +1,143 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.servlets;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>A count-min sketch of request rates, which estimates the number of requests
+ * for a key over a sliding window of one second, in a bounded amount of memory
+ * whatever the number of keys.</p>
+ * <p>Each of the {@code depth} rows of the sketch hashes a key to one of its
+ * {@code width} counters, and the estimate is the minimum of the key counters,
+ * so that it may overestimate, but never underestimates, the count for the key.
+ * The row hashes are derived from two halves of a 64-bit hash of the key, so that
+ * keys colliding in one row are unlikely to collide in the others.
+ * Counts are kept for the current and the previous second, and the rate is
+ * the count for the current second plus the count for the previous second,
+ * weighted by the part of the sliding window that it overlaps.</p>
+ * <p>Each counter is packed in a long with the second it counts, so that
+ * counters of a past second are reset by the next increment, without locking.</p>
+ */
+class RateSketch
+{
+    private static final long COUNT_MASK = 0xFFFF_FFFFL;
+
+    private final int _depth;
+    private final int _mask;
+    private final AtomicLongArray[] _counters;
+
+    /**
+     * @param width the number of counters of each row, rounded up to a power of 2
+     * @param depth the number of rows
+     */
+    RateSketch(int width, int depth)
+    {
+        if (width <= 0 || depth <= 0)
+            throw new IllegalArgumentException("Invalid sketch size " + width + "x" + depth);
+        int size = Integer.highestOneBit(width);
+        if (size < width)
+            size <<= 1;
+        _depth = depth;
+        _mask = size - 1;
+        // One array for even and one for odd seconds.
+        _counters = new AtomicLongArray[]{new AtomicLongArray(size * depth), new AtomicLongArray(size * depth)};
+    }
+
+    int getWidth()
+    {
+        return _mask + 1;
+    }
+
+    int getDepth()
+    {
+        return _depth;
+    }
+
+    /**
+     * Record a request for a key and estimate the rate of requests for the key.
+     *
+     * @param key the key of the request
+     * @param now the time now in milliseconds
+     * @return the estimated number of requests for the key in the last second, including this one
+     */
+    long record(String key, long now)
+    {
+        long second = now / 1000;
+        long hash = hash(key);
+        int h1 = (int)hash;
+        // Odd, so that each row of a power of 2 width uses a different counter.
+        int h2 = (int)(hash >>> 32) | 1;
+        AtomicLongArray current = _counters[(int)(second & 1)];
+        AtomicLongArray previous = _counters[(int)((second - 1) & 1)];
+        long currentCount = Long.MAX_VALUE;
+        long previousCount = Long.MAX_VALUE;
+        for (int row = 0; row < _depth; row++)
+        {
+            int index = row * (_mask + 1) + ((h1 + row * h2) & _mask);
+            currentCount = Math.min(currentCount, increment(current, index, second));
+            previousCount = Math.min(previousCount, count(previous, index, second - 1));
+        }
+        double overlap = 1D - (now % 1000) / 1000D;
+        return currentCount + (long)(previousCount * overlap);
+    }
+
+    private static long increment(AtomicLongArray counters, int index, long second)
+    {
+        long stamp = second << 32;
+        while (true)
+        {
+            long value = counters.get(index);
+            long next = (value & ~COUNT_MASK) == stamp ? value + 1 : stamp | 1;
+            if ((value & ~COUNT_MASK) > stamp)
+                return 1; // A later second has already been counted, the clock went back.
+            if (counters.compareAndSet(index, value, next))
+                return next & COUNT_MASK;
+        }
+    }
+
+    private static long count(AtomicLongArray counters, int index, long second)
+    {
+        long value = counters.get(index);
+        return (value & ~COUNT_MASK) == (second << 32) ? value & COUNT_MASK : 0;
+    }
+
+    private static long hash(String key)
+    {
+        // FNV-1a over the chars, then the murmur3 64-bit finalizer.
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++)
+        {
+            h ^= key.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x[%dx%d]", getClass().getSimpleName(), hashCode(), getWidth(), _depth);
+    }
+}
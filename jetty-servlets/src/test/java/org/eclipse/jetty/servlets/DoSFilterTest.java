@@ -40,6 +40,8 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.anyOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -113,6 +115,72 @@ public class DoSFilterTest extends AbstractDoSFilterTest
         }
     }
 
+    @Test
+    public void testRateSketch()
+    {
+        RateSketch sketch = new RateSketch(1000, 4);
+        assertEquals(1024, sketch.getWidth());
+
+        for (int i = 1; i <= 10; i++)
+        {
+            assertEquals(i, sketch.record("a", 5_000 + i));
+        }
+        assertEquals(1, sketch.record("b", 5_500));
+
+        // Half way through the next second, half the previous count is still in the window.
+        assertEquals(6, sketch.record("a", 6_500));
+        // Counts older than the previous second are forgotten.
+        assertEquals(1, sketch.record("a", 8_000));
+
+        // Keys with the same String hash code are counted separately.
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        for (int i = 1; i <= 10; i++)
+        {
+            sketch.record("Aa", 10_000 + i);
+        }
+        assertEquals(1, sketch.record("BB", 10_500));
+    }
+
+    @Test
+    public void testSketchRateTracking() throws ServletException
+    {
+        DoSFilter doSFilter = new DoSFilter();
+        doSFilter.init(new NoOpFilterConfig());
+        doSFilter.setMaxRequestsPerSec(10);
+        doSFilter.setSketchRateTracking(true);
+
+        try
+        {
+            // Many distinct addresses do not create rate trackers.
+            for (int i = 0; i < 1000; i++)
+            {
+                RateTracker tracker = doSFilter.getRateTracker(new RemoteAddressRequest("10.0." + (i / 256) + "." + (i % 256), 1234));
+                assertFalse(tracker.isRateExceeded(System.currentTimeMillis()));
+            }
+            assertEquals(0, doSFilter.getRateTrackers());
+
+            // A busy address is tracked, including the requests counted by the sketch,
+            // so it exceeds the rate once it has made more than the max requests.
+            ServletRequest request = new RemoteAddressRequest("10.1.1.1", 1234);
+            boolean exceeded = false;
+            int requests = 0;
+            while (requests < 50 && !exceeded)
+            {
+                requests++;
+                exceeded = doSFilter.getRateTracker(request).isRateExceeded(System.currentTimeMillis());
+            }
+            assertTrue(exceeded);
+            // The sliding window may round the estimate down by one at a second boundary.
+            assertThat(requests, lessThanOrEqualTo(12));
+            assertEquals(1, doSFilter.getRateTrackers());
+            assertThat(doSFilter.getRateTracker(request).getId(), is("10.1.1.1"));
+        }
+        finally
+        {
+            doSFilter.stopScheduler();
+        }
+    }
+
     @Test
     public void testRemotePortLoadIdCreationIpv4() throws ServletException
     {
@@ -22,6 +22,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.time.ZonedDateTime;
@@ -376,6 +378,46 @@ public class RolloverFileOutputStream extends OutputStream
         }
     }
 
+    /**
+     * Writes the remaining bytes of a sequence of buffers to the current file,
+     * with gathering writes to its channel.
+     *
+     * @param buffers the buffers to write
+     * @param offset the index of the first buffer to write
+     * @param length the number of buffers to write
+     * @return the number of bytes written
+     * @throws IOException if the buffers cannot be written
+     */
+    public long write(ByteBuffer[] buffers, int offset, int length) throws IOException
+    {
+        synchronized (this)
+        {
+            long written = 0;
+            if (_out instanceof FileOutputStream)
+            {
+                FileChannel channel = ((FileOutputStream)_out).getChannel();
+                int end = offset + length;
+                while (offset < end)
+                {
+                    written += channel.write(buffers, offset, end - offset);
+                    while (offset < end && !buffers[offset].hasRemaining())
+                    {
+                        offset++;
+                    }
+                }
+            }
+            else
+            {
+                for (int i = offset; i < offset + length; i++)
+                {
+                    written += buffers[i].remaining();
+                    BufferUtil.writeTo(buffers[i], _out);
+                }
+            }
+            return written;
+        }
+    }
+
     @Override
     public void flush() throws IOException
     {
@@ -0,0 +1,226 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Statistics on the distribution of a sampled value, such as a latency.</p>
+ * <p>Samples are counted in log-linear buckets: values below {@code 2^precisionBits} each have
+ * their own bucket, and every power of two above that is split into {@code 2^precisionBits}
+ * buckets of equal width, so that the value reported for a percentile is within a relative
+ * error of {@code 2^-precisionBits} of the recorded value, as in an HDR histogram.</p>
+ * <p>The memory used is fixed by the highest trackable value and the precision. Values above the
+ * highest trackable value are counted in the last bucket, although the max is always exact.
+ * Recording is lock free, and histograms of the same shape may be merged with {@link #add(HistogramStatistic)}.</p>
+ */
+public class HistogramStatistic
+{
+    public static final int DEFAULT_PRECISION_BITS = 5;
+
+    private final long _highestTrackableValue;
+    private final int _precisionBits;
+    private final int _subBuckets;
+    private final AtomicLongArray _counts;
+    private final LongAccumulator _max = new LongAccumulator(Math::max, 0L);
+    private final LongAdder _total = new LongAdder();
+    private final LongAdder _count = new LongAdder();
+
+    /**
+     * @param highestTrackableValue the highest value to be counted in its own bucket
+     */
+    public HistogramStatistic(long highestTrackableValue)
+    {
+        this(highestTrackableValue, DEFAULT_PRECISION_BITS);
+    }
+
+    /**
+     * @param highestTrackableValue the highest value to be counted in its own bucket
+     * @param precisionBits the number of bits of each value that are kept, between 1 and 16
+     */
+    public HistogramStatistic(long highestTrackableValue, int precisionBits)
+    {
+        if (highestTrackableValue < 1)
+            throw new IllegalArgumentException("Highest trackable value must be positive");
+        if (precisionBits < 1 || precisionBits > 16)
+            throw new IllegalArgumentException("Precision bits must be between 1 and 16");
+        _highestTrackableValue = highestTrackableValue;
+        _precisionBits = precisionBits;
+        _subBuckets = 1 << precisionBits;
+        _counts = new AtomicLongArray(indexOf(highestTrackableValue) + 1);
+    }
+
+    public long getHighestTrackableValue()
+    {
+        return _highestTrackableValue;
+    }
+
+    public int getPrecisionBits()
+    {
+        return _precisionBits;
+    }
+
+    /**
+     * @return the number of buckets of the histogram
+     */
+    public int getBuckets()
+    {
+        return _counts.length();
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public void reset()
+    {
+        for (int i = 0; i < _counts.length(); i++)
+        {
+            _counts.set(i, 0);
+        }
+        _max.reset();
+        _total.reset();
+        _count.reset();
+    }
+
+    /**
+     * Records a sample value.
+     *
+     * @param sample the value to record, negative values are recorded as zero.
+     */
+    public void record(long sample)
+    {
+        if (sample < 0)
+            sample = 0;
+        int index = Math.min(indexOf(sample), _counts.length() - 1);
+        _counts.incrementAndGet(index);
+        _total.add(sample);
+        _count.increment();
+        _max.accumulate(sample);
+    }
+
+    /**
+     * Adds the samples of another histogram to this one.
+     *
+     * @param histogram a histogram with the same highest trackable value and precision
+     */
+    public void add(HistogramStatistic histogram)
+    {
+        if (histogram._counts.length() != _counts.length() || histogram._precisionBits != _precisionBits)
+            throw new IllegalArgumentException("Incompatible histogram " + histogram);
+        for (int i = 0; i < _counts.length(); i++)
+        {
+            long count = histogram._counts.get(i);
+            if (count > 0)
+                _counts.addAndGet(i, count);
+        }
+        _total.add(histogram._total.sum());
+        _count.add(histogram._count.sum());
+        _max.accumulate(histogram._max.get());
+    }
+
+    /**
+     * @return the max value of the recorded samples
+     */
+    public long getMax()
+    {
+        return _max.get();
+    }
+
+    /**
+     * @return the sum of all the recorded samples
+     */
+    public long getTotal()
+    {
+        return _total.sum();
+    }
+
+    /**
+     * @return the number of samples recorded
+     */
+    public long getCount()
+    {
+        return _count.sum();
+    }
+
+    /**
+     * @return the average value of the samples recorded, or zero if there are no samples
+     */
+    public double getMean()
+    {
+        long count = getCount();
+        return count > 0 ? (double)getTotal() / count : 0.0D;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the highest value of the bucket holding the sample at the given percentile,
+     * but no more than the max, or zero if there are no samples
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+
+        long total = 0;
+        for (int i = 0; i < _counts.length(); i++)
+        {
+            total += _counts.get(i);
+        }
+        if (total == 0)
+            return 0;
+
+        long rank = Math.max(1, (long)Math.ceil(percentile / 100.0D * total));
+        long count = 0;
+        for (int i = 0; i < _counts.length(); i++)
+        {
+            count += _counts.get(i);
+            if (count >= rank)
+                return Math.min(highestValueOf(i), getMax());
+        }
+        return getMax();
+    }
+
+    private int indexOf(long value)
+    {
+        if (value < _subBuckets)
+            return (int)value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - _precisionBits;
+        int mantissa = (int)(value >>> shift) & (_subBuckets - 1);
+        return _subBuckets + shift * _subBuckets + mantissa;
+    }
+
+    private long highestValueOf(int index)
+    {
+        if (index < _subBuckets)
+            return index;
+        int shift = (index - _subBuckets) / _subBuckets;
+        int mantissa = (index - _subBuckets) % _subBuckets;
+        long lowest = (long)(_subBuckets + mantissa) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{count=%d,max=%d,p50=%d,p99=%d}", getClass().getSimpleName(), hashCode(), getCount(), getMax(), getValueAtPercentile(50), getValueAtPercentile(99));
+    }
+}
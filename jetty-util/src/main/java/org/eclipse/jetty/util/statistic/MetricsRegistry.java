@@ -0,0 +1,449 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.Container;
+import org.eclipse.jetty.util.thread.AutoLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>A registry of the metrics of the components of a server, that can be written in the
+ * <a href="https://openmetrics.io">OpenMetrics</a> text format.</p>
+ * <p>The registry is a {@link Container.InheritedListener}: when added as an event listener
+ * to the server, every {@link MetricsSource} bean in the component tree publishes its metrics
+ * when it is added, and they are removed with it. Metrics are registered with suppliers of
+ * their values, which are only called by {@link #write(Appendable)}, so scraping neither walks
+ * the component tree nor uses reflection, and the components pay nothing for being measured.</p>
+ * <p>Metrics with the same name form a family, which must all be of the same type. The
+ * {@code quantile} label is reserved to the samples of summaries. If a
+ * component registers a metric with the same name and labels as another component, an
+ * {@code instance} label is added to tell them apart.</p>
+ */
+@ManagedObject("Registry of metrics")
+public class MetricsRegistry extends AbstractLifeCycle implements Container.InheritedListener
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final Pattern LABEL = Pattern.compile("[a-zA-Z_][a-zA-Z0-9_]*");
+
+    /**
+     * The type of a family of metrics.
+     */
+    public enum Type
+    {
+        COUNTER("counter", "_total"),
+        GAUGE("gauge", ""),
+        SUMMARY("summary", "");
+
+        private final String _name;
+        private final String _suffix;
+
+        Type(String name, String suffix)
+        {
+            _name = name;
+            _suffix = suffix;
+        }
+    }
+
+    private final AutoLock _lock = new AutoLock();
+    private final Map<String, Family> _families = new TreeMap<>();
+    private final Map<Object, Integer> _sources = new IdentityHashMap<>();
+    private final String _prefix;
+
+    public MetricsRegistry()
+    {
+        this("jetty_");
+    }
+
+    /**
+     * @param prefix the prefix of the name of every metric
+     */
+    public MetricsRegistry(String prefix)
+    {
+        _prefix = prefix == null ? "" : prefix;
+    }
+
+    public String getPrefix()
+    {
+        return _prefix;
+    }
+
+    /**
+     * @return the number of metrics registered
+     */
+    @ManagedAttribute("number of metrics registered")
+    public int getMetrics()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            int metrics = 0;
+            for (Family family : _families.values())
+            {
+                metrics += family._samples.size();
+            }
+            return metrics;
+        }
+    }
+
+    /**
+     * Registers a counter, whose value only increases, except when its owner resets it.
+     *
+     * @param owner the component that owns the metric
+     * @param name the name of the metric, without prefix and without the {@code _total} suffix
+     * @param help a description of the metric
+     * @param value the supplier of the value of the metric
+     * @param labels pairs of label names and values
+     */
+    public void counter(Object owner, String name, String help, LongSupplier value, String... labels)
+    {
+        register(owner, Type.COUNTER, name, help, value, null, labels);
+    }
+
+    /**
+     * Registers a gauge, whose value can go up and down.
+     *
+     * @param owner the component that owns the metric
+     * @param name the name of the metric, without prefix
+     * @param help a description of the metric
+     * @param value the supplier of the value of the metric
+     * @param labels pairs of label names and values
+     */
+    public void gauge(Object owner, String name, String help, LongSupplier value, String... labels)
+    {
+        register(owner, Type.GAUGE, name, help, value, null, labels);
+    }
+
+    /**
+     * Registers a gauge, whose value can go up and down.
+     *
+     * @param owner the component that owns the metric
+     * @param name the name of the metric, without prefix
+     * @param help a description of the metric
+     * @param value the supplier of the value of the metric
+     * @param labels pairs of label names and values
+     */
+    public void gauge(Object owner, String name, String help, DoubleSupplier value, String... labels)
+    {
+        register(owner, Type.GAUGE, name, help, null, value, labels);
+    }
+
+    /**
+     * Registers a summary, made of the values of the observations at the given quantiles,
+     * which are labelled with {@code quantile}, the number of observations and their sum.
+     *
+     * @param owner the component that owns the metric
+     * @param name the name of the metric, without prefix
+     * @param help a description of the metric
+     * @param quantiles the quantiles to publish, between 0 and 1
+     * @param quantileValue the function of a quantile returning the value of the observations at that quantile
+     * @param count the supplier of the number of observations
+     * @param sum the supplier of the sum of the observations
+     * @param labels pairs of label names and values
+     */
+    public void summary(Object owner, String name, String help, double[] quantiles, DoubleUnaryOperator quantileValue, LongSupplier count, DoubleSupplier sum, String... labels)
+    {
+        String fullName = checkName(name, labels);
+        for (double quantile : quantiles)
+        {
+            if (quantile < 0 || quantile > 1)
+                throw new IllegalArgumentException("Invalid quantile " + quantile);
+        }
+
+        try (AutoLock l = _lock.lock())
+        {
+            Family family = getFamily(fullName, Type.SUMMARY, help);
+            String instance = isRegistered(family, "_count", toLabelText(labels, null)) ? toInstance(owner) : null;
+            for (double quantile : quantiles)
+            {
+                String[] quantileLabels = Arrays.copyOf(labels, labels.length + 2);
+                quantileLabels[labels.length] = "quantile";
+                quantileLabels[labels.length + 1] = Double.toString(quantile);
+                family._samples.add(new Sample(owner, "", toLabelText(quantileLabels, instance), null, () -> quantileValue.applyAsDouble(quantile)));
+            }
+            family._samples.add(new Sample(owner, "_count", toLabelText(labels, instance), count, null));
+            family._samples.add(new Sample(owner, "_sum", toLabelText(labels, instance), null, sum));
+        }
+    }
+
+    private void register(Object owner, Type type, String name, String help, LongSupplier longValue, DoubleSupplier doubleValue, String... labels)
+    {
+        String fullName = checkName(name, labels);
+        for (int i = 0; i < labels.length; i += 2)
+        {
+            if ("quantile".equals(labels[i]))
+                throw new IllegalArgumentException("Label quantile is reserved to summaries");
+        }
+
+        try (AutoLock l = _lock.lock())
+        {
+            Family family = getFamily(fullName, type, help);
+            String labelText = toLabelText(labels, null);
+            if (isRegistered(family, type._suffix, labelText))
+                labelText = toLabelText(labels, toInstance(owner));
+            family._samples.add(new Sample(owner, type._suffix, labelText, longValue, doubleValue));
+        }
+    }
+
+    private String checkName(String name, String[] labels)
+    {
+        String fullName = _prefix + name;
+        if (!NAME.matcher(fullName).matches())
+            throw new IllegalArgumentException("Invalid metric name " + fullName);
+        if (labels.length % 2 != 0)
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        return fullName;
+    }
+
+    private Family getFamily(String fullName, Type type, String help)
+    {
+        Family family = _families.get(fullName);
+        if (family == null)
+        {
+            family = new Family(fullName, type, help);
+            _families.put(fullName, family);
+        }
+        else if (family._type != type)
+        {
+            throw new IllegalArgumentException("Metric " + fullName + " is a " + family._type._name);
+        }
+        return family;
+    }
+
+    private static boolean isRegistered(Family family, String suffix, String labelText)
+    {
+        for (Sample sample : family._samples)
+        {
+            if (sample._suffix.equals(suffix) && sample._labels.equals(labelText))
+                return true;
+        }
+        return false;
+    }
+
+    private static String toInstance(Object owner)
+    {
+        return String.format("%x", System.identityHashCode(owner));
+    }
+
+    private static String toLabelText(String[] labels, String instance)
+    {
+        if (labels.length == 0 && instance == null)
+            return "";
+        StringBuilder builder = new StringBuilder();
+        builder.append('{');
+        for (int i = 0; i < labels.length; i += 2)
+        {
+            if (!LABEL.matcher(labels[i]).matches())
+                throw new IllegalArgumentException("Invalid label name " + labels[i]);
+            if (i > 0)
+                builder.append(',');
+            appendLabel(builder, labels[i], labels[i + 1]);
+        }
+        if (instance != null)
+        {
+            if (labels.length > 0)
+                builder.append(',');
+            appendLabel(builder, "instance", instance);
+        }
+        builder.append('}');
+        return builder.toString();
+    }
+
+    private static void appendLabel(StringBuilder builder, String name, String value)
+    {
+        builder.append(name).append("=\"");
+        String v = value == null ? "" : value;
+        for (int i = 0; i < v.length(); i++)
+        {
+            char c = v.charAt(i);
+            switch (c)
+            {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+    /**
+     * Removes all the metrics registered by a component.
+     *
+     * @param owner the component that owns the metrics
+     */
+    public void remove(Object owner)
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            _families.values().removeIf(family ->
+            {
+                family._samples.removeIf(sample -> sample._owner == owner);
+                return family._samples.isEmpty();
+            });
+        }
+    }
+
+    /**
+     * Writes the current value of every metric in the OpenMetrics text format.
+     *
+     * @param out where to write the metrics
+     * @throws IOException if the metrics cannot be written
+     */
+    public void write(Appendable out) throws IOException
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            for (Family family : _families.values())
+            {
+                out.append("# TYPE ").append(family._name).append(' ').append(family._type._name).append('\n');
+                if (family._help != null)
+                    out.append("# HELP ").append(family._name).append(' ').append(family._help).append('\n');
+                for (Sample sample : family._samples)
+                {
+                    out.append(family._name).append(sample._suffix).append(sample._labels).append(' ');
+                    try
+                    {
+                        if (sample._longValue != null)
+                            appendLong(out, sample._longValue.getAsLong());
+                        else
+                            out.append(Double.toString(sample._doubleValue.getAsDouble()));
+                    }
+                    catch (RuntimeException x)
+                    {
+                        if (LOG.isDebugEnabled())
+                            LOG.debug("Unable to get value of {}{}", family._name, sample._labels, x);
+                        out.append("NaN");
+                    }
+                    out.append('\n');
+                }
+            }
+            out.append("# EOF\n");
+        }
+    }
+
+    private static void appendLong(Appendable out, long value) throws IOException
+    {
+        if (out instanceof StringBuilder)
+        {
+            ((StringBuilder)out).append(value);
+            return;
+        }
+        out.append(Long.toString(value));
+    }
+
+    @Override
+    public void beanAdded(Container parent, Object child)
+    {
+        if (child instanceof MetricsSource)
+        {
+            // A bean may be contained by more than one container, but is only published once.
+            try (AutoLock l = _lock.lock())
+            {
+                if (_sources.merge(child, 1, Integer::sum) > 1)
+                    return;
+            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("Publishing metrics of {}", child);
+            ((MetricsSource)child).publishMetrics(this);
+        }
+    }
+
+    @Override
+    public void beanRemoved(Container parent, Object child)
+    {
+        if (child instanceof MetricsSource)
+        {
+            try (AutoLock l = _lock.lock())
+            {
+                Integer count = _sources.get(child);
+                if (count == null)
+                    return;
+                if (count > 1)
+                {
+                    _sources.put(child, count - 1);
+                    return;
+                }
+                _sources.remove(child);
+            }
+            remove(child);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{prefix=%s,metrics=%d}", getClass().getSimpleName(), hashCode(), _prefix, getMetrics());
+    }
+
+    private static class Family
+    {
+        private final String _name;
+        private final Type _type;
+        private final String _help;
+        private final List<Sample> _samples = new ArrayList<>();
+
+        private Family(String name, Type type, String help)
+        {
+            _name = name;
+            _type = type;
+            _help = help;
+        }
+    }
+
+    private static class Sample
+    {
+        private final Object _owner;
+        private final String _suffix;
+        private final String _labels;
+        private final LongSupplier _longValue;
+        private final DoubleSupplier _doubleValue;
+
+        private Sample(Object owner, String suffix, String labels, LongSupplier longValue, DoubleSupplier doubleValue)
+        {
+            _owner = owner;
+            _suffix = suffix;
+            _labels = labels;
+            _longValue = longValue;
+            _doubleValue = doubleValue;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+/**
+ * <p>A component that publishes metrics to a {@link MetricsRegistry}.</p>
+ * <p>Components publish their metrics once, when they are added to a container that
+ * the registry listens to, by registering suppliers of their current values. The
+ * suppliers are only called when the metrics are scraped, so publishing adds nothing
+ * to the cost of updating the values.</p>
+ */
+public interface MetricsSource
+{
+    /**
+     * @param registry the registry to publish metrics to, with this component as their owner
+     */
+    void publishMetrics(MetricsRegistry registry);
+}
@@ -0,0 +1,162 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jetty.util.thread.AutoLock;
+
+/**
+ * <p>Statistics on the distribution of a sampled value over a rolling window of time.</p>
+ * <p>The window is divided into slots, each with its own {@link HistogramStatistic}.
+ * Samples are recorded in the slot of the current time, and the slot is reset when
+ * time comes round to it again, so that the percentiles are those of the samples
+ * recorded in the last window, give or take the duration of one slot.</p>
+ */
+public class RollingHistogramStatistic
+{
+    private final AutoLock _lock = new AutoLock();
+    private final long _windowMs;
+    private final long _slotMs;
+    private final HistogramStatistic[] _slots;
+    private final AtomicLongArray _epochs;
+
+    /**
+     * @param windowMs the duration of the window in ms
+     * @param slots the number of slots the window is divided into
+     * @param highestTrackableValue the highest value to be counted in its own bucket
+     * @param precisionBits the number of bits of each value that are kept
+     * @see HistogramStatistic
+     */
+    public RollingHistogramStatistic(long windowMs, int slots, long highestTrackableValue, int precisionBits)
+    {
+        if (slots < 1 || windowMs < slots)
+            throw new IllegalArgumentException("Invalid window " + windowMs + "ms in " + slots + " slots");
+        _windowMs = windowMs;
+        _slotMs = windowMs / slots;
+        _slots = new HistogramStatistic[slots];
+        _epochs = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++)
+        {
+            _slots[i] = new HistogramStatistic(highestTrackableValue, precisionBits);
+            _epochs.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    public long getWindowMs()
+    {
+        return _windowMs;
+    }
+
+    /**
+     * Resets the statistics.
+     */
+    public void reset()
+    {
+        try (AutoLock l = _lock.lock())
+        {
+            for (int i = 0; i < _slots.length; i++)
+            {
+                _slots[i].reset();
+                _epochs.set(i, Long.MIN_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Records a sample value.
+     *
+     * @param sample the value to record.
+     */
+    public void record(long sample)
+    {
+        long epoch = epoch();
+        int index = (int)Math.floorMod(epoch, (long)_slots.length);
+        if (_epochs.get(index) != epoch)
+        {
+            try (AutoLock l = _lock.lock())
+            {
+                if (_epochs.get(index) != epoch)
+                {
+                    _slots[index].reset();
+                    _epochs.set(index, epoch);
+                }
+            }
+        }
+        _slots[index].record(sample);
+    }
+
+    /**
+     * @return a histogram of the samples recorded in the current window
+     */
+    public HistogramStatistic getHistogram()
+    {
+        long epoch = epoch();
+        HistogramStatistic histogram = null;
+        try (AutoLock l = _lock.lock())
+        {
+            for (int i = 0; i < _slots.length; i++)
+            {
+                if (histogram == null)
+                    histogram = new HistogramStatistic(_slots[i].getHighestTrackableValue(), _slots[i].getPrecisionBits());
+                if (_epochs.get(i) > epoch - _slots.length)
+                    histogram.add(_slots[i]);
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the value at the given percentile of the samples recorded in the current window
+     * @see HistogramStatistic#getValueAtPercentile(double)
+     */
+    public long getValueAtPercentile(double percentile)
+    {
+        return getHistogram().getValueAtPercentile(percentile);
+    }
+
+    /**
+     * @return the number of samples recorded in the current window
+     */
+    public long getCount()
+    {
+        return getHistogram().getCount();
+    }
+
+    /**
+     * @return the current time in ms, used to select the slot to record in
+     */
+    protected long now()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private long epoch()
+    {
+        return now() / _slotMs;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x{window=%dms,slots=%d}", getClass().getSimpleName(), hashCode(), _windowMs, _slots.length);
+    }
+}
@@ -40,12 +40,14 @@ import org.eclipse.jetty.util.annotation.Name;
 import org.eclipse.jetty.util.component.ContainerLifeCycle;
 import org.eclipse.jetty.util.component.Dumpable;
 import org.eclipse.jetty.util.component.DumpableCollection;
+import org.eclipse.jetty.util.statistic.MetricsRegistry;
+import org.eclipse.jetty.util.statistic.MetricsSource;
 import org.eclipse.jetty.util.thread.ThreadPool.SizedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @ManagedObject("A thread pool")
-public class QueuedThreadPool extends ContainerLifeCycle implements ThreadFactory, SizedThreadPool, Dumpable, TryExecutor
+public class QueuedThreadPool extends ContainerLifeCycle implements ThreadFactory, SizedThreadPool, Dumpable, TryExecutor, MetricsSource
 {
     private static final Logger LOG = LoggerFactory.getLogger(QueuedThreadPool.class);
     private static Runnable NOOP = () ->
@@ -714,6 +716,18 @@ public class QueuedThreadPool extends ContainerLifeCycle implements ThreadFactor
         _threads.remove(thread);
     }
 
+    @Override
+    public void publishMetrics(MetricsRegistry registry)
+    {
+        String name = getName();
+        registry.gauge(this, "thread_pool_threads", "number of threads in the pool", this::getThreads, "pool", name);
+        registry.gauge(this, "thread_pool_idle_threads", "number of idle threads in the pool", this::getIdleThreads, "pool", name);
+        registry.gauge(this, "thread_pool_busy_threads", "number of busy threads in the pool", this::getBusyThreads, "pool", name);
+        registry.gauge(this, "thread_pool_min_threads", "minimum number of threads in the pool", this::getMinThreads, "pool", name);
+        registry.gauge(this, "thread_pool_max_threads", "maximum number of threads in the pool", this::getMaxThreads, "pool", name);
+        registry.gauge(this, "thread_pool_queue_size", "size of the job queue", this::getQueueSize, "pool", name);
+    }
+
     @Override
     public void dump(Appendable out, String indent) throws IOException
     {
@@ -0,0 +1,138 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class HistogramStatisticTest
+{
+    @Test
+    public void testPercentilesWithinPrecision()
+    {
+        HistogramStatistic histogram = new HistogramStatistic(1_000_000, 5);
+        Random random = new Random(42);
+        long[] samples = new long[10_000];
+        for (int i = 0; i < samples.length; i++)
+        {
+            samples[i] = (long)Math.abs(Math.exp(random.nextGaussian() * 2 + 5));
+            histogram.record(samples[i]);
+        }
+        Arrays.sort(samples);
+
+        assertEquals(samples.length, histogram.getCount());
+        assertEquals(samples[samples.length - 1], histogram.getMax());
+        for (double percentile : new double[]{50, 90, 99, 99.9})
+        {
+            long expected = samples[(int)Math.ceil(percentile / 100 * samples.length) - 1];
+            double error = expected / 32.0 + 1;
+            assertThat((double)histogram.getValueAtPercentile(percentile), closeTo(expected, error));
+        }
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        HistogramStatistic histogram = new HistogramStatistic(1000, 4);
+        for (int i = 0; i < 16; i++)
+        {
+            histogram.record(i);
+        }
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(7, histogram.getValueAtPercentile(50));
+        assertEquals(15, histogram.getValueAtPercentile(100));
+        assertEquals(7.5, histogram.getMean());
+    }
+
+    @Test
+    public void testValuesAboveHighestTrackable()
+    {
+        HistogramStatistic histogram = new HistogramStatistic(1000);
+        histogram.record(10);
+        histogram.record(1_000_000);
+        assertEquals(1_000_000, histogram.getMax());
+        assertEquals(10, histogram.getValueAtPercentile(50));
+        assertThat(histogram.getValueAtPercentile(100), lessThan(1_000_000L + 1));
+    }
+
+    @Test
+    public void testMergeAndReset()
+    {
+        HistogramStatistic a = new HistogramStatistic(10_000);
+        HistogramStatistic b = new HistogramStatistic(10_000);
+        for (int i = 1; i <= 100; i++)
+        {
+            a.record(i);
+            b.record(i + 100);
+        }
+        a.add(b);
+        assertEquals(200, a.getCount());
+        assertEquals(200, a.getMax());
+        assertThat((double)a.getValueAtPercentile(50), closeTo(100, 4));
+
+        assertThrows(IllegalArgumentException.class, () -> a.add(new HistogramStatistic(10)));
+
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testRollingWindow()
+    {
+        AtomicLong now = new AtomicLong(1_000_000);
+        RollingHistogramStatistic rolling = new RollingHistogramStatistic(1000, 4, 10_000, 5)
+        {
+            @Override
+            protected long now()
+            {
+                return now.get();
+            }
+        };
+
+        rolling.record(1000);
+        now.addAndGet(500);
+        rolling.record(10);
+        rolling.record(10);
+        assertEquals(3, rolling.getCount());
+        assertThat((double)rolling.getValueAtPercentile(99), closeTo(1000, 32));
+
+        //the first sample leaves the window
+        now.addAndGet(600);
+        assertEquals(2, rolling.getCount());
+        assertEquals(10, rolling.getValueAtPercentile(99));
+
+        //the slot of the first sample is reused
+        rolling.record(20);
+        assertEquals(3, rolling.getCount());
+
+        now.addAndGet(5000);
+        assertEquals(0, rolling.getCount());
+    }
+}
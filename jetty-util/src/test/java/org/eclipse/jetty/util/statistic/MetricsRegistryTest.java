@@ -0,0 +1,164 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.util.statistic;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jetty.util.component.ContainerLifeCycle;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.matchesPattern;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MetricsRegistryTest
+{
+    @Test
+    public void testWrite() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        AtomicLong requests = new AtomicLong();
+        registry.counter(this, "requests", "number of requests", requests::get, "code", "2xx");
+        registry.gauge(this, "load", "current load", () -> 0.5D);
+
+        requests.set(42);
+        StringBuilder out = new StringBuilder();
+        registry.write(out);
+
+        String expected =
+            "# TYPE jetty_load gauge\n" +
+            "# HELP jetty_load current load\n" +
+            "jetty_load 0.5\n" +
+            "# TYPE jetty_requests counter\n" +
+            "# HELP jetty_requests number of requests\n" +
+            "jetty_requests_total{code=\"2xx\"} 42\n" +
+            "# EOF\n";
+        assertEquals(expected, out.toString());
+    }
+
+    @Test
+    public void testSummary() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.summary(this, "latency_seconds", "latency", new double[]{0.5, 0.99}, q -> q * 2, () -> 10, () -> 1.5D, "pool", "p");
+
+        StringBuilder out = new StringBuilder();
+        registry.write(out);
+
+        String expected =
+            "# TYPE jetty_latency_seconds summary\n" +
+            "# HELP jetty_latency_seconds latency\n" +
+            "jetty_latency_seconds{pool=\"p\",quantile=\"0.5\"} 1.0\n" +
+            "jetty_latency_seconds{pool=\"p\",quantile=\"0.99\"} 1.98\n" +
+            "jetty_latency_seconds_count{pool=\"p\"} 10\n" +
+            "jetty_latency_seconds_sum{pool=\"p\"} 1.5\n" +
+            "# EOF\n";
+        assertEquals(expected, out.toString());
+
+        // The quantile label is only for summaries.
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge(this, "latency", null, () -> 1, "quantile", "0.5"));
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge(this, "latency_seconds", null, () -> 1));
+    }
+
+    @Test
+    public void testLabelEscapingAndCollisions() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry("");
+        Object owner1 = new Object();
+        Object owner2 = new Object();
+        registry.gauge(owner1, "threads", null, () -> 1, "pool", "a\"b\\c\n");
+        registry.gauge(owner2, "threads", null, () -> 2, "pool", "a\"b\\c\n");
+
+        StringBuilder out = new StringBuilder();
+        registry.write(out);
+        String text = out.toString();
+        assertThat(text, containsString("threads{pool=\"a\\\"b\\\\c\\n\"} 1\n"));
+        assertThat(text, matchesPattern("(?s).*threads\\{pool=\"a\\\\\"b\\\\\\\\c\\\\n\",instance=\"[0-9a-f]+\"} 2\n.*"));
+
+        assertThrows(IllegalArgumentException.class, () -> registry.counter(owner1, "threads", null, () -> 1));
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge(owner1, "bad-name", null, () -> 1));
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge(owner1, "name", null, () -> 1, "bad-label", "x"));
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge(owner1, "name", null, () -> 1, "odd"));
+    }
+
+    @Test
+    public void testFailingSupplier() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.gauge(this, "broken", null, () ->
+        {
+            throw new IllegalStateException();
+        });
+
+        StringBuilder out = new StringBuilder();
+        registry.write(out);
+        assertThat(out.toString(), containsString("jetty_broken NaN\n"));
+        assertThat(out.toString(), endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testPublishedByContainer() throws Exception
+    {
+        ContainerLifeCycle root = new ContainerLifeCycle();
+        ContainerLifeCycle child = new ContainerLifeCycle();
+        root.addBean(child, true);
+        Source before = new Source("before");
+        child.addBean(before);
+
+        MetricsRegistry registry = new MetricsRegistry();
+        root.addEventListener(registry);
+        assertEquals(1, registry.getMetrics());
+
+        Source after = new Source("after");
+        child.addBean(after);
+        assertEquals(2, registry.getMetrics());
+
+        child.removeBean(before);
+        assertEquals(1, registry.getMetrics());
+        StringBuilder out = new StringBuilder();
+        registry.write(out);
+        assertThat(out.toString(), containsString("jetty_source{name=\"after\"} 1\n"));
+        assertThat(out.toString(), not(containsString("before")));
+
+        root.removeEventListener(registry);
+        child.removeBean(registry);
+        child.removeBean(after);
+        assertEquals(0, registry.getMetrics());
+    }
+
+    private static class Source implements MetricsSource
+    {
+        private final String name;
+
+        private Source(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public void publishMetrics(MetricsRegistry registry)
+        {
+            registry.gauge(this, "source", null, () -> 1, "name", name);
+        }
+    }
+}
@@ -74,6 +74,68 @@ public interface Configuration
 
     void setMaxTextMessageSize(long maxSize);
 
+    /**
+     * Get the maximum number of data frames that may be queued for sending.
+     *
+     * @return the maximum number of queued outgoing frames, or a value &lt;= 0 for no limit
+     */
+    int getMaxOutgoingFrames();
+
+    /**
+     * Set the maximum number of data frames that may be queued for sending.
+     * Control frames are never subject to this limit.
+     *
+     * @param maxOutgoingFrames the maximum number of queued outgoing frames (&lt;= 0 implies no limit)
+     * @see #setOutgoingOverflowPolicy(OverflowPolicy)
+     */
+    void setMaxOutgoingFrames(int maxOutgoingFrames);
+
+    /**
+     * Get the maximum number of payload bytes that may be queued for sending.
+     *
+     * @return the maximum number of queued outgoing payload bytes, or a value &lt;= 0 for no limit
+     */
+    long getMaxOutgoingBytes();
+
+    /**
+     * Set the maximum number of payload bytes that may be queued for sending.
+     * Control frames are never subject to this limit.
+     *
+     * @param maxOutgoingBytes the maximum number of queued outgoing payload bytes (&lt;= 0 implies no limit)
+     * @see #setOutgoingOverflowPolicy(OverflowPolicy)
+     */
+    void setMaxOutgoingBytes(long maxOutgoingBytes);
+
+    /**
+     * @return the policy applied when the outgoing frame queue limits are exceeded
+     */
+    OverflowPolicy getOutgoingOverflowPolicy();
+
+    /**
+     * Set the policy applied when the outgoing frame queue limits are exceeded.
+     *
+     * @param policy the outgoing queue overflow policy
+     */
+    void setOutgoingOverflowPolicy(OverflowPolicy policy);
+
+    /**
+     * @return the max delay before automatically batched outgoing frames are written
+     */
+    Duration getMaxBatchDelay();
+
+    /**
+     * Set the max delay before automatically batched outgoing frames are written.
+     * <p>
+     * When enabled, small data frames sent while the connection is actively writing are
+     * coalesced in the output buffer even if they were not sent in batch mode, and are written
+     * when the buffer fills, when a frame that cannot be batched is sent or when this delay expires.
+     * Frames sent after a quiet period longer than this delay are written immediately.
+     * </p>
+     *
+     * @param delay the max batch delay (delay &lt;= 0 disables automatic batching)
+     */
+    void setMaxBatchDelay(Duration delay);
+
     interface Customizer
     {
         void customize(Configuration configurable);
@@ -89,6 +151,10 @@ public interface Configuration
         private Integer inputBufferSize;
         private Long maxBinaryMessageSize;
         private Long maxTextMessageSize;
+        private Integer maxOutgoingFrames;
+        private Long maxOutgoingBytes;
+        private OverflowPolicy outgoingOverflowPolicy;
+        private Duration maxBatchDelay;
 
         @Override
         public Duration getIdleTimeout()
@@ -186,6 +252,54 @@ public interface Configuration
             this.maxTextMessageSize = maxTextMessageSize;
         }
 
+        @Override
+        public int getMaxOutgoingFrames()
+        {
+            return maxOutgoingFrames == null ? WebSocketConstants.DEFAULT_MAX_OUTGOING_FRAMES : maxOutgoingFrames;
+        }
+
+        @Override
+        public void setMaxOutgoingFrames(int maxOutgoingFrames)
+        {
+            this.maxOutgoingFrames = maxOutgoingFrames;
+        }
+
+        @Override
+        public long getMaxOutgoingBytes()
+        {
+            return maxOutgoingBytes == null ? WebSocketConstants.DEFAULT_MAX_OUTGOING_BYTES : maxOutgoingBytes;
+        }
+
+        @Override
+        public void setMaxOutgoingBytes(long maxOutgoingBytes)
+        {
+            this.maxOutgoingBytes = maxOutgoingBytes;
+        }
+
+        @Override
+        public OverflowPolicy getOutgoingOverflowPolicy()
+        {
+            return outgoingOverflowPolicy == null ? WebSocketConstants.DEFAULT_OUTGOING_OVERFLOW_POLICY : outgoingOverflowPolicy;
+        }
+
+        @Override
+        public void setOutgoingOverflowPolicy(OverflowPolicy policy)
+        {
+            this.outgoingOverflowPolicy = policy;
+        }
+
+        @Override
+        public Duration getMaxBatchDelay()
+        {
+            return maxBatchDelay == null ? WebSocketConstants.DEFAULT_MAX_BATCH_DELAY : maxBatchDelay;
+        }
+
+        @Override
+        public void setMaxBatchDelay(Duration delay)
+        {
+            this.maxBatchDelay = delay;
+        }
+
         @Override
         public void customize(Configuration configurable)
         {
@@ -205,6 +319,14 @@ public interface Configuration
                 configurable.setMaxBinaryMessageSize(maxBinaryMessageSize);
             if (maxTextMessageSize != null)
                 configurable.setMaxTextMessageSize(maxTextMessageSize);
+            if (maxOutgoingFrames != null)
+                configurable.setMaxOutgoingFrames(maxOutgoingFrames);
+            if (maxOutgoingBytes != null)
+                configurable.setMaxOutgoingBytes(maxOutgoingBytes);
+            if (outgoingOverflowPolicy != null)
+                configurable.setOutgoingOverflowPolicy(outgoingOverflowPolicy);
+            if (maxBatchDelay != null)
+                configurable.setMaxBatchDelay(maxBatchDelay);
         }
     }
 }
@@ -0,0 +1,249 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.websocket.core;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.io.Connection;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.annotation.ManagedOperation;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.Dumpable;
+import org.eclipse.jetty.util.statistic.HistogramStatistic;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
+import org.eclipse.jetty.websocket.core.internal.FrameFlusher;
+import org.eclipse.jetty.websocket.core.internal.WebSocketConnection;
+
+/**
+ * <p>A {@link Connection.Listener} that tracks the outgoing frame queue statistics
+ * of all the WebSocket connections it is notified of.</p>
+ * <p>Adding an instance of this class as a bean to a server Connector
+ * (for the server) or as an event listener to the WebSocket client will aggregate
+ * the queue depth, time-in-queue and write batch size of every WebSocket session.
+ * The statistics of a single session are available from its {@link FrameFlusher}.
+ * Percentiles of the time-in-queue are only available here, from a histogram shared
+ * by all sessions, so that sessions do not each allocate a histogram.</p>
+ */
+@ManagedObject("Tracks statistics on WebSocket outgoing frame queues")
+public class OutgoingQueueStatistics extends AbstractLifeCycle implements Connection.Listener, Dumpable
+{
+    private final Set<FrameFlusher> flushers = ConcurrentHashMap.newKeySet();
+    private final HistogramStatistic queueTime = new HistogramStatistic(TimeUnit.MINUTES.toMicros(1));
+    private final SampleStatistic flushFrames = new SampleStatistic();
+    private final SampleStatistic flushBytes = new SampleStatistic();
+    private final LongAdder overflows = new LongAdder();
+
+    @ManagedOperation(value = "Resets the statistics", impact = "ACTION")
+    public void reset()
+    {
+        queueTime.reset();
+        flushFrames.reset();
+        flushBytes.reset();
+        overflows.reset();
+    }
+
+    @Override
+    protected void doStart() throws Exception
+    {
+        reset();
+    }
+
+    @Override
+    protected void doStop() throws Exception
+    {
+        flushers.forEach(flusher -> flusher.setStatistics(null));
+        flushers.clear();
+    }
+
+    @Override
+    public void onOpened(Connection connection)
+    {
+        if (!isStarted() || !(connection instanceof WebSocketConnection))
+            return;
+
+        FrameFlusher flusher = ((WebSocketConnection)connection).getFrameFlusher();
+        flusher.setStatistics(this);
+        flushers.add(flusher);
+    }
+
+    @Override
+    public void onClosed(Connection connection)
+    {
+        if (!(connection instanceof WebSocketConnection))
+            return;
+
+        FrameFlusher flusher = ((WebSocketConnection)connection).getFrameFlusher();
+        if (flushers.remove(flusher))
+            flusher.setStatistics(null);
+    }
+
+    /**
+     * @param micros the time in microseconds a frame waited in an outgoing queue
+     */
+    public void recordQueueTime(long micros)
+    {
+        queueTime.record(micros);
+    }
+
+    /**
+     * @param frames the number of frames gathered into a single write
+     */
+    public void recordFlushFrames(long frames)
+    {
+        flushFrames.record(frames);
+    }
+
+    /**
+     * @param bytes the number of bytes of a single write
+     */
+    public void recordFlushBytes(long bytes)
+    {
+        flushBytes.record(bytes);
+    }
+
+    /**
+     * Records that a frame exceeded the limits of an outgoing queue.
+     */
+    public void recordOverflow()
+    {
+        overflows.increment();
+    }
+
+    @ManagedAttribute("The number of tracked sessions")
+    public int getSessions()
+    {
+        return flushers.size();
+    }
+
+    @ManagedAttribute("The number of data frames currently queued by all sessions")
+    public long getQueuedFrames()
+    {
+        long frames = 0;
+        for (FrameFlusher flusher : flushers)
+        {
+            frames += flusher.getQueuedFrames();
+        }
+        return frames;
+    }
+
+    @ManagedAttribute("The number of payload bytes currently queued by all sessions")
+    public long getQueuedBytes()
+    {
+        long bytes = 0;
+        for (FrameFlusher flusher : flushers)
+        {
+            bytes += flusher.getQueuedBytes();
+        }
+        return bytes;
+    }
+
+    @ManagedAttribute("The max number of data frames currently queued by a single session")
+    public long getQueuedFramesMax()
+    {
+        long max = 0;
+        for (FrameFlusher flusher : flushers)
+        {
+            max = Math.max(max, flusher.getQueuedFrames());
+        }
+        return max;
+    }
+
+    @ManagedAttribute("The number of frames that exceeded the queue limits")
+    public long getOverflows()
+    {
+        return overflows.sum();
+    }
+
+    @ManagedAttribute("The mean time in microseconds a frame waited in a queue")
+    public double getQueueTimeMean()
+    {
+        return queueTime.getMean();
+    }
+
+    @ManagedAttribute("The max time in microseconds a frame waited in a queue")
+    public long getQueueTimeMax()
+    {
+        return queueTime.getMax();
+    }
+
+    @ManagedAttribute("The median time in microseconds a frame waited in a queue")
+    public long getQueueTimeP50()
+    {
+        return queueTime.getValueAtPercentile(50);
+    }
+
+    @ManagedAttribute("The 99th percentile of the time in microseconds a frame waited in a queue")
+    public long getQueueTimeP99()
+    {
+        return queueTime.getValueAtPercentile(99);
+    }
+
+    @ManagedAttribute("The mean number of frames per write")
+    public double getFlushFramesMean()
+    {
+        return flushFrames.getMean();
+    }
+
+    @ManagedAttribute("The max number of frames per write")
+    public long getFlushFramesMax()
+    {
+        return flushFrames.getMax();
+    }
+
+    @ManagedAttribute("The mean number of bytes per write")
+    public double getFlushBytesMean()
+    {
+        return flushBytes.getMean();
+    }
+
+    @ManagedAttribute("The max number of bytes per write")
+    public long getFlushBytesMax()
+    {
+        return flushBytes.getMax();
+    }
+
+    @Override
+    public String dump()
+    {
+        return Dumpable.dump(this);
+    }
+
+    @Override
+    public void dump(Appendable out, String indent) throws IOException
+    {
+        Dumpable.dumpObjects(out, indent, this,
+            String.format("sessions=%d", getSessions()),
+            String.format("queued frames/bytes=%d/%d", getQueuedFrames(), getQueuedBytes()),
+            String.format("queueTime=%s", queueTime),
+            String.format("flushFrames=%s", flushFrames),
+            String.format("flushBytes=%s", flushBytes),
+            String.format("overflows=%d", getOverflows()));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s@%x", getClass().getSimpleName(), hashCode());
+    }
+}
@@ -0,0 +1,46 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.websocket.core;
+
+/**
+ * The action taken when a frame is sent while the outgoing frame queue of a session
+ * is already at its configured limit.
+ *
+ * @see Configuration#setMaxOutgoingFrames(int)
+ * @see Configuration#setMaxOutgoingBytes(long)
+ */
+public enum OverflowPolicy
+{
+    /**
+     * The frame being sent is not queued and its callback is failed.
+     */
+    FAIL,
+
+    /**
+     * The oldest queued whole messages are discarded, and their callbacks failed,
+     * until the frame being sent fits in the queue. Fragments of partial messages are never
+     * discarded; if not enough space can be released the frame being sent is failed as for {@link #FAIL}.
+     */
+    DROP_OLDEST,
+
+    /**
+     * The frame being sent and all the queued frames are failed and the connection is closed.
+     */
+    CLOSE
+}
@@ -35,6 +35,10 @@ public final class WebSocketConstants
     public static final boolean DEFAULT_AUTO_FRAGMENT = true;
     public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofSeconds(30);
     public static final Duration DEFAULT_WRITE_TIMEOUT = Duration.ZERO;
+    public static final int DEFAULT_MAX_OUTGOING_FRAMES = -1;
+    public static final long DEFAULT_MAX_OUTGOING_BYTES = -1;
+    public static final OverflowPolicy DEFAULT_OUTGOING_OVERFLOW_POLICY = OverflowPolicy.FAIL;
+    public static final Duration DEFAULT_MAX_BATCH_DELAY = Duration.ZERO;
 
     /**
      * Globally Unique Identifier for use in WebSocket handshake within {@code Sec-WebSocket-Accept} and <code>Sec-WebSocket-Key</code> http headers.
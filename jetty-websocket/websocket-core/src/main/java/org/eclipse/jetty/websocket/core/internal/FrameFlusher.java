@@ -20,6 +20,7 @@ package org.eclipse.jetty.websocket.core.internal;
 
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
@@ -35,15 +36,23 @@ import org.eclipse.jetty.util.BufferUtil;
 import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.IteratingCallback;
 import org.eclipse.jetty.util.TypeUtil;
+import org.eclipse.jetty.util.annotation.ManagedAttribute;
+import org.eclipse.jetty.util.annotation.ManagedObject;
+import org.eclipse.jetty.util.statistic.SampleStatistic;
 import org.eclipse.jetty.util.thread.Scheduler;
 import org.eclipse.jetty.websocket.core.CloseStatus;
 import org.eclipse.jetty.websocket.core.Frame;
 import org.eclipse.jetty.websocket.core.OpCode;
+import org.eclipse.jetty.websocket.core.OutgoingQueueStatistics;
+import org.eclipse.jetty.websocket.core.OverflowPolicy;
+import org.eclipse.jetty.websocket.core.WebSocketConstants;
 import org.eclipse.jetty.websocket.core.exception.WebSocketException;
+import org.eclipse.jetty.websocket.core.exception.WebSocketWriteOverflowException;
 import org.eclipse.jetty.websocket.core.exception.WebSocketWriteTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+@ManagedObject("WebSocket outgoing frame queue")
 public class FrameFlusher extends IteratingCallback
 {
     public static final Frame FLUSH_FRAME = new Frame(OpCode.BINARY);
@@ -52,6 +61,10 @@ public class FrameFlusher extends IteratingCallback
 
     private final LongAdder messagesOut = new LongAdder();
     private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+    private final SampleStatistic queueTime = new SampleStatistic();
+    private final SampleStatistic flushFrames = new SampleStatistic();
+    private final SampleStatistic flushBytes = new SampleStatistic();
     private final ByteBufferPool bufferPool;
     private final EndPoint endPoint;
     private final int bufferSize;
@@ -63,6 +76,7 @@ public class FrameFlusher extends IteratingCallback
     private final List<Entry> entries;
     private final List<Entry> previousEntries;
     private final List<Entry> failedEntries;
+    private final List<Entry> autoBatchedEntries = new ArrayList<>();
 
     private List<ByteBuffer> releasableBuffers = new ArrayList<>();
     private ByteBuffer batchBuffer;
@@ -71,6 +85,18 @@ public class FrameFlusher extends IteratingCallback
     private Throwable closedCause;
     private long idleTimeout;
     private boolean useDirectByteBuffers;
+    private int maxQueuedFrames = WebSocketConstants.DEFAULT_MAX_OUTGOING_FRAMES;
+    private long maxQueuedBytes = WebSocketConstants.DEFAULT_MAX_OUTGOING_BYTES;
+    private OverflowPolicy overflowPolicy = WebSocketConstants.DEFAULT_OUTGOING_OVERFLOW_POLICY;
+    private int queuedFrames;
+    private long queuedBytes;
+    private int queuedFramesMax;
+    private long queuedBytesMax;
+    private int framesSinceFlush;
+    private long maxBatchDelay;
+    private long lastFlushTime;
+    private boolean autoFlushScheduled;
+    private OutgoingQueueStatistics statistics;
 
     public FrameFlusher(ByteBufferPool bufferPool, Scheduler scheduler, Generator generator, EndPoint endPoint, int bufferSize, int maxGather)
     {
@@ -96,6 +122,19 @@ public class FrameFlusher extends IteratingCallback
         this.useDirectByteBuffers = useDirectByteBuffers;
     }
 
+    /**
+     * @param statistics the aggregate statistics to also record this flusher's queue statistics into, or null
+     */
+    public void setStatistics(OutgoingQueueStatistics statistics)
+    {
+        this.statistics = statistics;
+    }
+
+    public OutgoingQueueStatistics getStatistics()
+    {
+        return statistics;
+    }
+
     /**
      * Enqueue a Frame to be written to the endpoint.
      *
@@ -112,13 +151,42 @@ public class FrameFlusher extends IteratingCallback
 
         Throwable dead;
         List<Entry> failedEntries = null;
+        List<Entry> droppedEntries = null;
         CloseStatus closeStatus = null;
+        boolean overflowClose = false;
 
         synchronized (this)
         {
             if (canEnqueue)
             {
                 dead = closedCause;
+                if (dead == null && entry.isLimited() && isOverflow(entry))
+                {
+                    overflows.increment();
+                    if (statistics != null)
+                        statistics.recordOverflow();
+
+                    switch (overflowPolicy)
+                    {
+                        case DROP_OLDEST:
+                            droppedEntries = dropOldest(entry);
+                            if (isOverflow(entry))
+                                dead = new WebSocketWriteOverflowException("Outgoing queue full " + this);
+                            break;
+
+                        case CLOSE:
+                            dead = new WebSocketWriteOverflowException("Outgoing queue full " + this);
+                            canEnqueue = false;
+                            closedCause = dead;
+                            overflowClose = true;
+                            break;
+
+                        default:
+                            dead = new WebSocketWriteOverflowException("Outgoing queue full " + this);
+                            break;
+                    }
+                }
+
                 if (dead == null)
                 {
                     switch (opCode)
@@ -129,9 +197,9 @@ public class FrameFlusher extends IteratingCallback
                             {
                                 //fail all existing entries in the queue, and enqueue the error close
                                 failedEntries = new ArrayList<>(queue);
-                                queue.clear();
+                                clearQueue();
                             }
-                            queue.offerLast(entry);
+                            offerLast(entry);
                             this.canEnqueue = false;
                             break;
 
@@ -141,7 +209,7 @@ public class FrameFlusher extends IteratingCallback
                             break;
 
                         default:
-                            queue.offerLast(entry);
+                            offerLast(entry);
                             break;
                     }
 
@@ -172,6 +240,18 @@ public class FrameFlusher extends IteratingCallback
             }
         }
 
+        if (droppedEntries != null)
+        {
+            WebSocketWriteOverflowException failure = new WebSocketWriteOverflowException("Dropped from outgoing queue " + this);
+            for (Entry e : droppedEntries)
+            {
+                notifyCallbackFailure(e.callback, failure);
+            }
+        }
+
+        if (overflowClose)
+            iterate();
+
         if (dead == null)
         {
             if (LOG.isDebugEnabled())
@@ -184,6 +264,70 @@ public class FrameFlusher extends IteratingCallback
         return false;
     }
 
+    private boolean isOverflow(Entry entry)
+    {
+        // A frame is always accepted by an empty queue, so that frames larger than the byte limit can still be sent.
+        if (queuedFrames == 0)
+            return false;
+        if (maxQueuedFrames > 0 && queuedFrames + 1 > maxQueuedFrames)
+            return true;
+        return maxQueuedBytes > 0 && queuedBytes + entry.frame.getPayloadLength() > maxQueuedBytes;
+    }
+
+    private List<Entry> dropOldest(Entry entry)
+    {
+        List<Entry> dropped = new ArrayList<>();
+        Iterator<Entry> iterator = queue.iterator();
+        while (isOverflow(entry) && iterator.hasNext())
+        {
+            Entry queued = iterator.next();
+            // Only whole messages can be dropped without corrupting the framing of the stream.
+            if (queued.isLimited() && queued.frame.isFin() && queued.frame.getOpCode() != OpCode.CONTINUATION)
+            {
+                iterator.remove();
+                onDequeued(queued);
+                dropped.add(queued);
+            }
+        }
+        return dropped;
+    }
+
+    private void offerLast(Entry entry)
+    {
+        queue.offerLast(entry);
+        if (entry.isLimited())
+        {
+            queuedFrames++;
+            queuedBytes += entry.frame.getPayloadLength();
+            queuedFramesMax = Math.max(queuedFramesMax, queuedFrames);
+            queuedBytesMax = Math.max(queuedBytesMax, queuedBytes);
+        }
+    }
+
+    private Entry poll()
+    {
+        Entry entry = queue.poll();
+        if (entry != null)
+            onDequeued(entry);
+        return entry;
+    }
+
+    private void onDequeued(Entry entry)
+    {
+        if (entry.isLimited())
+        {
+            queuedFrames--;
+            queuedBytes -= entry.frame.getPayloadLength();
+        }
+    }
+
+    private void clearQueue()
+    {
+        queue.clear();
+        queuedFrames = 0;
+        queuedBytes = 0;
+    }
+
     public void onClose(Throwable cause)
     {
         synchronized (this)
@@ -201,6 +345,7 @@ public class FrameFlusher extends IteratingCallback
             LOG.debug("Flushing {}", this);
 
         boolean flush = false;
+        boolean autoBatched = false;
         Callback releasingCallback = this;
         synchronized (this)
         {
@@ -214,9 +359,10 @@ public class FrameFlusher extends IteratingCallback
             if (flushed && batchBuffer != null)
                 BufferUtil.clear(batchBuffer);
 
+            long now = System.nanoTime();
             while (!queue.isEmpty() && entries.size() <= maxGather)
             {
-                Entry entry = queue.poll();
+                Entry entry = poll();
                 entries.add(entry);
                 if (entry.frame == FLUSH_FRAME)
                 {
@@ -225,10 +371,23 @@ public class FrameFlusher extends IteratingCallback
                 }
 
                 messagesOut.increment();
+                framesSinceFlush++;
+                long queued = TimeUnit.NANOSECONDS.toMicros(now - entry.getTimeOfCreation());
+                queueTime.record(queued);
+                if (statistics != null)
+                    statistics.recordQueueTime(queued);
 
                 int batchSpace = batchBuffer == null ? bufferSize : BufferUtil.space(batchBuffer);
 
-                boolean batch = entry.batch &&
+                // The batchBuffer can only be appended to if no other buffer follows it, otherwise frames would be reordered.
+                boolean batchBufferUsable = buffers.isEmpty() || buffers.get(buffers.size() - 1) == batchBuffer;
+
+                // Frames not explicitly batched are batched automatically if we have recently written,
+                // otherwise a frame sent after a quiet period is written immediately.
+                boolean autoBatch = !entry.batch && maxBatchDelay > 0 && now - lastFlushTime < maxBatchDelay;
+
+                boolean batch = (entry.batch || autoBatch) &&
+                    batchBufferUsable &&
                     !entry.frame.isControlFrame() &&
                     entry.frame.getPayloadLength() < bufferSize / 4 &&
                     (batchSpace - Generator.MAX_HEADER_LENGTH) >= entry.frame.getPayloadLength();
@@ -237,19 +396,27 @@ public class FrameFlusher extends IteratingCallback
                 {
                     // Acquire a batchBuffer if we don't have one.
                     if (batchBuffer == null)
-                    {
                         batchBuffer = acquireBuffer(bufferSize);
+                    if (buffers.isEmpty())
                         buffers.add(batchBuffer);
-                    }
 
                     // Generate the frame into the batchBuffer.
                     generator.generateWholeFrame(entry.frame, batchBuffer);
+                    if (autoBatch)
+                    {
+                        // The sender did not ask for batching, so only succeed it once the batch is written.
+                        entries.remove(entries.size() - 1);
+                        autoBatchedEntries.add(entry);
+                        autoBatched = true;
+                    }
                 }
                 else
                 {
-                    if (batchBuffer != null && batchSpace >= Generator.MAX_HEADER_LENGTH)
+                    if (batchBuffer != null && batchBufferUsable && batchSpace >= Generator.MAX_HEADER_LENGTH)
                     {
                         // Use the batch space for our header.
+                        if (buffers.isEmpty())
+                            buffers.add(batchBuffer);
                         generator.generateHeader(entry.frame, batchBuffer);
                     }
                     else
@@ -283,6 +450,15 @@ public class FrameFlusher extends IteratingCallback
             // If we are going to flush we should release any buffers we have allocated after the callback completes.
             if (flush)
             {
+                lastFlushTime = now;
+                // The automatically batched entries precede the entries of this write.
+                entries.addAll(0, autoBatchedEntries);
+                autoBatchedEntries.clear();
+                flushFrames.record(framesSinceFlush);
+                if (statistics != null)
+                    statistics.recordFlushFrames(framesSinceFlush);
+                framesSinceFlush = 0;
+
                 final List<ByteBuffer> callbackBuffers = releasableBuffers;
                 releasableBuffers = new ArrayList<>();
                 releasingCallback = Callback.from(releasingCallback, () ->
@@ -293,6 +469,12 @@ public class FrameFlusher extends IteratingCallback
                     }
                 });
             }
+            else if (autoBatched && !autoFlushScheduled)
+            {
+                // Automatically batched frames are flushed at the latest after the max batch delay.
+                autoFlushScheduled = true;
+                timeoutScheduler.schedule(this::autoFlush, maxBatchDelay, TimeUnit.NANOSECONDS);
+            }
         }
 
         if (LOG.isDebugEnabled())
@@ -330,6 +512,9 @@ public class FrameFlusher extends IteratingCallback
                 bufferArray[i++] = bb;
             }
             bytesOut.add(bytes);
+            flushBytes.record(bytes);
+            if (statistics != null)
+                statistics.recordFlushBytes(bytes);
             endPoint.write(releasingCallback, bufferArray);
             buffers.clear();
         }
@@ -342,6 +527,19 @@ public class FrameFlusher extends IteratingCallback
         return Action.SCHEDULED;
     }
 
+    private void autoFlush()
+    {
+        synchronized (this)
+        {
+            autoFlushScheduled = false;
+            if (closedCause != null || autoBatchedEntries.isEmpty())
+                return;
+        }
+
+        if (enqueue(FLUSH_FRAME, Callback.NOOP, false))
+            iterate();
+    }
+
     private ByteBuffer acquireBuffer(int capacity)
     {
         return bufferPool.acquire(capacity, isUseDirectByteBuffers());
@@ -363,40 +561,43 @@ public class FrameFlusher extends IteratingCallback
             if (closedCause != null)
                 return;
 
-            long currentTime = System.currentTimeMillis();
-            long expiredIfCreatedBefore = currentTime - idleTimeout;
-            long earliestEntry = currentTime;
+            long currentTime = System.nanoTime();
+            long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+            long oldestAge = 0;
 
             /* Iterate through entries in both the queue and entries list.
             If any entry has expired then we fail the FrameFlusher.
             Otherwise we will try to schedule a new timeout. */
-            Iterator<Entry> iterator = TypeUtil.concat(entries.iterator(), queue.iterator());
+            Iterator<Entry> iterator = TypeUtil.concat(TypeUtil.concat(autoBatchedEntries.iterator(), entries.iterator()), queue.iterator());
             while (iterator.hasNext())
             {
                 Entry entry = iterator.next();
 
-                if (entry.getTimeOfCreation() <= expiredIfCreatedBefore)
+                long age = currentTime - entry.getTimeOfCreation();
+                if (age >= timeout)
                 {
                     LOG.warn("FrameFlusher write timeout on entry: {}", entry);
                     failed = true;
                     canEnqueue = false;
                     closedCause = new WebSocketWriteTimeoutException("FrameFlusher Write Timeout");
+                    failedEntries.addAll(autoBatchedEntries);
+                    autoBatchedEntries.clear();
                     failedEntries.addAll(entries);
                     failedEntries.addAll(queue);
                     entries.clear();
-                    queue.clear();
+                    clearQueue();
                     break;
                 }
 
-                if (entry.getTimeOfCreation() < earliestEntry)
-                    earliestEntry = entry.getTimeOfCreation();
+                if (age > oldestAge)
+                    oldestAge = age;
             }
 
             // if a timeout is set schedule a new timeout if we haven't failed and still have entries
-            if (!failed && idleTimeout > 0 && !(entries.isEmpty() && queue.isEmpty()))
+            if (!failed && idleTimeout > 0 && !(autoBatchedEntries.isEmpty() && entries.isEmpty() && queue.isEmpty()))
             {
-                long nextTimeout = earliestEntry + idleTimeout - currentTime;
-                timeoutScheduler.schedule(this::timeoutExpired, nextTimeout, TimeUnit.MILLISECONDS);
+                long nextTimeout = timeout - oldestAge;
+                timeoutScheduler.schedule(this::timeoutExpired, nextTimeout, TimeUnit.NANOSECONDS);
             }
         }
 
@@ -411,8 +612,11 @@ public class FrameFlusher extends IteratingCallback
         releaseAggregate();
         synchronized (this)
         {
+            failedEntries.addAll(autoBatchedEntries);
+            autoBatchedEntries.clear();
+
             failedEntries.addAll(queue);
-            queue.clear();
+            clearQueue();
 
             failedEntries.addAll(entries);
             entries.clear();
@@ -484,16 +688,171 @@ public class FrameFlusher extends IteratingCallback
         this.idleTimeout = idleTimeout;
     }
 
+    @ManagedAttribute("The write timeout in ms")
     public long getIdleTimeout()
     {
         return idleTimeout;
     }
 
+    @ManagedAttribute("The max delay in ns before automatically batched frames are written")
+    public long getMaxBatchDelay()
+    {
+        return maxBatchDelay;
+    }
+
+    /**
+     * <p>Set the max delay before frames that were automatically batched are written.</p>
+     * <p>When enabled, small data frames that are not explicitly batched by the sender are
+     * aggregated into the batch buffer if another write happened within the delay. The batch
+     * is written when it is full, when a frame that cannot be batched is sent, or when the
+     * delay expires. A frame sent after a quiet period longer than the delay is written immediately.
+     * The callbacks of automatically batched frames are only completed once the batch is written.</p>
+     *
+     * @param maxBatchDelay the max batch delay, or a duration &lt;= 0 to disable automatic batching
+     */
+    public void setMaxBatchDelay(Duration maxBatchDelay)
+    {
+        synchronized (this)
+        {
+            this.maxBatchDelay = maxBatchDelay == null || maxBatchDelay.isNegative() ? 0 : maxBatchDelay.toNanos();
+            // As if the last write was long enough ago, so that the first frame is written immediately.
+            lastFlushTime = System.nanoTime() - this.maxBatchDelay;
+        }
+    }
+
+    @ManagedAttribute("The maximum number of data frames that may be queued")
+    public int getMaxQueuedFrames()
+    {
+        return maxQueuedFrames;
+    }
+
+    public void setMaxQueuedFrames(int maxQueuedFrames)
+    {
+        synchronized (this)
+        {
+            this.maxQueuedFrames = maxQueuedFrames;
+        }
+    }
+
+    @ManagedAttribute("The maximum number of payload bytes that may be queued")
+    public long getMaxQueuedBytes()
+    {
+        return maxQueuedBytes;
+    }
+
+    public void setMaxQueuedBytes(long maxQueuedBytes)
+    {
+        synchronized (this)
+        {
+            this.maxQueuedBytes = maxQueuedBytes;
+        }
+    }
+
+    @ManagedAttribute("The policy applied when the queue limits are exceeded")
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy)
+    {
+        synchronized (this)
+        {
+            this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        }
+    }
+
+    @ManagedAttribute("The number of data frames currently queued")
+    public int getQueuedFrames()
+    {
+        synchronized (this)
+        {
+            return queuedFrames;
+        }
+    }
+
+    @ManagedAttribute("The number of payload bytes currently queued")
+    public long getQueuedBytes()
+    {
+        synchronized (this)
+        {
+            return queuedBytes;
+        }
+    }
+
+    @ManagedAttribute("The max number of data frames queued")
+    public int getQueuedFramesMax()
+    {
+        synchronized (this)
+        {
+            return queuedFramesMax;
+        }
+    }
+
+    @ManagedAttribute("The max number of payload bytes queued")
+    public long getQueuedBytesMax()
+    {
+        synchronized (this)
+        {
+            return queuedBytesMax;
+        }
+    }
+
+    @ManagedAttribute("The number of frames that exceeded the queue limits")
+    public long getOverflows()
+    {
+        return overflows.longValue();
+    }
+
+    @ManagedAttribute("The mean time in microseconds a frame waited in the queue")
+    public double getQueueTimeMean()
+    {
+        return queueTime.getMean();
+    }
+
+    @ManagedAttribute("The max time in microseconds a frame waited in the queue")
+    public long getQueueTimeMax()
+    {
+        return queueTime.getMax();
+    }
+
+    @ManagedAttribute("The standard deviation of the time a frame waited in the queue")
+    public double getQueueTimeStdDev()
+    {
+        return queueTime.getStdDev();
+    }
+
+    @ManagedAttribute("The mean number of frames per write")
+    public double getFlushFramesMean()
+    {
+        return flushFrames.getMean();
+    }
+
+    @ManagedAttribute("The max number of frames per write")
+    public long getFlushFramesMax()
+    {
+        return flushFrames.getMax();
+    }
+
+    @ManagedAttribute("The mean number of bytes per write")
+    public double getFlushBytesMean()
+    {
+        return flushBytes.getMean();
+    }
+
+    @ManagedAttribute("The max number of bytes per write")
+    public long getFlushBytesMax()
+    {
+        return flushBytes.getMax();
+    }
+
+    @ManagedAttribute("The number of frames sent")
     public long getMessagesOut()
     {
         return messagesOut.longValue();
     }
 
+    @ManagedAttribute("The number of bytes sent")
     public long getBytesOut()
     {
         return bytesOut.longValue();
@@ -502,16 +861,17 @@ public class FrameFlusher extends IteratingCallback
     @Override
     public String toString()
     {
-        return String.format("%s[queueSize=%d,aggregate=%s]",
+        return String.format("%s[queueSize=%d,queuedBytes=%d,aggregate=%s]",
             super.toString(),
             getQueueSize(),
+            getQueuedBytes(),
             BufferUtil.toDetailString(batchBuffer));
     }
 
     private class Entry extends FrameEntry
     {
         private ByteBuffer headerBuffer;
-        private long timeOfCreation = System.currentTimeMillis();
+        private final long timeOfCreation = System.nanoTime();
 
         private Entry(Frame frame, Callback callback, boolean batch)
         {
@@ -523,6 +883,14 @@ public class FrameFlusher extends IteratingCallback
             return timeOfCreation;
         }
 
+        /**
+         * @return whether this entry counts towards the queue limits, which only apply to data frames
+         */
+        private boolean isLimited()
+        {
+            return frame != FLUSH_FRAME && !frame.isControlFrame();
+        }
+
         @Override
         public String toString()
         {
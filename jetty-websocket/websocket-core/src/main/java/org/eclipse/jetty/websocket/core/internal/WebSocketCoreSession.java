@@ -43,6 +43,7 @@ import org.eclipse.jetty.websocket.core.FrameHandler;
 import org.eclipse.jetty.websocket.core.IncomingFrames;
 import org.eclipse.jetty.websocket.core.OpCode;
 import org.eclipse.jetty.websocket.core.OutgoingFrames;
+import org.eclipse.jetty.websocket.core.OverflowPolicy;
 import org.eclipse.jetty.websocket.core.WebSocketComponents;
 import org.eclipse.jetty.websocket.core.WebSocketConstants;
 import org.eclipse.jetty.websocket.core.exception.CloseException;
@@ -81,6 +82,10 @@ public class WebSocketCoreSession implements IncomingFrames, CoreSession, Dumpab
     private long maxTextMessageSize = WebSocketConstants.DEFAULT_MAX_TEXT_MESSAGE_SIZE;
     private Duration idleTimeout = WebSocketConstants.DEFAULT_IDLE_TIMEOUT;
     private Duration writeTimeout = WebSocketConstants.DEFAULT_WRITE_TIMEOUT;
+    private int maxOutgoingFrames = WebSocketConstants.DEFAULT_MAX_OUTGOING_FRAMES;
+    private long maxOutgoingBytes = WebSocketConstants.DEFAULT_MAX_OUTGOING_BYTES;
+    private OverflowPolicy outgoingOverflowPolicy = WebSocketConstants.DEFAULT_OUTGOING_OVERFLOW_POLICY;
+    private Duration maxBatchDelay = WebSocketConstants.DEFAULT_MAX_BATCH_DELAY;
     private final ContextHandler contextHandler;
 
     public WebSocketCoreSession(FrameHandler handler, Behavior behavior, Negotiated negotiated, WebSocketComponents components)
@@ -289,6 +294,10 @@ public class WebSocketCoreSession implements IncomingFrames, CoreSession, Dumpab
     {
         connection.getEndPoint().setIdleTimeout(idleTimeout.toMillis());
         connection.getFrameFlusher().setIdleTimeout(writeTimeout.toMillis());
+        connection.getFrameFlusher().setMaxQueuedFrames(maxOutgoingFrames);
+        connection.getFrameFlusher().setMaxQueuedBytes(maxOutgoingBytes);
+        connection.getFrameFlusher().setOverflowPolicy(outgoingOverflowPolicy);
+        connection.getFrameFlusher().setMaxBatchDelay(maxBatchDelay);
         this.connection = connection;
     }
 
@@ -674,6 +683,62 @@ public class WebSocketCoreSession implements IncomingFrames, CoreSession, Dumpab
         maxTextMessageSize = maxSize;
     }
 
+    @Override
+    public int getMaxOutgoingFrames()
+    {
+        return maxOutgoingFrames;
+    }
+
+    @Override
+    public void setMaxOutgoingFrames(int maxOutgoingFrames)
+    {
+        this.maxOutgoingFrames = maxOutgoingFrames;
+        if (connection != null)
+            connection.getFrameFlusher().setMaxQueuedFrames(maxOutgoingFrames);
+    }
+
+    @Override
+    public long getMaxOutgoingBytes()
+    {
+        return maxOutgoingBytes;
+    }
+
+    @Override
+    public void setMaxOutgoingBytes(long maxOutgoingBytes)
+    {
+        this.maxOutgoingBytes = maxOutgoingBytes;
+        if (connection != null)
+            connection.getFrameFlusher().setMaxQueuedBytes(maxOutgoingBytes);
+    }
+
+    @Override
+    public OverflowPolicy getOutgoingOverflowPolicy()
+    {
+        return outgoingOverflowPolicy;
+    }
+
+    @Override
+    public void setOutgoingOverflowPolicy(OverflowPolicy policy)
+    {
+        this.outgoingOverflowPolicy = policy;
+        if (connection != null)
+            connection.getFrameFlusher().setOverflowPolicy(policy);
+    }
+
+    @Override
+    public Duration getMaxBatchDelay()
+    {
+        return maxBatchDelay;
+    }
+
+    @Override
+    public void setMaxBatchDelay(Duration delay)
+    {
+        this.maxBatchDelay = delay;
+        if (connection != null)
+            connection.getFrameFlusher().setMaxBatchDelay(delay);
+    }
+
     private class IncomingAdaptor implements IncomingFrames
     {
         @Override
@@ -21,7 +21,10 @@ package org.eclipse.jetty.websocket.core.internal;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.WritePendingException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
@@ -29,6 +32,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.io.ByteBufferPool;
@@ -40,7 +44,10 @@ import org.eclipse.jetty.util.thread.Scheduler;
 import org.eclipse.jetty.websocket.core.CloseStatus;
 import org.eclipse.jetty.websocket.core.Frame;
 import org.eclipse.jetty.websocket.core.OpCode;
+import org.eclipse.jetty.websocket.core.OutgoingQueueStatistics;
+import org.eclipse.jetty.websocket.core.OverflowPolicy;
 import org.eclipse.jetty.websocket.core.WebSocketConstants;
+import org.eclipse.jetty.websocket.core.exception.WebSocketWriteOverflowException;
 import org.eclipse.jetty.websocket.core.exception.WebSocketWriteTimeoutException;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -50,7 +57,10 @@ import org.slf4j.LoggerFactory;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -231,6 +241,219 @@ public class FrameFlusherTest
         assertTrue(succeededCloseFrame.await(1, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testMaxQueuedFramesFail() throws Exception
+    {
+        Generator generator = new Generator();
+        CapturingEndPoint endPoint = new CapturingEndPoint(bufferPool);
+        int bufferSize = WebSocketConstants.DEFAULT_MAX_TEXT_MESSAGE_SIZE;
+        int maxGather = 8;
+        FrameFlusher frameFlusher = new FrameFlusher(bufferPool, scheduler, generator, endPoint, bufferSize, maxGather);
+        frameFlusher.setMaxQueuedFrames(2);
+
+        FutureCallback callback1 = new FutureCallback();
+        FutureCallback callback2 = new FutureCallback();
+        FutureCallback callback3 = new FutureCallback();
+        assertTrue(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("one").setFin(true), callback1, false));
+        assertTrue(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("two").setFin(true), callback2, false));
+        assertFalse(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("three").setFin(true), callback3, false));
+
+        ExecutionException x = assertThrows(ExecutionException.class, () -> callback3.get(5, TimeUnit.SECONDS));
+        assertThat(x.getCause(), instanceOf(WebSocketWriteOverflowException.class));
+
+        // Control frames are not subject to the limits.
+        FutureCallback pingCallback = new FutureCallback();
+        assertTrue(frameFlusher.enqueue(new Frame(OpCode.PING), pingCallback, false));
+
+        assertThat(frameFlusher.getQueuedFrames(), is(2));
+        assertThat(frameFlusher.getQueuedBytes(), is(6L));
+        assertThat(frameFlusher.getOverflows(), is(1L));
+
+        frameFlusher.iterate();
+        callback1.get(5, TimeUnit.SECONDS);
+        callback2.get(5, TimeUnit.SECONDS);
+        pingCallback.get(5, TimeUnit.SECONDS);
+        assertThat(frameFlusher.getQueuedFrames(), is(0));
+        assertThat(frameFlusher.getQueuedBytes(), is(0L));
+        assertThat(frameFlusher.getQueuedFramesMax(), is(2));
+    }
+
+    @Test
+    public void testMaxQueuedBytesDropOldest() throws Exception
+    {
+        Generator generator = new Generator();
+        CapturingEndPoint endPoint = new CapturingEndPoint(bufferPool);
+        int bufferSize = WebSocketConstants.DEFAULT_MAX_TEXT_MESSAGE_SIZE;
+        int maxGather = 8;
+        FrameFlusher frameFlusher = new FrameFlusher(bufferPool, scheduler, generator, endPoint, bufferSize, maxGather);
+        frameFlusher.setMaxQueuedBytes(10);
+        frameFlusher.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+
+        FutureCallback partialCallback = new FutureCallback();
+        FutureCallback continuationCallback = new FutureCallback();
+        FutureCallback wholeCallback = new FutureCallback();
+        FutureCallback newCallback = new FutureCallback();
+        assertTrue(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("ab").setFin(false), partialCallback, false));
+        assertTrue(frameFlusher.enqueue(new Frame(OpCode.CONTINUATION).setPayload("cd").setFin(true), continuationCallback, false));
+        assertTrue(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("efghij").setFin(true), wholeCallback, false));
+        assertTrue(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("klmnop").setFin(true), newCallback, false));
+
+        // Only the whole message can be dropped, the fragments of the partial message are kept.
+        ExecutionException x = assertThrows(ExecutionException.class, () -> wholeCallback.get(5, TimeUnit.SECONDS));
+        assertThat(x.getCause(), instanceOf(WebSocketWriteOverflowException.class));
+        assertThat(frameFlusher.getQueuedFrames(), is(3));
+        assertThat(frameFlusher.getQueuedBytes(), is(10L));
+
+        frameFlusher.iterate();
+        partialCallback.get(5, TimeUnit.SECONDS);
+        continuationCallback.get(5, TimeUnit.SECONDS);
+        newCallback.get(5, TimeUnit.SECONDS);
+        assertThat(endPoint.incomingFrames.size(), is(3));
+    }
+
+    @Test
+    public void testMaxQueuedFramesClose() throws Exception
+    {
+        Generator generator = new Generator();
+        BlockingEndpoint endPoint = new BlockingEndpoint(bufferPool);
+        int bufferSize = WebSocketConstants.DEFAULT_MAX_TEXT_MESSAGE_SIZE;
+        int maxGather = 8;
+
+        CountDownLatch flusherFailure = new CountDownLatch(1);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        FrameFlusher frameFlusher = new FrameFlusher(bufferPool, scheduler, generator, endPoint, bufferSize, maxGather)
+        {
+            @Override
+            public void onCompleteFailure(Throwable failure)
+            {
+                error.set(failure);
+                flusherFailure.countDown();
+                super.onCompleteFailure(failure);
+            }
+        };
+        frameFlusher.setMaxQueuedFrames(1);
+        frameFlusher.setOverflowPolicy(OverflowPolicy.CLOSE);
+
+        FutureCallback callback1 = new FutureCallback();
+        FutureCallback callback2 = new FutureCallback();
+        assertTrue(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("one").setFin(true), callback1, false));
+        assertFalse(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("two").setFin(true), callback2, false));
+
+        assertTrue(flusherFailure.await(5, TimeUnit.SECONDS));
+        assertThat(error.get(), instanceOf(WebSocketWriteOverflowException.class));
+        ExecutionException x = assertThrows(ExecutionException.class, () -> callback1.get(5, TimeUnit.SECONDS));
+        assertThat(x.getCause(), instanceOf(WebSocketWriteOverflowException.class));
+        assertFalse(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("three").setFin(true), Callback.NOOP, false));
+    }
+
+    @Test
+    public void testQueueStatistics() throws Exception
+    {
+        Generator generator = new Generator();
+        CapturingEndPoint endPoint = new CapturingEndPoint(bufferPool);
+        int bufferSize = WebSocketConstants.DEFAULT_MAX_TEXT_MESSAGE_SIZE;
+        int maxGather = 8;
+        FrameFlusher frameFlusher = new FrameFlusher(bufferPool, scheduler, generator, endPoint, bufferSize, maxGather);
+        OutgoingQueueStatistics statistics = new OutgoingQueueStatistics();
+        statistics.start();
+        frameFlusher.setStatistics(statistics);
+
+        FutureCallback callback = new FutureCallback();
+        for (int i = 0; i < 4; i++)
+        {
+            frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("message " + i).setFin(true), Callback.NOOP, true);
+        }
+        frameFlusher.enqueue(FrameFlusher.FLUSH_FRAME, callback, false);
+        frameFlusher.iterate();
+        callback.get(5, TimeUnit.SECONDS);
+
+        assertThat(frameFlusher.getMessagesOut(), is(4L));
+        assertThat(frameFlusher.getFlushFramesMax(), is(4L));
+        assertThat(statistics.getFlushFramesMax(), is(4L));
+        assertThat(statistics.getFlushBytesMax(), is(frameFlusher.getBytesOut()));
+        assertThat(statistics.getQueueTimeMax(), greaterThanOrEqualTo(0L));
+        assertThat(statistics.getQueueTimeP99(), lessThanOrEqualTo(statistics.getQueueTimeMax()));
+        assertThat(statistics.getQueueTimeP50(), lessThanOrEqualTo(statistics.getQueueTimeP99()));
+        assertThat(frameFlusher.getQueueTimeMax(), lessThanOrEqualTo(statistics.getQueueTimeMax()));
+        statistics.stop();
+    }
+
+    @Test
+    public void testAutoBatch() throws Exception
+    {
+        Generator generator = new Generator();
+        AtomicInteger writes = new AtomicInteger();
+        LinkedBlockingQueue<String> written = new LinkedBlockingQueue<>();
+        CapturingEndPoint endPoint = new CapturingEndPoint(bufferPool)
+        {
+            @Override
+            public void write(Callback callback, ByteBuffer... buffers) throws WritePendingException
+            {
+                // A batched write carries several frames in a single buffer.
+                writes.incrementAndGet();
+                for (ByteBuffer buffer : buffers)
+                {
+                    while (buffer.hasRemaining())
+                    {
+                        Parser.ParsedFrame frame = parser.parse(buffer);
+                        if (frame == null)
+                            break;
+                        written.offer(OpCode.name(frame.getOpCode()) + " " + frame.getPayloadAsUTF8());
+                    }
+                }
+                callback.succeeded();
+            }
+        };
+        int bufferSize = WebSocketConstants.DEFAULT_MAX_TEXT_MESSAGE_SIZE;
+        int maxGather = 8;
+        FrameFlusher frameFlusher = new FrameFlusher(bufferPool, scheduler, generator, endPoint, bufferSize, maxGather);
+        frameFlusher.setMaxBatchDelay(Duration.ofMillis(500));
+
+        // The first frame is written immediately.
+        FutureCallback first = new FutureCallback();
+        assertTrue(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("first").setFin(true), first, false));
+        frameFlusher.iterate();
+        first.get(5, TimeUnit.SECONDS);
+        assertThat(writes.get(), is(1));
+        assertThat(written.poll(), is("TEXT first"));
+
+        // Frames sent soon after are batched, and only completed once the batch is written.
+        int messageCount = 5;
+        List<FutureCallback> callbacks = new ArrayList<>();
+        for (int i = 0; i < messageCount; i++)
+        {
+            FutureCallback callback = new FutureCallback();
+            callbacks.add(callback);
+            assertTrue(frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("message " + i).setFin(true), callback, false));
+            frameFlusher.iterate();
+        }
+        for (FutureCallback callback : callbacks)
+        {
+            assertFalse(callback.isDone());
+        }
+        assertThat(writes.get(), is(1));
+
+        for (FutureCallback callback : callbacks)
+        {
+            callback.get(5, TimeUnit.SECONDS);
+        }
+        assertThat(writes.get(), is(2));
+        for (int i = 0; i < messageCount; i++)
+        {
+            assertThat(written.poll(), is("TEXT message " + i));
+        }
+
+        // A control frame jumps the queue and is written immediately, together with the batched frames.
+        FutureCallback batched = new FutureCallback();
+        frameFlusher.enqueue(new Frame(OpCode.TEXT).setPayload("batched").setFin(true), batched, false);
+        frameFlusher.enqueue(new Frame(OpCode.PING), Callback.NOOP, false);
+        frameFlusher.iterate();
+        batched.get(5, TimeUnit.SECONDS);
+        assertThat(writes.get(), is(3));
+        assertThat(written.poll(), is("PING "));
+        assertThat(written.poll(), is("TEXT batched"));
+    }
+
     public static class CapturingEndPoint extends MockEndpoint
     {
         public Parser parser;
@@ -0,0 +1,174 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.session.CompactSessionDataSerializer;
+import org.eclipse.jetty.server.session.FileSessionDataStore;
+import org.eclipse.jetty.server.session.JavaSessionDataSerializer;
+import org.eclipse.jetty.server.session.SessionContext;
+import org.eclipse.jetty.server.session.SessionData;
+import org.eclipse.jetty.server.session.SessionDataSerializer;
+import org.eclipse.jetty.util.IO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+public class SessionDataSerializerBenchmark
+{
+    @Param({"JAVA", "COMPACT", "COMPACT_DEFLATE"})
+    public String serializerType;
+
+    @Param({"SMALL", "CART"})
+    public String sessionType;
+
+    private SessionDataSerializer serializer;
+    private SessionData data;
+    private byte[] serialized;
+    private File storeDir;
+    private FileSessionDataStore store;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception
+    {
+        switch (serializerType)
+        {
+            case "JAVA":
+                serializer = new JavaSessionDataSerializer();
+                break;
+            case "COMPACT":
+                serializer = new CompactSessionDataSerializer();
+                break;
+            case "COMPACT_DEFLATE":
+                CompactSessionDataSerializer compact = new CompactSessionDataSerializer();
+                compact.setCompressionThreshold(1024);
+                serializer = compact;
+                break;
+            default:
+                throw new IllegalStateException("Unknown serializerType " + serializerType);
+        }
+
+        long now = System.currentTimeMillis();
+        data = new SessionData("benchmark", "", "0.0.0.0", now, now, now, TimeUnit.MINUTES.toMillis(30));
+        data.setLastNode("node0");
+        data.setAttribute("user", "someone@example.com");
+        data.setAttribute("counter", 42);
+        data.setAttribute("lastLogin", now);
+        data.setAttribute("admin", Boolean.FALSE);
+        if ("CART".equals(sessionType))
+        {
+            List<Object> items = new ArrayList<>();
+            for (int i = 0; i < 500; i++)
+            {
+                Map<String, Object> item = new HashMap<>();
+                item.put("sku", "SKU-" + (i % 50));
+                item.put("quantity", i % 5 + 1);
+                item.put("price", 9.99D + i % 7);
+                items.add(item);
+            }
+            data.setAttribute("cart", items);
+            data.setAttribute("token", new byte[4096]);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serializeAttributes(data, out);
+        serialized = out.toByteArray();
+
+        storeDir = Files.createTempDirectory("sessions").toFile();
+        store = new FileSessionDataStore();
+        store.setStoreDir(storeDir);
+        store.setSessionDataSerializer(serializer);
+        store.initialize(new SessionContext("node0", null));
+        store.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopTrial() throws Exception
+    {
+        store.stop();
+        IO.delete(storeDir);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public byte[] testSerialize() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(serialized.length);
+        serializer.serializeAttributes(data, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SessionData testDeserialize() throws Exception
+    {
+        SessionData result = new SessionData("benchmark", "", "0.0.0.0", 0, 0, 0, 0);
+        serializer.deserializeAttributes(result, new ByteArrayInputStream(serialized));
+        return result;
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.AverageTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SessionData testFileStoreAndLoad() throws Exception
+    {
+        data.setDirty(true);
+        store.store(data.getId(), data);
+        return store.load(data.getId());
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+            .include(SessionDataSerializerBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .forks(1)
+            .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,134 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.websocket.core.jmh;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.websocket.core.CoreSession;
+import org.eclipse.jetty.websocket.core.Frame;
+import org.eclipse.jetty.websocket.core.OpCode;
+import org.eclipse.jetty.websocket.util.messages.ByteBufferMessageSink;
+import org.eclipse.jetty.websocket.util.messages.MessageSink;
+import org.eclipse.jetty.websocket.util.messages.StringMessageSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+public class MessageSinkBenchmark
+{
+    @Param({"64", "4096", "65536"})
+    public int messageSize;
+
+    @Param({"1", "4"})
+    public int fragments;
+
+    private MessageSink stringSink;
+    private MessageSink byteBufferSink;
+    private byte[][] payloads;
+    private long received;
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception
+    {
+        CoreSession session = new CoreSession.Empty();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle onText = lookup.findVirtual(MessageSinkBenchmark.class, "onText", MethodType.methodType(void.class, String.class)).bindTo(this);
+        MethodHandle onBinary = lookup.findVirtual(MessageSinkBenchmark.class, "onBinary", MethodType.methodType(void.class, ByteBuffer.class)).bindTo(this);
+        stringSink = new StringMessageSink(session, onText);
+        byteBufferSink = new ByteBufferMessageSink(session, onBinary);
+
+        byte[] message = new byte[messageSize];
+        Arrays.fill(message, (byte)'x');
+        payloads = new byte[fragments][];
+        int fragmentSize = messageSize / fragments;
+        for (int i = 0; i < fragments; i++)
+        {
+            int to = i == fragments - 1 ? messageSize : (i + 1) * fragmentSize;
+            payloads[i] = Arrays.copyOfRange(message, i * fragmentSize, to);
+        }
+    }
+
+    public void onText(String message)
+    {
+        received += message.length();
+    }
+
+    public void onBinary(ByteBuffer message)
+    {
+        received += message.remaining();
+    }
+
+    private long accept(MessageSink sink, byte opCode)
+    {
+        for (int i = 0; i < fragments; i++)
+        {
+            Frame frame = new Frame(i == 0 ? opCode : OpCode.CONTINUATION)
+                .setPayload(payloads[i])
+                .setFin(i == fragments - 1);
+            sink.accept(frame, Callback.NOOP);
+        }
+        return received;
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    public long testStringMessageSink()
+    {
+        return accept(stringSink, OpCode.TEXT);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    public long testByteBufferMessageSink()
+    {
+        return accept(byteBufferSink, OpCode.BINARY);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+            .include(MessageSinkBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .forks(1)
+            .build();
+
+        new Runner(opt).run();
+    }
+}
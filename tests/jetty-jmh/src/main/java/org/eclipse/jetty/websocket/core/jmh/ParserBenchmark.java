@@ -0,0 +1,105 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.websocket.core.jmh;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.io.MappedByteBufferPool;
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.websocket.core.Frame;
+import org.eclipse.jetty.websocket.core.OpCode;
+import org.eclipse.jetty.websocket.core.internal.Generator;
+import org.eclipse.jetty.websocket.core.internal.Parser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+public class ParserBenchmark
+{
+    @Param({"16", "1024", "65536"})
+    public int payloadSize;
+
+    @Param({"true", "false"})
+    public boolean masked;
+
+    private Parser parser;
+    private byte[] wire;
+    private ByteBuffer buffer;
+
+    @Setup(Level.Trial)
+    public void setupTrial()
+    {
+        ByteBufferPool bufferPool = new MappedByteBufferPool();
+        parser = new Parser(bufferPool);
+
+        byte[] payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte)'x');
+        Frame frame = new Frame(OpCode.BINARY).setPayload(ByteBuffer.wrap(payload)).setFin(true);
+        if (masked)
+            frame.setMask(new byte[]{0x11, 0x22, 0x33, 0x44});
+
+        ByteBuffer generated = BufferUtil.allocate(Generator.MAX_HEADER_LENGTH + payloadSize);
+        new Generator().generateWholeFrame(frame, generated);
+        wire = BufferUtil.toArray(generated);
+        buffer = BufferUtil.allocate(wire.length);
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    public Frame testParse()
+    {
+        // The parser unmasks in place, so the network bytes are restored before each parse.
+        BufferUtil.clearToFill(buffer);
+        buffer.put(wire);
+        BufferUtil.flipToFlush(buffer, 0);
+
+        Parser.ParsedFrame frame = parser.parse(buffer);
+        frame.close();
+        return frame;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+            .include(ParserBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .forks(1)
+            .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,155 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.websocket.core.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.util.BufferUtil;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.websocket.core.CoreSession;
+import org.eclipse.jetty.websocket.core.ExtensionConfig;
+import org.eclipse.jetty.websocket.core.Frame;
+import org.eclipse.jetty.websocket.core.OpCode;
+import org.eclipse.jetty.websocket.core.WebSocketComponents;
+import org.eclipse.jetty.websocket.core.internal.PerMessageDeflateExtension;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 1000, timeUnit = TimeUnit.MILLISECONDS)
+public class PerMessageDeflateBenchmark
+{
+    @Param({"128", "4096", "65536"})
+    public int payloadSize;
+
+    private PerMessageDeflateExtension deflateExtension;
+    private PerMessageDeflateExtension inflateExtension;
+    private String message;
+    private final List<byte[]> compressedFrames = new ArrayList<>();
+    private long bytesProduced;
+
+    @Setup(Level.Trial)
+    public void setupTrial()
+    {
+        WebSocketComponents components = new WebSocketComponents();
+        message = newMessage(payloadSize);
+
+        deflateExtension = newExtension(components);
+        deflateExtension.setNextOutgoingFrames((frame, callback, batch) ->
+        {
+            bytesProduced += frame.getPayloadLength();
+            callback.succeeded();
+        });
+
+        inflateExtension = newExtension(components);
+        inflateExtension.setNextIncomingFrames((frame, callback) ->
+        {
+            bytesProduced += frame.getPayloadLength();
+            callback.succeeded();
+        });
+
+        // Capture the compressed frames of the message to replay them through the inflater.
+        PerMessageDeflateExtension capture = newExtension(components);
+        capture.setNextOutgoingFrames((frame, callback, batch) ->
+        {
+            compressedFrames.add(BufferUtil.toArray(frame.getPayload()));
+            callback.succeeded();
+        });
+        capture.sendFrame(new Frame(OpCode.TEXT, message).setFin(true), Callback.NOOP, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopTrial()
+    {
+        deflateExtension.releaseDeflater();
+        inflateExtension.releaseInflater();
+    }
+
+    private static PerMessageDeflateExtension newExtension(WebSocketComponents components)
+    {
+        PerMessageDeflateExtension extension = new PerMessageDeflateExtension();
+        extension.init(ExtensionConfig.parse("permessage-deflate"), components);
+        extension.setCoreSession(new CoreSession.Empty());
+        return extension;
+    }
+
+    private static String newMessage(int size)
+    {
+        StringBuilder builder = new StringBuilder(size);
+        int i = 0;
+        while (builder.length() < size)
+        {
+            builder.append("{\"id\":").append(i++).append(",\"name\":\"player\",\"x\":12.5,\"y\":-3.25},");
+        }
+        builder.setLength(size);
+        return builder.toString();
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    public long testDeflate()
+    {
+        deflateExtension.sendFrame(new Frame(OpCode.TEXT, message).setFin(true), Callback.NOOP, false);
+        return bytesProduced;
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    public long testInflate()
+    {
+        int last = compressedFrames.size() - 1;
+        for (int i = 0; i <= last; i++)
+        {
+            Frame frame = new Frame(i == 0 ? OpCode.TEXT : OpCode.CONTINUATION)
+                .setPayload(compressedFrames.get(i))
+                .setFin(i == last)
+                .setRsv1(i == 0);
+            inflateExtension.onFrame(frame, Callback.NOOP);
+        }
+        return bytesProduced;
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+            .include(PerMessageDeflateBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .forks(1)
+            .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,231 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.websocket.core.jmh;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.eclipse.jetty.util.Callback;
+import org.eclipse.jetty.websocket.core.CloseStatus;
+import org.eclipse.jetty.websocket.core.CoreSession;
+import org.eclipse.jetty.websocket.core.Frame;
+import org.eclipse.jetty.websocket.core.FrameHandler;
+import org.eclipse.jetty.websocket.core.OpCode;
+import org.eclipse.jetty.websocket.core.client.ClientUpgradeRequest;
+import org.eclipse.jetty.websocket.core.client.WebSocketCoreClient;
+import org.eclipse.jetty.websocket.core.server.WebSocketNegotiator;
+import org.eclipse.jetty.websocket.core.server.WebSocketUpgradeHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Round trip of messages between a {@link WebSocketCoreClient} and an echo
+ * {@link FrameHandler} behind a {@link WebSocketUpgradeHandler} over the loopback interface.</p>
+ * <p>The throughput mode measures messages per second, the sample time mode reports the
+ * round trip latency percentiles and the {@link GCProfiler} the allocation per message.</p>
+ */
+@State(Scope.Benchmark)
+@Threads(1)
+@Warmup(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 2000, timeUnit = TimeUnit.MILLISECONDS)
+public class WebSocketLoopbackBenchmark
+{
+    @Param({"64", "4096", "65536"})
+    public int messageSize;
+
+    @Param({"false", "true"})
+    public boolean compression;
+
+    private Server server;
+    private WebSocketCoreClient client;
+    private CoreSession session;
+    private byte[] message;
+    private volatile CompletableFuture<Integer> pending;
+
+    @Setup(Level.Trial)
+    public void startTrial() throws Exception
+    {
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        server.addConnector(connector);
+        ContextHandler context = new ContextHandler("/");
+        context.setHandler(new WebSocketUpgradeHandler(WebSocketNegotiator.from(negotiation -> new EchoFrameHandler())));
+        server.setHandler(context);
+        server.start();
+
+        client = new WebSocketCoreClient();
+        client.start();
+
+        URI uri = URI.create("ws://localhost:" + connector.getLocalPort() + "/");
+        ClientUpgradeRequest request = ClientUpgradeRequest.from(client, uri, new ClientFrameHandler());
+        if (compression)
+            request.addExtensions("permessage-deflate");
+        session = client.connect(request).get(5, TimeUnit.SECONDS);
+        session.setMaxBinaryMessageSize(messageSize);
+        session.setMaxFrameSize(messageSize);
+
+        // Somewhat compressible content.
+        message = new byte[messageSize];
+        for (int i = 0; i < messageSize; i++)
+        {
+            message[i] = (byte)('a' + (i % 13) * (i % 7) % 26);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopTrial() throws Exception
+    {
+        session.close(CloseStatus.NORMAL, null, Callback.NOOP);
+        client.stop();
+        server.stop();
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.Throughput})
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int testRoundTripThroughput() throws Exception
+    {
+        return roundTrip();
+    }
+
+    @Benchmark
+    @BenchmarkMode({Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int testRoundTripLatency() throws Exception
+    {
+        return roundTrip();
+    }
+
+    private int roundTrip() throws Exception
+    {
+        CompletableFuture<Integer> echo = new CompletableFuture<>();
+        pending = echo;
+        session.sendFrame(new Frame(OpCode.BINARY).setPayload(Arrays.copyOf(message, message.length)), Callback.NOOP, false);
+        return echo.get(5, TimeUnit.SECONDS);
+    }
+
+    private class ClientFrameHandler implements FrameHandler
+    {
+        @Override
+        public void onOpen(CoreSession coreSession, Callback callback)
+        {
+            callback.succeeded();
+        }
+
+        // Compressed messages are received in several frames, so the
+        // round trip only completes with the last frame of the message.
+        private int received;
+
+        @Override
+        public void onFrame(Frame frame, Callback callback)
+        {
+            if (frame.isDataFrame())
+            {
+                received += frame.getPayloadLength();
+                if (frame.isFin())
+                {
+                    int length = received;
+                    received = 0;
+                    pending.complete(length);
+                }
+            }
+            callback.succeeded();
+        }
+
+        @Override
+        public void onError(Throwable cause, Callback callback)
+        {
+            pending.completeExceptionally(cause);
+            callback.succeeded();
+        }
+
+        @Override
+        public void onClosed(CloseStatus closeStatus, Callback callback)
+        {
+            callback.succeeded();
+        }
+    }
+
+    private static class EchoFrameHandler implements FrameHandler
+    {
+        private CoreSession coreSession;
+
+        @Override
+        public void onOpen(CoreSession coreSession, Callback callback)
+        {
+            this.coreSession = coreSession;
+            coreSession.setMaxBinaryMessageSize(Integer.MAX_VALUE);
+            coreSession.setMaxFrameSize(Integer.MAX_VALUE);
+            callback.succeeded();
+        }
+
+        @Override
+        public void onFrame(Frame frame, Callback callback)
+        {
+            if (frame.isDataFrame())
+                coreSession.sendFrame(Frame.copy(frame).setMask(null), callback, false);
+            else
+                callback.succeeded();
+        }
+
+        @Override
+        public void onError(Throwable cause, Callback callback)
+        {
+            callback.succeeded();
+        }
+
+        @Override
+        public void onClosed(CloseStatus closeStatus, Callback callback)
+        {
+            callback.succeeded();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        Options opt = new OptionsBuilder()
+            .include(WebSocketLoopbackBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .forks(1)
+            .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,345 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * LogStructuredSessionDataStoreTest
+ */
+public class LogStructuredSessionDataStoreTest extends AbstractSessionDataStoreTest
+{
+    private LogStructuredSessionDataStore _store;
+
+    @BeforeEach
+    public void before() throws Exception
+    {
+        FileTestHelper.setup();
+    }
+
+    @AfterEach
+    public void after() throws Exception
+    {
+        if (_store != null)
+            _store.stop();
+        _store = null;
+        FileTestHelper.teardown();
+    }
+
+    @Override
+    public SessionDataStoreFactory createSessionDataStoreFactory()
+    {
+        LogStructuredSessionDataStoreFactory factory = new LogStructuredSessionDataStoreFactory()
+        {
+            @Override
+            public SessionDataStore getSessionDataStore(SessionHandler handler)
+            {
+                _store = (LogStructuredSessionDataStore)super.getSessionDataStore(handler);
+                return _store;
+            }
+        };
+        factory.setStoreDir(FileTestHelper._tmpDir);
+        factory.setSegmentSize(64 * 1024);
+        return factory;
+    }
+
+    private LogStructuredSessionDataStore newStore(SessionData data) throws Exception
+    {
+        File logDir = new File(FileTestHelper._tmpDir, data.getContextPath() + "_" + data.getVhost());
+        LogStructuredSessionDataStore store = new LogStructuredSessionDataStore()
+        {
+            @Override
+            protected File getLogDir()
+            {
+                return logDir;
+            }
+        };
+        store.setStoreDir(FileTestHelper._tmpDir);
+        store.initialize(_store._context);
+        return store;
+    }
+
+    private void append(SessionData data, byte[] attributes) throws Exception
+    {
+        //the log can only be written by the store that owns it
+        if (_store.isStarted() && _store.getLogDir().equals(newStore(data).getLogDir()))
+        {
+            _store.append(data.getId(), data, attributes);
+            return;
+        }
+
+        LogStructuredSessionDataStore writer = newStore(data);
+        writer.start();
+        try
+        {
+            writer.append(data.getId(), data, attributes);
+        }
+        finally
+        {
+            writer.stop();
+        }
+    }
+
+    private SessionData read(SessionData data) throws Exception
+    {
+        ClassLoader old = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(_contextClassLoader);
+        try
+        {
+            LogStructuredSessionDataStore reader = newStore(data);
+            reader.recover(false);
+            return reader.doLoad(data.getId());
+        }
+        finally
+        {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    @Override
+    public void persistSession(SessionData data) throws Exception
+    {
+        ByteArrayOutputStream attributes = new ByteArrayOutputStream();
+        new JavaSessionDataSerializer().serializeAttributes(data, attributes);
+        append(data, attributes.toByteArray());
+    }
+
+    @Override
+    public void persistUnreadableSession(SessionData data) throws Exception
+    {
+        append(data, new byte[]{1, 2, 3, 4, 5});
+    }
+
+    @Override
+    public boolean checkSessionExists(SessionData data) throws Exception
+    {
+        return read(data) != null;
+    }
+
+    @Override
+    public boolean checkSessionPersisted(SessionData data) throws Exception
+    {
+        SessionData loaded = read(data);
+        assertNotNull(loaded);
+        assertEquals(data.getId(), loaded.getId());
+        assertEquals(data.getContextPath(), loaded.getContextPath());
+        assertEquals(data.getVhost(), loaded.getVhost());
+        assertEquals(data.getLastNode(), loaded.getLastNode());
+        assertEquals(data.getCreated(), loaded.getCreated());
+        assertEquals(data.getAccessed(), loaded.getAccessed());
+        assertEquals(data.getLastAccessed(), loaded.getLastAccessed());
+        assertEquals(data.getCookieSet(), loaded.getCookieSet());
+        assertEquals(data.getExpiry(), loaded.getExpiry());
+        assertEquals(data.getMaxInactiveMs(), loaded.getMaxInactiveMs());
+        assertEquals(data.getKeys(), loaded.getKeys());
+        for (String name : data.getKeys())
+        {
+            assertEquals(data.getAttribute(name), loaded.getAttribute(name));
+        }
+        return true;
+    }
+
+    private LogStructuredSessionDataStore startStore(double compactionRatio) throws Exception
+    {
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/test");
+        LogStructuredSessionDataStoreFactory factory = (LogStructuredSessionDataStoreFactory)createSessionDataStoreFactory();
+        factory.setSegmentSize(4096);
+        factory.setCompactionRatio(compactionRatio);
+        SessionDataStore store = factory.getSessionDataStore(context.getSessionHandler());
+        store.initialize(new SessionContext("foo", context.getServletContext()));
+        store.start();
+        return (LogStructuredSessionDataStore)store;
+    }
+
+    @Test
+    public void testCompaction() throws Exception
+    {
+        LogStructuredSessionDataStore store = startStore(0.5);
+
+        //rewrite the same few sessions until many segments are full of stale records
+        SessionData data = null;
+        for (int i = 0; i < 200; i++)
+        {
+            data = store.newSessionData("s" + (i % 5), 100, 200, 199, -1);
+            data.setAttribute("count", i);
+            store.store(data.getId(), data);
+        }
+        store.delete("s0");
+        int segments = store.getSegments();
+        assertThat(segments, greaterThan(2));
+
+        assertThat(store.compact(), greaterThan(0));
+        assertThat(store.getSegments(), lessThan(segments));
+        assertThat(store.getCompactions(), greaterThan(0L));
+        assertThat(store.getBytesReclaimed(), greaterThan(0L));
+        //compacted segments are deleted
+        File[] files = store.getLogDir().listFiles((dir, name) -> name.endsWith(".seg"));
+        assertNotNull(files);
+        assertEquals(store.getSegments(), files.length);
+
+        //the latest record of each session survives compaction and a restart
+        store.stop();
+        store.start();
+        assertNull(store.load("s0"));
+        for (int i = 1; i < 5; i++)
+        {
+            SessionData loaded = store.load("s" + i);
+            assertNotNull(loaded);
+            assertEquals(195 + i, loaded.getAttribute("count"));
+        }
+    }
+
+    @Test
+    public void testLoadDuringCompaction() throws Exception
+    {
+        LogStructuredSessionDataStore store = startStore(0.5);
+        for (int i = 0; i < 5; i++)
+        {
+            SessionData data = store.newSessionData("s" + i, 100, 200, 199, -1);
+            data.setAttribute("count", i);
+            store.store(data.getId(), data);
+        }
+
+        //load the sessions while their records are moved and their segments retired
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++)
+        {
+            new Thread(() ->
+            {
+                try
+                {
+                    while (running.get())
+                    {
+                        for (int i = 0; i < 5; i++)
+                        {
+                            assertNotNull(store.load("s" + i));
+                        }
+                    }
+                }
+                catch (Throwable x)
+                {
+                    failure.set(x);
+                }
+                finally
+                {
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        for (int i = 0; i < 2000; i++)
+        {
+            SessionData data = store.newSessionData("s" + (i % 5), 100, 200, 199, -1);
+            data.setAttribute("count", i);
+            store.store(data.getId(), data);
+            if (i % 50 == 0)
+                store.compact();
+        }
+        running.set(false);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertThat(store.getCompactions(), greaterThan(0L));
+        File[] files = store.getLogDir().listFiles((dir, name) -> name.endsWith(".seg"));
+        assertNotNull(files);
+        assertEquals(store.getSegments(), files.length);
+    }
+
+    @Test
+    public void testRecoverTornRecord() throws Exception
+    {
+        LogStructuredSessionDataStore store = startStore(0.5);
+        SessionData data = store.newSessionData("1234", 100, 200, 199, -1);
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+        data.setAttribute("a", "c");
+        store.store("1234", data);
+        store.stop();
+
+        //corrupt the body of the last record, as if the process died while writing it
+        File[] segments = store.getLogDir().listFiles((dir, name) -> name.endsWith(".seg"));
+        assertNotNull(segments);
+        assertEquals(1, segments.length);
+        try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw"))
+        {
+            //find the start of the last record by walking the lengths
+            long position = 16;
+            long last = position;
+            raf.seek(position);
+            int length = raf.readInt();
+            while (length > 0)
+            {
+                last = position;
+                position += 8 + length;
+                raf.seek(position);
+                length = raf.readInt();
+            }
+            raf.seek(last + 20);
+            int b = raf.read();
+            raf.seek(last + 20);
+            raf.write(b ^ 0xFF);
+        }
+
+        //the torn record is erased and the previous version recovered
+        store.start();
+        SessionData loaded = store.load("1234");
+        assertNotNull(loaded);
+        assertEquals("b", loaded.getAttribute("a"));
+
+        //new records are written over the erased tail
+        data.setAttribute("a", "d");
+        store.store("1234", data);
+        store.stop();
+        store.start();
+        assertEquals("d", store.load("1234").getAttribute("a"));
+        assertEquals(Collections.emptySet(), store.getExpired(Collections.emptySet()));
+    }
+
+    @Test
+    public void testSingleWriter() throws Exception
+    {
+        LogStructuredSessionDataStore store = startStore(0.5);
+        SessionData data = store.newSessionData("1234", 100, 200, 199, -1);
+        LogStructuredSessionDataStore other = newStore(data);
+        assertThrows(IllegalStateException.class, other::start);
+    }
+}
@@ -18,6 +18,7 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jetty.servlet.ServletContextHandler;
@@ -269,6 +270,45 @@ public class TestFileSessions extends AbstractTestBase
         FileTestHelper.assertFileExists(foreignNeverExpired, true);
     }
 
+    /**
+     * Test that the periodic sweep only checks the files recorded in the sweep
+     * index until the store dir is walked again.
+     */
+    @Test
+    public void testIndexedSweep() throws Exception
+    {
+        //a file not for our context that is not yet ancient when the store starts
+        long now = System.currentTimeMillis();
+        String indexedForeign = (now - TimeUnit.SECONDS.toMillis(4)) + "__foobar_0.0.0.0_sessiona";
+        FileTestHelper.createFile(indexedForeign);
+
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/test");
+        SessionDataStoreFactory factory = createSessionDataStoreFactory();
+        ((AbstractSessionDataStoreFactory)factory).setGracePeriodSec(1);
+        FileSessionDataStore store = (FileSessionDataStore)factory.getSessionDataStore(context.getSessionHandler());
+        SessionContext sessionContext = new SessionContext("foo", context.getServletContext());
+        store.initialize(sessionContext);
+        store.start();
+
+        FileTestHelper.assertFileExists(indexedForeign, true);
+        FileTestHelper.assertFileExists(FileSessionDataStore.SWEEP_INDEX_FILENAME, true);
+
+        //an ancient file not for our context written after the store dir was walked
+        String unindexedForeign = "101__foobar_0.0.0.0_sessionb";
+        FileTestHelper.createFile(unindexedForeign);
+
+        //wait until the indexed file is ancient, then let the store sweep
+        Thread.sleep(1500);
+        store.getExpired(Collections.emptySet());
+        FileTestHelper.assertFileExists(indexedForeign, false);
+        FileTestHelper.assertFileExists(unindexedForeign, true);
+
+        //a full walk finds the unindexed file
+        store.sweepDisk();
+        FileTestHelper.assertFileExists(unindexedForeign, false);
+    }
+
     /**
      * Test that when it initializes, the FileSessionDataStore deletes old expired sessions.
      */
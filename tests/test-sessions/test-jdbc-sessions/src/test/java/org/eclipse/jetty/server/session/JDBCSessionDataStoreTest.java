@@ -18,8 +18,34 @@
 
 package org.eclipse.jetty.server.session;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
  * JDBCSessionDataStoreTest
@@ -84,4 +110,227 @@ public class JDBCSessionDataStoreTest extends AbstractSessionDataStoreTest
             Thread.currentThread().setContextClassLoader(old);
         }
     }
+
+    @Test
+    public void testBatchedStoreLoadDelete() throws Exception
+    {
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/test");
+        JDBCSessionDataStoreFactory factory = (JDBCSessionDataStoreFactory)createSessionDataStoreFactory();
+        factory.setGracePeriodSec(GRACE_PERIOD_SEC);
+        factory.setBatchSize(3);
+        JDBCSessionDataStore store = (JDBCSessionDataStore)factory.getSessionDataStore(context.getSessionHandler());
+        SessionContext sessionContext = new SessionContext("foo", context.getServletContext());
+        store.initialize(sessionContext);
+        store.start();
+
+        //one session already persisted, so the batch has both inserts and updates
+        long now = System.currentTimeMillis();
+        SessionData existing = store.newSessionData("0", 100, now, now - 1, -1);
+        existing.setAttribute("n", 0);
+        store.store("0", existing);
+
+        Map<String, SessionData> sessions = new LinkedHashMap<>();
+        existing.setAttribute("n", -1);
+        sessions.put("0", existing);
+        for (int i = 1; i < 8; i++)
+        {
+            SessionData data = store.newSessionData(String.valueOf(i), 100, now, now - 1, -1);
+            data.setLastNode(sessionContext.getWorkerName());
+            data.setAttribute("n", i);
+            sessions.put(data.getId(), data);
+        }
+        store.storeAll(sessions);
+
+        for (SessionData data : sessions.values())
+        {
+            assertFalse(data.isDirty());
+            assertTrue(data.getLastSaved() > 0);
+            assertTrue(checkSessionPersisted(data));
+        }
+
+        //load with a partial final batch, including an id that does not exist
+        Set<String> ids = new HashSet<>(sessions.keySet());
+        ids.add("unknown");
+        Map<String, SessionData> loaded = store.loadAll(ids);
+        assertEquals(sessions.keySet(), loaded.keySet());
+        assertEquals(-1, loaded.get("0").getAttribute("n"));
+        assertEquals(7, loaded.get("7").getAttribute("n"));
+
+        Set<String> deleted = store.deleteAll(ids);
+        assertEquals(sessions.keySet(), deleted);
+        for (String id : sessions.keySet())
+        {
+            assertFalse(store.exists(id));
+        }
+
+        //expiry candidates that no longer exist are checked in batches
+        assertEquals(ids, store.getExpired(ids));
+        store.stop();
+    }
+
+    @Test
+    public void testAttributeDeltas() throws Exception
+    {
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/test");
+        JDBCSessionDataStoreFactory factory = (JDBCSessionDataStoreFactory)createSessionDataStoreFactory();
+        factory.setGracePeriodSec(GRACE_PERIOD_SEC);
+        factory.setAttributeDeltas(true);
+        JDBCSessionDataStore store = (JDBCSessionDataStore)factory.getSessionDataStore(context.getSessionHandler());
+        SessionContext sessionContext = new SessionContext("foo", context.getServletContext());
+        store.initialize(sessionContext);
+        store.start();
+
+        long now = System.currentTimeMillis();
+        SessionData data = store.newSessionData("1234", 100, now, now - 1, -1);
+        data.setLastNode(sessionContext.getWorkerName());
+        CountingValue cart = new CountingValue();
+        data.setAttribute("cart", cart);
+        data.setAttribute("counter", 1);
+        data.setAttribute("other", "x");
+        store.store("1234", data);
+        assertEquals(1, cart.writes.get());
+
+        //changing the counter does not rewrite the cart
+        data.setAttribute("counter", 2);
+        data.setAttribute("other", null);
+        store.store("1234", data);
+        assertEquals(1, cart.writes.get());
+
+        SessionData loaded = store.load("1234");
+        assertNotNull(loaded);
+        assertEquals(2, loaded.getAttribute("counter"));
+        assertNull(loaded.getAttribute("other"));
+        assertNotNull(loaded.getAttribute("cart"));
+        assertEquals(2, loaded.getKeys().size());
+
+        assertTrue(store.delete("1234"));
+        assertNull(store.load("1234"));
+        store.stop();
+    }
+
+    @Test
+    public void testAttributeDeltasUseSerializer() throws Exception
+    {
+        AtomicInteger serialized = new AtomicInteger();
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/test");
+        JDBCSessionDataStoreFactory factory = (JDBCSessionDataStoreFactory)createSessionDataStoreFactory();
+        factory.setGracePeriodSec(GRACE_PERIOD_SEC);
+        factory.setAttributeDeltas(true);
+        //a format that cannot read plain java serialization
+        factory.setSessionDataSerializer(new JavaSessionDataSerializer()
+        {
+            @Override
+            public void serializeAttributes(SessionData data, OutputStream out) throws IOException
+            {
+                serialized.incrementAndGet();
+                out.write('S');
+                super.serializeAttributes(data, out);
+            }
+
+            @Override
+            public void deserializeAttributes(SessionData data, InputStream in) throws IOException, ClassNotFoundException
+            {
+                if (in.read() != 'S')
+                    throw new StreamCorruptedException("Not written by this serializer");
+                super.deserializeAttributes(data, in);
+            }
+        });
+        JDBCSessionDataStore store = (JDBCSessionDataStore)factory.getSessionDataStore(context.getSessionHandler());
+        SessionContext sessionContext = new SessionContext("foo", context.getServletContext());
+        store.initialize(sessionContext);
+        store.start();
+
+        long now = System.currentTimeMillis();
+        SessionData data = store.newSessionData("1234", 100, now, now - 1, -1);
+        data.setLastNode(sessionContext.getWorkerName());
+        data.setAttribute("a", "b");
+        data.setAttribute("counter", 1);
+        store.store("1234", data);
+        assertEquals(2, serialized.get());
+
+        SessionData loaded = store.load("1234");
+        assertNotNull(loaded);
+        assertEquals("b", loaded.getAttribute("a"));
+        assertEquals(1, loaded.getAttribute("counter"));
+        assertEquals(2, loaded.getKeys().size());
+        store.stop();
+    }
+
+    @Test
+    public void testAttributeDeltasMetaDataOnlySave() throws Exception
+    {
+        List<String> statements = new CopyOnWriteArrayList<>();
+        DatabaseAdaptor da = new DatabaseAdaptor()
+        {
+            @Override
+            protected Connection getConnection() throws SQLException
+            {
+                Connection connection = super.getConnection();
+                return (Connection)Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, (proxy, method, args) ->
+                {
+                    if ("prepareStatement".equals(method.getName()))
+                        statements.add((String)args[0]);
+                    try
+                    {
+                        return method.invoke(connection, args);
+                    }
+                    catch (InvocationTargetException x)
+                    {
+                        throw x.getCause();
+                    }
+                });
+            }
+        };
+        da.setDriverInfo(JdbcTestHelper.DRIVER_CLASS, JdbcTestHelper.DEFAULT_CONNECTION_URL);
+
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/test");
+        JDBCSessionDataStoreFactory factory = (JDBCSessionDataStoreFactory)JdbcTestHelper.newSessionDataStoreFactory(da);
+        factory.setGracePeriodSec(GRACE_PERIOD_SEC);
+        factory.setAttributeDeltas(true);
+        JDBCSessionDataStore store = (JDBCSessionDataStore)factory.getSessionDataStore(context.getSessionHandler());
+        SessionContext sessionContext = new SessionContext("foo", context.getServletContext());
+        store.initialize(sessionContext);
+        store.start();
+
+        long now = System.currentTimeMillis();
+        SessionData data = store.newSessionData("1234", 100, now, now - 1, -1);
+        data.setLastNode(sessionContext.getWorkerName());
+        CountingValue cart = new CountingValue();
+        data.setAttribute("cart", cart);
+        store.store("1234", data);
+        assertEquals(1, cart.writes.get());
+
+        //only the metadata changed, so no attribute row is touched
+        statements.clear();
+        data.setAccessed(now + 1);
+        data.setMetaDataDirty(true);
+        assertFalse(data.isDirty());
+        store.store("1234", data);
+        assertEquals(1, cart.writes.get());
+        assertEquals(1, statements.size());
+        String attributeTable = new JDBCSessionDataStore.SessionTableSchema().getAttributeTableName();
+        assertTrue(statements.stream().noneMatch(sql -> sql.contains(attributeTable)));
+
+        SessionData loaded = store.load("1234");
+        assertNotNull(loaded);
+        assertNotNull(loaded.getAttribute("cart"));
+        store.stop();
+    }
+
+    public static class CountingValue implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public transient AtomicInteger writes = new AtomicInteger();
+
+        private void writeObject(ObjectOutputStream out) throws IOException
+        {
+            writes.incrementAndGet();
+            out.defaultWriteObject();
+        }
+    }
 }
@@ -0,0 +1,90 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+
+/**
+ * TestSessionDataMap
+ *
+ * An in-memory SessionDataMap that stores copies of the session data,
+ * can report their versions, and counts loads and version checks.
+ */
+public class TestSessionDataMap extends AbstractLifeCycle implements SessionDataMap
+{
+    public Map<String, SessionData> _map = new ConcurrentHashMap<>();
+    public AtomicInteger _numLoads = new AtomicInteger();
+    public AtomicInteger _numVersionChecks = new AtomicInteger();
+    public final boolean _versioned;
+
+    public TestSessionDataMap()
+    {
+        this(true);
+    }
+
+    public TestSessionDataMap(boolean versioned)
+    {
+        _versioned = versioned;
+    }
+
+    @Override
+    public void initialize(SessionContext context) throws Exception
+    {
+    }
+
+    @Override
+    public SessionData load(String id) throws Exception
+    {
+        _numLoads.incrementAndGet();
+        SessionData sd = _map.get(id);
+        if (sd == null)
+            return null;
+        SessionData nsd = new SessionData(id, "", "", System.currentTimeMillis(), System.currentTimeMillis(), System.currentTimeMillis(), 0);
+        nsd.copy(sd);
+        return nsd;
+    }
+
+    @Override
+    public void store(String id, SessionData data) throws Exception
+    {
+        SessionData nsd = new SessionData(id, "", "", System.currentTimeMillis(), System.currentTimeMillis(), System.currentTimeMillis(), 0);
+        nsd.copy(data);
+        _map.put(id, nsd);
+    }
+
+    @Override
+    public boolean delete(String id) throws Exception
+    {
+        return _map.remove(id) != null;
+    }
+
+    @Override
+    public long getLastSaved(String id) throws Exception
+    {
+        if (!_versioned)
+            return -1;
+        _numVersionChecks.incrementAndGet();
+        SessionData sd = _map.get(id);
+        return sd == null ? 0 : sd.getLastSaved();
+    }
+}
@@ -0,0 +1,184 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * BoundedSessionCacheTest
+ */
+public class BoundedSessionCacheTest extends AbstractSessionCacheTest
+{
+    @Override
+    public AbstractSessionCacheFactory newSessionCacheFactory(int evictionPolicy, boolean saveOnCreate,
+                                                              boolean saveOnInactiveEvict, boolean removeUnloadableSessions,
+                                                              boolean flushOnResponseCommit)
+    {
+        BoundedSessionCacheFactory factory = new BoundedSessionCacheFactory();
+        factory.setEvictionPolicy(evictionPolicy);
+        factory.setSaveOnCreate(saveOnCreate);
+        factory.setSaveOnInactiveEvict(saveOnInactiveEvict);
+        factory.setRemoveUnloadableSessions(removeUnloadableSessions);
+        factory.setFlushOnResponseCommit(flushOnResponseCommit);
+        return factory;
+    }
+
+    private static void awaitEvicted(BoundedSessionCache cache, long expected) throws Exception
+    {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getSessionsEvicted() < expected && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, cache.getSessionsEvicted());
+    }
+
+    private static Session newSession(BoundedSessionCache cache, String id) throws Exception
+    {
+        long now = System.currentTimeMillis();
+        Session session = cache.newSession(null, id, now, TimeUnit.MINUTES.toMillis(10));
+        cache.add(id, session);
+        return session;
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception
+    {
+        Server server = new Server();
+
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/test");
+        context.setServer(server);
+
+        BoundedSessionCacheFactory cacheFactory = (BoundedSessionCacheFactory)newSessionCacheFactory(SessionCache.NEVER_EVICT, false, false, false, false);
+        cacheFactory.setMaxSessions(2);
+        BoundedSessionCache cache = (BoundedSessionCache)cacheFactory.getSessionCache(context.getSessionHandler());
+
+        TestSessionDataStore store = new TestSessionDataStore(true);
+        cache.setSessionDataStore(store);
+        context.getSessionHandler().setSessionCache(cache);
+        context.start();
+
+        Session s1 = newSession(cache, "1");
+        cache.release("1", s1);
+        Session s2 = newSession(cache, "2");
+        cache.release("2", s2);
+
+        //use session 1, so session 2 is the least recently used
+        assertSame(s1, cache.get("1"));
+        cache.release("1", s1);
+
+        Session s3 = newSession(cache, "3");
+        cache.release("3", s3);
+
+        awaitEvicted(cache, 1);
+        assertEquals(2, cache.getSessionsCurrent());
+        assertTrue(cache.contains("1"));
+        assertFalse(cache.contains("2"));
+        assertTrue(cache.contains("3"));
+        assertFalse(s2.isResident());
+        assertTrue(store.exists("2"));
+
+        //session 2 is reloaded from the store, and session 1 is now the least recently used
+        Session reloaded = cache.get("2");
+        assertNotNull(reloaded);
+        assertEquals(1, cache.getSessionsLoaded());
+        cache.release("2", reloaded);
+
+        awaitEvicted(cache, 2);
+        assertFalse(cache.contains("1"));
+        assertTrue(cache.contains("2"));
+        assertTrue(cache.contains("3"));
+    }
+
+    @Test
+    public void testSessionInUseNotEvicted() throws Exception
+    {
+        Server server = new Server();
+
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/test");
+        context.setServer(server);
+
+        BoundedSessionCacheFactory cacheFactory = (BoundedSessionCacheFactory)newSessionCacheFactory(SessionCache.NEVER_EVICT, false, false, false, false);
+        cacheFactory.setMaxSessions(1);
+        BoundedSessionCache cache = (BoundedSessionCache)cacheFactory.getSessionCache(context.getSessionHandler());
+
+        TestSessionDataStore store = new TestSessionDataStore();
+        cache.setSessionDataStore(store);
+        context.getSessionHandler().setSessionCache(cache);
+        context.start();
+
+        //session 1 stays in use by a request
+        newSession(cache, "1");
+        Session s2 = newSession(cache, "2");
+        cache.release("2", s2);
+
+        awaitEvicted(cache, 1);
+        assertTrue(cache.contains("1"));
+        assertFalse(cache.contains("2"));
+    }
+
+    @Test
+    public void testMaxBytes() throws Exception
+    {
+        Server server = new Server();
+
+        ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        context.setContextPath("/test");
+        context.setServer(server);
+
+        BoundedSessionCacheFactory cacheFactory = (BoundedSessionCacheFactory)newSessionCacheFactory(SessionCache.NEVER_EVICT, false, false, false, false);
+        cacheFactory.setMaxSessions(-1);
+        cacheFactory.setMaxBytes(64 * 1024);
+        BoundedSessionCache cache = (BoundedSessionCache)cacheFactory.getSessionCache(context.getSessionHandler());
+
+        TestSessionDataStore store = new TestSessionDataStore();
+        cache.setSessionDataStore(store);
+        context.getSessionHandler().setSessionCache(cache);
+        context.start();
+
+        Session s1 = newSession(cache, "1");
+        s1.setAttribute("big", new byte[40 * 1024]);
+        cache.release("1", s1);
+        assertTrue(cache.getSessionsBytes() > 40 * 1024);
+        assertEquals(0, cache.getSessionsEvicted());
+
+        //growing session 2 takes the cache over the limit when its request exits
+        Session s2 = newSession(cache, "2");
+        s2.setAttribute("big", new byte[40 * 1024]);
+        cache.release("2", s2);
+
+        awaitEvicted(cache, 1);
+        assertFalse(cache.contains("1"));
+        assertTrue(cache.contains("2"));
+        assertTrue(store.exists("1"));
+        assertTrue(cache.getSessionsBytes() < 64 * 1024);
+    }
+}
@@ -0,0 +1,214 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * CachingSessionDataStoreNearCacheTest
+ *
+ * Two nodes, each with their own near-cache, sharing a store and a fronting cache.
+ */
+public class CachingSessionDataStoreNearCacheTest
+{
+    private final TestSessionDataStore _store = new TestSessionDataStore();
+    private TestSessionDataMap _map;
+    private CachingSessionDataStore _nodeA;
+    private CachingSessionDataStore _nodeB;
+
+    private CachingSessionDataStore newNode(String name, long trustMs) throws Exception
+    {
+        TestSessionDataStore store = new TestSessionDataStore();
+        store._map = _store._map;
+        TestSessionDataMap map = new TestSessionDataMap(_map._versioned);
+        map._map = _map._map;
+        map._numLoads = _map._numLoads;
+        map._numVersionChecks = _map._numVersionChecks;
+
+        CachingSessionDataStore node = new CachingSessionDataStore(map, store);
+        node.setNearCacheMaxEntries(10);
+        node.setNearCacheTrustMs(trustMs);
+        node.initialize(new SessionContext(name, null));
+        node.start();
+        return node;
+    }
+
+    private void start(boolean versioned, long trustMs) throws Exception
+    {
+        _map = new TestSessionDataMap(versioned);
+        _nodeA = newNode("nodeA", trustMs);
+        _nodeB = newNode("nodeB", trustMs);
+    }
+
+    @AfterEach
+    public void after() throws Exception
+    {
+        if (_nodeA != null)
+            _nodeA.stop();
+        if (_nodeB != null)
+            _nodeB.stop();
+    }
+
+    private void store(CachingSessionDataStore node, String id, String value) throws Exception
+    {
+        //make sure each save has a distinct lastSaved time
+        Thread.sleep(2);
+        SessionData data = node.load(id);
+        if (data == null)
+        {
+            long now = System.currentTimeMillis();
+            data = node.newSessionData(id, now, now, now, TimeUnit.MINUTES.toMillis(10));
+        }
+        data.setAttribute("value", value);
+        node.store(id, data);
+    }
+
+    @Test
+    public void testValidatedHit() throws Exception
+    {
+        start(true, 0);
+
+        store(_nodeA, "1234", "a");
+        _map._numLoads.set(0);
+
+        //served by the near-cache after checking its version
+        SessionData data = _nodeA.load("1234");
+        assertEquals("a", data.getAttribute("value"));
+        assertEquals(0, _map._numLoads.get());
+        assertEquals(1, _nodeA.getNearCacheValidatedHits());
+
+        //changes to the loaded copy do not affect the near-cache
+        data.setAttribute("value", "changed");
+        assertEquals("a", _nodeA.load("1234").getAttribute("value"));
+    }
+
+    @Test
+    public void testChangedOnOtherNode() throws Exception
+    {
+        start(true, 0);
+
+        store(_nodeA, "1234", "a");
+        store(_nodeB, "1234", "b");
+        assertEquals(1, _nodeB.getNearCacheMisses());
+
+        //node A's copy is stale, so it is loaded from the fronting cache
+        _map._numLoads.set(0);
+        SessionData data = _nodeA.load("1234");
+        assertEquals("b", data.getAttribute("value"));
+        assertEquals(1, _nodeA.getNearCacheStale());
+        assertEquals(1, _map._numLoads.get());
+
+        //and then served from the near-cache again
+        assertEquals("b", _nodeA.load("1234").getAttribute("value"));
+        assertEquals(1, _map._numLoads.get());
+    }
+
+    @Test
+    public void testTrusted() throws Exception
+    {
+        start(false, TimeUnit.HOURS.toMillis(1));
+
+        store(_nodeA, "1234", "a");
+        _map._numLoads.set(0);
+
+        assertEquals("a", _nodeA.load("1234").getAttribute("value"));
+        assertEquals(0, _map._numLoads.get());
+        assertEquals(1, _nodeA.getNearCacheHits());
+    }
+
+    @Test
+    public void testTrustIgnoredWhenVersioned() throws Exception
+    {
+        start(true, TimeUnit.HOURS.toMillis(1));
+
+        store(_nodeA, "1234", "a");
+        store(_nodeB, "1234", "b");
+
+        //the version is still checked within the trust time
+        _map._numVersionChecks.set(0);
+        assertEquals("b", _nodeA.load("1234").getAttribute("value"));
+        assertEquals(1, _map._numVersionChecks.get());
+        assertEquals(0, _nodeA.getNearCacheHits());
+        assertEquals(1, _nodeA.getNearCacheStale());
+
+        //and a session deleted on another node is not revived
+        _nodeB.delete("1234");
+        assertNull(_nodeA.load("1234"));
+    }
+
+    @Test
+    public void testUnversioned() throws Exception
+    {
+        start(false, 0);
+
+        store(_nodeA, "1234", "a");
+        _map._numLoads.set(0);
+
+        //without versions or trust the near-cache cannot be used
+        assertEquals("a", _nodeA.load("1234").getAttribute("value"));
+        assertEquals(1, _map._numLoads.get());
+        assertEquals(1, _nodeA.getNearCacheStale());
+    }
+
+    @Test
+    public void testUnversionedDefaultTrust() throws Exception
+    {
+        _map = new TestSessionDataMap(false);
+        TestSessionDataStore store = new TestSessionDataStore();
+        store._map = _store._map;
+        _nodeA = new CachingSessionDataStore(_map, store);
+        _nodeA.setNearCacheMaxEntries(10);
+        _nodeA.initialize(new SessionContext("nodeA", null));
+        _nodeA.start();
+        assertEquals(CachingSessionDataStore.DEFAULT_NEAR_CACHE_TRUST_MS, _nodeA.getNearCacheTrustMs());
+
+        store(_nodeA, "1234", "a");
+        _map._numLoads.set(0);
+
+        //recently stored, so trusted without a version
+        assertEquals("a", _nodeA.load("1234").getAttribute("value"));
+        assertEquals(0, _map._numLoads.get());
+        assertEquals(1, _nodeA.getNearCacheHits());
+    }
+
+    @Test
+    public void testDelete() throws Exception
+    {
+        start(true, TimeUnit.HOURS.toMillis(1));
+
+        store(_nodeA, "1234", "a");
+        assertEquals(1, _nodeA.getNearCacheSize());
+        _nodeA.delete("1234");
+        assertEquals(0, _nodeA.getNearCacheSize());
+        assertNull(_nodeA.load("1234"));
+
+        //deleted on another node: the version check finds no session
+        store(_nodeA, "5678", "a");
+        assertNotNull(_nodeA.load("5678"));
+        _nodeB.delete("5678");
+        assertNull(_nodeA.load("5678"));
+    }
+}
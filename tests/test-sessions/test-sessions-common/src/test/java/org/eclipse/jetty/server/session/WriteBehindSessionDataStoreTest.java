@@ -0,0 +1,396 @@
+//
+// ========================================================================
+// Copyright (c) 1995-2020 Mort Bay Consulting Pty Ltd and others.
+//
+// This program and the accompanying materials are made available under
+// the terms of the Eclipse Public License 2.0 which is available at
+// https://www.eclipse.org/legal/epl-2.0
+//
+// This Source Code may also be made available under the following
+// Secondary Licenses when the conditions for such availability set
+// forth in the Eclipse Public License, v. 2.0 are satisfied:
+// the Apache License v2.0 which is available at
+// https://www.apache.org/licenses/LICENSE-2.0
+//
+// SPDX-License-Identifier: EPL-2.0 OR Apache-2.0
+// ========================================================================
+//
+
+package org.eclipse.jetty.server.session;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * WriteBehindSessionDataStoreTest
+ */
+public class WriteBehindSessionDataStoreTest
+{
+    private ServletContextHandler _context;
+
+    @AfterEach
+    public void after() throws Exception
+    {
+        if (_context != null)
+            _context.stop();
+    }
+
+    private WriteBehindSessionDataStore start(SessionDataStore delegate, long flushIntervalMs) throws Exception
+    {
+        Server server = new Server();
+        _context = new ServletContextHandler(ServletContextHandler.SESSIONS);
+        _context.setContextPath("/test");
+        _context.setServer(server);
+
+        SessionCache cache = new NullSessionCacheFactory().getSessionCache(_context.getSessionHandler());
+        WriteBehindSessionDataStore store = new WriteBehindSessionDataStore(delegate);
+        store.setFlushIntervalMs(flushIntervalMs);
+        cache.setSessionDataStore(store);
+        _context.getSessionHandler().setSessionCache(cache);
+        _context.start();
+        return store;
+    }
+
+    private SessionData newSessionData(SessionDataStore store, String id)
+    {
+        long now = System.currentTimeMillis();
+        SessionData data = store.newSessionData(id, now, now, now, TimeUnit.MINUTES.toMillis(10));
+        data.calcAndSetExpiry(now);
+        return data;
+    }
+
+    @Test
+    public void testStoresCoalesced() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        SessionData data = newSessionData(store, "1234");
+        for (int i = 0; i < 3; i++)
+        {
+            data.setAttribute("count", i);
+            store.store("1234", data);
+            assertFalse(data.isDirty());
+        }
+
+        //nothing written yet, but the queued session is visible
+        assertEquals(0, delegate._numSaves.get());
+        assertEquals(1, store.getPendingSessions());
+        assertEquals(2, store.getStoresCoalesced());
+        assertTrue(store.exists("1234"));
+        assertFalse(delegate.exists("1234"));
+        SessionData loaded = store.load("1234");
+        assertNotNull(loaded);
+        assertEquals(2, loaded.getAttribute("count"));
+
+        store.flush();
+        assertEquals(1, delegate._numSaves.get());
+        assertEquals(0, store.getPendingSessions());
+        assertEquals(1, store.getSessionsWritten());
+        assertEquals(2, delegate.load("1234").getAttribute("count"));
+    }
+
+    @Test
+    public void testBatchFlush() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        for (int i = 0; i < 5; i++)
+        {
+            SessionData data = newSessionData(store, String.valueOf(i));
+            data.setAttribute("a", i);
+            store.store(data.getId(), data);
+        }
+        assertEquals(5, store.getPendingSessions());
+
+        store.flush();
+        assertEquals(0, store.getPendingSessions());
+        assertEquals(5, store.getSessionsWritten());
+        assertEquals(5, delegate._numSaves.get());
+        assertEquals(3, delegate.load("3").getAttribute("a"));
+    }
+
+    @Test
+    public void testUnchangedSessionNotQueued() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        SessionData data = newSessionData(store, "1234");
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+        store.store("1234", data);
+        assertEquals(1, store.getStoresQueued());
+    }
+
+    @Test
+    public void testPeriodicFlush() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, 10);
+
+        SessionData data = newSessionData(store, "1234");
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!delegate.exists("1234") && System.nanoTime() < end)
+        {
+            Thread.sleep(10);
+        }
+        assertTrue(delegate.exists("1234"));
+        assertEquals("b", delegate.load("1234").getAttribute("a"));
+    }
+
+    @Test
+    public void testFlushOnStop() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        SessionData data = newSessionData(store, "1234");
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+        assertEquals(0, delegate._numSaves.get());
+
+        _context.stop();
+        assertEquals(1, delegate._numSaves.get());
+        assertTrue(delegate._map.containsKey("1234"));
+    }
+
+    @Test
+    public void testDeleteDiscardsQueuedStore() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        SessionData data = newSessionData(store, "1234");
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+        assertTrue(store.delete("1234"));
+        store.flush();
+
+        assertEquals(0, delegate._numSaves.get());
+        assertFalse(store.exists("1234"));
+        assertNull(store.load("1234"));
+    }
+
+    @Test
+    public void testFullQueueStoresSynchronously() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+        store.setMaxPendingSessions(1);
+
+        SessionData data1 = newSessionData(store, "1");
+        data1.setAttribute("a", "b");
+        store.store("1", data1);
+        SessionData data2 = newSessionData(store, "2");
+        data2.setAttribute("a", "b");
+        store.store("2", data2);
+
+        assertEquals(1, store.getPendingSessions());
+        assertEquals(1, store.getSessionsWrittenSynchronously());
+        assertTrue(delegate.exists("2"));
+        assertFalse(delegate.exists("1"));
+    }
+
+    @Test
+    public void testFailedWriteRetried() throws Exception
+    {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        TestSessionDataStore delegate = new TestSessionDataStore()
+        {
+            @Override
+            public void doStore(String id, SessionData data, long lastSaveTime) throws Exception
+            {
+                if (fail.getAndSet(false))
+                    throw new IllegalStateException("Test failure");
+                super.doStore(id, data, lastSaveTime);
+            }
+        };
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        SessionData data = newSessionData(store, "1234");
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+
+        store.flush();
+        assertEquals(1, store.getWriteFailures());
+        assertEquals(1, store.getPendingSessions());
+
+        store.flush();
+        assertEquals(0, store.getPendingSessions());
+        assertEquals(1, store.getSessionsWritten());
+        assertTrue(delegate.exists("1234"));
+    }
+
+    @Test
+    public void testSnapshotIsDeepCopy() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        SessionData data = newSessionData(store, "1234");
+        ArrayList<String> cart = new ArrayList<>();
+        cart.add("a");
+        data.setAttribute("cart", cart);
+        store.store("1234", data);
+
+        //mutated in place after the store, while the write is queued
+        cart.add("b");
+        store.flush();
+        assertEquals(Collections.singletonList("a"), delegate.load("1234").getAttribute("cart"));
+    }
+
+    @Test
+    public void testLoadOfQueuedSessionIsDeepCopy() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        SessionData data = newSessionData(store, "1234");
+        ArrayList<String> cart = new ArrayList<>();
+        cart.add("a");
+        data.setAttribute("cart", cart);
+        store.store("1234", data);
+
+        //a loaded copy mutated in place while the write is queued
+        @SuppressWarnings("unchecked")
+        List<String> loaded = (List<String>)store.load("1234").getAttribute("cart");
+        loaded.add("b");
+        assertEquals(Collections.singletonList("a"), store.load("1234").getAttribute("cart"));
+        store.flush();
+        assertEquals(Collections.singletonList("a"), delegate.load("1234").getAttribute("cart"));
+    }
+
+    @Test
+    public void testSnapshotUsesSerializer() throws Exception
+    {
+        AtomicInteger serialized = new AtomicInteger();
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        delegate.setSessionDataSerializer(new JavaSessionDataSerializer()
+        {
+            @Override
+            public void serializeAttributes(SessionData data, OutputStream out) throws IOException
+            {
+                serialized.incrementAndGet();
+                super.serializeAttributes(data, out);
+            }
+        });
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        SessionData data = newSessionData(store, "1234");
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+        assertEquals(1, serialized.get());
+        assertEquals("b", store.load("1234").getAttribute("a"));
+        assertEquals(2, serialized.get());
+    }
+
+    @Test
+    public void testDroppedWriteNotSaved() throws Exception
+    {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        List<Long> lastSaveTimes = new CopyOnWriteArrayList<>();
+        TestSessionDataStore delegate = new TestSessionDataStore()
+        {
+            @Override
+            public void doStore(String id, SessionData data, long lastSaveTime) throws Exception
+            {
+                lastSaveTimes.add(lastSaveTime);
+                if (fail.get())
+                    throw new IllegalStateException("Test failure");
+                super.doStore(id, data, lastSaveTime);
+            }
+        };
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+        store.setMaxRetries(1);
+
+        SessionData data = newSessionData(store, "1234");
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+        assertEquals(0, data.getLastSaved());
+
+        store.flush();
+        assertEquals(1, store.getSessionsDropped());
+        assertEquals(0, data.getLastSaved());
+
+        //the next write is still an insert
+        fail.set(false);
+        data.setAttribute("a", "c");
+        store.store("1234", data);
+        store.flush();
+        assertEquals(List.of(0L, 0L), lastSaveTimes);
+        assertTrue(data.getLastSaved() > 0);
+        assertEquals("c", delegate.load("1234").getAttribute("a"));
+    }
+
+    @Test
+    public void testDeleteDuringWrite() throws Exception
+    {
+        AtomicReference<WriteBehindSessionDataStore> reference = new AtomicReference<>();
+        TestSessionDataStore delegate = new TestSessionDataStore()
+        {
+            @Override
+            public void doStore(String id, SessionData data, long lastSaveTime) throws Exception
+            {
+                //the session is deleted while its snapshot is being written
+                reference.get().delete(id);
+                super.doStore(id, data, lastSaveTime);
+            }
+        };
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+        reference.set(store);
+
+        SessionData data = newSessionData(store, "1234");
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+        store.flush();
+
+        assertFalse(delegate.exists("1234"));
+        assertFalse(store.exists("1234"));
+        assertEquals(0, store.getPendingSessions());
+    }
+
+    @Test
+    public void testExpiredUsesQueuedExpiry() throws Exception
+    {
+        TestSessionDataStore delegate = new TestSessionDataStore();
+        WriteBehindSessionDataStore store = start(delegate, TimeUnit.HOURS.toMillis(1));
+
+        //written to the delegate with an expiry in the past
+        SessionData data = newSessionData(store, "1234");
+        data.setExpiry(System.currentTimeMillis() - 1000);
+        data.setAttribute("a", "b");
+        store.store("1234", data);
+        store.flush();
+        assertTrue(store.getExpired(Collections.singleton("1234")).contains("1234"));
+
+        //then refreshed in the queue only
+        data.calcAndSetExpiry(System.currentTimeMillis());
+        data.setAttribute("a", "c");
+        store.store("1234", data);
+        assertFalse(store.getExpired(Collections.singleton("1234")).contains("1234"));
+    }
+}